@@ -0,0 +1,819 @@
+/*
+ * Copyright (c) 2001-2008 Caucho Technology, Inc.  All rights reserved.
+ *
+ * The Apache Software License, Version 1.1
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ *
+ * 3. The end-user documentation included with the redistribution, if
+ *    any, must include the following acknowlegement:
+ *       "This product includes software developed by the
+ *        Caucho Technology (http://www.caucho.com/)."
+ *    Alternately, this acknowlegement may appear in the software itself,
+ *    if and wherever such third-party acknowlegements normally appear.
+ *
+ * 4. The names "Burlap", "Resin", and "Caucho" must not be used to
+ *    endorse or promote products derived from this software without prior
+ *    written permission. For written permission, please contact
+ *    info@caucho.com.
+ *
+ * 5. Products derived from this software may not be called "Resin"
+ *    nor may "Resin" appear in their names without prior written
+ *    permission of Caucho Technology.
+ *
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED.  IN NO EVENT SHALL CAUCHO TECHNOLOGY OR ITS CONTRIBUTORS
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY,
+ * OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT
+ * OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN
+ * IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * @author Scott Ferguson
+ */
+
+package com.caucho.hessian.io;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.ref.SoftReference;
+import java.lang.reflect.Field;
+import java.util.HashMap;
+import java.util.WeakHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import sun.misc.Unsafe;
+
+import com.caucho.hessian.io.UnsafeDeserializer.FieldDeserializer;
+import com.caucho.hessian.io.UnsafeSerializer.FieldSerializer;
+
+/**
+ * Generates a serializer and deserializer class for each serialized
+ * class.  The generated code reads and writes the fields in a straight
+ * line with constant Unsafe offsets and the primitive encodings inlined,
+ * instead of dispatching to a field serializer per field.
+ *
+ * The generated classes only refer to Hessian and JDK classes, so each
+ * one is defined in its own small class loader under the Hessian loader
+ * and can be collected with its serializer.
+ */
+final class FieldSerializerGenerator
+{
+  private static final Logger log
+    = Logger.getLogger(FieldSerializerGenerator.class.getName());
+
+  private static final boolean _isEnabled;
+  private static final Unsafe _unsafe;
+
+  private static final WeakHashMap<Class<?>,SoftReference<GeneratedFieldDeserializer>> _deserializerMap
+    = new WeakHashMap<Class<?>,SoftReference<GeneratedFieldDeserializer>>();
+
+  private static final String OBJECT = "java/lang/Object";
+  private static final String STRING = "java/lang/String";
+  private static final String UNSAFE = "sun/misc/Unsafe";
+  private static final String OUTPUT
+    = "com/caucho/hessian/io/AbstractHessianOutput";
+  private static final String INPUT
+    = "com/caucho/hessian/io/AbstractHessianInput";
+  private static final String SERIALIZER
+    = "com/caucho/hessian/io/GeneratedFieldSerializer";
+  private static final String DESERIALIZER
+    = "com/caucho/hessian/io/GeneratedFieldDeserializer";
+
+  private static final int ACC_PUBLIC = 0x0001;
+  private static final int ACC_FINAL = 0x0010;
+  private static final int ACC_SUPER = 0x0020;
+
+  private static final int ICONST_0 = 0x03;
+  private static final int BIPUSH = 0x10;
+  private static final int SIPUSH = 0x11;
+  private static final int LDC2_W = 0x14;
+  private static final int ALOAD_0 = 0x2a;
+  private static final int ALOAD_1 = 0x2b;
+  private static final int ALOAD_2 = 0x2c;
+  private static final int AALOAD = 0x32;
+  private static final int F2D = 0x8d;
+  private static final int D2F = 0x90;
+  private static final int I2B = 0x91;
+  private static final int I2S = 0x93;
+  private static final int RETURN = 0xb1;
+  private static final int GETSTATIC = 0xb2;
+  private static final int GETFIELD = 0xb4;
+  private static final int INVOKEVIRTUAL = 0xb6;
+  private static final int INVOKESPECIAL = 0xb7;
+  private static final int CHECKCAST = 0xc0;
+
+  private FieldSerializerGenerator()
+  {
+  }
+
+  /**
+   * True if generated serializers are enabled.  They can be disabled with
+   * -Dcom.caucho.hessian.generate=false
+   */
+  static boolean isEnabled()
+  {
+    return _isEnabled;
+  }
+
+  /**
+   * Generates the serializer for the fields of a class, returning null if
+   * the class can't be generated.
+   *
+   * @param cl the serialized class
+   * @param fields the fields in the serializer's order
+   * @param fieldSerializers the matching UnsafeSerializer field serializers
+   */
+  static GeneratedFieldSerializer
+    createSerializer(Class<?> cl,
+                     Field []fields,
+                     FieldSerializer []fieldSerializers)
+  {
+    if (! _isEnabled)
+      return null;
+
+    try {
+      String name = getGeneratedName(cl, "HessianSerializer");
+
+      byte []code = generateSerializer(name, fields);
+
+      Class<?> genClass = new GeneratedClassLoader().define(name, code);
+
+      GeneratedFieldSerializer ser
+        = (GeneratedFieldSerializer)
+          genClass.getDeclaredConstructor().newInstance();
+
+      ser.init(fieldSerializers);
+
+      return ser;
+    } catch (Throwable e) {
+      log.log(Level.FINER, cl.getName() + ": " + e, e);
+
+      return null;
+    }
+  }
+
+  /**
+   * Returns the generated deserializer for the fields of a class,
+   * returning null if the class can't be generated.
+   *
+   * @param cl the deserialized class
+   * @param fields the fields in the serializer's order
+   * @param fieldDeserializers the matching UnsafeDeserializer field readers
+   */
+  static GeneratedFieldDeserializer
+    createDeserializer(Class<?> cl,
+                       Field []fields,
+                       FieldDeserializer []fieldDeserializers)
+  {
+    if (! _isEnabled)
+      return null;
+
+    synchronized (_deserializerMap) {
+      SoftReference<GeneratedFieldDeserializer> ref
+        = _deserializerMap.get(cl);
+
+      GeneratedFieldDeserializer deser = ref != null ? ref.get() : null;
+
+      if (deser != null)
+        return deser;
+    }
+
+    try {
+      String name = getGeneratedName(cl, "HessianDeserializer");
+
+      byte []code = generateDeserializer(name, fields);
+
+      Class<?> genClass = new GeneratedClassLoader().define(name, code);
+
+      GeneratedFieldDeserializer deser
+        = (GeneratedFieldDeserializer)
+          genClass.getDeclaredConstructor().newInstance();
+
+      Class<?> []types = new Class<?>[fields.length];
+
+      for (int i = 0; i < fields.length; i++) {
+        types[i] = fields[i].getType();
+      }
+
+      deser.init(types, fieldDeserializers);
+
+      synchronized (_deserializerMap) {
+        _deserializerMap.put(cl,
+                             new SoftReference<GeneratedFieldDeserializer>(deser));
+      }
+
+      return deser;
+    } catch (Throwable e) {
+      log.log(Level.FINER, cl.getName() + ": " + e, e);
+
+      return null;
+    }
+  }
+
+  private static String getGeneratedName(Class<?> cl, String suffix)
+  {
+    StringBuilder sb = new StringBuilder();
+
+    sb.append("com.caucho.hessian.io.gen.");
+
+    String name = cl.getName();
+
+    for (int i = 0; i < name.length(); i++) {
+      char ch = name.charAt(i);
+
+      if (Character.isJavaIdentifierPart(ch))
+        sb.append(ch);
+      else
+        sb.append('_');
+    }
+
+    sb.append("__").append(suffix);
+
+    return sb.toString();
+  }
+
+  /**
+   * Generates writeFields(Object obj, AbstractHessianOutput out).
+   */
+  private static byte []generateSerializer(String name, Field []fields)
+    throws IOException
+  {
+    ClassBuilder builder = new ClassBuilder(name, SERIALIZER);
+
+    CodeBuilder code = new CodeBuilder(builder);
+
+    for (int i = 0; i < fields.length; i++) {
+      Field field = fields[i];
+      Class<?> type = field.getType();
+
+      String getter;
+      String getterType;
+      String writer;
+      String writerType;
+      int conversion = 0;
+
+      if (boolean.class.equals(type)) {
+        getter = "getBoolean";
+        getterType = "Z";
+        writer = "writeBoolean";
+        writerType = "Z";
+      }
+      else if (byte.class.equals(type)) {
+        getter = "getByte";
+        getterType = "B";
+        writer = "writeInt";
+        writerType = "I";
+      }
+      else if (short.class.equals(type)) {
+        getter = "getShort";
+        getterType = "S";
+        writer = "writeInt";
+        writerType = "I";
+      }
+      else if (int.class.equals(type)) {
+        getter = "getInt";
+        getterType = "I";
+        writer = "writeInt";
+        writerType = "I";
+      }
+      else if (long.class.equals(type)) {
+        getter = "getLong";
+        getterType = "J";
+        writer = "writeLong";
+        writerType = "J";
+      }
+      else if (float.class.equals(type)) {
+        getter = "getFloat";
+        getterType = "F";
+        writer = "writeDouble";
+        writerType = "D";
+        conversion = F2D;
+      }
+      else if (double.class.equals(type)) {
+        getter = "getDouble";
+        getterType = "D";
+        writer = "writeDouble";
+        writerType = "D";
+      }
+      else if (String.class.equals(type)) {
+        getter = "getObject";
+        getterType = "L" + OBJECT + ";";
+        writer = "writeString";
+        writerType = "L" + STRING + ";";
+        conversion = CHECKCAST;
+      }
+      else if (char.class.equals(type)
+               || java.util.Date.class.equals(type)
+               || java.sql.Date.class.equals(type)
+               || java.sql.Timestamp.class.equals(type)
+               || java.sql.Time.class.equals(type)) {
+        // this.writeField(i, obj, out)
+        code.op(ALOAD_0);
+        code.pushInt(i);
+        code.op(ALOAD_1);
+        code.op(ALOAD_2);
+        code.invoke(INVOKEVIRTUAL, SERIALIZER, "writeField",
+                    "(IL" + OBJECT + ";L" + OUTPUT + ";)V");
+        continue;
+      }
+      else {
+        getter = "getObject";
+        getterType = "L" + OBJECT + ";";
+        writer = "writeObject";
+        writerType = "L" + OBJECT + ";";
+      }
+
+      // out.writeXXX(_unsafe.getXXX(obj, offset))
+      code.op(ALOAD_2);
+      code.getStatic(SERIALIZER, "_unsafe", "L" + UNSAFE + ";");
+      code.op(ALOAD_1);
+      code.pushLong(getOffset(field));
+      code.invoke(INVOKEVIRTUAL, UNSAFE, getter,
+                  "(L" + OBJECT + ";J)" + getterType);
+
+      if (conversion == CHECKCAST)
+        code.checkcast(STRING);
+      else if (conversion != 0)
+        code.op(conversion);
+
+      code.invoke(INVOKEVIRTUAL, OUTPUT, writer, "(" + writerType + ")V");
+    }
+
+    code.op(RETURN);
+
+    builder.addMethod("writeFields",
+                      "(L" + OBJECT + ";L" + OUTPUT + ";)V",
+                      6, 3, code);
+
+    return builder.toByteArray();
+  }
+
+  /**
+   * Generates readFields(AbstractHessianInput in, Object obj).
+   */
+  private static byte []generateDeserializer(String name, Field []fields)
+    throws IOException
+  {
+    ClassBuilder builder = new ClassBuilder(name, DESERIALIZER);
+
+    CodeBuilder code = new CodeBuilder(builder);
+
+    for (int i = 0; i < fields.length; i++) {
+      Field field = fields[i];
+      Class<?> type = field.getType();
+
+      String reader;
+      String readerType;
+      String setter;
+      String setterType;
+      int conversion = 0;
+
+      if (boolean.class.equals(type)) {
+        reader = "readBoolean";
+        readerType = "Z";
+        setter = "putBoolean";
+        setterType = "Z";
+      }
+      else if (byte.class.equals(type)) {
+        reader = "readInt";
+        readerType = "I";
+        setter = "putByte";
+        setterType = "B";
+        conversion = I2B;
+      }
+      else if (short.class.equals(type)) {
+        reader = "readInt";
+        readerType = "I";
+        setter = "putShort";
+        setterType = "S";
+        conversion = I2S;
+      }
+      else if (int.class.equals(type)) {
+        reader = "readInt";
+        readerType = "I";
+        setter = "putInt";
+        setterType = "I";
+      }
+      else if (long.class.equals(type)) {
+        reader = "readLong";
+        readerType = "J";
+        setter = "putLong";
+        setterType = "J";
+      }
+      else if (float.class.equals(type)) {
+        reader = "readDouble";
+        readerType = "D";
+        setter = "putFloat";
+        setterType = "F";
+        conversion = D2F;
+      }
+      else if (double.class.equals(type)) {
+        reader = "readDouble";
+        readerType = "D";
+        setter = "putDouble";
+        setterType = "D";
+      }
+      else if (String.class.equals(type)) {
+        reader = "readString";
+        readerType = "L" + STRING + ";";
+        setter = "putObject";
+        setterType = "L" + OBJECT + ";";
+      }
+      else if (char.class.equals(type)
+               || java.sql.Date.class.equals(type)
+               || java.sql.Timestamp.class.equals(type)
+               || java.sql.Time.class.equals(type)) {
+        // this.readField(i, in, obj)
+        code.op(ALOAD_0);
+        code.pushInt(i);
+        code.op(ALOAD_1);
+        code.op(ALOAD_2);
+        code.invoke(INVOKEVIRTUAL, DESERIALIZER, "readField",
+                    "(IL" + INPUT + ";L" + OBJECT + ";)V");
+        continue;
+      }
+      else {
+        reader = null;
+        readerType = "L" + OBJECT + ";";
+        setter = "putObject";
+        setterType = "L" + OBJECT + ";";
+      }
+
+      // _unsafe.putXXX(obj, offset, in.readXXX())
+      code.getStatic(DESERIALIZER, "_unsafe", "L" + UNSAFE + ";");
+      code.op(ALOAD_2);
+      code.pushLong(getOffset(field));
+      code.op(ALOAD_1);
+
+      if (reader != null) {
+        code.invoke(INVOKEVIRTUAL, INPUT, reader, "()" + readerType);
+      }
+      else {
+        // in.readObject(_types[i])
+        code.op(ALOAD_0);
+        code.getField(DESERIALIZER, "_types", "[Ljava/lang/Class;");
+        code.pushInt(i);
+        code.op(AALOAD);
+        code.invoke(INVOKEVIRTUAL, INPUT, "readObject",
+                    "(Ljava/lang/Class;)L" + OBJECT + ";");
+      }
+
+      if (conversion != 0)
+        code.op(conversion);
+
+      code.invoke(INVOKEVIRTUAL, UNSAFE, setter,
+                  "(L" + OBJECT + ";J" + setterType + ")V");
+    }
+
+    code.op(RETURN);
+
+    builder.addMethod("readFields",
+                      "(L" + INPUT + ";L" + OBJECT + ";)V",
+                      8, 3, code);
+
+    return builder.toByteArray();
+  }
+
+  private static long getOffset(Field field)
+  {
+    long offset = _unsafe.objectFieldOffset(field);
+
+    if (offset == Unsafe.INVALID_FIELD_OFFSET)
+      throw new IllegalStateException(field.toString());
+
+    return offset;
+  }
+
+  /**
+   * Minimal class file writer for the generated classes: a public final
+   * class with a default constructor and straight-line methods.
+   */
+  static final class ClassBuilder {
+    private static final int CONSTANT_UTF8 = 1;
+    private static final int CONSTANT_LONG = 5;
+    private static final int CONSTANT_CLASS = 7;
+    private static final int CONSTANT_FIELDREF = 9;
+    private static final int CONSTANT_METHODREF = 10;
+    private static final int CONSTANT_NAME_AND_TYPE = 12;
+
+    private final ByteArrayOutputStream _poolBytes
+      = new ByteArrayOutputStream();
+    private final DataOutputStream _pool = new DataOutputStream(_poolBytes);
+    private final HashMap<String,Integer> _poolMap
+      = new HashMap<String,Integer>();
+    private int _poolCount = 1;
+
+    private final ByteArrayOutputStream _methodBytes
+      = new ByteArrayOutputStream();
+    private final DataOutputStream _methods
+      = new DataOutputStream(_methodBytes);
+    private int _methodCount;
+
+    private final int _thisClass;
+    private final int _superClass;
+    private final int _codeName;
+
+    ClassBuilder(String name, String superName)
+      throws IOException
+    {
+      _thisClass = classRef(name.replace('.', '/'));
+      _superClass = classRef(superName);
+      _codeName = utf8("Code");
+
+      // public <init>() { super(); }
+      CodeBuilder init = new CodeBuilder(this);
+      init.op(ALOAD_0);
+      init.invoke(INVOKESPECIAL, superName, "<init>", "()V");
+      init.op(RETURN);
+
+      addMethod("<init>", "()V", 1, 1, init);
+    }
+
+    int utf8(String value)
+      throws IOException
+    {
+      String key = "U" + value;
+      Integer index = _poolMap.get(key);
+
+      if (index != null)
+        return index;
+
+      _pool.writeByte(CONSTANT_UTF8);
+      _pool.writeUTF(value);
+
+      return addEntry(key, 1);
+    }
+
+    int classRef(String name)
+      throws IOException
+    {
+      String key = "C" + name;
+      Integer index = _poolMap.get(key);
+
+      if (index != null)
+        return index;
+
+      int nameIndex = utf8(name);
+
+      _pool.writeByte(CONSTANT_CLASS);
+      _pool.writeShort(nameIndex);
+
+      return addEntry(key, 1);
+    }
+
+    int longConstant(long value)
+      throws IOException
+    {
+      String key = "J" + value;
+      Integer index = _poolMap.get(key);
+
+      if (index != null)
+        return index;
+
+      _pool.writeByte(CONSTANT_LONG);
+      _pool.writeLong(value);
+
+      // long constants take two pool entries
+      return addEntry(key, 2);
+    }
+
+    int fieldRef(String className, String name, String type)
+      throws IOException
+    {
+      return memberRef(CONSTANT_FIELDREF, className, name, type);
+    }
+
+    int methodRef(String className, String name, String type)
+      throws IOException
+    {
+      return memberRef(CONSTANT_METHODREF, className, name, type);
+    }
+
+    private int memberRef(int tag, String className, String name, String type)
+      throws IOException
+    {
+      String key = tag + className + "." + name + type;
+      Integer index = _poolMap.get(key);
+
+      if (index != null)
+        return index;
+
+      int classIndex = classRef(className);
+
+      String nameTypeKey = "N" + name + type;
+      Integer nameTypeIndex = _poolMap.get(nameTypeKey);
+
+      if (nameTypeIndex == null) {
+        int nameIndex = utf8(name);
+        int typeIndex = utf8(type);
+
+        _pool.writeByte(CONSTANT_NAME_AND_TYPE);
+        _pool.writeShort(nameIndex);
+        _pool.writeShort(typeIndex);
+
+        nameTypeIndex = addEntry(nameTypeKey, 1);
+      }
+
+      _pool.writeByte(tag);
+      _pool.writeShort(classIndex);
+      _pool.writeShort(nameTypeIndex);
+
+      return addEntry(key, 1);
+    }
+
+    private int addEntry(String key, int size)
+    {
+      int index = _poolCount;
+
+      _poolCount += size;
+
+      if (_poolCount > 0xffff)
+        throw new IllegalStateException("constant pool overflow");
+
+      _poolMap.put(key, index);
+
+      return index;
+    }
+
+    void addMethod(String name, String type,
+                   int maxStack, int maxLocals,
+                   CodeBuilder code)
+      throws IOException
+    {
+      byte []bytes = code.toByteArray();
+
+      if (bytes.length > 0xffff)
+        throw new IllegalStateException("method too large");
+
+      _methods.writeShort(ACC_PUBLIC);
+      _methods.writeShort(utf8(name));
+      _methods.writeShort(utf8(type));
+
+      _methods.writeShort(1);
+      _methods.writeShort(_codeName);
+      _methods.writeInt(2 + 2 + 4 + bytes.length + 2 + 2);
+      _methods.writeShort(maxStack);
+      _methods.writeShort(maxLocals);
+      _methods.writeInt(bytes.length);
+      _methods.write(bytes);
+      _methods.writeShort(0); // exception table
+      _methods.writeShort(0); // attributes
+
+      _methodCount++;
+    }
+
+    byte []toByteArray()
+      throws IOException
+    {
+      ByteArrayOutputStream bos = new ByteArrayOutputStream();
+      DataOutputStream out = new DataOutputStream(bos);
+
+      out.writeInt(0xcafebabe);
+      out.writeShort(0);
+      // 49 (JDK 1.5) is verified without stack map frames
+      out.writeShort(49);
+
+      out.writeShort(_poolCount);
+      _pool.flush();
+      _poolBytes.writeTo(out);
+
+      out.writeShort(ACC_PUBLIC | ACC_FINAL | ACC_SUPER);
+      out.writeShort(_thisClass);
+      out.writeShort(_superClass);
+      out.writeShort(0); // interfaces
+      out.writeShort(0); // fields
+
+      out.writeShort(_methodCount);
+      _methods.flush();
+      _methodBytes.writeTo(out);
+
+      out.writeShort(0); // attributes
+
+      out.flush();
+
+      return bos.toByteArray();
+    }
+  }
+
+  /**
+   * Bytecode for a single straight-line method.
+   */
+  static final class CodeBuilder {
+    private final ClassBuilder _builder;
+    private final ByteArrayOutputStream _bytes = new ByteArrayOutputStream();
+
+    CodeBuilder(ClassBuilder builder)
+    {
+      _builder = builder;
+    }
+
+    void op(int op)
+    {
+      _bytes.write(op);
+    }
+
+    void pushInt(int value)
+    {
+      if (0 <= value && value <= 5) {
+        op(ICONST_0 + value);
+      }
+      else if (value <= Byte.MAX_VALUE) {
+        op(BIPUSH);
+        op(value);
+      }
+      else {
+        op(SIPUSH);
+        writeShort(value);
+      }
+    }
+
+    void pushLong(long value)
+      throws IOException
+    {
+      op(LDC2_W);
+      writeShort(_builder.longConstant(value));
+    }
+
+    void getStatic(String className, String name, String type)
+      throws IOException
+    {
+      op(GETSTATIC);
+      writeShort(_builder.fieldRef(className, name, type));
+    }
+
+    void getField(String className, String name, String type)
+      throws IOException
+    {
+      op(GETFIELD);
+      writeShort(_builder.fieldRef(className, name, type));
+    }
+
+    void invoke(int op, String className, String name, String type)
+      throws IOException
+    {
+      op(op);
+      writeShort(_builder.methodRef(className, name, type));
+    }
+
+    void checkcast(String className)
+      throws IOException
+    {
+      op(CHECKCAST);
+      writeShort(_builder.classRef(className));
+    }
+
+    private void writeShort(int value)
+    {
+      _bytes.write(value >> 8);
+      _bytes.write(value);
+    }
+
+    byte []toByteArray()
+    {
+      return _bytes.toByteArray();
+    }
+  }
+
+  /**
+   * Loader for a single generated class.
+   */
+  static final class GeneratedClassLoader extends ClassLoader {
+    GeneratedClassLoader()
+    {
+      super(GeneratedFieldSerializer.class.getClassLoader());
+    }
+
+    Class<?> define(String name, byte []code)
+    {
+      return defineClass(name, code, 0, code.length);
+    }
+  }
+
+  static {
+    Unsafe unsafe = UnsafeSerializer.getUnsafe();
+    boolean isEnabled = unsafe != null && UnsafeSerializer.isEnabled();
+
+    if ("false".equals(System.getProperty("com.caucho.hessian.generate")))
+      isEnabled = false;
+
+    _unsafe = unsafe;
+    _isEnabled = isEnabled;
+  }
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright (c) 2001-2008 Caucho Technology, Inc.  All rights reserved.
+ *
+ * The Apache Software License, Version 1.1
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ *
+ * 3. The end-user documentation included with the redistribution, if
+ *    any, must include the following acknowlegement:
+ *       "This product includes software developed by the
+ *        Caucho Technology (http://www.caucho.com/)."
+ *    Alternately, this acknowlegement may appear in the software itself,
+ *    if and wherever such third-party acknowlegements normally appear.
+ *
+ * 4. The names "Burlap", "Resin", and "Caucho" must not be used to
+ *    endorse or promote products derived from this software without prior
+ *    written permission. For written permission, please contact
+ *    info@caucho.com.
+ *
+ * 5. Products derived from this software may not be called "Resin"
+ *    nor may "Resin" appear in their names without prior written
+ *    permission of Caucho Technology.
+ *
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED.  IN NO EVENT SHALL CAUCHO TECHNOLOGY OR ITS CONTRIBUTORS
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY,
+ * OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT
+ * OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR
+ * BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN
+ * IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * @author Scott Ferguson
+ */
+
+package com.caucho.hessian.io;
+
+import java.io.IOException;
+
+import sun.misc.Unsafe;
+
+import com.caucho.hessian.io.UnsafeDeserializer.FieldDeserializer;
+
+/**
+ * Base class for the deserializers generated by FieldSerializerGenerator.
+ * The generated readFields reads each field in the serializer's order
+ * with its primitive decoding inlined, and calls back to readField for
+ * the rarer field types.
+ */
+abstract public class GeneratedFieldDeserializer
+{
+  protected static final Unsafe _unsafe = UnsafeSerializer.getUnsafe();
+
+  // declared field types for readObject(Class)
+  protected Class<?> []_types;
+
+  private FieldDeserializer []_fieldDeserializers;
+
+  void init(Class<?> []types, FieldDeserializer []fieldDeserializers)
+  {
+    _types = types;
+    _fieldDeserializers = fieldDeserializers;
+  }
+
+  /**
+   * Reads the object's fields in the serializer's field order.
+   */
+  abstract public void readFields(AbstractHessianInput in, Object obj)
+    throws IOException;
+
+  /**
+   * Reads a field using its UnsafeDeserializer field deserializer.
+   */
+  protected final void readField(int index,
+                                 AbstractHessianInput in,
+                                 Object obj)
+    throws IOException
+  {
+    _fieldDeserializers[index].deserialize(in, obj);
+  }
+}
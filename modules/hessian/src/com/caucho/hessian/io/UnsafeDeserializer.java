@@ -78,6 +78,13 @@ public class UnsafeDeserializer extends AbstractMapDeserializer {
   private HashMap<String,FieldDeserializer> _fieldMap;
   private Method _readResolve;
 
+  // field readers in the UnsafeSerializer's order
+  private FieldDeserializer []_orderedFields;
+  // straight-line reader generated for the ordered fields, if available
+  private GeneratedFieldDeserializer _generatedDeserializer;
+  // last stream definition which matched the ordered fields
+  private Object []_lastOrderedFields;
+
   public UnsafeDeserializer(Class<?> cl)
   {
     _type = cl;
@@ -88,6 +95,43 @@ public class UnsafeDeserializer extends AbstractMapDeserializer {
     if (_readResolve != null) {
       _readResolve.setAccessible(true);
     }
+
+    // subclasses may customize the field readers
+    if (FieldSerializerGenerator.isEnabled()
+        && getClass() == UnsafeDeserializer.class) {
+      introspectGenerated(cl);
+    }
+  }
+
+  /**
+   * Generates a reader for the common case where the stream's class
+   * definition has the same fields in the same order as this class.
+   */
+  private void introspectGenerated(Class<?> cl)
+  {
+    Field []fields = UnsafeSerializer.introspectFields(cl);
+    FieldDeserializer []orderedFields = new FieldDeserializer[fields.length];
+
+    for (int i = 0; i < fields.length; i++) {
+      FieldDeserializer deser = _fieldMap.get(fields[i].getName());
+
+      // shadowed fields share a name, so the order can't be matched
+      for (int j = 0; j < i; j++) {
+        if (orderedFields[j] == deser)
+          return;
+      }
+
+      if (deser == null)
+        return;
+
+      orderedFields[i] = deser;
+    }
+
+    _generatedDeserializer
+      = FieldSerializerGenerator.createDeserializer(cl, fields, orderedFields);
+
+    if (_generatedDeserializer != null)
+      _orderedFields = orderedFields;
   }
   
   public static boolean isEnabled()
@@ -235,8 +279,13 @@ public class UnsafeDeserializer extends AbstractMapDeserializer {
     try {
       int ref = in.addRef(obj);
 
-      for (FieldDeserializer reader : fields) {
-        reader.deserialize(in, obj);
+      if (isOrdered(fields)) {
+        _generatedDeserializer.readFields(in, obj);
+      }
+      else {
+        for (FieldDeserializer reader : fields) {
+          reader.deserialize(in, obj);
+        }
       }
 
       Object resolve = resolve(in, obj);
@@ -282,6 +331,30 @@ public class UnsafeDeserializer extends AbstractMapDeserializer {
     }
   }
 
+  /**
+   * True if the stream's fields match the generated reader's order.
+   */
+  private boolean isOrdered(Object []fields)
+  {
+    FieldDeserializer []orderedFields = _orderedFields;
+
+    if (orderedFields == null)
+      return false;
+    else if (fields == _lastOrderedFields)
+      return true;
+    else if (fields.length != orderedFields.length)
+      return false;
+
+    for (int i = 0; i < fields.length; i++) {
+      if (fields[i] != orderedFields[i])
+        return false;
+    }
+
+    _lastOrderedFields = fields;
+
+    return true;
+  }
+
   protected Object resolve(AbstractHessianInput in, Object obj)
     throws Exception
   {
@@ -77,12 +77,19 @@ public class UnsafeSerializer extends AbstractSerializer
 
   private Field []_fields;
   private FieldSerializer []_fieldSerializers;
+  // straight-line writer generated for the fields, if available
+  private GeneratedFieldSerializer _generatedSerializer;
   
   public static boolean isEnabled()
   {
     return _isEnabled;
   }
 
+  static Unsafe getUnsafe()
+  {
+    return _unsafe;
+  }
+
   public UnsafeSerializer(Class<?> cl)
   {
     introspect(cl);
@@ -111,6 +118,25 @@ public class UnsafeSerializer extends AbstractSerializer
   }
 
   protected void introspect(Class<?> cl)
+  {
+    _fields = introspectFields(cl);
+
+    _fieldSerializers = new FieldSerializer[_fields.length];
+
+    for (int i = 0; i < _fields.length; i++) {
+      _fieldSerializers[i] = getFieldSerializer(_fields[i]);
+    }
+
+    _generatedSerializer
+      = FieldSerializerGenerator.createSerializer(cl, _fields,
+                                                  _fieldSerializers);
+  }
+
+  /**
+   * Returns the serialized fields in the order they're written, primitive
+   * fields first.
+   */
+  static Field []introspectFields(Class<?> cl)
   {
     ArrayList<Field> primitiveFields = new ArrayList<Field>();
     ArrayList<Field> compoundFields = new ArrayList<Field>();
@@ -144,14 +170,7 @@ public class UnsafeSerializer extends AbstractSerializer
     fields.addAll(primitiveFields);
     fields.addAll(compoundFields);
 
-    _fields = new Field[fields.size()];
-    fields.toArray(_fields);
-
-    _fieldSerializers = new FieldSerializer[_fields.length];
-
-    for (int i = 0; i < _fields.length; i++) {
-      _fieldSerializers[i] = getFieldSerializer(_fields[i]);
-    }
+    return fields.toArray(new Field[fields.size()]);
   }
 
   @Override
@@ -209,6 +228,13 @@ public class UnsafeSerializer extends AbstractSerializer
     throws IOException
   {
     try {
+      GeneratedFieldSerializer generatedSerializer = _generatedSerializer;
+
+      if (generatedSerializer != null) {
+        generatedSerializer.writeFields(obj, out);
+        return;
+      }
+
       FieldSerializer []fieldSerializers = _fieldSerializers;
       int length = fieldSerializers.length;
       
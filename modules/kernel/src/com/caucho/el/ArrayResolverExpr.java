@@ -51,11 +51,12 @@ public class ArrayResolverExpr extends Expr
 {
   private Expr _left;
   private Expr _right;
+
+  // constant field name for the compiling mode
+  private final String _fieldName;
   
-  // cached getter method
-  private transient Class _lastClass;
-  private transient String _lastField;
-  private transient Method _lastMethod;
+  // cached property accessor
+  private transient volatile PropertyAccessor _lastAccessor;
 
   /**
    * Creates a new array expression.
@@ -67,6 +68,11 @@ public class ArrayResolverExpr extends Expr
   {
     _left = left;
     _right = right;
+
+    if (right instanceof StringLiteral)
+      _fieldName = ((StringLiteral) right).getValue();
+    else
+      _fieldName = null;
   }
 
   /**
@@ -142,12 +148,45 @@ public class ArrayResolverExpr extends Expr
     if (aObj == null)
       return null;
 
+    if (_fieldName != null && PropertyAccessorCache.isCompile()) {
+      PropertyAccessor accessor = getAccessor(aObj.getClass());
+
+      if (accessor != null) {
+        try {
+          return accessor.getValue(aObj);
+        } catch (ELException e) {
+          throw e;
+        } catch (Exception e) {
+          throw new ELException(e);
+        }
+      }
+    }
+
     Object fieldObj = _right.getValue(env);
     if (fieldObj == null)
       return null;
 
     return env.getELResolver().getValue(env, aObj, fieldObj);
   }
+
+  /**
+   * Returns the cached accessor for the bean class, or null if the
+   * resolver must handle the property.
+   */
+  private PropertyAccessor getAccessor(Class<?> cl)
+  {
+    PropertyAccessor accessor = _lastAccessor;
+
+    if (accessor != null && accessor.getBeanClass() == cl)
+      return accessor;
+
+    accessor = PropertyAccessorCache.getAccessor(cl, _fieldName);
+
+    if (accessor != null)
+      _lastAccessor = accessor;
+
+    return accessor;
+  }
   
   /**
    * Returns the read-only value of the expression.
@@ -0,0 +1,83 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+
+package com.caucho.el;
+
+/**
+ * Reads a bean property without going through the ELResolver chain.
+ * Accessors are created by {@link PropertyAccessorCache} and are
+ * either generated bytecode or a cached reflective getter.
+ */
+public abstract class PropertyAccessor {
+  private Class<?> _beanClass;
+  private String _name;
+
+  protected PropertyAccessor()
+  {
+  }
+
+  final void init(Class<?> beanClass, String name)
+  {
+    _beanClass = beanClass;
+    _name = name;
+  }
+
+  /**
+   * Returns the bean class the accessor was created for.
+   */
+  public final Class<?> getBeanClass()
+  {
+    return _beanClass;
+  }
+
+  /**
+   * Returns the property name.
+   */
+  public final String getName()
+  {
+    return _name;
+  }
+
+  /**
+   * Returns the property value of the bean.
+   *
+   * @param bean an instance of the bean class
+   */
+  abstract public Object getValue(Object bean)
+    throws Exception;
+
+  @Override
+  public String toString()
+  {
+    return (getClass().getSimpleName()
+            + "[" + (_beanClass != null ? _beanClass.getName() : null)
+            + "," + _name + "]");
+  }
+}
@@ -0,0 +1,319 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+
+package com.caucho.el;
+
+import java.beans.BeanInfo;
+import java.beans.Introspector;
+import java.beans.PropertyDescriptor;
+import java.lang.ref.SoftReference;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.Collection;
+import java.util.Map;
+import java.util.ResourceBundle;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Per-class cache of bean property accessors for the compiling EL mode.
+ *
+ * In compiling mode, a constant property reference like
+ * <code>bean.name</code> on a plain bean reads the property through a
+ * cached accessor instead of the ELContext's resolver chain.  Maps,
+ * collections, arrays and resource bundles still use the resolvers.
+ * Because custom resolvers for beans are bypassed, the mode is disabled
+ * by default.
+ */
+public class PropertyAccessorCache {
+  private static final Logger log
+    = Logger.getLogger(PropertyAccessorCache.class.getName());
+
+  private static final WeakHashMap<Class<?>,SoftReference<ClassAccessors>>
+    _classMap = new WeakHashMap<Class<?>,SoftReference<ClassAccessors>>();
+
+  private static volatile boolean _isCompile
+    = Boolean.getBoolean("com.caucho.el.compile");
+
+  private PropertyAccessorCache()
+  {
+  }
+
+  /**
+   * Enables the compiling EL mode.
+   */
+  public static void setCompile(boolean isCompile)
+  {
+    _isCompile = isCompile;
+  }
+
+  /**
+   * Returns true for the compiling EL mode.
+   */
+  public static boolean isCompile()
+  {
+    return _isCompile;
+  }
+
+  /**
+   * Returns the accessor for a bean property, or null if the property
+   * must be resolved by the ELResolver.
+   */
+  public static PropertyAccessor getAccessor(Class<?> cl, String name)
+  {
+    ClassAccessors accessors = getClassAccessors(cl);
+
+    if (accessors == null)
+      return null;
+
+    return accessors.getAccessor(name);
+  }
+
+  private static ClassAccessors getClassAccessors(Class<?> cl)
+  {
+    synchronized (_classMap) {
+      SoftReference<ClassAccessors> ref = _classMap.get(cl);
+
+      ClassAccessors accessors = ref != null ? ref.get() : null;
+
+      if (accessors == null) {
+        accessors = new ClassAccessors(cl);
+
+        _classMap.put(cl, new SoftReference<ClassAccessors>(accessors));
+      }
+
+      return accessors.isBean() ? accessors : null;
+    }
+  }
+
+  /**
+   * Returns true for classes handled by the bean resolver.
+   */
+  private static boolean isBean(Class<?> cl)
+  {
+    return ! (cl.isArray()
+              || Map.class.isAssignableFrom(cl)
+              || Collection.class.isAssignableFrom(cl)
+              || ResourceBundle.class.isAssignableFrom(cl));
+  }
+
+  /**
+   * Finds the read method with the same rules as the BeanELResolver.
+   */
+  private static Method findReadMethod(Class<?> cl, String name)
+    throws Exception
+  {
+    Method readMethod = null;
+
+    BeanInfo info = Introspector.getBeanInfo(cl);
+
+    for (PropertyDescriptor descriptor : info.getPropertyDescriptors()) {
+      if (name.equals(descriptor.getName())
+          && descriptor.getReadMethod() != null) {
+        readMethod = descriptor.getReadMethod();
+      }
+    }
+
+    for (Method method : cl.getMethods()) {
+      String methodName = method.getName();
+
+      if (method.getParameterTypes().length != 0)
+        continue;
+
+      if (! Modifier.isPublic(method.getModifiers()))
+        continue;
+
+      if (Modifier.isStatic(method.getModifiers()))
+        continue;
+
+      String propName;
+
+      if (methodName.startsWith("get"))
+        propName = Introspector.decapitalize(methodName.substring(3));
+      else if (methodName.startsWith("is"))
+        propName = Introspector.decapitalize(methodName.substring(2));
+      else
+        continue;
+
+      if (name.equals(propName))
+        readMethod = method;
+    }
+
+    if (readMethod == null || void.class.equals(readMethod.getReturnType()))
+      return null;
+
+    return cl.getMethod(readMethod.getName());
+  }
+
+  /**
+   * Returns a public method with the same signature, which generated
+   * code can call.
+   */
+  private static Method findPublicMethod(Class<?> cl, Method method)
+  {
+    if (cl == null)
+      return null;
+
+    if (Modifier.isPublic(cl.getModifiers())) {
+      try {
+        Method publicMethod = cl.getMethod(method.getName());
+
+        if (Modifier.isPublic(publicMethod.getDeclaringClass().getModifiers()))
+          return publicMethod;
+      } catch (NoSuchMethodException e) {
+      }
+    }
+
+    for (Class<?> iface : cl.getInterfaces()) {
+      Method publicMethod = findPublicMethod(iface, method);
+
+      if (publicMethod != null)
+        return publicMethod;
+    }
+
+    return findPublicMethod(cl.getSuperclass(), method);
+  }
+
+  private static PropertyAccessor createAccessor(Class<?> cl, String name)
+  {
+    PropertyAccessor accessor = null;
+
+    try {
+      Method readMethod = findReadMethod(cl, name);
+
+      if (readMethod == null)
+        return null;
+
+      Method publicMethod = findPublicMethod(cl, readMethod);
+
+      if (publicMethod != null)
+        accessor = PropertyAccessorGenerator.generate(publicMethod);
+
+      if (accessor == null) {
+        readMethod.setAccessible(true);
+
+        accessor = new MethodAccessor(readMethod);
+      }
+    } catch (Exception e) {
+      log.log(Level.FINER, e.toString(), e);
+
+      return null;
+    }
+
+    accessor.init(cl, name);
+
+    return accessor;
+  }
+
+  static class ClassAccessors {
+    private final Class<?> _cl;
+    private final boolean _isBean;
+
+    private final ConcurrentHashMap<String,PropertyAccessor> _accessorMap
+      = new ConcurrentHashMap<String,PropertyAccessor>();
+
+    ClassAccessors(Class<?> cl)
+    {
+      _cl = cl;
+      _isBean = PropertyAccessorCache.isBean(cl);
+    }
+
+    boolean isBean()
+    {
+      return _isBean;
+    }
+
+    PropertyAccessor getAccessor(String name)
+    {
+      PropertyAccessor accessor = _accessorMap.get(name);
+
+      if (accessor == null) {
+        accessor = createAccessor(_cl, name);
+
+        if (accessor == null) {
+          accessor = NullAccessor.NULL;
+        }
+
+        _accessorMap.putIfAbsent(name, accessor);
+      }
+
+      if (accessor == NullAccessor.NULL)
+        return null;
+      else
+        return accessor;
+    }
+  }
+
+  /**
+   * Reflective accessor for getters the generated code can't call.
+   */
+  static class MethodAccessor extends PropertyAccessor {
+    private final Method _method;
+
+    MethodAccessor(Method method)
+    {
+      _method = method;
+    }
+
+    @Override
+    public Object getValue(Object bean)
+      throws Exception
+    {
+      try {
+        return _method.invoke(bean);
+      } catch (InvocationTargetException e) {
+        Throwable cause = e.getCause();
+
+        if (cause instanceof Exception)
+          throw (Exception) cause;
+        else if (cause instanceof Error)
+          throw (Error) cause;
+        else
+          throw e;
+      }
+    }
+  }
+
+  /**
+   * Marks a property the resolvers must handle.
+   */
+  static class NullAccessor extends PropertyAccessor {
+    static final NullAccessor NULL = new NullAccessor();
+
+    @Override
+    public Object getValue(Object bean)
+    {
+      throw new UnsupportedOperationException();
+    }
+  }
+}
@@ -0,0 +1,227 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+
+package com.caucho.el;
+
+import java.io.ByteArrayOutputStream;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.caucho.bytecode.CodeWriterAttribute;
+import com.caucho.bytecode.JavaClass;
+import com.caucho.bytecode.JavaClassLoader;
+import com.caucho.bytecode.JavaMethod;
+import com.caucho.config.bytecode.SerializationAdapter;
+import com.caucho.loader.ProxyClassLoader;
+import com.caucho.vfs.Vfs;
+import com.caucho.vfs.WriteStream;
+
+/**
+ * Generates a {@link PropertyAccessor} which calls a public getter
+ * directly, boxing primitive values.
+ */
+class PropertyAccessorGenerator {
+  private static final Logger log
+    = Logger.getLogger(PropertyAccessorGenerator.class.getName());
+
+  private static final String ACCESSOR_CLASS
+    = PropertyAccessor.class.getName().replace('.', '/');
+
+  private static final AtomicInteger _count = new AtomicInteger();
+
+  private PropertyAccessorGenerator()
+  {
+  }
+
+  /**
+   * Returns the generated accessor, or null if the getter's class isn't
+   * visible from a generated class.
+   */
+  static PropertyAccessor generate(Method method)
+  {
+    Class<?> declClass = method.getDeclaringClass();
+    ClassLoader loader = declClass.getClassLoader();
+
+    if (! isVisible(loader))
+      return null;
+
+    try {
+      String className = ("com/caucho/el/ELAccessor$"
+                          + _count.incrementAndGet());
+
+      byte []buffer = generateClass(className, method);
+
+      ProxyClassLoader proxyLoader = new ProxyClassLoader(loader);
+
+      Class<?> cl = proxyLoader.loadClass(className.replace('/', '.'), buffer);
+
+      return (PropertyAccessor) cl.getDeclaredConstructor().newInstance();
+    } catch (Exception e) {
+      log.log(Level.FINE, e.toString(), e);
+
+      return null;
+    } catch (LinkageError e) {
+      log.log(Level.FINE, e.toString(), e);
+
+      return null;
+    }
+  }
+
+  /**
+   * The generated class extends PropertyAccessor, so the bean's loader
+   * must see the same PropertyAccessor class.
+   */
+  private static boolean isVisible(ClassLoader loader)
+  {
+    if (loader == null)
+      return false;
+
+    try {
+      return (Class.forName(PropertyAccessor.class.getName(), false, loader)
+              == PropertyAccessor.class);
+    } catch (ClassNotFoundException e) {
+      return false;
+    }
+  }
+
+  private static byte []generateClass(String className, Method method)
+    throws Exception
+  {
+    JavaClassLoader jLoader
+      = new JavaClassLoader(method.getDeclaringClass().getClassLoader());
+
+    JavaClass jClass = new JavaClass(jLoader);
+    jClass.setAccessFlags(Modifier.PUBLIC | Modifier.FINAL);
+
+    jClass.setWrite(true);
+
+    jClass.setMajor(49);
+    jClass.setMinor(0);
+
+    jClass.setSuperClass(ACCESSOR_CLASS);
+    jClass.setThisClass(className);
+
+    generateConstructor(jClass);
+    generateGetValue(jClass, method);
+
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    WriteStream out = Vfs.openWrite(bos);
+
+    jClass.write(out);
+
+    out.close();
+
+    return bos.toByteArray();
+  }
+
+  private static void generateConstructor(JavaClass jClass)
+  {
+    JavaMethod ctor = jClass.createMethod("<init>", "()V");
+    ctor.setAccessFlags(Modifier.PUBLIC);
+
+    CodeWriterAttribute code = ctor.createCodeWriter();
+    code.setMaxLocals(1);
+    code.setMaxStack(1);
+
+    code.pushObjectVar(0);
+    code.invokespecial(ACCESSOR_CLASS, "<init>", "()V", 1, 0);
+    code.addReturn();
+    code.close();
+  }
+
+  /**
+   * getValue(bean) returns ((Bean) bean).getFoo(), boxed.
+   */
+  private static void generateGetValue(JavaClass jClass, Method method)
+  {
+    JavaMethod jMethod
+      = jClass.createMethod("getValue",
+                            "(Ljava/lang/Object;)Ljava/lang/Object;");
+    jMethod.setAccessFlags(Modifier.PUBLIC);
+
+    Class<?> declClass = method.getDeclaringClass();
+    String declName = declClass.getName().replace('.', '/');
+
+    Class<?> retType = method.getReturnType();
+    String retDescriptor = SerializationAdapter.createDescriptor(retType);
+    int retStack = (long.class.equals(retType)
+                    || double.class.equals(retType)) ? 2 : 1;
+
+    CodeWriterAttribute code = jMethod.createCodeWriter();
+    code.setMaxLocals(2);
+    code.setMaxStack(3);
+
+    code.pushObjectVar(1);
+    code.cast(declName);
+
+    String descriptor = "()" + retDescriptor;
+
+    if (declClass.isInterface())
+      code.invokeInterface(declName, method.getName(), descriptor, 1, retStack);
+    else
+      code.invoke(declName, method.getName(), descriptor, 1, retStack);
+
+    if (retType.isPrimitive()) {
+      String boxClass = getBoxClass(retType);
+
+      code.invokestatic(boxClass, "valueOf",
+                        "(" + retDescriptor + ")L" + boxClass + ";",
+                        retStack, 1);
+    }
+
+    code.addObjectReturn();
+    code.close();
+  }
+
+  private static String getBoxClass(Class<?> type)
+  {
+    if (boolean.class.equals(type))
+      return "java/lang/Boolean";
+    else if (byte.class.equals(type))
+      return "java/lang/Byte";
+    else if (char.class.equals(type))
+      return "java/lang/Character";
+    else if (short.class.equals(type))
+      return "java/lang/Short";
+    else if (int.class.equals(type))
+      return "java/lang/Integer";
+    else if (long.class.equals(type))
+      return "java/lang/Long";
+    else if (float.class.equals(type))
+      return "java/lang/Float";
+    else if (double.class.equals(type))
+      return "java/lang/Double";
+    else
+      throw new IllegalArgumentException(String.valueOf(type));
+  }
+}
@@ -118,6 +118,9 @@ public class ThreadPool2 implements Executor {
 
   private int _waitCount;
 
+  // non-null when non-priority tasks run on virtual threads
+  private volatile VirtualThreadExecutor2 _virtualExecutor;
+
   public ThreadPool2()
   {
     this("system");
@@ -239,6 +242,32 @@ public class ThreadPool2 implements Executor {
   {
     return _priorityIdleMin;
   }
+
+  /**
+   * Runs non-priority tasks on virtual threads when the JDK supports them.
+   * thread-max limits the number of concurrently running virtual tasks.
+   */
+  public void setVirtualThreadEnable(boolean isEnable)
+  {
+    if (! isEnable) {
+      _virtualExecutor = null;
+    }
+    else if (! VirtualThreadExecutor2.isAvailable()) {
+      log.warning(L.l("{0} virtual threads are not supported by this JDK, using platform threads",
+                      this));
+    }
+    else if (_virtualExecutor == null) {
+      _virtualExecutor = new VirtualThreadExecutor2(this);
+    }
+  }
+
+  /**
+   * True if non-priority tasks run on virtual threads.
+   */
+  public boolean isVirtualThreadEnable()
+  {
+    return _virtualExecutor != null;
+  }
     
   /**
    * Sets the idle timeout
@@ -295,7 +324,20 @@ public class ThreadPool2 implements Executor {
    */
   public int getThreadCount()
   {
-    return _launcher.getThreadCount();
+    return _launcher.getThreadCount() + getThreadVirtualActiveCount();
+  }
+
+  /**
+   * Returns the number of tasks running on virtual threads.
+   */
+  public int getThreadVirtualActiveCount()
+  {
+    VirtualThreadExecutor2 virtualExecutor = _virtualExecutor;
+
+    if (virtualExecutor != null)
+      return virtualExecutor.getActiveCount();
+    else
+      return 0;
   }
 
   /**
@@ -360,7 +402,13 @@ public class ThreadPool2 implements Executor {
    */
   public long getThreadCreateCountTotal()
   {
-    return _launcher.getCreateCountTotal();
+    VirtualThreadExecutor2 virtualExecutor = _virtualExecutor;
+
+    if (virtualExecutor != null)
+      return (_launcher.getCreateCountTotal()
+              + virtualExecutor.getCreateCountTotal());
+    else
+      return _launcher.getCreateCountTotal();
   }
 
   /**
@@ -384,7 +432,12 @@ public class ThreadPool2 implements Executor {
    */
   public int getThreadTaskQueueSize()
   {
-    return _taskQueue.getSize();
+    VirtualThreadExecutor2 virtualExecutor = _virtualExecutor;
+
+    if (virtualExecutor != null)
+      return _taskQueue.getSize() + virtualExecutor.getQueueSize();
+    else
+      return _taskQueue.getSize();
   }
 
   //
@@ -617,6 +670,12 @@ public class ThreadPool2 implements Executor {
                                boolean isQueueIfFull,
                                boolean isWakeScheduler)
   {
+    VirtualThreadExecutor2 virtualExecutor = _virtualExecutor;
+
+    if (virtualExecutor != null && ! isPriority) {
+      return virtualExecutor.schedule(task, loader, isQueueIfFull);
+    }
+
     if (isPriority) {
       if (! _priorityQueue.offer(task, loader)) {
         System.out.println("PRIORITY_FULL");
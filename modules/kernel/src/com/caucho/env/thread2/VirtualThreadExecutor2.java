@@ -0,0 +1,238 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+package com.caucho.env.thread2;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.caucho.inject.Module;
+
+/**
+ * Runs thread pool tasks on JDK virtual threads.  The number of running
+ * tasks is limited by the pool's thread-max; tasks beyond the limit are
+ * queued and started as running tasks complete.
+ *
+ * The JDK virtual thread API is looked up reflectively, so the executor
+ * is only available when Resin runs on a JDK that supports it.
+ */
+@Module
+final class VirtualThreadExecutor2 {
+  private static final Logger log
+    = Logger.getLogger(VirtualThreadExecutor2.class.getName());
+
+  private static final ThreadFactory _factory;
+
+  private final ThreadPool2 _pool;
+
+  private final AtomicInteger _activeCount = new AtomicInteger();
+  private final AtomicLong _createCountTotal = new AtomicLong();
+
+  private final ConcurrentLinkedQueue<VirtualTask> _overflowQueue
+    = new ConcurrentLinkedQueue<VirtualTask>();
+  private final AtomicInteger _overflowSize = new AtomicInteger();
+
+  VirtualThreadExecutor2(ThreadPool2 pool)
+  {
+    if (_factory == null)
+      throw new UnsupportedOperationException();
+
+    _pool = pool;
+  }
+
+  /**
+   * Returns true if the JDK supports virtual threads.
+   */
+  static boolean isAvailable()
+  {
+    return _factory != null;
+  }
+
+  /**
+   * Returns the number of running virtual tasks.
+   */
+  int getActiveCount()
+  {
+    return _activeCount.get();
+  }
+
+  /**
+   * Returns the number of tasks waiting for a free slot.
+   */
+  int getQueueSize()
+  {
+    return _overflowSize.get();
+  }
+
+  /**
+   * Returns the total number of virtual threads created.
+   */
+  long getCreateCountTotal()
+  {
+    return _createCountTotal.get();
+  }
+
+  /**
+   * Schedules a task, starting a virtual thread if the pool is below
+   * thread-max.
+   *
+   * @param isQueueIfFull if false, fail instead of queueing at thread-max
+   */
+  boolean schedule(Runnable task, ClassLoader loader, boolean isQueueIfFull)
+  {
+    VirtualTask virtualTask = new VirtualTask(task, loader);
+
+    if (! tryAcquire()) {
+      if (! isQueueIfFull)
+        return false;
+
+      _overflowQueue.offer(virtualTask);
+      _overflowSize.incrementAndGet();
+
+      // a task may have completed between the acquire and the offer
+      startQueued();
+
+      return true;
+    }
+
+    return start(virtualTask);
+  }
+
+  private boolean tryAcquire()
+  {
+    int max = _pool.getThreadMax();
+
+    while (true) {
+      int count = _activeCount.get();
+
+      if (max <= count)
+        return false;
+
+      if (_activeCount.compareAndSet(count, count + 1))
+        return true;
+    }
+  }
+
+  private boolean start(VirtualTask task)
+  {
+    try {
+      Thread thread = _factory.newThread(task);
+
+      _createCountTotal.incrementAndGet();
+
+      thread.start();
+
+      return true;
+    } catch (Throwable e) {
+      _activeCount.decrementAndGet();
+
+      log.log(Level.WARNING, e.toString(), e);
+
+      return false;
+    }
+  }
+
+  private void startQueued()
+  {
+    while (! _overflowQueue.isEmpty() && tryAcquire()) {
+      VirtualTask task = _overflowQueue.poll();
+
+      if (task == null) {
+        _activeCount.decrementAndGet();
+        return;
+      }
+
+      _overflowSize.decrementAndGet();
+
+      start(task);
+    }
+  }
+
+  private void complete()
+  {
+    _activeCount.decrementAndGet();
+
+    startQueued();
+  }
+
+  final class VirtualTask implements Runnable {
+    private final Runnable _task;
+    private final ClassLoader _loader;
+
+    VirtualTask(Runnable task, ClassLoader loader)
+    {
+      _task = task;
+      _loader = loader;
+    }
+
+    @Override
+    public void run()
+    {
+      Thread thread = Thread.currentThread();
+
+      try {
+        thread.setContextClassLoader(_loader);
+
+        _task.run();
+      } catch (Throwable e) {
+        log.log(Level.WARNING, e.toString(), e);
+      } finally {
+        complete();
+      }
+    }
+  }
+
+  static {
+    ThreadFactory factory = null;
+
+    try {
+      Method ofVirtual = Thread.class.getMethod("ofVirtual");
+      Object builder = ofVirtual.invoke(null);
+
+      Class<?> ofVirtualClass
+        = Class.forName("java.lang.Thread$Builder$OfVirtual");
+      Method name = ofVirtualClass.getMethod("name", String.class, long.class);
+      builder = name.invoke(builder, "resin-virtual-", 0L);
+
+      Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+      Method factoryMethod = builderClass.getMethod("factory");
+
+      factory = (ThreadFactory) factoryMethod.invoke(builder);
+    } catch (Throwable e) {
+      log.log(Level.FINEST, e.toString(), e);
+    }
+
+    _factory = factory;
+  }
+}
@@ -132,6 +132,13 @@ public class AbstractRolloverLog implements Closeable {
   private WriteStream _os;
   private WriteStream _zipOut;
 
+  // gzip archive written alongside the log, renamed at rollover
+  private boolean _isArchiveStreaming;
+  private Path _archiveTempPath;
+  private WriteStream _archiveOs;
+  private WriteStream _archiveZipOut;
+  private boolean _isArchiveStreamValid;
+
   private volatile boolean _isClosed;
   private final RolloverAlarm _rolloverListener;
   private WeakAlarm _rolloverAlarm;
@@ -225,6 +232,20 @@ public class AbstractRolloverLog implements Closeable {
     return _archiveSuffix;
   }
 
+  /**
+   * Compresses a .gz archive while the log is written, so the rollover
+   * only renames the archive instead of compressing the entire log.
+   */
+  public void setArchiveStreaming(boolean isStreaming)
+  {
+    _isArchiveStreaming = isStreaming;
+  }
+
+  public boolean isArchiveStreaming()
+  {
+    return _isArchiveStreaming;
+  }
+
   /**
    * Sets the log rollover cron specification
    */
@@ -426,8 +447,11 @@ public class AbstractRolloverLog implements Closeable {
         if (_os == null)
           openLog();
 
-        if (_os != null)
+        if (_os != null) {
           _os.write(buffer, offset, length);
+
+          writeArchive(buffer, offset, length);
+        }
       }
       else {
         if (_tempStream == null) {
@@ -469,6 +493,14 @@ public class AbstractRolloverLog implements Closeable {
 
       if (_zipOut != null)
         _zipOut.flush();
+
+      if (_archiveOs != null) {
+        try {
+          _archiveOs.flush();
+        } catch (IOException e) {
+          closeArchiveStream(e);
+        }
+      }
     }
     
     long now = CurrentTime.getCurrentTime();
@@ -609,6 +641,108 @@ public class AbstractRolloverLog implements Closeable {
     if (exn != null)
       logWarning(L.l("Can't create log for {0}.\n  User={1} Exception={2}",
                      path, System.getProperty("user.name"), exn), exn);
+
+    if (_os != null)
+      openArchiveStream(path);
+  }
+
+  /**
+   * Opens the streaming archive for a new log.  Called from inside _logLock.
+   */
+  private void openArchiveStream(Path path)
+  {
+    _isArchiveStreamValid = false;
+
+    if (! _isArchiveStreaming
+        || ! ".gz".equals(_archiveSuffix)
+        || getPathFormat() != null) {
+      return;
+    }
+
+    Path tempPath = path.getParent().lookup("." + path.getTail() + ".gz.tmp");
+    _archiveTempPath = tempPath;
+
+    try {
+      tempPath.remove();
+
+      // an existing log, e.g. after a restart, is compressed at rollover
+      if (path.getLength() > 0)
+        return;
+
+      _archiveZipOut = tempPath.openWrite();
+      _archiveOs = Vfs.openWrite(new GZIPOutputStream(_archiveZipOut));
+
+      _isArchiveStreamValid = true;
+    } catch (Exception e) {
+      closeArchiveStream(e);
+    }
+  }
+
+  /**
+   * Writes to the streaming archive.  Called from inside _logLock.
+   */
+  private void writeArchive(byte []buffer, int offset, int length)
+  {
+    WriteStream archiveOs = _archiveOs;
+
+    if (archiveOs != null) {
+      try {
+        archiveOs.write(buffer, offset, length);
+      } catch (IOException e) {
+        closeArchiveStream(e);
+      }
+    }
+  }
+
+  /**
+   * Abandons the streaming archive after a failure.  The log will be
+   * compressed at rollover instead.
+   */
+  private void closeArchiveStream(Exception exn)
+  {
+    logWarning(L.l("Error writing archive {0}\n  Exception={1}",
+                   _archiveTempPath, exn), exn);
+
+    _isArchiveStreamValid = false;
+
+    IoUtil.close(_archiveOs);
+    _archiveOs = null;
+
+    IoUtil.close(_archiveZipOut);
+    _archiveZipOut = null;
+  }
+
+  /**
+   * Renames the completed streaming archive to the saved path.
+   *
+   * @return true if the archive was moved
+   */
+  private boolean moveArchiveStream(Path path, Path savedPath)
+  {
+    boolean isValid = _isArchiveStreamValid;
+    _isArchiveStreamValid = false;
+
+    Path tempPath = _archiveTempPath;
+
+    if (! isValid
+        || tempPath == null
+        || ! savedPath.getTail().endsWith(".gz")
+        || ! tempPath.exists()) {
+      return false;
+    }
+
+    try {
+      if (! tempPath.renameTo(savedPath))
+        return false;
+
+      path.remove();
+
+      return true;
+    } catch (Exception e) {
+      logWarning(L.l("Error rotating logs: {0}", e.toString()), e);
+
+      return false;
+    }
   }
 
   private void movePathToArchive(Path savedPath)
@@ -624,6 +758,13 @@ public class AbstractRolloverLog implements Closeable {
 
     String savedName = savedPath.getTail();
 
+    if (moveArchiveStream(path, savedPath)) {
+      if (_rolloverCount > 0)
+        removeOldLogs();
+
+      return;
+    }
+
     try {
       if (! savedPath.getParent().isDirectory()) {
         savedPath.getParent().mkdirs();
@@ -911,6 +1052,25 @@ public class AbstractRolloverLog implements Closeable {
       // can't log in log routines
       logWarning(L.l("Error closing logStream"), e);
     }
+
+    try {
+      WriteStream archiveOs = _archiveOs;
+      _archiveOs = null;
+
+      if (archiveOs != null)
+        archiveOs.close();
+
+      WriteStream archiveZipOut = _archiveZipOut;
+      _archiveZipOut = null;
+
+      if (archiveZipOut != null)
+        archiveZipOut.close();
+    } catch (Throwable e) {
+      // an incomplete archive is compressed again at rollover
+      _isArchiveStreamValid = false;
+
+      logWarning(L.l("Error closing archive stream"), e);
+    }
   }
 
   /**
@@ -931,7 +1091,18 @@ public class AbstractRolloverLog implements Closeable {
           ReadStream is = ts.openRead();
 
           try {
-            is.writeToStream(_os);
+            if (_archiveOs != null) {
+              byte []buffer = new byte[8192];
+              int len;
+
+              while ((len = is.read(buffer, 0, buffer.length)) > 0) {
+                _os.write(buffer, 0, len);
+
+                writeArchive(buffer, 0, len);
+              }
+            }
+            else
+              is.writeToStream(_os);
           } finally {
             is.close();
           }
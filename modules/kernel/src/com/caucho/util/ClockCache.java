@@ -0,0 +1,713 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+package com.caucho.util;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Fixed length cache with a CLOCK (second-chance) replacement policy,
+ * API-compatible with LruCache.  If cache items implement CacheListener,
+ * they will be informed when they're removed from the cache.
+ *
+ * <p>Reads never lock: a hit only sets the item's reference bit.  Writes
+ * lock the hash stripe of their key, and only inserts take the clock
+ * lock to claim a ring slot, evicting unreferenced items as the hand
+ * sweeps past.
+ *
+ * <p>Null keys are not allowed.
+ */
+public final class ClockCache<K,V> {
+  private static final Object NULL = new Object();
+
+  // statistics stripes, padded to separate cache lines
+  private static final int STAT_STRIPES = 16;
+  private static final int STAT_PAD = 8;
+
+  // maximum allowed entries
+  private final int _capacity;
+
+  private final ConcurrentHashMap<Object,ClockItem<K,V>> _map;
+
+  private final Object []_locks;
+
+  //
+  // CLOCK
+  //
+
+  private final Object _clockLock = new Object();
+
+  // ring of items for the clock sweep.  Its size is at least twice the
+  // capacity so concurrent inserts past capacity still find a slot
+  private final ClockItem<K,V> []_ring;
+  private final int _ringMask;
+
+  // current position of the clock hand, guarded by _clockLock
+  private int _hand;
+  // number of ring slots used at least once, guarded by _clockLock
+  private int _fill;
+
+  private final AtomicInteger _size = new AtomicInteger();
+
+  private volatile boolean _isEnableListeners = true;
+
+  //
+  // statistics
+  //
+
+  private volatile boolean _isEnableStatistics;
+
+  private final AtomicLongArray _hitCount
+    = new AtomicLongArray(STAT_STRIPES * STAT_PAD);
+  private final AtomicLongArray _missCount
+    = new AtomicLongArray(STAT_STRIPES * STAT_PAD);
+
+  /**
+   * Create the cache with a specific capacity.
+   *
+   * @param initialCapacity minimum capacity of the cache
+   */
+  public ClockCache(int initialCapacity)
+  {
+    this(initialCapacity, false);
+  }
+
+  /**
+   * Create the cache with a specific capacity.
+   *
+   * @param initialCapacity minimum capacity of the cache
+   */
+  public ClockCache(int initialCapacity, boolean isStatistics)
+  {
+    int capacity;
+
+    for (capacity = 16; capacity < 2 * initialCapacity; capacity *= 2) {
+    }
+
+    @SuppressWarnings("unchecked")
+    ClockItem<K,V> []ring = (ClockItem<K,V> []) new ClockItem<?,?>[capacity];
+
+    _ring = ring;
+    _ringMask = capacity - 1;
+
+    _map = new ConcurrentHashMap<Object,ClockItem<K,V>>(capacity);
+
+    _locks = new Object[(capacity >> 3) + 1];
+    for (int i = 0; i < _locks.length; i++) {
+      _locks[i] = new Object();
+    }
+
+    _capacity = initialCapacity;
+
+    _isEnableStatistics = isStatistics;
+  }
+
+  /**
+   * Disable the listeners
+   */
+  public void setEnableListeners(boolean isEnable)
+  {
+    _isEnableListeners = isEnable;
+  }
+
+  public void setEnableStatistics(boolean isEnable)
+  {
+    _isEnableStatistics = isEnable;
+  }
+
+  /**
+   * Returns the current number of entries in the cache.
+   */
+  public int size()
+  {
+    return _size.get();
+  }
+
+  /**
+   * Returns the cache capacity
+   */
+  public int getCapacity()
+  {
+    return _capacity;
+  }
+
+  /**
+   * Clears the cache
+   */
+  public void clear()
+  {
+    if (_size.get() == 0)
+      return;
+
+    ArrayList<CacheListener> listeners = null;
+
+    for (ClockItem<K,V> item : _map.values()) {
+      V value = removeItem(item);
+
+      if (_isEnableListeners && value instanceof CacheListener) {
+        if (listeners == null)
+          listeners = new ArrayList<CacheListener>();
+        listeners.add((CacheListener) value);
+      }
+    }
+
+    for (int i = listeners != null ? listeners.size() - 1 : -1;
+         i >= 0;
+         i--) {
+      CacheListener listener = listeners.get(i);
+      listener.removeEvent();
+    }
+  }
+
+  /**
+   * Get an item from the cache and mark it as recently used.
+   *
+   * @param key key to lookup the item
+   * @return the matching object in the cache
+   */
+  public V get(K key)
+  {
+    Object okey = key;
+    if (okey == null)
+      okey = NULL;
+
+    ClockItem<K,V> item = _map.get(okey);
+
+    if (item != null) {
+      // test avoids extra writes on multicore machines
+      if (! item._isReferenced)
+        item._isReferenced = true;
+
+      if (_isEnableStatistics)
+        addStatistic(_hitCount);
+
+      return item._value;
+    }
+
+    if (_isEnableStatistics)
+      addStatistic(_missCount);
+
+    return null;
+  }
+
+  /**
+   * Puts a new item in the cache.  If the cache is full, the clock
+   * evicts an unreferenced item.
+   *
+   * @param key key to store data
+   * @param value value to be stored
+   *
+   * @return old value stored under the key
+   */
+  public V put(K key, V value)
+  {
+    return compareAndPut(null, key, value, false);
+  }
+
+  /**
+   * Puts a new item in the cache.  If the cache is full, the clock
+   * evicts an unreferenced item.
+   *
+   * @param key key to store data
+   * @param value value to be stored
+   *
+   * @return the value actually stored
+   */
+  public V putIfNew(K key, V value)
+  {
+    V oldValue = compareAndPut(null, key, value, true);
+
+    if (oldValue != null)
+      return oldValue;
+    else
+      return value;
+  }
+
+  /**
+   * Puts a new item in the cache if the current value matches oldValue.
+   *
+   * @param key the key
+   * @param value the new value
+   * @param testValue the value to test against the current
+   *
+   * @return true if the put succeeds
+   */
+  public boolean compareAndPut(V testValue, K key, V value)
+  {
+    V result = compareAndPut(testValue, key, value, true);
+
+    return testValue == result;
+  }
+
+  /**
+   * Puts a new item in the cache.
+   *
+   * @param key key to store data
+   * @param value value to be stored
+   * @param testValue tests the current value in the cache
+   * @param isCompare if true, this is a compare and put
+   *
+   * @return old value stored under the key
+   */
+  private V compareAndPut(V testValue, K key, V value, boolean isCompare)
+  {
+    Object okey = key;
+
+    if (okey == null)
+      okey = NULL;
+
+    V oldValue;
+    ClockItem<K,V> newItem = null;
+
+    synchronized (getLock(okey)) {
+      ClockItem<K,V> item = _map.get(okey);
+
+      if (item != null) {
+        item._isReferenced = true;
+
+        oldValue = item._value;
+
+        if (isCompare && testValue != oldValue) {
+          return oldValue;
+        }
+
+        item._value = value;
+
+        if (value == oldValue)
+          oldValue = null;
+      }
+      else {
+        if (isCompare && testValue != null)
+          return null;
+
+        // the null key is stored as the NULL sentinel
+        @SuppressWarnings("unchecked")
+        K itemKey = (K) okey;
+
+        newItem = new ClockItem<K,V>(itemKey, value);
+
+        _map.put(okey, newItem);
+        _size.incrementAndGet();
+
+        oldValue = null;
+      }
+
+      if (_isEnableListeners
+          && oldValue instanceof SyncCacheListener)
+        ((SyncCacheListener) oldValue).syncRemoveEvent();
+    }
+
+    if (newItem != null) {
+      addToRing(newItem);
+
+      return null;
+    }
+
+    if (_isEnableListeners && oldValue instanceof CacheListener)
+      ((CacheListener) oldValue).removeEvent();
+
+    return oldValue;
+  }
+
+  /**
+   * Places a new item on the clock ring.  Unused slots are filled first,
+   * then the hand sweeps for a removed item or, when the cache is over
+   * capacity, an unreferenced victim whose slot the new item takes.
+   */
+  private void addToRing(ClockItem<K,V> newItem)
+  {
+    ClockItem<K,V> victim = null;
+
+    synchronized (_clockLock) {
+      ClockItem<K,V> []ring = _ring;
+      int mask = _ringMask;
+
+      if (_fill < ring.length) {
+        int index = _fill++;
+
+        ring[index] = newItem;
+      }
+      else {
+        // two sweeps: the first clears reference bits
+        for (int i = 0; i < 2 * ring.length; i++) {
+          int hand = _hand;
+          _hand = (hand + 1) & mask;
+
+          ClockItem<K,V> item = ring[hand];
+
+          if (item == null || item._isRemoved) {
+            ring[hand] = newItem;
+            break;
+          }
+          else if (item._isReferenced && i < ring.length) {
+            item._isReferenced = false;
+          }
+          else if (_capacity < _size.get() || ring.length <= i) {
+            ring[hand] = newItem;
+            victim = item;
+            break;
+          }
+        }
+      }
+    }
+
+    if (victim != null)
+      evict(victim);
+
+    while (_capacity < _size.get() && removeTail()) {
+    }
+  }
+
+  private void evict(ClockItem<K,V> item)
+  {
+    V oldValue = item._value;
+
+    if (oldValue instanceof LruListener)
+      ((LruListener) oldValue).lruEvent();
+
+    V value = null;
+
+    synchronized (getLock(item._key)) {
+      if (! item._isRemoved) {
+        value = removeItemLocked(item);
+
+        if (_isEnableListeners && value instanceof SyncCacheListener)
+          ((SyncCacheListener) value).syncRemoveEvent();
+      }
+    }
+
+    if (_isEnableListeners && value instanceof CacheListener)
+      ((CacheListener) value).removeEvent();
+  }
+
+  /**
+   * Evicts the next item selected by the clock hand.
+   */
+  public boolean removeTail()
+  {
+    ClockItem<K,V> victim = null;
+
+    synchronized (_clockLock) {
+      ClockItem<K,V> []ring = _ring;
+      int mask = _ringMask;
+
+      for (int i = 0; i < 2 * ring.length && victim == null; i++) {
+        int hand = _hand;
+        _hand = (hand + 1) & mask;
+
+        ClockItem<K,V> item = ring[hand];
+
+        if (item == null)
+          continue;
+        else if (item._isRemoved)
+          ring[hand] = null;
+        else if (item._isReferenced && i < ring.length)
+          item._isReferenced = false;
+        else
+          victim = item;
+      }
+    }
+
+    if (victim == null)
+      return false;
+
+    evict(victim);
+
+    return true;
+  }
+
+  /**
+   * Evicts the next item.  The CLOCK policy has a single list, so this
+   * is equivalent to removeTail.
+   */
+  public boolean removeLongestTail()
+  {
+    return removeTail();
+  }
+
+  /**
+   * Removes an item from the cache
+   *
+   * @param key the key to remove
+   *
+   * @return the value removed
+   */
+  public V remove(K key)
+  {
+    Object okey = key;
+    if (okey == null)
+      okey = NULL;
+
+    V value = null;
+
+    synchronized (getLock(okey)) {
+      ClockItem<K,V> item = _map.get(okey);
+
+      if (item != null) {
+        value = removeItemLocked(item);
+      }
+
+      if (_isEnableListeners && value instanceof SyncCacheListener)
+        ((SyncCacheListener) value).syncRemoveEvent();
+    }
+
+    if (_isEnableListeners && value instanceof CacheListener)
+      ((CacheListener) value).removeEvent();
+
+    return value;
+  }
+
+  private V removeItem(ClockItem<K,V> item)
+  {
+    synchronized (getLock(item._key)) {
+      if (item._isRemoved)
+        return null;
+
+      return removeItemLocked(item);
+    }
+  }
+
+  /**
+   * Removes the item from the map.  The ring slot is reclaimed lazily
+   * by the clock sweep.
+   */
+  private V removeItemLocked(ClockItem<K,V> item)
+  {
+    if (_map.remove(item._key, item)) {
+      item._isRemoved = true;
+      _size.decrementAndGet();
+
+      return item._value;
+    }
+
+    return null;
+  }
+
+  private Object getLock(Object key)
+  {
+    int hash = key.hashCode();
+
+    hash ^= (hash >>> 16);
+
+    return _locks[(hash & 0x7fffffff) % _locks.length];
+  }
+
+  private void addStatistic(AtomicLongArray counts)
+  {
+    int index = (int) (Thread.currentThread().getId() % STAT_STRIPES);
+
+    counts.incrementAndGet(index * STAT_PAD);
+  }
+
+  private long sumStatistic(AtomicLongArray counts)
+  {
+    long sum = 0;
+
+    for (int i = 0; i < STAT_STRIPES; i++) {
+      sum += counts.get(i * STAT_PAD);
+    }
+
+    return sum;
+  }
+
+  /**
+   * Returns the keys stored in the cache
+   */
+  public Iterator<K> keys()
+  {
+    return new KeyIterator<K,V>(_map.values().iterator());
+  }
+
+  /**
+   * Returns keys stored in the cache using an old iterator
+   */
+  public Iterator<K> keys(Iterator<K> oldIter)
+  {
+    return keys();
+  }
+
+  /**
+   * Returns the values in the cache
+   */
+  public Iterator<V> values()
+  {
+    return new ValueIterator<K,V>(_map.values().iterator());
+  }
+
+  public Iterator<V> values(Iterator<V> oldIter)
+  {
+    return values();
+  }
+
+  /**
+   * Returns the entries
+   */
+  public Iterator<LruCache.Entry<K,V>> iterator()
+  {
+    return new EntryIterator<K,V>(this, _map.values().iterator());
+  }
+
+  /**
+   * Returns the hit count.
+   */
+  public long getHitCount()
+  {
+    return sumStatistic(_hitCount);
+  }
+
+  /**
+   * Returns the miss count.
+   */
+  public long getMissCount()
+  {
+    return sumStatistic(_missCount);
+  }
+
+  /**
+   * A cache item
+   */
+  static final class ClockItem<K,V> implements LruCache.Entry<K,V> {
+    final K _key;
+    volatile V _value;
+
+    // second-chance bit, set on each hit and cleared by the sweep
+    volatile boolean _isReferenced;
+    volatile boolean _isRemoved;
+
+    ClockItem(K key, V value)
+    {
+      if (key == null)
+        throw new NullPointerException();
+
+      _key = key;
+      _value = value;
+    }
+
+    public K getKey()
+    {
+      return _key != NULL ? _key : null;
+    }
+
+    public V getValue()
+    {
+      return _value;
+    }
+  }
+
+  /**
+   * Iterator of cache keys
+   */
+  static class KeyIterator<K,V> implements Iterator<K> {
+    private final Iterator<ClockItem<K,V>> _iter;
+
+    KeyIterator(Iterator<ClockItem<K,V>> iter)
+    {
+      _iter = iter;
+    }
+
+    public boolean hasNext()
+    {
+      return _iter.hasNext();
+    }
+
+    public K next()
+    {
+      return _iter.next().getKey();
+    }
+
+    public void remove()
+    {
+      throw new UnsupportedOperationException();
+    }
+  }
+
+  /**
+   * Iterator of cache values
+   */
+  static class ValueIterator<K,V> implements Iterator<V> {
+    private final Iterator<ClockItem<K,V>> _iter;
+
+    ValueIterator(Iterator<ClockItem<K,V>> iter)
+    {
+      _iter = iter;
+    }
+
+    public boolean hasNext()
+    {
+      return _iter.hasNext();
+    }
+
+    public V next()
+    {
+      return _iter.next()._value;
+    }
+
+    public void remove()
+    {
+      throw new UnsupportedOperationException();
+    }
+  }
+
+  /**
+   * Iterator of cache entries
+   */
+  static class EntryIterator<K,V> implements Iterator<LruCache.Entry<K,V>> {
+    private final ClockCache<K,V> _cache;
+    private final Iterator<ClockItem<K,V>> _iter;
+    private ClockItem<K,V> _item;
+
+    EntryIterator(ClockCache<K,V> cache, Iterator<ClockItem<K,V>> iter)
+    {
+      _cache = cache;
+      _iter = iter;
+    }
+
+    public boolean hasNext()
+    {
+      return _iter.hasNext();
+    }
+
+    public LruCache.Entry<K,V> next()
+    {
+      _item = _iter.next();
+
+      return _item;
+    }
+
+    public void remove()
+    {
+      if (_item != null)
+        _cache.removeItem(_item);
+    }
+  }
+}
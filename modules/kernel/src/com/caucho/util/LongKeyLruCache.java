@@ -261,6 +261,27 @@ public class LongKeyLruCache<V> {
     return null;
   }
 
+  /**
+   * Get an item from the cache without changing the LRU order or the
+   * hit statistics.
+   *
+   * @param key key to lookup the item
+   * @return the matching object in the cache
+   */
+  public V peek(long key)
+  {
+    int hash = hash(key) % _prime;
+
+    for (CacheItem<V> item = _entries[hash];
+         item != null;
+         item = item._nextHash) {
+      if (item._key == key)
+        return item._value;
+    }
+
+    return null;
+  }
+
   /**
    * Puts a new item in the cache.  If the cache is full, remove the
    * LRU item.
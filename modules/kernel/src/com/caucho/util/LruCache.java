@@ -39,7 +39,8 @@ import java.util.concurrent.atomic.AtomicLong;
  * implement CacheListener, they will be informed when they're removed
  * from the cache.
  *
- * <p>Null keys are not allowed.  LruCache is synchronized.
+ * <p>Null keys are not allowed.  LruCache is synchronized.  For read-mostly
+ * caches shared by many request threads, ClockCache avoids the LRU lock.
  */
 public final class LruCache<K,V> {
   private static final Object NULL = new Object();
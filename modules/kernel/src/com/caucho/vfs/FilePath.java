@@ -37,6 +37,7 @@ import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.nio.channels.FileChannel;
 import java.security.AccessControlException;
 import java.util.Locale;
 import java.util.Map;
@@ -596,6 +597,18 @@ public class FilePath extends FilesystemPath {
     return new FileReadStream(new FileInputStream(getFile()), this);
   }
 
+  /**
+   * Opens a channel to read the file, used for zero-copy writes.
+   */
+  @Override
+  public FileChannel openReadChannel() throws IOException
+  {
+    if (_isWindows && isAux())
+      throw new FileNotFoundException(_file.toString());
+
+    return new FileInputStream(getFile()).getChannel();
+  }
+
   public StreamImpl openWriteImpl() throws IOException
   {
     FileWriteStream fws = new FileWriteStream(
@@ -651,6 +664,30 @@ public class FilePath extends FilesystemPath {
     return new FileRandomAccessStream(new RandomAccessFile(getFile(), "rw"));
   }
 
+  /**
+   * Opens a memory-mapped random-access stream of the given size,
+   * returning null if the file can't be mapped.
+   */
+  @Override
+  public RandomAccessStream openMemoryMappedFile(long fileSize)
+    throws IOException
+  {
+    if (_isWindows && isAux())
+      throw new FileNotFoundException(_file.toString());
+
+    try {
+      return MmapRandomAccessStream.open(getFile(), fileSize);
+    } catch (IOException e) {
+      log.log(Level.FINE, e.toString(), e);
+
+      return null;
+    } catch (RuntimeException e) {
+      log.log(Level.FINE, e.toString(), e);
+
+      return null;
+    }
+  }
+
   @Override
   public Path copy()
   {
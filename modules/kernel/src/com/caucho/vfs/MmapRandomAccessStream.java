@@ -0,0 +1,457 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free SoftwareFoundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+package com.caucho.vfs;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Random access to a file through java.nio memory mapping.
+ *
+ * The file is mapped as a fixed-length set of 1G regions, so reads and
+ * writes are memory copies without system calls.  A larger file needs a
+ * new stream; the mapping is released when the stream's last user frees
+ * it.
+ */
+public class MmapRandomAccessStream extends RandomAccessStream
+{
+  private static final Logger log
+    = Logger.getLogger(MmapRandomAccessStream.class.getName());
+
+  private static final int CHUNK_BITS = 30;
+  private static final long CHUNK_SIZE = 1L << CHUNK_BITS;
+  private static final long CHUNK_MASK = CHUNK_SIZE - 1;
+
+  private static final Object _unsafe;
+  private static final Method _invokeCleaner;
+
+  private final File _file;
+  private final long _length;
+
+  private RandomAccessFile _raf;
+  private MappedByteBuffer []_chunks;
+
+  private long _position;
+
+  private InputStream _is;
+  private OutputStream _os;
+
+  private MmapRandomAccessStream(File file,
+                                 RandomAccessFile raf,
+                                 MappedByteBuffer []chunks,
+                                 long length)
+  {
+    _file = file;
+    _raf = raf;
+    _chunks = chunks;
+    _length = length;
+  }
+
+  /**
+   * Maps the file, extending it to the given length if necessary.
+   */
+  public static MmapRandomAccessStream open(File file, long length)
+    throws IOException
+  {
+    if (length <= 0)
+      throw new IllegalArgumentException(String.valueOf(length));
+
+    RandomAccessFile raf = new RandomAccessFile(file, "rw");
+
+    try {
+      FileChannel channel = raf.getChannel();
+
+      int count = (int) ((length + CHUNK_MASK) >> CHUNK_BITS);
+      MappedByteBuffer []chunks = new MappedByteBuffer[count];
+
+      for (int i = 0; i < count; i++) {
+        long offset = (long) i << CHUNK_BITS;
+        long sublen = Math.min(CHUNK_SIZE, length - offset);
+
+        chunks[i] = channel.map(FileChannel.MapMode.READ_WRITE, offset, sublen);
+      }
+
+      MmapRandomAccessStream stream
+        = new MmapRandomAccessStream(file, raf, chunks, length);
+
+      raf = null;
+
+      return stream;
+    } finally {
+      if (raf != null)
+        raf.close();
+    }
+  }
+
+  /**
+   * Returns the mapped length.
+   */
+  @Override
+  public long getLength()
+  {
+    return _length;
+  }
+
+  /**
+   * Reads a block starting from the current file pointer.
+   */
+  @Override
+  public int read(byte []buffer, int offset, int length)
+    throws IOException
+  {
+    int sublen = read(_position, buffer, offset, length);
+
+    if (sublen > 0)
+      _position += sublen;
+
+    return sublen;
+  }
+
+  /**
+   * Reads a block starting from the current file pointer.
+   */
+  @Override
+  public int read(char []buffer, int offset, int length)
+    throws IOException
+  {
+    byte []bytes = new byte[length];
+
+    int count = read(bytes, 0, length);
+
+    for (int i = 0; i < count; i++) {
+      buffer[offset + i] = (char) (bytes[i] & 0xff);
+    }
+
+    return count;
+  }
+
+  /**
+   * Reads a block from a given location.
+   */
+  @Override
+  public int read(long fileOffset, byte []buffer, int offset, int length)
+    throws IOException
+  {
+    MappedByteBuffer []chunks = getChunks();
+
+    if (fileOffset < 0 || _length <= fileOffset)
+      return -1;
+
+    length = (int) Math.min(length, _length - fileOffset);
+
+    int remaining = length;
+
+    while (remaining > 0) {
+      ByteBuffer chunk = chunks[(int) (fileOffset >> CHUNK_BITS)].duplicate();
+      int chunkOffset = (int) (fileOffset & CHUNK_MASK);
+      int sublen = Math.min(remaining, chunk.capacity() - chunkOffset);
+
+      chunk.position(chunkOffset);
+      chunk.get(buffer, offset, sublen);
+
+      fileOffset += sublen;
+      offset += sublen;
+      remaining -= sublen;
+    }
+
+    return length;
+  }
+
+  /**
+   * Writes a block starting from the current file pointer.
+   */
+  @Override
+  public void write(byte []buffer, int offset, int length)
+    throws IOException
+  {
+    write(_position, buffer, offset, length);
+
+    _position += length;
+  }
+
+  /**
+   * Writes a block to a given location.  The mapping does not grow, so
+   * the block must be within the mapped length.
+   */
+  @Override
+  public void write(long fileOffset, byte []buffer, int offset, int length)
+    throws IOException
+  {
+    MappedByteBuffer []chunks = getChunks();
+
+    if (fileOffset < 0 || _length < fileOffset + length)
+      throw new IOException(this + " write at 0x" + Long.toHexString(fileOffset)
+                            + " is beyond the mapped length 0x"
+                            + Long.toHexString(_length));
+
+    while (length > 0) {
+      ByteBuffer chunk = chunks[(int) (fileOffset >> CHUNK_BITS)].duplicate();
+      int chunkOffset = (int) (fileOffset & CHUNK_MASK);
+      int sublen = Math.min(length, chunk.capacity() - chunkOffset);
+
+      chunk.position(chunkOffset);
+      chunk.put(buffer, offset, sublen);
+
+      fileOffset += sublen;
+      offset += sublen;
+      length -= sublen;
+    }
+  }
+
+  /**
+   * Seeks to the given position in the file.
+   */
+  @Override
+  public boolean seek(long position)
+  {
+    _position = position;
+
+    return true;
+  }
+
+  /**
+   * Returns an OutputStream for this stream.  Like a FileOutputStream on
+   * the file descriptor, it shares the stream's file pointer.
+   */
+  @Override
+  public OutputStream getOutputStream()
+    throws IOException
+  {
+    if (_os == null)
+      _os = new MmapOutputStream();
+
+    return _os;
+  }
+
+  /**
+   * Returns an InputStream for this stream.  Like a FileInputStream on
+   * the file descriptor, it shares the stream's file pointer.
+   */
+  @Override
+  public InputStream getInputStream()
+    throws IOException
+  {
+    if (_is == null)
+      _is = new MmapInputStream();
+
+    return _is;
+  }
+
+  /**
+   * Read a byte from the file, advancing the pointer.
+   */
+  @Override
+  public int read()
+    throws IOException
+  {
+    byte []buffer = new byte[1];
+
+    if (read(buffer, 0, 1) <= 0)
+      return -1;
+
+    return buffer[0] & 0xff;
+  }
+
+  /**
+   * Write a byte to the file, advancing the pointer.
+   */
+  @Override
+  public void write(int b)
+    throws IOException
+  {
+    byte []buffer = new byte[] { (byte) b };
+
+    write(buffer, 0, 1);
+  }
+
+  /**
+   * Returns the current position of the file pointer.
+   */
+  @Override
+  public long getFilePointer()
+    throws IOException
+  {
+    return _position;
+  }
+
+  /**
+   * Writes the dirty pages to the file.
+   */
+  @Override
+  public void fsync()
+    throws IOException
+  {
+    MappedByteBuffer []chunks = getChunks();
+
+    for (MappedByteBuffer chunk : chunks) {
+      chunk.force();
+    }
+  }
+
+  private MappedByteBuffer []getChunks()
+    throws IOException
+  {
+    MappedByteBuffer []chunks = _chunks;
+
+    if (chunks == null)
+      throw new IOException(this + " is closed");
+
+    return chunks;
+  }
+
+  /**
+   * Unmaps the file when the last user frees the stream.
+   */
+  @Override
+  protected void closeImpl()
+    throws IOException
+  {
+    MappedByteBuffer []chunks = _chunks;
+    _chunks = null;
+
+    RandomAccessFile raf = _raf;
+    _raf = null;
+
+    if (chunks != null) {
+      for (MappedByteBuffer chunk : chunks) {
+        unmap(chunk);
+      }
+    }
+
+    if (raf != null)
+      raf.close();
+  }
+
+  /**
+   * Releases the mapping immediately instead of waiting for the
+   * buffer's finalization, when the JDK allows it.
+   */
+  private static void unmap(MappedByteBuffer buffer)
+  {
+    if (_invokeCleaner == null || buffer == null)
+      return;
+
+    try {
+      _invokeCleaner.invoke(_unsafe, buffer);
+    } catch (Exception e) {
+      log.log(Level.FINEST, e.toString(), e);
+    }
+  }
+
+  @Override
+  public String toString()
+  {
+    return getClass().getSimpleName() + "[" + _file + "]";
+  }
+
+  class MmapInputStream extends InputStream {
+    @Override
+    public int read()
+      throws IOException
+    {
+      return MmapRandomAccessStream.this.read();
+    }
+
+    @Override
+    public int read(byte []buffer, int offset, int length)
+      throws IOException
+    {
+      if (length == 0)
+        return 0;
+
+      return MmapRandomAccessStream.this.read(buffer, offset, length);
+    }
+
+    @Override
+    public long skip(long n)
+    {
+      long sublen = Math.max(0, Math.min(n, _length - _position));
+
+      _position += sublen;
+
+      return sublen;
+    }
+
+    @Override
+    public int available()
+    {
+      return (int) Math.max(0, Math.min(Integer.MAX_VALUE,
+                                        _length - _position));
+    }
+  }
+
+  class MmapOutputStream extends OutputStream {
+    @Override
+    public void write(int b)
+      throws IOException
+    {
+      MmapRandomAccessStream.this.write(b);
+    }
+
+    @Override
+    public void write(byte []buffer, int offset, int length)
+      throws IOException
+    {
+      MmapRandomAccessStream.this.write(buffer, offset, length);
+    }
+  }
+
+  static {
+    Object unsafe = null;
+    Method invokeCleaner = null;
+
+    try {
+      Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+
+      Field field = unsafeClass.getDeclaredField("theUnsafe");
+      field.setAccessible(true);
+
+      invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+      unsafe = field.get(null);
+    } catch (Throwable e) {
+      log.log(Level.FINEST, e.toString(), e);
+
+      invokeCleaner = null;
+    }
+
+    _unsafe = unsafe;
+    _invokeCleaner = invokeCleaner;
+  }
+}
@@ -30,9 +30,9 @@
 package com.caucho.vfs;
 
 import com.caucho.util.CharBuffer;
+import com.caucho.util.ClockCache;
 import com.caucho.util.Crc64;
 import com.caucho.util.L10N;
-import com.caucho.util.LruCache;
 import com.caucho.util.RandomUtil;
 
 import java.io.File;
@@ -40,6 +40,7 @@ import java.io.IOException;
 import java.io.OutputStream;
 import java.net.URL;
 import java.net.URLDecoder;
+import java.nio.channels.FileChannel;
 import java.security.cert.Certificate;
 import java.util.ArrayList;
 import java.util.Iterator;
@@ -72,8 +73,8 @@ public abstract class Path implements Comparable<Path> {
 
   private static final Integer LOCK = new Integer(0);
   
-  private static final LruCache<PathKey,Path> _pathLookupCache
-    = new LruCache<PathKey,Path>(8192);
+  private static final ClockCache<PathKey,Path> _pathLookupCache
+    = new ClockCache<PathKey,Path>(8192);
 
   private static boolean _isTestWindows;
 
@@ -1425,6 +1426,16 @@ public abstract class Path implements Comparable<Path> {
     }
   }
 
+  /**
+   * Opens a FileChannel to read the path, or returns null if the path
+   * is not a local file.
+   */
+  public FileChannel openReadChannel()
+    throws IOException
+  {
+    return null;
+  }
+
   /**
    * Returns the crc64 code.
    */
@@ -37,7 +37,9 @@ import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.net.BindException;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
+import java.nio.channels.ServerSocketChannel;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -92,8 +94,8 @@ public class QJniServerSocket {
 
     for (int i = 0; i < 10; i++) {
       try {
-        ServerSocket ss = new ServerSocket(port, listenBacklog, host);
-      
+        ServerSocket ss = openServerSocket(host, port, listenBacklog);
+
         return new QServerSocketWrapper(ss);
       } catch (BindException e) {
       }
@@ -105,8 +107,8 @@ public class QJniServerSocket {
     }
     
     try {
-      ServerSocket ss = new ServerSocket(port, listenBacklog, host);
-      
+      ServerSocket ss = openServerSocket(host, port, listenBacklog);
+
       return new QServerSocketWrapper(ss);
     } catch (BindException e) {
       if (host != null)
@@ -117,6 +119,33 @@ public class QJniServerSocket {
 
   }
 
+  /**
+   * Opens a channel-backed ServerSocket, so accepted sockets can be
+   * registered with a java.nio Selector for keepalive.
+   */
+  private static ServerSocket openServerSocket(InetAddress host,
+                                               int port,
+                                               int listenBacklog)
+    throws IOException
+  {
+    ServerSocketChannel channel = ServerSocketChannel.open();
+
+    boolean isValid = false;
+
+    try {
+      ServerSocket ss = channel.socket();
+
+      ss.bind(new InetSocketAddress(host, port), listenBacklog);
+
+      isValid = true;
+
+      return ss;
+    } finally {
+      if (! isValid)
+        channel.close();
+    }
+  }
+
   /**
    * Creates the SSL ServerSocket.
    */
@@ -106,6 +106,14 @@ abstract public class QServerSocket {
     return null;
   }
 
+  /**
+   * True if accepted sockets can be registered with a java.nio Selector.
+   */
+  public boolean isSelectable()
+  {
+    return false;
+  }
+
   public boolean isClosed()
   {
     return false;
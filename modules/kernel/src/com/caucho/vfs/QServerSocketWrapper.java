@@ -196,6 +196,18 @@ public class QServerSocketWrapper extends QServerSocket {
     }
   }
 
+  /**
+   * True if the server socket is channel-backed, so accepted sockets
+   * can be registered with a java.nio Selector.
+   */
+  @Override
+  public boolean isSelectable()
+  {
+    ServerSocket ss = _ss;
+
+    return ss != null && ss.getChannel() != null;
+  }
+
   /**
    * Closes the underlying socket.
    */
@@ -30,9 +30,10 @@
 package com.caucho.vfs;
 
 import java.io.IOException;
+import java.nio.channels.FileChannel;
 
 /**
- * An OutputStream which supports sendfile and mmap.
+ * An OutputStream which supports sendfile, mmap and transferTo.
  */
 public interface SendfileOutputStream {
   public boolean isMmapEnabled();
@@ -52,4 +53,10 @@ public interface SendfileOutputStream {
   public void writeSendfile(byte []fileName, int nameLength,
                             long fileLength)
     throws IOException;
+
+  public boolean isTransferToEnabled();
+
+  public void writeTransferTo(FileChannel channel,
+                              long fileOffset, long fileLength)
+    throws IOException;
 }
@@ -28,12 +28,11 @@
 
 package com.caucho.vfs;
 
+import java.io.EOFException;
 import java.io.InterruptedIOException;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
-import java.net.Socket;
 import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.channels.SocketChannel;
 import java.util.logging.*;
 
@@ -56,8 +55,9 @@ public class SocketChannelStream extends StreamImpl {
   
   private ByteBuffer _readBuffer;
   private ByteBuffer _writeBuffer;
+  
+  private final ByteBuffer []_gatherBuffers = new ByteBuffer[2];
 
-  private boolean _needsFlush;
   private byte []_newline = UNIX_NEWLINE;
 
   private boolean _throwReadInterrupts = false;
@@ -88,8 +88,7 @@ public class SocketChannelStream extends StreamImpl {
     _channel = channel;
     _readBuffer.clear();
     _readBuffer.flip();
-    
-    _needsFlush = false;
+
   }
 
   /**
@@ -177,25 +176,23 @@ public class SocketChannelStream extends StreamImpl {
         return -1;
       }
       
-      int remaining = _readBuffer.remaining();
+      if (! _readBuffer.hasRemaining()) {
+        _readBuffer.clear();
       
-      if (remaining > 0) {
-        _readBuffer.get(buf, offset, remaining);
+        int channelRead = _channel.read(_readBuffer);
+        _readBuffer.flip();
       
-        return remaining;
+        if (channelRead < 0)
+          return -1;
+        
+        _totalReadBytes += channelRead;
       }
       
-      _readBuffer.clear();
-      
-      int channelRead = _channel.read(_readBuffer);
-      _readBuffer.flip();
-      
-      if (channelRead < 0)
-        return -1;
+      int sublen = Math.min(length, _readBuffer.remaining());
       
-      _readBuffer.get(buf, offset, channelRead);
+      _readBuffer.get(buf, offset, sublen);
       
-      return channelRead;
+      return sublen;
     } catch (InterruptedIOException e) {
       if (_throwReadInterrupts)
         throw e;
@@ -264,16 +261,14 @@ public class SocketChannelStream extends StreamImpl {
     return 1;
   }
 
-  /*
   @Override
   public boolean canWrite()
   {
-    return _os != null || _s != null;
+    return _channel != null;
   }
-  */
 
   /**
-   * Writes bytes to the socket.
+   * Writes bytes to the socket through the direct write buffer.
    *
    * @param buf byte buffer containing the bytes
    * @param offset offset into the buffer
@@ -282,56 +277,145 @@ public class SocketChannelStream extends StreamImpl {
    *
    * @exception throws ClientDisconnectException if the connection is dropped
    */
-  /*
   @Override
   public void write(byte []buf, int offset, int length, boolean isEnd)
     throws IOException
   {
-    if (_os == null) {
-      if (_s == null)
-        return;
-      
-      _os = _s.getOutputStream();
-    }
+    SocketChannel channel = _channel;
+    
+    if (channel == null)
+      return;
+    
+    ByteBuffer writeBuffer = _writeBuffer;
     
     try {
-      _needsFlush = true;
-      _os.write(buf, offset, length);
-      _totalWriteBytes += length;
-    } catch (IOException e) {
-      try {
-        close();
-      } catch (IOException e1) {
+      while (length > 0) {
+        int sublen = Math.min(length, writeBuffer.capacity());
+        
+        writeBuffer.clear();
+        writeBuffer.put(buf, offset, sublen);
+        writeBuffer.flip();
+        
+        while (writeBuffer.hasRemaining()) {
+          channel.write(writeBuffer);
+        }
+        
+        offset += sublen;
+        length -= sublen;
+        _totalWriteBytes += sublen;
       }
+    } catch (IOException e) {
+      throw disconnect(e);
+    } finally {
+      writeBuffer.clear();
+    }
+  }
 
-      throw ClientDisconnectException.create(e);
+  /**
+   * Writes a pair of buffers with a single gathering write.  The first
+   * buffer, usually the buffered headers, is copied to the direct write
+   * buffer, and the second is written from the heap.
+   */
+  @Override
+  public boolean write(byte []buf1, int off1, int len1,
+                       byte []buf2, int off2, int len2,
+                       boolean isEnd)
+    throws IOException
+  {
+    SocketChannel channel = _channel;
+    
+    if (channel == null)
+      return true;
+    
+    if (_writeBuffer.capacity() < len1)
+      return false;
+    
+    ByteBuffer []buffers = _gatherBuffers;
+    
+    try {
+      ByteBuffer writeBuffer = _writeBuffer;
+      
+      writeBuffer.clear();
+      writeBuffer.put(buf1, off1, len1);
+      writeBuffer.flip();
+      
+      buffers[0] = writeBuffer;
+      buffers[1] = ByteBuffer.wrap(buf2, off2, len2);
+      
+      while (buffers[1].hasRemaining()) {
+        channel.write(buffers);
+      }
+      
+      _totalWriteBytes += len1 + len2;
+      
+      return true;
+    } catch (IOException e) {
+      throw disconnect(e);
+    } finally {
+      _writeBuffer.clear();
+      buffers[1] = null;
     }
   }
-  */
 
   /**
-   * Flushes the socket.
+   * Returns true, since the channel can transfer file data without
+   * copying it through the heap.
    */
-  /*
   @Override
-  public void flush() throws IOException
+  public boolean isTransferToEnabled()
   {
-    if (_os == null || ! _needsFlush)
-      return;
+    return _channel != null;
+  }
 
-    _needsFlush = false;
+  /**
+   * Writes the buffered bytes, then transfers the file region with
+   * FileChannel.transferTo.
+   */
+  @Override
+  public void writeTransferTo(byte []buf, int offset, int length,
+                              FileChannel fileChannel,
+                              long fileOffset, long fileLength)
+    throws IOException
+  {
+    if (length > 0)
+      write(buf, offset, length, false);
+    
+    SocketChannel channel = _channel;
+    
+    if (channel == null)
+      throw new ClientDisconnectException(this + " closed");
+    
     try {
-      _os.flush();
-    } catch (IOException e) {
-      try {
-        close();
-      } catch (IOException e1) {
-      }
+      long end = fileOffset + fileLength;
       
-      throw ClientDisconnectException.create(e);
+      while (fileOffset < end) {
+        long sublen = fileChannel.transferTo(fileOffset, end - fileOffset,
+                                             channel);
+        
+        if (sublen <= 0) {
+          if (fileChannel.size() <= fileOffset)
+            throw new EOFException(this + " unexpected end of file at "
+                                   + fileOffset);
+        }
+        
+        fileOffset += sublen;
+        _totalWriteBytes += sublen;
+      }
+    } catch (EOFException e) {
+      throw e;
+    } catch (IOException e) {
+      throw disconnect(e);
     }
   }
 
+  /**
+   * Flushes the socket.  Writes are not buffered, so this is a no-op.
+   */
+  @Override
+  public void flush() throws IOException
+  {
+  }
+
   public void resetTotalBytes()
   {
     _totalReadBytes = 0;
@@ -347,33 +431,35 @@ public class SocketChannelStream extends StreamImpl {
   {
     return _totalWriteBytes;
   }
-  */
 
   /**
    * Closes the write half of the stream.
    */
-  /*
   @Override
   public void closeWrite() throws IOException
   {
-    OutputStream os = _os;
-    _os = null;
-
-    // since the output stream is opened lazily, we might
-    // need to open it
-    if (_s != null) {
+    SocketChannel channel = _channel;
+    
+    if (channel != null) {
       try {
-        _s.shutdownOutput();
+        channel.socket().shutdownOutput();
       } catch (Exception e) {
         log.log(Level.FINER, e.toString(), e);
       }
     }
-
-    // SSLSocket doesn't support shutdownOutput()
-    if (os != null)
-      os.close();
   }
-  */
+  
+  private IOException disconnect(IOException e)
+  {
+    IOException exn = ClientDisconnectException.create(this + ":" + e, e);
+    
+    try {
+      close();
+    } catch (IOException e1) {
+    }
+    
+    return exn;
+  }
 
   /**
    * Closes the underlying sockets and socket streams.
@@ -28,11 +28,15 @@
 
 package com.caucho.vfs;
 
+import java.io.EOFException;
 import java.io.InterruptedIOException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
 import java.util.logging.*;
 
 import com.caucho.inject.Module;
@@ -61,6 +65,8 @@ public class SocketStream extends StreamImpl {
   private long _totalReadBytes;
   private long _totalWriteBytes;
 
+  private final ByteBuffer []_gatherBuffers = new ByteBuffer[2];
+
   public SocketStream()
   {
   }
@@ -303,6 +309,121 @@ public class SocketStream extends StreamImpl {
     }
   }
 
+  /**
+   * Writes a pair of buffers with a single gathering write for NIO
+   * sockets, so a buffered header and a large body go out together.
+   */
+  @Override
+  public boolean write(byte []buf1, int off1, int len1,
+                       byte []buf2, int off2, int len2,
+                       boolean isEnd)
+    throws IOException
+  {
+    Socket s = _s;
+    SocketChannel socketChannel = s != null ? s.getChannel() : null;
+
+    if (socketChannel == null || ! socketChannel.isBlocking())
+      return super.write(buf1, off1, len1, buf2, off2, len2, isEnd);
+
+    ByteBuffer []buffers = _gatherBuffers;
+
+    try {
+      if (_needsFlush) {
+        _needsFlush = false;
+        _os.flush();
+      }
+
+      buffers[0] = ByteBuffer.wrap(buf1, off1, len1);
+      buffers[1] = ByteBuffer.wrap(buf2, off2, len2);
+
+      while (buffers[1].hasRemaining()) {
+        socketChannel.write(buffers);
+      }
+
+      _totalWriteBytes += len1 + len2;
+
+      return true;
+    } catch (IOException e) {
+      IOException exn = ClientDisconnectException.create(this + ":" + e, e);
+
+      try {
+        close();
+      } catch (IOException e1) {
+      }
+
+      throw exn;
+    } finally {
+      buffers[0] = null;
+      buffers[1] = null;
+    }
+  }
+
+  /**
+   * Returns true for NIO sockets, which can transfer file data without
+   * copying it through the heap.
+   */
+  @Override
+  public boolean isTransferToEnabled()
+  {
+    Socket s = _s;
+
+    return s != null && s.getChannel() != null;
+  }
+
+  /**
+   * Writes the buffered bytes, then transfers the file region with
+   * FileChannel.transferTo.
+   */
+  @Override
+  public void writeTransferTo(byte []buf, int offset, int length,
+                              FileChannel channel,
+                              long fileOffset, long fileLength)
+    throws IOException
+  {
+    if (length > 0)
+      write(buf, offset, length, false);
+
+    Socket s = _s;
+    SocketChannel socketChannel = s != null ? s.getChannel() : null;
+
+    if (socketChannel == null)
+      throw new ClientDisconnectException(this + " closed");
+
+    try {
+      if (_needsFlush) {
+        _needsFlush = false;
+        _os.flush();
+      }
+
+      long end = fileOffset + fileLength;
+
+      while (fileOffset < end) {
+        long sublen = channel.transferTo(fileOffset, end - fileOffset,
+                                         socketChannel);
+
+        if (sublen <= 0) {
+          if (channel.size() <= fileOffset)
+            throw new EOFException(this + " unexpected end of file at "
+                                   + fileOffset);
+        }
+
+        fileOffset += sublen;
+        _totalWriteBytes += sublen;
+      }
+    } catch (EOFException e) {
+      throw e;
+    } catch (IOException e) {
+      IOException exn = ClientDisconnectException.create(this + ":" + e, e);
+
+      try {
+        close();
+      } catch (IOException e1) {
+      }
+
+      throw exn;
+    }
+  }
+
   /**
    * Flushes the socket.
    */
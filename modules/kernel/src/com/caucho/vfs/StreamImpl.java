@@ -32,6 +32,7 @@ package com.caucho.vfs;
 import com.caucho.util.NullIterator;
 
 import java.io.IOException;
+import java.nio.channels.FileChannel;
 import java.util.Iterator;
 
 /**
@@ -380,6 +381,27 @@ public class StreamImpl {
     throw new UnsupportedOperationException(getClass().getName());
   }
 
+  /**
+   * Returns true if the stream can write file data with
+   * FileChannel.transferTo.
+   */
+  public boolean isTransferToEnabled()
+  {
+    return false;
+  }
+
+  /**
+   * Writes the buffered bytes, followed by a region of the file
+   * transferred directly from the file channel.
+   */
+  public void writeTransferTo(byte []buffer, int offset, int length,
+                              FileChannel channel,
+                              long fileOffset, long fileLength)
+    throws IOException
+  {
+    throw new UnsupportedOperationException(getClass().getName());
+  }
+
   /**
    * Closes the write half of the stream.
    */
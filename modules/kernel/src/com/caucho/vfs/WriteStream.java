@@ -34,6 +34,7 @@ import java.io.InputStream;
 import java.io.PrintWriter;
 import java.io.Reader;
 import java.io.UnsupportedEncodingException;
+import java.nio.channels.FileChannel;
 import java.util.Iterator;
 import java.util.Locale;
 
@@ -312,20 +313,18 @@ public class WriteStream extends OutputStreamWithBuffer
     }
 
     if (bufferLength <= length) {
-      /*
-      if (source.write(buffer, 0, writeLength,
-                       buf, offset, length, false)) {
-        _position += (writeLength + length);
-        return;
-      }
-      */
-      if (writeLength > 0) {
-        source.write(buffer, 0, writeLength, false);
+      // a gathering write sends the buffered bytes and the array together
+      if (! source.write(buffer, 0, writeLength,
+                         buf, offset, length, false)) {
+        if (writeLength > 0) {
+          source.write(buffer, 0, writeLength, false);
+        }
+
+        source.write(buf, offset, length, false);
       }
 
-      source.write(buf, offset, length, false);
       _writeLength = 0;
-      _position += length;
+      _position += writeLength + length;
       _isFlushRequired = true;
       return;
     }
@@ -1665,6 +1664,32 @@ public class WriteStream extends OutputStreamWithBuffer
     _position += fileLength;
   }
 
+  @Override
+  public boolean isTransferToEnabled()
+  {
+    return _source.isTransferToEnabled();
+  }
+
+  @Override
+  public void writeTransferTo(FileChannel channel,
+                              long fileOffset, long fileLength)
+    throws IOException
+  {
+    int writeLength = _writeLength;
+
+    if (writeLength > 0) {
+      _writeLength = 0;
+      _position += writeLength;
+    }
+
+    _source.writeTransferTo(_writeBuffer, 0, writeLength,
+                            channel, fileOffset, fileLength);
+
+    _isFlushRequired = true;
+
+    _position += fileLength;
+  }
+
   @Override
   public String toString()
   {
@@ -57,6 +57,11 @@ public class ArrayValueImpl extends ArrayValue
   private Entry []_entries;
   private int _hashMask;
 
+  // a packed array has exactly the integer keys 0.._size-1.  Its
+  // _entries table is indexed directly by the key instead of hashed,
+  // until the first non-sequential key converts it to a hashed table.
+  private boolean _isPacked = true;
+
   private int _size;
   private long _nextAvailableIndex;
   private boolean _isDirty;
@@ -120,6 +125,7 @@ public class ArrayValueImpl extends ArrayValue
     _size = source._size;
     _entries = source._entries;
     _hashMask = source._hashMask;
+    _isPacked = source._isPacked;
 
     _head = source._head;
     setCurrent(source.getCurrent());
@@ -137,6 +143,7 @@ public class ArrayValueImpl extends ArrayValue
     _size = source.getSize();
     _entries = source.getEntries();
     _hashMask = source.getHashMask();
+    _isPacked = source.isPacked();
 
     _head = source.getHead();
     setCurrent(source.getCurrent());
@@ -226,6 +233,14 @@ public class ArrayValueImpl extends ArrayValue
     return _hashMask;
   }
 
+  /**
+   * Returns true if the entries table is indexed by the integer key.
+   */
+  protected boolean isPacked()
+  {
+    return _isPacked;
+  }
+
   protected long getNextAvailableIndex()
   {
     return _nextAvailableIndex;
@@ -251,7 +266,10 @@ public class ArrayValueImpl extends ArrayValue
     for (Entry ptr = _head; ptr != null; ptr = ptr.getNext()) {
       Entry ptrCopy = new Entry(ptr);
 
-      if (entries != null) {
+      if (entries != null && _isPacked) {
+        entries[(int) ptr.getKey().toLong()] = ptrCopy;
+      }
+      else if (entries != null) {
         int hash = ptr.getKey().hashCode() & _hashMask;
 
         Entry head = entries[hash];
@@ -441,6 +459,7 @@ public class ArrayValueImpl extends ArrayValue
     }
 
     _entries = null;
+    _isPacked = true;
 
     _size = 0;
     _head = _tail = null;
@@ -487,6 +506,9 @@ public class ArrayValueImpl extends ArrayValue
     if (_isDirty)
       copyOnWrite();
 
+    if (_isPacked)
+      unpack();
+
     _size++;
 
     Entry []entries = _entries;
@@ -521,6 +543,9 @@ public class ArrayValueImpl extends ArrayValue
     if (_isDirty)
       copyOnWrite();
 
+    if (_isPacked)
+      unpack();
+
     int index = 0;
 
     ArrayValueImpl result = new ArrayValueImpl();
@@ -784,33 +809,11 @@ public class ArrayValueImpl extends ArrayValue
   @Override
   public Value get(Value key)
   {
-    key = key.toKey();
-
-    Entry []entries = _entries;
-    Entry entry;
-
-    if (entries != null) {
-      int hash = key.hashCode() & _hashMask;
-
-      entry = entries[hash];
-    }
-    else {
-      entry = _head;
-    }
-
-    for (; entry != null; entry = entry.getNextHash()) {
-      Value entryKey = entry.getKey();
-
-      if (key == entryKey || key.equals(entryKey)) {
-        //Var var = entry._var;
-
-        //return var != null ? var.toValue() : entry._value;
-        // return entry._value.toValue(); // php/39a1
-
-        // 4.0.4 - _value.toValue() is marginally faster than _var
-        return entry.toValue();
+    Entry entry = findEntry(key.toKey());
 
-      }
+    if (entry != null) {
+      // 4.0.4 - _value.toValue() is marginally faster than _var
+      return entry.toValue();
     }
 
     return UnsetValue.UNSET;
@@ -823,32 +826,10 @@ public class ArrayValueImpl extends ArrayValue
   @Override
   public Value getRaw(Value key)
   {
-    key = key.toKey();
+    Entry entry = findEntry(key.toKey());
 
-    Entry []entries = _entries;
-    Entry entry;
-
-    if (entries != null) {
-      int hashMask = _hashMask;
-      int hash = key.hashCode() & hashMask;
-
-      entry = entries[hash];
-    }
-    else
-      entry = _head;
-
-    for (; entry != null; entry = entry.getNextHash()) {
-      Value entryKey = entry.getKey();
-
-      if (key == entryKey || key.equals(entryKey)) {
-        return entry.getRawValue();
-        /*
-          Var var = entry._var;
-
-          return var != null ? var : entry._value;
-        */
-      }
-    }
+    if (entry != null)
+      return entry.getRawValue();
 
     return UnsetValue.UNSET;
   }
@@ -912,18 +893,33 @@ public class ArrayValueImpl extends ArrayValue
    */
   private Entry getEntry(Value key)
   {
-    key = key.toKey();
+    return findEntry(key.toKey());
+  }
 
+  /**
+   * Returns the entry for a key already converted with toKey().
+   */
+  private Entry findEntry(Value key)
+  {
     Entry []entries = _entries;
     Entry entry;
 
-    if (entries != null) {
+    if (entries == null) {
+      entry = _head;
+    }
+    else if (_isPacked) {
+      int index = getPackedIndex(key);
+
+      if (index >= 0)
+        return entries[index];
+      else
+        return null;
+    }
+    else {
       int hash = key.hashCode() & _hashMask;
 
       entry = entries[hash];
     }
-    else
-      entry = _head;
 
     for (; entry != null; entry = entry.getNextHash()) {
       Value entryKey = entry.getKey();
@@ -935,6 +931,22 @@ public class ArrayValueImpl extends ArrayValue
     return null;
   }
 
+  /**
+   * Returns the packed index for the key, or -1 if the key isn't in
+   * the array.
+   */
+  private int getPackedIndex(Value key)
+  {
+    if (key instanceof LongValue) {
+      long index = key.toLong();
+
+      if (0 <= index && index < _size)
+        return (int) index;
+    }
+
+    return -1;
+  }
+
   /**
    * Removes a value.
    */
@@ -946,6 +958,22 @@ public class ArrayValueImpl extends ArrayValue
 
     key = key.toKey();
 
+    if (_isPacked) {
+      int index = getPackedIndex(key);
+
+      if (index < 0)
+        return UnsetValue.UNSET;
+      else if (index < _size - 1)
+        unpack();
+      else if (_entries != null) {
+        // removing the tail keeps the array packed
+        Entry entry = _entries[index];
+        _entries[index] = null;
+
+        return removeEntry(key, entry);
+      }
+    }
+
     Entry []entries = _entries;
     Entry entry;
 
@@ -1054,30 +1082,27 @@ public class ArrayValueImpl extends ArrayValue
 
     key = key.toKey();
 
-    int hash = key.hashCode();
-
-    int hashMask = _hashMask;
-
-    hash = hash & hashMask;
+    Entry entry = findEntry(key);
 
-    Entry []entries = _entries;
-    Entry entry;
-
-    if (entries != null) {
-      entry = entries[hash];
-    }
-    else {
-      entry = _head;
-    }
+    if (entry != null)
+      return entry;
 
-    for (; entry != null; entry = entry.getNextHash()) {
-      Value entryKey = entry.getKey();
+    return addNewEntry(key);
+  }
 
-      if (key == entryKey)
-        return entry;
+  private Entry createNewEntry(Value key)
+  {
+    return addNewEntry(key.toKey());
+  }
 
-      if (key.equals(entryKey))
-        return entry;
+  /**
+   * Adds an entry for a key which isn't in the array.
+   */
+  private Entry addNewEntry(Value key)
+  {
+    if (_isPacked
+        && ! (key instanceof LongValue && key.toLong() == _size)) {
+      unpack();
     }
 
     _size++;
@@ -1090,12 +1115,19 @@ public class ArrayValueImpl extends ArrayValue
       if (_tail != null)
         _tail.setNextHash(newEntry);
     }
+    else if (_isPacked) {
+      if (_entries == null || _entries.length < _size)
+        expandPacked();
+
+      _entries[_size - 1] = newEntry;
+    }
     else {
       if (_entries == null || _entries.length <= 2 * _size) {
         expand();
-        hash = key.hashCode() & _hashMask;
       }
 
+      int hash = key.hashCode() & _hashMask;
+
       Entry head = _entries[hash];
 
       newEntry.setNextHash(head);
@@ -1121,52 +1153,56 @@ public class ArrayValueImpl extends ArrayValue
     return newEntry;
   }
 
-  private Entry createNewEntry(Value key)
+  /**
+   * Grows the packed table, which is indexed by key.
+   */
+  private void expandPacked()
   {
-    key = key.toKey();
+    Entry []oldEntries = _entries;
 
-    int hashMask = _hashMask;
-    int hash = key.hashCode() & hashMask;
+    int capacity = oldEntries != null ? 2 * oldEntries.length : 8;
 
-    _size++;
+    while (capacity < _size) {
+      capacity *= 2;
+    }
 
-    Entry newEntry = new Entry(key);
-    if (_nextAvailableIndex >= 0)
-      _nextAvailableIndex = key.nextIndex(_nextAvailableIndex);
+    Entry []entries = new Entry[capacity];
 
-    if (_entries == null && _size < MIN_HASH) {
-      if (_tail != null)
-        _tail.setNextHash(newEntry);
+    if (oldEntries != null) {
+      System.arraycopy(oldEntries, 0, entries, 0, oldEntries.length);
     }
     else {
-      if (_entries == null || _entries.length <= 2 * _size) {
-        expand();
-        hash = key.hashCode() & _hashMask;
+      for (Entry entry = _head; entry != null; entry = entry.getNext()) {
+        entries[(int) entry.getKey().toLong()] = entry;
       }
+    }
 
-      Entry head = _entries[hash];
+    _entries = entries;
+  }
 
-      newEntry.setNextHash(head);
-      _entries[hash] = newEntry;
-    }
+  /**
+   * Converts a packed array to a hashed array.
+   */
+  private void unpack()
+  {
+    _isPacked = false;
 
-    if (_head == null) {
-      newEntry._prev = null;
-      newEntry.setNext(null);
+    // the short list without a table is already valid for a hashed array
+    if (_entries == null)
+      return;
 
-      _head = newEntry;
-      _tail = newEntry;
-      setCurrent(newEntry);
-    }
-    else {
-      newEntry._prev = _tail;
-      newEntry.setNext(null);
+    int capacity = 8;
 
-      _tail.setNext(newEntry);
-      _tail = newEntry;
+    while (capacity <= 2 * _size) {
+      capacity *= 2;
     }
 
-    return newEntry;
+    _entries = new Entry[capacity];
+    _hashMask = capacity - 1;
+
+    for (Entry entry = _head; entry != null; entry = entry.getNext()) {
+      addEntry(entry);
+    }
   }
 
   private void expand()
@@ -1331,6 +1367,8 @@ public class ArrayValueImpl extends ArrayValue
   {
     int size = in.readInt();
 
+    _isPacked = false;
+
     int capacity = DEFAULT_SIZE;
 
     while (capacity < 4 * size) {
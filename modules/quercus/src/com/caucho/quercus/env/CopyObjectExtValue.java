@@ -164,7 +164,7 @@ public class CopyObjectExtValue extends ObjectExtValue
   {
     _root.setModified();
 
-    super.initField(env, canonicalName, value);
+    super.initField(env, name, canonicalName, value);
   }
 
   /**
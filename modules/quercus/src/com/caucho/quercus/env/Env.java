@@ -77,6 +77,7 @@ import com.caucho.quercus.module.ModuleContext;
 import com.caucho.quercus.module.ModuleStartupListener;
 import com.caucho.quercus.page.QuercusPage;
 import com.caucho.quercus.program.ClassDef;
+import com.caucho.quercus.program.FunctionInfo;
 import com.caucho.quercus.program.JavaClassDef;
 import com.caucho.quercus.program.QuercusProgram;
 import com.caucho.quercus.program.UndefinedFunction;
@@ -282,6 +283,10 @@ public class Env
   // Current env
   private Map<StringValue, EnvVar> _map = _globalMap;
 
+  // slot cache of _map's variables for the current function frame
+  private FunctionInfo _localSlotFunction;
+  private EnvVar []_localSlots;
+
   private HashMap<String, Value> _iniMap;
 
   // specialMap is used for implicit resources like the mysql link
@@ -2331,6 +2336,44 @@ public class Env
     return _map;
   }
 
+  /**
+   * Returns the local variable slots if the current frame belongs to the
+   * function, or null.  A slot caches the EnvVar from the current map,
+   * whose entries are never replaced once created.
+   */
+  public final EnvVar []getLocalSlots(FunctionInfo fun)
+  {
+    if (_localSlotFunction == fun)
+      return _localSlots;
+    else
+      return null;
+  }
+
+  /**
+   * Returns the current frame's local variable slots.
+   */
+  public final EnvVar []getLocalSlots()
+  {
+    return _localSlots;
+  }
+
+  /**
+   * Returns the function owning the current local variable slots.
+   */
+  public final FunctionInfo getLocalSlotFunction()
+  {
+    return _localSlotFunction;
+  }
+
+  /**
+   * Sets the local variable slots for a new function frame.
+   */
+  public final void setLocalSlots(FunctionInfo fun, EnvVar []slots)
+  {
+    _localSlotFunction = fun;
+    _localSlots = slots;
+  }
+
   /**
    * Returns the current environment.
    */
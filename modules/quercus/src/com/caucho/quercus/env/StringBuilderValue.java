@@ -2110,7 +2110,7 @@ public class StringBuilderValue
     _length = in.readInt();
     _buffer = new byte[_length];
 
-    in.read(_buffer, 0, _length);
+    in.readFully(_buffer, 0, _length);
   }
 
   class BinaryInputStream extends InputStream {
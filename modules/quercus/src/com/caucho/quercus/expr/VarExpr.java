@@ -32,6 +32,7 @@ package com.caucho.quercus.expr;
 import com.caucho.quercus.Location;
 import com.caucho.quercus.env.ArrayValueImpl;
 import com.caucho.quercus.env.Env;
+import com.caucho.quercus.env.EnvVar;
 import com.caucho.quercus.env.NullValue;
 import com.caucho.quercus.env.Value;
 import com.caucho.quercus.env.StringValue;
@@ -46,6 +47,7 @@ public class VarExpr
 {
   private final VarInfo _var;
   protected final StringValue _name;
+  private final int _slot;
 
   private VarState _varState = VarState.INIT;
 
@@ -55,12 +57,14 @@ public class VarExpr
 
     _var = var;
     _name = var.getName();
+    _slot = var.getIndex();
   }
 
   protected VarExpr(VarInfo var)
   {
     _var = var;
     _name = var.getName();
+    _slot = var.getIndex();
   }
 
   /**
@@ -137,7 +141,40 @@ public class VarExpr
   @Override
   public Value eval(Env env)
   {
-    return env.getValue(_name, false, true);
+    EnvVar envVar = getEnvVar(env, false, true);
+
+    if (envVar != null)
+      return envVar.get();
+    else
+      return NullValue.NULL;
+  }
+
+  /**
+   * Returns the variable, using the function frame's slot when the
+   * frame has slots.  The slot caches the EnvVar from the frame's map.
+   */
+  private EnvVar getEnvVar(Env env,
+                           boolean isAutoCreate,
+                           boolean isOutputNotice)
+  {
+    int slot = _slot;
+    EnvVar []slots;
+
+    if (slot < 0
+        || (slots = env.getLocalSlots(_var.getFunction())) == null
+        || slots.length <= slot) {
+      return env.getEnvVar(_name, isAutoCreate, isOutputNotice);
+    }
+
+    EnvVar envVar = slots[slot];
+
+    if (envVar == null) {
+      envVar = env.getEnvVar(_name, isAutoCreate, isOutputNotice);
+
+      slots[slot] = envVar;
+    }
+
+    return envVar;
   }
 
   /**
@@ -149,7 +186,7 @@ public class VarExpr
   @Override
   public Value evalTop(Env env)
   {
-    return env.getValue(_name, false, false);
+    return evalIssetValue(env);
   }
 
   /**
@@ -157,7 +194,7 @@ public class VarExpr
    */
   public boolean evalIsset(Env env)
   {
-    return env.getValue(_name, false, false).isset();
+    return evalIssetValue(env).isset();
   }
 
   /**
@@ -165,7 +202,12 @@ public class VarExpr
    */
   public Value evalIssetValue(Env env)
   {
-    return env.getValue(_name, false, false);
+    EnvVar envVar = getEnvVar(env, false, false);
+
+    if (envVar != null)
+      return envVar.get();
+    else
+      return NullValue.NULL;
   }
 
   /**
@@ -189,7 +231,7 @@ public class VarExpr
   @Override
   public Value evalArray(Env env)
   {
-    Value value = env.getVar(_name);
+    Value value = getEnvVar(env, true, false).getVar();
 
     value = value.toAutoArray();
 
@@ -218,12 +260,14 @@ public class VarExpr
       }
     } else {
     */
-      value = env.getValue(_name);
+      EnvVar envVar = getEnvVar(env, true, false);
+
+      value = envVar.get();
 
       if (value == null || value.isString() || value.isNull()) {
         value = env.createObject();
 
-        env.setValue(_name, value);
+        envVar.set(value);
       }
     //}
 
@@ -238,7 +282,7 @@ public class VarExpr
    */
   public Var evalVar(Env env)
   {
-    return env.getVar(_name);
+    return getEnvVar(env, true, false).getVar();
   }
 
   /**
@@ -253,7 +297,7 @@ public class VarExpr
     // php/043k
     // php/0443
 
-    return env.getVar(_name);
+    return getEnvVar(env, true, false).getVar();
   }
 
   /**
@@ -265,7 +309,7 @@ public class VarExpr
   public Value evalAssignValue(Env env, Value value)
   {
     // php/0232
-    env.setValue(_name, value);
+    getEnvVar(env, true, false).set(value);
 
     return value;
   }
@@ -278,7 +322,7 @@ public class VarExpr
   @Override
   public Value evalAssignRef(Env env, Value value)
   {
-    env.setRef(_name, value);
+    getEnvVar(env, true, false).setRef(value);
 
     return value;
   }
@@ -40,10 +40,18 @@ public class VarInfo {
 
   private final StringValue _name;
 
+  private final int _index;
+
   public VarInfo(StringValue name, FunctionInfo function)
+  {
+    this(name, function, -1);
+  }
+
+  public VarInfo(StringValue name, FunctionInfo function, int index)
   {
     _name = name;
     _function = function;
+    _index = index;
   }
 
   /**
@@ -62,6 +70,15 @@ public class VarInfo {
     return _function;
   }
 
+  /**
+   * Returns the variable's slot in the function's local slots, or -1
+   * if the variable has no slot.
+   */
+  public int getIndex()
+  {
+    return _index;
+  }
+
   @Override
   public String toString()
   {
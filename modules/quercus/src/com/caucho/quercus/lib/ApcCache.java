@@ -0,0 +1,565 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+package com.caucho.quercus.lib;
+
+import com.caucho.quercus.env.ArrayValue;
+import com.caucho.quercus.env.ArrayValueImpl;
+import com.caucho.quercus.env.BooleanValue;
+import com.caucho.quercus.env.ConstArrayValue;
+import com.caucho.quercus.env.ConstStringValue;
+import com.caucho.quercus.env.DoubleValue;
+import com.caucho.quercus.env.Env;
+import com.caucho.quercus.env.LongValue;
+import com.caucho.quercus.env.NullValue;
+import com.caucho.quercus.env.SerializeMap;
+import com.caucho.quercus.env.StringBuilderValue;
+import com.caucho.quercus.env.StringValue;
+import com.caucho.quercus.env.UnserializeCacheEntry;
+import com.caucho.quercus.env.Value;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The APC user cache.
+ *
+ * Stored values are frozen into a shared, immutable form: strings become
+ * ConstStringValue and arrays become ConstArrayValue, so a fetch only
+ * returns a copy-on-write view instead of copying the whole tree.  Values
+ * containing objects keep the older deep copy, because the object's class
+ * is rebound to the fetching environment.
+ *
+ * The keys are split over lock-striped segments, each an access-ordered
+ * map.  Eviction is by the estimated memory size of the entries.
+ */
+class ApcCache
+{
+  private static final Logger log = Logger.getLogger(ApcCache.class.getName());
+
+  private static final int SEGMENT_COUNT = 16;
+  private static final int MAX_DEPTH = 64;
+
+  // rough per-value overhead in bytes, for the size estimate
+  private static final int VALUE_SIZE = 32;
+  private static final int ENTRY_SIZE = 64;
+
+  private final Segment []_segments = new Segment[SEGMENT_COUNT];
+
+  private final long _memoryMax;
+  private final int _segmentEntryMax;
+
+  private final AtomicLong _memorySize = new AtomicLong();
+
+  private final AtomicLong _hitCount = new AtomicLong();
+  private final AtomicLong _missCount = new AtomicLong();
+
+  private final long _startTime;
+
+  ApcCache(long memoryMax, int entryMax, long startTime)
+  {
+    _memoryMax = memoryMax;
+    _segmentEntryMax = Math.max(1, entryMax / SEGMENT_COUNT);
+    _startTime = startTime;
+
+    for (int i = 0; i < SEGMENT_COUNT; i++) {
+      _segments[i] = new Segment();
+    }
+  }
+
+  public int getCapacity()
+  {
+    return _segmentEntryMax * SEGMENT_COUNT;
+  }
+
+  public long getMemoryMax()
+  {
+    return _memoryMax;
+  }
+
+  public long getMemorySize()
+  {
+    return _memorySize.get();
+  }
+
+  public long getHitCount()
+  {
+    return _hitCount.get();
+  }
+
+  public long getMissCount()
+  {
+    return _missCount.get();
+  }
+
+  public long getStartTime()
+  {
+    return _startTime;
+  }
+
+  /**
+   * Returns the live entry for the key, or null if missing or expired.
+   */
+  public Entry get(Env env, String key)
+  {
+    long now = env.getCurrentTime();
+
+    Segment segment = getSegment(key);
+    Entry entry;
+
+    synchronized (segment) {
+      entry = segment.get(key);
+
+      if (entry != null && ! entry.isValid(now)) {
+        segment.remove(key);
+        entry = null;
+      }
+
+      if (entry != null)
+        entry.access(now);
+    }
+
+    if (entry != null)
+      _hitCount.incrementAndGet();
+    else
+      _missCount.incrementAndGet();
+
+    return entry;
+  }
+
+  /**
+   * Stores a value, replacing any old value.
+   */
+  public boolean put(Env env, String key, Value value, int ttl)
+  {
+    Entry entry = new Entry(env, value, ttl);
+
+    if (_memoryMax < entry.getSize())
+      return false;
+
+    Segment segment = getSegment(key);
+
+    synchronized (segment) {
+      segment.put(key, entry);
+      segment.evict();
+    }
+
+    evictMemory(segment);
+
+    return true;
+  }
+
+  /**
+   * Stores a value only if the key has no current value.
+   */
+  public boolean putIfAbsent(Env env, String key, Value value, int ttl)
+  {
+    long now = env.getCurrentTime();
+
+    Segment segment = getSegment(key);
+
+    synchronized (segment) {
+      Entry oldEntry = segment.get(key);
+
+      if (oldEntry != null && oldEntry.isValid(now))
+        return false;
+    }
+
+    // the value is frozen outside of the lock
+    Entry entry = new Entry(env, value, ttl);
+
+    if (_memoryMax < entry.getSize())
+      return false;
+
+    synchronized (segment) {
+      Entry oldEntry = segment.get(key);
+
+      if (oldEntry != null && oldEntry.isValid(now))
+        return false;
+
+      segment.put(key, entry);
+      segment.evict();
+    }
+
+    evictMemory(segment);
+
+    return true;
+  }
+
+  public boolean remove(String key)
+  {
+    Segment segment = getSegment(key);
+
+    synchronized (segment) {
+      return segment.remove(key) != null;
+    }
+  }
+
+  public void clear()
+  {
+    for (Segment segment : _segments) {
+      synchronized (segment) {
+        segment.clear();
+      }
+    }
+  }
+
+  /**
+   * Returns a snapshot of the live entries.
+   */
+  public void getEntries(Env env,
+                         ArrayList<String> keys,
+                         ArrayList<Entry> entries)
+  {
+    long now = env.getCurrentTime();
+
+    for (Segment segment : _segments) {
+      synchronized (segment) {
+        for (Map.Entry<String,Entry> mapEntry : segment._map.entrySet()) {
+          Entry entry = mapEntry.getValue();
+
+          if (entry.isValid(now)) {
+            keys.add(mapEntry.getKey());
+            entries.add(entry);
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Evicts from the other segments while the cache is still over its
+   * memory limit.  Only one segment lock is held at a time.
+   */
+  private void evictMemory(Segment skipSegment)
+  {
+    for (int i = 0;
+         i < SEGMENT_COUNT && _memoryMax < _memorySize.get();
+         i++) {
+      Segment segment = _segments[i];
+
+      if (segment != skipSegment) {
+        synchronized (segment) {
+          segment.evictMemory();
+        }
+      }
+    }
+  }
+
+  private Segment getSegment(String key)
+  {
+    int hash = key.hashCode();
+
+    hash ^= (hash >>> 16);
+
+    return _segments[hash & (SEGMENT_COUNT - 1)];
+  }
+
+  /**
+   * Returns the shared, immutable form of a value, or null if the value
+   * cannot be shared, e.g. if it contains an object or refers to itself.
+   *
+   * @param frozenMap the arrays already frozen, so a shared sub-array is
+   *   only frozen once.  An array still being frozen maps to null.
+   */
+  static Value freeze(Value value,
+                      IdentityHashMap<Value,Value> frozenMap,
+                      int depth)
+  {
+    value = value.toValue();
+
+    if (value instanceof ConstStringValue
+        || value instanceof LongValue
+        || value instanceof DoubleValue
+        || value instanceof BooleanValue
+        || value instanceof NullValue) {
+      return value;
+    }
+    else if (value.getClass() == StringBuilderValue.class) {
+      return new ConstStringValue((StringBuilderValue) value);
+    }
+    else if (value instanceof ArrayValue && depth < MAX_DEPTH) {
+      if (frozenMap.containsKey(value))
+        return frozenMap.get(value);
+
+      // a self-reference finds the null entry and falls back to the copy
+      frozenMap.put(value, null);
+
+      ArrayValue array = (ArrayValue) value;
+      ArrayValueImpl frozen = new ArrayValueImpl();
+
+      for (Map.Entry<Value,Value> entry : array.entrySet()) {
+        Value key = freeze(entry.getKey(), frozenMap, depth + 1);
+        Value item = freeze(entry.getValue(), frozenMap, depth + 1);
+
+        if (key == null || item == null)
+          return null;
+
+        frozen.append(key, item);
+      }
+
+      Value constArray = new ConstArrayValue(frozen);
+
+      frozenMap.put(value, constArray);
+
+      return constArray;
+    }
+    else
+      return null;
+  }
+
+  /**
+   * Returns an estimate of a frozen value's memory size.  A sub-array
+   * shared within the value is only counted once.
+   */
+  static long estimateSize(Value value, IdentityHashMap<Value,Value> sizedMap)
+  {
+    if (value instanceof StringValue)
+      return VALUE_SIZE + ((StringValue) value).length();
+    else if (value instanceof ArrayValue) {
+      if (sizedMap.put(value, value) != null)
+        return VALUE_SIZE;
+
+      long size = VALUE_SIZE;
+
+      for (Map.Entry<Value,Value> entry : ((ArrayValue) value).entrySet()) {
+        size += VALUE_SIZE;
+        size += estimateSize(entry.getKey(), sizedMap);
+        size += estimateSize(entry.getValue(), sizedMap);
+      }
+
+      return size;
+    }
+    else
+      return VALUE_SIZE;
+  }
+
+  /**
+   * Returns an estimate of a copied value's memory size from its
+   * serialized length.  Objects aren't walked directly: serialization
+   * writes each object and reference once.
+   */
+  static long estimateSerializedSize(Env env, Value value)
+  {
+    try {
+      StringBuilder sb = new StringBuilder();
+
+      value.serialize(env, sb, new SerializeMap());
+
+      return VALUE_SIZE + sb.length();
+    } catch (RuntimeException e) {
+      log.log(Level.FINER, e.toString(), e);
+
+      return VALUE_SIZE;
+    }
+  }
+
+  final class Segment {
+    private final LinkedHashMap<String,Entry> _map
+      = new LinkedHashMap<String,Entry>(16, 0.75f, true);
+
+    Entry get(String key)
+    {
+      return _map.get(key);
+    }
+
+    void put(String key, Entry entry)
+    {
+      Entry oldEntry = _map.put(key, entry);
+
+      _memorySize.addAndGet(entry.getSize());
+
+      if (oldEntry != null)
+        _memorySize.addAndGet(- oldEntry.getSize());
+    }
+
+    Entry remove(String key)
+    {
+      Entry entry = _map.remove(key);
+
+      if (entry != null)
+        _memorySize.addAndGet(- entry.getSize());
+
+      return entry;
+    }
+
+    /**
+     * Removes the least recently used entries while the segment is over
+     * its entry limit or the cache is over its memory limit.  The newest
+     * entry is always kept.
+     */
+    void evict()
+    {
+      Iterator<Entry> iter = _map.values().iterator();
+
+      while (_map.size() > 1
+             && (_segmentEntryMax < _map.size()
+                 || _memoryMax < _memorySize.get())) {
+        Entry entry = iter.next();
+
+        iter.remove();
+
+        _memorySize.addAndGet(- entry.getSize());
+      }
+    }
+
+    /**
+     * Removes the least recently used entries while the cache is over
+     * its memory limit.
+     */
+    void evictMemory()
+    {
+      Iterator<Entry> iter = _map.values().iterator();
+
+      while (iter.hasNext() && _memoryMax < _memorySize.get()) {
+        Entry entry = iter.next();
+
+        iter.remove();
+
+        _memorySize.addAndGet(- entry.getSize());
+      }
+    }
+
+    void clear()
+    {
+      for (Entry entry : _map.values()) {
+        _memorySize.addAndGet(- entry.getSize());
+      }
+
+      _map.clear();
+    }
+  }
+
+  static final class Entry {
+    // immutable shared value, returned as a copy-on-write view
+    private final Value _frozenValue;
+    // deep-copied value for values which can't be shared
+    private final UnserializeCacheEntry _copyValue;
+
+    private final long _size;
+
+    private final long _createTime;
+    private final long _expire;
+
+    private long _accessTime;
+    private int _hitCount;
+
+    Entry(Env env, Value value, int ttl)
+    {
+      long now = env.getCurrentTime();
+
+      _frozenValue = freeze(value, new IdentityHashMap<Value,Value>(), 0);
+
+      if (_frozenValue != null) {
+        _copyValue = null;
+        _size = ENTRY_SIZE
+          + estimateSize(_frozenValue, new IdentityHashMap<Value,Value>());
+      }
+      else {
+        _copyValue = new UnserializeCacheEntry(env, value);
+        _size = ENTRY_SIZE + estimateSerializedSize(env, value);
+      }
+
+      if (ttl <= 0)
+        _expire = Long.MAX_VALUE / 2;
+      else
+        _expire = now + ttl * 1000L;
+
+      _createTime = now;
+      _accessTime = now;
+    }
+
+    long getSize()
+    {
+      return _size;
+    }
+
+    /**
+     * True if the value is shared and has no objects to rebind.
+     */
+    public boolean isShared()
+    {
+      return _frozenValue != null;
+    }
+
+    public long getTTL(Env env)
+    {
+      if (_expire >= Long.MAX_VALUE / 2)
+        return 0;
+      else
+        return (_expire - env.getCurrentTime()) / 1000L;
+    }
+
+    public long getCreateTime()
+    {
+      return _createTime;
+    }
+
+    public long getAccessTime()
+    {
+      return _accessTime;
+    }
+
+    public int getHitCount()
+    {
+      return _hitCount;
+    }
+
+    boolean isValid(long now)
+    {
+      return now <= _expire;
+    }
+
+    /**
+     * Called with the segment lock held.
+     */
+    void access(long now)
+    {
+      _accessTime = now;
+      _hitCount++;
+    }
+
+    /**
+     * Returns the value, a copy-on-write view for shared values.
+     */
+    public Value getValue(Env env)
+    {
+      if (_frozenValue != null)
+        return _frozenValue.copy();
+      else
+        return _copyValue.getValue(env);
+    }
+  }
+}
@@ -36,7 +36,6 @@ import com.caucho.quercus.module.AbstractQuercusModule;
 import com.caucho.quercus.module.IniDefinitions;
 import com.caucho.quercus.module.IniDefinition;
 import com.caucho.util.L10N;
-import com.caucho.util.LruCache;
 import com.caucho.vfs.Path;
 
 import java.io.IOException;
@@ -56,8 +55,9 @@ public class ApcModule extends AbstractQuercusModule
   private static final IniDefinitions _iniDefinitions = new IniDefinitions();
 
   private static final int _defaultSize = 4096;
+  private static final long _defaultMemorySize = 30 * 1024 * 1024L;
 
-  private LruCache<String,Entry> _cache;
+  private volatile ApcCache _cache;
 
   private HashMap<String,Value> _constMap = new HashMap<String,Value>();
 
@@ -86,12 +86,15 @@ public class ApcModule extends AbstractQuercusModule
   {
     ArrayValue value = new ArrayValueImpl();
 
-    if (_cache != null) {
-      value.put("num_slots", _cache.getCapacity());
+    ApcCache cache = _cache;
+
+    if (cache != null) {
+      value.put("num_slots", cache.getCapacity());
       value.put("ttl", 0);
-      value.put("num_hits", _cache.getHitCount());
-      value.put("num_misses", _cache.getMissCount());
-      value.put("start_time", 0);
+      value.put("num_hits", cache.getHitCount());
+      value.put("num_misses", cache.getMissCount());
+      value.put("start_time", cache.getStartTime() / 1000L);
+      value.put("mem_size", cache.getMemorySize());
     }
     else {
       value.put("num_slots", 0);
@@ -99,41 +102,37 @@ public class ApcModule extends AbstractQuercusModule
       value.put("num_hits", 0);
       value.put("num_misses", 0);
       value.put("start_time", 0);
+      value.put("mem_size", 0);
     }
 
     ArrayValueImpl cacheList = new ArrayValueImpl();
     value.put(env.createString("cache_list"), cacheList);
 
-    if ("user".equals(type) && _cache != null && ! limited) {
+    if ("user".equals(type) && cache != null && ! limited) {
       ArrayList<String> keys = new ArrayList<String>();
-      ArrayList<Entry> values = new ArrayList<Entry>();
-
-      synchronized (_cache) {
-        Iterator<LruCache.Entry<String,Entry>> iter = _cache.iterator();
+      ArrayList<ApcCache.Entry> values = new ArrayList<ApcCache.Entry>();
 
-        while (iter.hasNext()) {
-          LruCache.Entry<String,Entry> lruEntry = iter.next();
-
-          keys.add(lruEntry.getKey());
-          values.add(lruEntry.getValue());
-        }
-      }
+      cache.getEntries(env, keys, values);
 
       for (int i = 0; i < keys.size(); i++) {
         String key = keys.get(i);
-        Entry entryValue = values.get(i);
-
-        if (entryValue.isValid(env)) {
-          ArrayValueImpl array = new ArrayValueImpl();
-          cacheList.put(array);
-
-          array.put(env.createString("info"), env.createString(key));
-          array.put(env.createString("ttl"),
-                    LongValue.create(entryValue.getTTL(env)));
-          array.put(env.createString("type"), env.createString("user"));
-          array.put(env.createString("num_hits"),
-                    LongValue.create(entryValue.getHitCount()));
-        }
+        ApcCache.Entry entryValue = values.get(i);
+
+        ArrayValueImpl array = new ArrayValueImpl();
+        cacheList.put(array);
+
+        array.put(env.createString("info"), env.createString(key));
+        array.put(env.createString("ttl"),
+                  LongValue.create(entryValue.getTTL(env)));
+        array.put(env.createString("type"), env.createString("user"));
+        array.put(env.createString("num_hits"),
+                  LongValue.create(entryValue.getHitCount()));
+        array.put(env.createString("mtime"),
+                  LongValue.create(entryValue.getCreateTime() / 1000L));
+        array.put(env.createString("access_time"),
+                  LongValue.create(entryValue.getAccessTime() / 1000L));
+        array.put(env.createString("mem_size"),
+                  LongValue.create(entryValue.getSize()));
       }
     }
 
@@ -145,8 +144,10 @@ public class ApcModule extends AbstractQuercusModule
    */
   public boolean apc_clear_cache(Env env, @Optional String type)
   {
-    if (_cache != null)
-      _cache.clear();
+    ApcCache cache = _cache;
+
+    if (cache != null)
+      cache.clear();
 
     return true;
   }
@@ -189,10 +190,12 @@ public class ApcModule extends AbstractQuercusModule
    */
   public boolean apc_delete(Env env, String key)
   {
-    if (_cache == null)
+    ApcCache cache = _cache;
+
+    if (cache == null)
       return false;
 
-    return _cache.remove(key) != null;
+    return cache.remove(key);
   }
 
   /**
@@ -204,17 +207,20 @@ public class ApcModule extends AbstractQuercusModule
   {
     isSuccessful.set(BooleanValue.FALSE);
 
-    if (_cache == null)
+    ApcCache cache = _cache;
+
+    if (cache == null)
       return BooleanValue.FALSE;
 
-    Entry entry = _cache.get(key);
+    ApcCache.Entry entry = cache.get(env, key);
 
     if (entry == null)
       return BooleanValue.FALSE;
 
     Value value = entry.getValue(env);
 
-    if (value != null)
+    // shared values are only arrays and scalars, so have no objects
+    if (value != null && ! entry.isShared())
       initObject(env, new IdentityHashMap<Value,Value>(), value);
 
     if (value != null) {
@@ -295,9 +301,12 @@ public class ApcModule extends AbstractQuercusModule
   {
     ArrayValue value = new ArrayValueImpl();
 
+    ApcCache cache = getCache(env);
+
     value.put("num_seg", 1);
-    value.put("seg_size", 1024 * 1024);
-    value.put("avail_mem", 1024 * 1024);
+    value.put("seg_size", cache.getMemoryMax());
+    value.put("avail_mem",
+              Math.max(0, cache.getMemoryMax() - cache.getMemorySize()));
     value.put(env.createString("block_lists"), new ArrayValueImpl());
 
     return value;
@@ -307,16 +316,12 @@ public class ApcModule extends AbstractQuercusModule
                        String key,
                        Value value,
                        @Optional("0") int ttl) {
-    LruCache<String,Entry> cache = getCache(env);
-
-    if (cache.get(key) == null) {
-      cache.put(key, new Entry(env, value, ttl));
+    ApcCache cache = getCache(env);
 
+    if (cache.putIfAbsent(env, key, value, ttl))
       return BooleanValue.TRUE;
-    }
-    else {
+    else
       return BooleanValue.FALSE;
-    }
   }
 
   /**
@@ -325,23 +330,27 @@ public class ApcModule extends AbstractQuercusModule
   public Value apc_store(Env env, String key, Value value,
                          @Optional("0") int ttl)
   {
-    LruCache<String,Entry> cache = getCache(env);
+    ApcCache cache = getCache(env);
 
-    cache.put(key, new Entry(env, value, ttl));
-
-    return BooleanValue.TRUE;
+    if (cache.put(env, key, value, ttl))
+      return BooleanValue.TRUE;
+    else
+      return BooleanValue.FALSE;
   }
 
-  private LruCache<String,Entry> getCache(Env env) {
+  private ApcCache getCache(Env env) {
     if (_cache == null) {
       long size = env.getIniLong("apc.user_entries_hint");
 
       if (size <= 0)
         size = _defaultSize;
 
+      long memorySize = getMemorySize(env);
+
       synchronized (this) {
         if (_cache == null) {
-          _cache = new LruCache<String,Entry>((int) size);
+          _cache = new ApcCache(memorySize, (int) size,
+                                env.getCurrentTime());
         }
       }
     }
@@ -349,61 +358,27 @@ public class ApcModule extends AbstractQuercusModule
     return _cache;
   }
 
-  static class Entry extends UnserializeCacheEntry {
-    private long _createTime;
-    private long _accessTime;
-
-    private long _expire;
-    private int _hitCount;
-
-    Entry(Env env, Value value, int ttl)
-    {
-      super(env, value);
-
-      if (ttl <= 0)
-        _expire = Long.MAX_VALUE / 2;
-      else
-        _expire = env.getCurrentTime() + ttl * 1000L;
-
-      _createTime = env.getCurrentTime();
-    }
-
-    public long getTTL(Env env)
-    {
-      if (_expire >= Long.MAX_VALUE / 2)
-        return 0;
-      else
-        return (_expire - env.getCurrentTime()) / 1000L;
-    }
+  /**
+   * Returns apc.shm_size in bytes, where a plain number is in megabytes.
+   */
+  private static long getMemorySize(Env env)
+  {
+    String value = env.getIniString("apc.shm_size");
 
-    public long getHitCount()
-    {
-      return _hitCount;
-    }
+    if (value == null || value.length() == 0)
+      return _defaultMemorySize;
 
-    public boolean isValid(Env env)
-    {
-      if (env.getCurrentTime() <= _expire)
-        return true;
-      else {
-        clear();
+    long size;
 
-        return false;
-      }
-    }
+    if (Character.isDigit(value.charAt(value.length() - 1)))
+      size = env.getIniLong("apc.shm_size") * 1024 * 1024;
+    else
+      size = env.getIniBytes("apc.shm_size", _defaultMemorySize);
 
-    public Value getValue(Env env)
-    {
-      if (env.getCurrentTime() <= _expire) {
-        _accessTime = env.getCurrentTime();
-        _hitCount++;
+    if (size <= 0)
+      size = _defaultMemorySize;
 
-        return super.getValue(env);
-      }
-      else {
-        return null;
-      }
-    }
+    return size;
   }
 
   static final IniDefinition INI_APC_ENABLED
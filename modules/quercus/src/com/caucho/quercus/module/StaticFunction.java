@@ -45,9 +45,17 @@ import java.util.logging.Logger;
  */
 @SuppressWarnings("serial")
 public class StaticFunction extends JavaInvoker {
+  // calls before a direct invoker is generated, so functions which are
+  // rarely used keep the reflective call
+  private static final int INVOKER_THRESHOLD = 64;
+
   protected final QuercusModule _quercusModule;
   private final int _argLength;
 
+  private volatile StaticInvoker _invoker;
+  private volatile boolean _isInvokerInit;
+  private int _invokeCount;
+
   /**
    * Creates the statically introspected function.
    *
@@ -109,6 +117,25 @@ public class StaticFunction extends JavaInvoker {
   @Override
   public Object invoke(Object obj, Object []javaArgs)
   {
+    StaticInvoker invoker = _invoker;
+
+    if (invoker == null
+        && ! _isInvokerInit
+        && INVOKER_THRESHOLD <= ++_invokeCount) {
+      invoker = initInvoker();
+    }
+
+    if (invoker != null) {
+      try {
+        return invoker.invoke(_quercusModule, javaArgs);
+      } catch (RuntimeException e) {
+        throw e;
+      } catch (Throwable e) {
+        // matches the reflective call, which wraps the method's errors
+        throw QuercusModuleException.create(e);
+      }
+    }
+
     try {
       return _method.invoke(_quercusModule, javaArgs);
     } catch (IllegalArgumentException e) {
@@ -133,6 +160,16 @@ public class StaticFunction extends JavaInvoker {
     }
   }
 
+  private synchronized StaticInvoker initInvoker()
+  {
+    if (! _isInvokerInit) {
+      _invoker = StaticInvokerGenerator.generate(_method);
+      _isInvokerInit = true;
+    }
+
+    return _invoker;
+  }
+
   private String toString(Method method, Object []javaArgs)
   {
     StringBuilder sb = new StringBuilder();
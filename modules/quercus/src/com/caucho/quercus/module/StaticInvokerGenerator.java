@@ -0,0 +1,368 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+package com.caucho.quercus.module;
+
+import java.io.ByteArrayOutputStream;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.caucho.bytecode.CodeWriterAttribute;
+import com.caucho.bytecode.JavaClass;
+import com.caucho.bytecode.JavaClassLoader;
+import com.caucho.bytecode.JavaMethod;
+import com.caucho.config.bytecode.SerializationAdapter;
+import com.caucho.loader.ProxyClassLoader;
+import com.caucho.vfs.Vfs;
+import com.caucho.vfs.WriteStream;
+
+/**
+ * Generates a {@link StaticInvoker} which calls a module method directly,
+ * unboxing the marshaled arguments and boxing the result.
+ */
+class StaticInvokerGenerator {
+  private static final Logger log
+    = Logger.getLogger(StaticInvokerGenerator.class.getName());
+
+  private static final String INVOKER_CLASS
+    = StaticInvoker.class.getName().replace('.', '/');
+
+  private static final AtomicInteger _count = new AtomicInteger();
+
+  private static volatile boolean _isEnabled
+    = ! "false".equals(System.getProperty("com.caucho.quercus.invoker"));
+
+  private StaticInvokerGenerator()
+  {
+  }
+
+  /**
+   * Enables generated invokers.  When disabled, module functions are
+   * called with Method.invoke.
+   */
+  static void setEnabled(boolean isEnabled)
+  {
+    _isEnabled = isEnabled;
+  }
+
+  static boolean isEnabled()
+  {
+    return _isEnabled;
+  }
+
+  /**
+   * Returns the generated invoker, or null if the method can't be called
+   * from a generated class.
+   */
+  static StaticInvoker generate(Method method)
+  {
+    if (! _isEnabled || ! isCallable(method))
+      return null;
+
+    ClassLoader loader = method.getDeclaringClass().getClassLoader();
+
+    if (! isVisible(loader))
+      return null;
+
+    try {
+      String className = ("com/caucho/quercus/module/ModuleInvoker$"
+                          + _count.incrementAndGet());
+
+      byte []buffer = generateClass(className, method);
+
+      ProxyClassLoader proxyLoader = new ProxyClassLoader(loader);
+
+      Class<?> cl = proxyLoader.loadClass(className.replace('/', '.'), buffer);
+
+      return (StaticInvoker) cl.getDeclaredConstructor().newInstance();
+    } catch (Exception e) {
+      log.log(Level.FINE, e.toString(), e);
+
+      return null;
+    } catch (LinkageError e) {
+      log.log(Level.FINE, e.toString(), e);
+
+      return null;
+    }
+  }
+
+  /**
+   * The generated class is in its own package, so the method and all
+   * the types it uses must be public.
+   */
+  private static boolean isCallable(Method method)
+  {
+    if (! Modifier.isPublic(method.getModifiers()))
+      return false;
+
+    if (! isPublic(method.getDeclaringClass()))
+      return false;
+
+    if (! isPublic(method.getReturnType()))
+      return false;
+
+    for (Class<?> type : method.getParameterTypes()) {
+      if (! isPublic(type))
+        return false;
+    }
+
+    return true;
+  }
+
+  private static boolean isPublic(Class<?> type)
+  {
+    while (type.isArray()) {
+      type = type.getComponentType();
+    }
+
+    if (type.isPrimitive())
+      return true;
+
+    for (; type != null; type = type.getDeclaringClass()) {
+      if (! Modifier.isPublic(type.getModifiers()))
+        return false;
+    }
+
+    return true;
+  }
+
+  /**
+   * The generated class extends StaticInvoker, so the module's loader
+   * must see the same StaticInvoker class.
+   */
+  private static boolean isVisible(ClassLoader loader)
+  {
+    if (loader == null)
+      return false;
+
+    try {
+      return (Class.forName(StaticInvoker.class.getName(), false, loader)
+              == StaticInvoker.class);
+    } catch (ClassNotFoundException e) {
+      return false;
+    }
+  }
+
+  private static byte []generateClass(String className, Method method)
+    throws Exception
+  {
+    JavaClassLoader jLoader
+      = new JavaClassLoader(method.getDeclaringClass().getClassLoader());
+
+    JavaClass jClass = new JavaClass(jLoader);
+    jClass.setAccessFlags(Modifier.PUBLIC | Modifier.FINAL);
+
+    jClass.setWrite(true);
+
+    jClass.setMajor(49);
+    jClass.setMinor(0);
+
+    jClass.setSuperClass(INVOKER_CLASS);
+    jClass.setThisClass(className);
+
+    generateConstructor(jClass);
+    generateInvoke(jClass, method);
+
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    WriteStream out = Vfs.openWrite(bos);
+
+    jClass.write(out);
+
+    out.close();
+
+    return bos.toByteArray();
+  }
+
+  private static void generateConstructor(JavaClass jClass)
+  {
+    JavaMethod ctor = jClass.createMethod("<init>", "()V");
+    ctor.setAccessFlags(Modifier.PUBLIC);
+
+    CodeWriterAttribute code = ctor.createCodeWriter();
+    code.setMaxLocals(1);
+    code.setMaxStack(1);
+
+    code.pushObjectVar(0);
+    code.invokespecial(INVOKER_CLASS, "<init>", "()V", 1, 0);
+    code.addReturn();
+    code.close();
+  }
+
+  /**
+   * invoke(module, args) returns ((Module) module).foo((A) args[0], ...),
+   * with primitive arguments unboxed and the result boxed.
+   */
+  private static void generateInvoke(JavaClass jClass, Method method)
+  {
+    JavaMethod jMethod
+      = jClass.createMethod("invoke",
+                            "(Ljava/lang/Object;[Ljava/lang/Object;)"
+                            + "Ljava/lang/Object;");
+    jMethod.setAccessFlags(Modifier.PUBLIC);
+
+    Class<?> declClass = method.getDeclaringClass();
+    String declName = declClass.getName().replace('.', '/');
+    boolean isStatic = Modifier.isStatic(method.getModifiers());
+
+    Class<?> []paramTypes = method.getParameterTypes();
+    Class<?> retType = method.getReturnType();
+
+    CodeWriterAttribute code = jMethod.createCodeWriter();
+
+    StringBuilder descriptor = new StringBuilder();
+    SerializationAdapter.createDescriptor(descriptor, paramTypes);
+    descriptor.append(SerializationAdapter.createDescriptor(retType));
+
+    int argStack = 0;
+
+    if (! isStatic) {
+      code.pushObjectVar(1);
+      code.cast(declName);
+
+      argStack += 1;
+    }
+
+    for (int i = 0; i < paramTypes.length; i++) {
+      Class<?> type = paramTypes[i];
+
+      code.pushObjectVar(2);
+      code.pushInt(i);
+      code.getArrayObject();
+
+      unbox(code, type);
+
+      argStack += getStackSize(type);
+    }
+
+    int retStack = getStackSize(retType);
+
+    code.setMaxLocals(3);
+    // the array and index of the last argument are on the stack
+    code.setMaxStack(Math.max(argStack + 2, 2));
+
+    String name = method.getName();
+
+    if (isStatic)
+      code.invokestatic(declName, name, descriptor.toString(),
+                        argStack, retStack);
+    else if (declClass.isInterface())
+      code.invokeInterface(declName, name, descriptor.toString(),
+                           argStack, retStack);
+    else
+      code.invoke(declName, name, descriptor.toString(),
+                  argStack, retStack);
+
+    if (void.class.equals(retType)) {
+      code.pushNull();
+    }
+    else if (retType.isPrimitive()) {
+      String boxClass = getBoxClass(retType);
+
+      code.invokestatic(boxClass, "valueOf",
+                        ("(" + SerializationAdapter.createDescriptor(retType)
+                         + ")L" + boxClass + ";"),
+                        retStack, 1);
+    }
+
+    code.addObjectReturn();
+    code.close();
+  }
+
+  /**
+   * Converts the marshaled argument on the stack to the parameter type.
+   * Numbers are converted through Number, matching the widening which
+   * Method.invoke allows.
+   */
+  private static void unbox(CodeWriterAttribute code, Class<?> type)
+  {
+    if (! type.isPrimitive()) {
+      if (! Object.class.equals(type))
+        code.cast(getClassName(type));
+    }
+    else if (boolean.class.equals(type)) {
+      code.cast("java/lang/Boolean");
+      code.invoke("java/lang/Boolean", "booleanValue", "()Z", 1, 1);
+    }
+    else if (char.class.equals(type)) {
+      code.cast("java/lang/Character");
+      code.invoke("java/lang/Character", "charValue", "()C", 1, 1);
+    }
+    else {
+      String typeName = type.getName();
+      String descriptor = SerializationAdapter.createDescriptor(type);
+
+      code.cast("java/lang/Number");
+      code.invoke("java/lang/Number", typeName + "Value", "()" + descriptor,
+                  1, getStackSize(type));
+    }
+  }
+
+  private static String getClassName(Class<?> type)
+  {
+    if (type.isArray())
+      return SerializationAdapter.createDescriptor(type);
+    else
+      return type.getName().replace('.', '/');
+  }
+
+  private static int getStackSize(Class<?> type)
+  {
+    if (void.class.equals(type))
+      return 0;
+    else if (long.class.equals(type) || double.class.equals(type))
+      return 2;
+    else
+      return 1;
+  }
+
+  private static String getBoxClass(Class<?> type)
+  {
+    if (boolean.class.equals(type))
+      return "java/lang/Boolean";
+    else if (byte.class.equals(type))
+      return "java/lang/Byte";
+    else if (char.class.equals(type))
+      return "java/lang/Character";
+    else if (short.class.equals(type))
+      return "java/lang/Short";
+    else if (int.class.equals(type))
+      return "java/lang/Integer";
+    else if (long.class.equals(type))
+      return "java/lang/Long";
+    else if (float.class.equals(type))
+      return "java/lang/Float";
+    else if (double.class.equals(type))
+      return "java/lang/Double";
+    else
+      throw new IllegalArgumentException(String.valueOf(type));
+  }
+}
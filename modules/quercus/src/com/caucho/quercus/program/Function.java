@@ -224,6 +224,18 @@ public class Function extends AbstractFunction {
     return values;
   }
 
+  /**
+   * Creates the slots caching the frame's local variables, or null if
+   * the locals must always be looked up by name.
+   */
+  private EnvVar []createLocalSlots()
+  {
+    if (_info.isVarSlots())
+      return new EnvVar[_info.getVarSlotCount()];
+    else
+      return null;
+  }
+
   public Value call(Env env, Expr []args)
   {
     return callImpl(env, args, false);
@@ -289,6 +301,9 @@ public class Function extends AbstractFunction {
     }
 
     Map<StringValue,EnvVar> oldMap = env.pushEnv(map);
+    FunctionInfo oldSlotFunction = env.getLocalSlotFunction();
+    EnvVar []oldSlots = env.getLocalSlots();
+    env.setLocalSlots(_info, createLocalSlots());
     Value []oldArgs = env.setFunctionArgs(values); // php/0476
     Value oldThis;
 
@@ -316,6 +331,7 @@ public class Function extends AbstractFunction {
         */
     } finally {
       env.restoreFunctionArgs(oldArgs);
+      env.setLocalSlots(oldSlotFunction, oldSlots);
       env.popEnv(oldMap);
       env.setThis(oldThis);
     }
@@ -405,6 +421,9 @@ public class Function extends AbstractFunction {
     }
 
     Map<StringValue,EnvVar> oldMap = env.pushEnv(map);
+    FunctionInfo oldSlotFunction = env.getLocalSlotFunction();
+    EnvVar []oldSlots = env.getLocalSlots();
+    env.setLocalSlots(_info, createLocalSlots());
     Value []oldArgs = env.setFunctionArgs(args);
     Value oldThis;
 
@@ -431,6 +450,7 @@ public class Function extends AbstractFunction {
         return value.toValue().copy();
     } finally {
       env.restoreFunctionArgs(oldArgs);
+      env.setLocalSlots(oldSlotFunction, oldSlots);
       env.popEnv(oldMap);
       env.setThis(oldThis);
     }
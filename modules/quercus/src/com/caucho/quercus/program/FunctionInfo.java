@@ -403,7 +403,24 @@ public class FunctionInfo
 
   protected VarInfo createVarInfo(StringValue name)
   {
-    return new VarInfo(name, this);
+    return new VarInfo(name, this, _varMap.size());
+  }
+
+  /**
+   * Returns the number of local variable slots.
+   */
+  public int getVarSlotCount()
+  {
+    return _varMap.size();
+  }
+
+  /**
+   * Returns true if locals can be cached in slots, i.e. the function
+   * doesn't use variable-variables or the symbol table.
+   */
+  public boolean isVarSlots()
+  {
+    return ! _isVariableVar && ! _isUsesSymbolTable && ! _isPageMain;
   }
 
   /**
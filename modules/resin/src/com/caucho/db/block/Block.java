@@ -30,9 +30,11 @@
 package com.caucho.db.block;
 
 import java.io.IOException;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
@@ -64,9 +66,13 @@ public final class Block implements SyncCacheListener {
   private final long _blockId;
 
   private ReadWriteLock _rwLock;
+  private final ReentrantReadWriteLock _versionLock;
   private final Lock _readLock;
   private final Lock _writeLock;
 
+  // incremented when a writer releases the block, for optimistic readers
+  private final AtomicLong _writeVersion = new AtomicLong();
+
   private final AtomicReference<BlockState> _state
     = new AtomicReference<BlockState>(BlockState.INIT);
 
@@ -99,9 +105,10 @@ public final class Block implements SyncCacheListener {
     // ReadWriteLock rwLock = new ReentrantReadWriteLock();
 
     _rwLock = allocateReadWriteLock();
+    _versionLock = (ReentrantReadWriteLock) _rwLock;
 
     _readLock = _rwLock.readLock();
-    _writeLock = _rwLock.writeLock();
+    _writeLock = new VersionWriteLock(_rwLock.writeLock());
 
     _isFlushDirtyOnCommit = _store.isFlushDirtyBlocksOnCommit();
 
@@ -184,6 +191,40 @@ public final class Block implements SyncCacheListener {
     return _writeLock;
   }
 
+  /**
+   * Returns the write version for an optimistic reader, or -1 if a
+   * writer currently holds the block.
+   *
+   * The reader uses the block's contents without a lock, and then calls
+   * validateOptimisticVersion to check that no writer changed the block
+   * in the meantime.
+   */
+  public final long getOptimisticVersion()
+  {
+    long version = _writeVersion.get();
+
+    if (_versionLock.isWriteLocked())
+      return -1;
+    else
+      return version;
+  }
+
+  /**
+   * Returns true if no writer has modified the block since the
+   * optimistic version was read.
+   */
+  public final boolean validateOptimisticVersion(long version)
+  {
+    // the lock must be checked before the version, because the writer
+    // increments the version before releasing the lock
+    if (_versionLock.isWriteLocked())
+      return false;
+
+    // the volatile read of the version word orders the caller's buffer
+    // reads against the writer's increment
+    return version >= 0 && _writeVersion.get() == version;
+  }
+
   public final boolean isValid()
   {
     return _state.get().isValid();
@@ -259,6 +300,11 @@ public final class Block implements SyncCacheListener {
       else if (_store.getBlockManager().copyDirtyBlock(this)) {
         // clearDirty();
         // toValid();
+      }
+      else if (_store.getBlockManager().readOffHeap(this, getBuffer())) {
+        clearDirty();
+
+        toValid();
       } else {
         if (log.isLoggable(Level.ALL))
           log.log(Level.ALL, "read db-block " + this);
@@ -308,6 +354,9 @@ public final class Block implements SyncCacheListener {
     long oldDirty;
     long newDirty;
 
+    if (_dirtyRange.get() == INIT_DIRTY)
+      _store.getBlockManager().invalidateOffHeap(_blockId);
+
     do {
       oldDirty = _dirtyRange.get();
 
@@ -329,6 +378,8 @@ public final class Block implements SyncCacheListener {
    */
   public final void setDirtyExact(int min, int max)
   {
+    _store.getBlockManager().invalidateOffHeap(_blockId);
+
     long newDirty = (((long) max) << 32) + min;
 
     _dirtyRange.set(newDirty);
@@ -466,6 +517,17 @@ public final class Block implements SyncCacheListener {
    */
   void writeFromBlockWriter()
     throws IOException
+  {
+    writeFromBlockWriter(null);
+  }
+
+  /**
+   * Called by BlockWriter to write the block as part of a batch.
+   *
+   * @param batch the open batch file, or null for a single write
+   */
+  void writeFromBlockWriter(BlockReadWrite.RandomAccessWrapper batch)
+    throws IOException
   {
     do {
       long dirty = _dirtyRange.getAndSet(INIT_DIRTY);
@@ -479,7 +541,10 @@ public final class Block implements SyncCacheListener {
 
         boolean isPriority = false;
 
-        writeImpl(dirtyMin, dirtyMax - dirtyMin, isPriority);
+        if (batch != null)
+          writeBatchImpl(batch, dirtyMin, dirtyMax - dirtyMin);
+        else
+          writeImpl(dirtyMin, dirtyMax - dirtyMin, isPriority);
       }
 
       if (_dirtyRange.get() == INIT_DIRTY && ! isDestroyed()) {
@@ -505,6 +570,20 @@ public final class Block implements SyncCacheListener {
                          isPriority);
   }
 
+  /**
+   * Write the dirty block through a batch file.
+   */
+  private void writeBatchImpl(BlockReadWrite.RandomAccessWrapper batch,
+                              int offset, int length)
+    throws IOException
+  {
+    BlockReadWrite readWrite = _store.getReadWrite();
+
+    readWrite.writeBlock(batch,
+                         (_blockId & BlockStore.BLOCK_MASK) + offset,
+                         getBuffer(), offset, length);
+  }
+
   /**
    * Copies the contents to a target block. Used by the BlockWriter
    * for blocks being written
@@ -554,10 +633,16 @@ public final class Block implements SyncCacheListener {
 
     //save();
 
+    boolean isClean = _state.get() == BlockState.VALID && ! isDirty();
+
     if (toDestroy()) {
       byte []buffer = _buffer;
       _buffer = null;
 
+      if (isClean && buffer != null) {
+        _store.getBlockManager().saveOffHeap(this, buffer);
+      }
+
       if (buffer != null && _isFreeBuffer) {
         _freeBuffers.free(buffer);
       }
@@ -657,4 +742,58 @@ public final class Block implements SyncCacheListener {
             + ",dirty=" + _isDirty
             + "]");
   }
+
+  /**
+   * Write lock which advances the block's write version when the
+   * outermost hold is released.
+   */
+  private final class VersionWriteLock implements Lock {
+    private final Lock _lock;
+
+    VersionWriteLock(Lock lock)
+    {
+      _lock = lock;
+    }
+
+    @Override
+    public void lock()
+    {
+      _lock.lock();
+    }
+
+    @Override
+    public void lockInterruptibly()
+      throws InterruptedException
+    {
+      _lock.lockInterruptibly();
+    }
+
+    @Override
+    public boolean tryLock()
+    {
+      return _lock.tryLock();
+    }
+
+    @Override
+    public boolean tryLock(long time, TimeUnit unit)
+      throws InterruptedException
+    {
+      return _lock.tryLock(time, unit);
+    }
+
+    @Override
+    public void unlock()
+    {
+      if (_versionLock.getWriteHoldCount() == 1)
+        _writeVersion.incrementAndGet();
+
+      _lock.unlock();
+    }
+
+    @Override
+    public Condition newCondition()
+    {
+      return _lock.newCondition();
+    }
+  }
 }
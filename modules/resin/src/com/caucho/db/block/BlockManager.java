@@ -64,6 +64,8 @@ public final class BlockManager
   private LongKeyLruCache<Block> _blockCache;
   
   private boolean _isEnableMmap = true;
+
+  private volatile OffHeapBlockCache _offHeapCache;
   
   private final AtomicLong _blockWriteCount = new AtomicLong();
   private final AtomicLong _blockReadCount = new AtomicLong();
@@ -190,6 +192,30 @@ public final class BlockManager
     return _blockCache.getCapacity() * BlockStore.BLOCK_SIZE;
   }
   
+  /**
+   * Sets the size of the off-heap block cache, which holds clean blocks
+   * dropped from the heap cache.  A zero size disables the cache.
+   */
+  public void setOffHeapMemorySize(long memorySize)
+  {
+    if (memorySize <= 0) {
+      _offHeapCache = null;
+      return;
+    }
+
+    OffHeapBlockCache oldCache = _offHeapCache;
+
+    long capacity = memorySize / BlockStore.BLOCK_SIZE;
+
+    if (oldCache != null && capacity <= oldCache.getCapacity())
+      return;
+
+    _offHeapCache = new OffHeapBlockCache(this, memorySize);
+
+    log.config(L.l("{0} off-heap block cache enabled with {1} blocks",
+                   this, _offHeapCache.getCapacity()));
+  }
+
   public boolean isEnableMmap()
   {
     return _isEnableMmap;
@@ -319,6 +345,11 @@ public final class BlockManager
 
       _storeMask[storeId / 8] &= ~(1 << storeId % 8);
     }
+
+    OffHeapBlockCache offHeapCache = _offHeapCache;
+
+    if (offHeapCache != null)
+      offHeapCache.removeStore(storeId);
   }
   
   void destroy()
@@ -378,6 +409,54 @@ public final class BlockManager
     return store.getWriter().copyDirtyBlock(blockId, block);
   }
   
+  /**
+   * Reads a block from the off-heap cache.
+   *
+   * @return true if the block was found
+   */
+  final boolean readOffHeap(Block block, byte []buffer)
+  {
+    OffHeapBlockCache offHeapCache = _offHeapCache;
+
+    if (offHeapCache != null)
+      return offHeapCache.take(block.getBlockId(), buffer);
+    else
+      return false;
+  }
+
+  /**
+   * Saves a clean block being freed to the off-heap cache.
+   */
+  final void saveOffHeap(Block block, byte []buffer)
+  {
+    OffHeapBlockCache offHeapCache = _offHeapCache;
+
+    if (offHeapCache != null)
+      offHeapCache.save(block, buffer);
+  }
+
+  /**
+   * Invalidates the off-heap copy of a block that's becoming dirty.
+   */
+  final void invalidateOffHeap(long blockId)
+  {
+    OffHeapBlockCache offHeapCache = _offHeapCache;
+
+    if (offHeapCache != null)
+      offHeapCache.remove(blockId);
+  }
+
+  /**
+   * True if the heap cache has a different Block for the same id, i.e.
+   * the freed block's contents may be stale.
+   */
+  final boolean isSuperseded(Block block)
+  {
+    Block cacheBlock = _blockCache.peek(block.getBlockId());
+
+    return cacheBlock != null && cacheBlock != block;
+  }
+
   public void clear()
   {
     _blockCache.clear();
@@ -456,6 +535,53 @@ public final class BlockManager
       
   }
 
+  /**
+   * Returns the off-heap cache capacity in bytes.
+   */
+  @Override
+  public long getOffHeapMemorySize()
+  {
+    OffHeapBlockCache offHeapCache = _offHeapCache;
+
+    if (offHeapCache != null)
+      return offHeapCache.getCapacity() * BlockStore.BLOCK_SIZE;
+    else
+      return 0;
+  }
+
+  /**
+   * Returns the off-heap hit count.
+   */
+  @Override
+  public long getOffHeapHitCountTotal()
+  {
+    OffHeapBlockCache offHeapCache = _offHeapCache;
+
+    return offHeapCache != null ? offHeapCache.getHitCount() : 0;
+  }
+
+  /**
+   * Returns the off-heap miss count.
+   */
+  @Override
+  public long getOffHeapMissCountTotal()
+  {
+    OffHeapBlockCache offHeapCache = _offHeapCache;
+
+    return offHeapCache != null ? offHeapCache.getMissCount() : 0;
+  }
+
+  /**
+   * Returns the off-heap eviction count.
+   */
+  @Override
+  public long getOffHeapEvictCountTotal()
+  {
+    OffHeapBlockCache offHeapCache = _offHeapCache;
+
+    return offHeapCache != null ? offHeapCache.getEvictCount() : 0;
+  }
+
   final void addBlockRead()
   {
     _blockReadCount.incrementAndGet();
@@ -36,7 +36,6 @@ import java.util.concurrent.atomic.AtomicReference;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
-import com.caucho.util.CurrentTime;
 import com.caucho.util.FreeRing;
 import com.caucho.util.IoUtil;
 import com.caucho.util.L10N;
@@ -55,6 +54,9 @@ public class BlockReadWrite {
   
   private final static long FILE_SIZE_INCREMENT = 8L * 1024 * 1024; 
 
+  // files beyond the limit fall back to RandomAccessFile
+  private final static long MMAP_SIZE_MAX = 4L * 1024 * 1024 * 1024;
+
   private final BlockStore _store;
   private final BlockManager _blockManager;
 
@@ -67,8 +69,10 @@ public class BlockReadWrite {
   private AtomicReference<RandomAccessStream> _mmapFile
     = new AtomicReference<RandomAccessStream>();
 
-  private boolean _isEnableMmap = true;
-  private boolean _isMmap = false;
+  // both flags change at runtime, on the first mmap and on the fallback
+  // to RandomAccessFile for large files
+  private volatile boolean _isEnableMmap = true;
+  private volatile boolean _isMmap = false;
 
   private FreeRing<RandomAccessWrapper> _cachedRowFile
     = new FreeRing<RandomAccessWrapper>(4);
@@ -140,17 +144,17 @@ public class BlockReadWrite {
   {
     boolean isPriority = true;
 
-    RandomAccessWrapper wrapper = openRowFile(true, FILE_SIZE_INCREMENT);
+    RandomAccessWrapper wrapper = openRowFile(isPriority, FILE_SIZE_INCREMENT);
 
     try {
       RandomAccessStream file = wrapper.getFile();
 
       _fileSize = file.getLength();
 
-      freeRowFile(wrapper, isPriority);
+      freeRowFile(wrapper);
       wrapper = null;
     } finally {
-      closeRowFile(wrapper, isPriority);
+      closeRowFile(wrapper);
     }
   }
 
@@ -229,12 +233,12 @@ public class BlockReadWrite {
 
       _blockManager.addBlockRead();
 
-      freeRowFile(wrapper, isPriority);
+      freeRowFile(wrapper);
       wrapper = null;
 
       return true;
     } finally {
-      closeRowFile(wrapper, isPriority);
+      closeRowFile(wrapper);
     }
   }
 
@@ -264,15 +268,61 @@ public class BlockReadWrite {
       }
 
       os.write(blockAddress, buffer, offset, length);
-      freeRowFile(wrapper, isPriority);
+      freeRowFile(wrapper);
       wrapper = null;
 
       _blockManager.addBlockWrite();
     } finally {
-      closeRowFile(wrapper, isPriority);
+      closeRowFile(wrapper);
     }
   }
 
+  /**
+   * Opens the file for a batch of writes from the BlockWriter, so a
+   * writer pass shares a single open file.
+   *
+   * @param addressMax the end address of the highest block in the batch
+   *
+   * @return the batch file, or null if the file can't be opened
+   */
+  RandomAccessWrapper openWriteBatch(long addressMax)
+    throws IOException
+  {
+    return openRowFile(false, addressMax);
+  }
+
+  /**
+   * Saves the buffer to the database using an open write batch.
+   */
+  void writeBlock(RandomAccessWrapper batch,
+                  long blockAddress,
+                  byte []buffer, int offset, int length)
+    throws IOException
+  {
+    RandomAccessStream os = batch.getFile();
+
+    if (os.getLength() < blockAddress + length) {
+      writeBlock(blockAddress, buffer, offset, length, false);
+      return;
+    }
+
+    os.write(blockAddress, buffer, offset, length);
+
+    _blockManager.addBlockWrite();
+  }
+
+  /**
+   * Closes a write batch.
+   */
+  void closeWriteBatch(RandomAccessWrapper batch, boolean isValid)
+    throws IOException
+  {
+    if (isValid)
+      freeRowFile(batch);
+    else
+      closeRowFile(batch);
+  }
+
   RandomAccessStream getMmap()
   {
     return _mmapFile.get();
@@ -293,7 +343,7 @@ public class BlockReadWrite {
 
       os.fsync();
     } finally {
-      closeRowFile(wrapper, isPriority);
+      closeRowFile(wrapper);
     }
   }
 
@@ -308,10 +358,13 @@ public class BlockReadWrite {
 
     // limit number of active row files
 
+    boolean isPermit = false;
+
     if (! isPriority && ! _isMmap) {
       try {
         Thread.interrupted();
         _rowFileSemaphore.acquire();
+        isPermit = true;
       } catch (InterruptedException e) {
         log.log(Level.FINE, e.toString(), e);
 
@@ -323,6 +376,10 @@ public class BlockReadWrite {
     try {
       wrapper = openRowFileImpl(fileSize);
 
+      // _isMmap can change while the file is open, so the release
+      // follows the permit rather than the current mode
+      wrapper.setRowFilePermit(isPermit);
+
       return wrapper;
     } catch (RuntimeException e) {
       throw e;
@@ -331,7 +388,7 @@ public class BlockReadWrite {
     } catch (Exception e) {
       throw new IOException(e);
     } finally {
-      if (wrapper == null && ! _isMmap)
+      if (wrapper == null && isPermit)
         _rowFileSemaphore.release();
     }
   }
@@ -375,10 +432,10 @@ public class BlockReadWrite {
             newFileSize = fileLength;
           }
 
-          freeRowFile(wrapper, false);
+          freeRowFile(wrapper);
           wrapper = null;
         } finally {
-          closeRowFile(wrapper, true);
+          closeRowFile(wrapper);
         }
 
         /* XXX: stream is closed
@@ -465,6 +522,14 @@ public class BlockReadWrite {
 
         RandomAccessStream file = null;
 
+        if (MMAP_SIZE_MAX < fileSize) {
+          log.fine(this + " mmap disabled because file size 0x"
+                   + Long.toHexString(fileSize) + " exceeds the mmap limit");
+
+          _isEnableMmap = false;
+          _isMmap = false;
+        }
+
         if (_isEnableMmap) {
           file = _path.openMemoryMappedFile(fileSize);
 
@@ -499,6 +564,12 @@ public class BlockReadWrite {
     return null;
   }
 
+  /**
+   * Releases the store's reference to an outgrown mapping.  Readers and
+   * writers still using the old mapping hold their own use count, and the
+   * last one to free it unmaps the file.  The new mapping is independent,
+   * so the remap doesn't wait for them.
+   */
   private void closeMmapFile(RandomAccessStream mmapFile)
   {
     try {
@@ -506,27 +577,19 @@ public class BlockReadWrite {
         _mmapFile.compareAndSet(mmapFile, null);
 
         mmapFile.close();
-
-        long timeout = 15000L;
-        long expires = CurrentTime.getCurrentTimeActual() + timeout;
-
-        while (mmapFile.isOpen()
-               && CurrentTime.getCurrentTimeActual() < expires) {
-          // wait for close
-        }
       }
     } catch (Exception e) {
-      e.printStackTrace();
+      log.log(Level.FINER, e.toString(), e);
     }
   }
 
-  private void freeRowFile(RandomAccessWrapper wrapper, boolean isPriority)
+  private void freeRowFile(RandomAccessWrapper wrapper)
     throws IOException
   {
     if (wrapper == null)
       return;
 
-    if (! isPriority && ! _isMmap) {
+    if (wrapper.clearRowFilePermit()) {
       _rowFileSemaphore.release();
     }
 
@@ -541,13 +604,13 @@ public class BlockReadWrite {
     }
   }
 
-  private void closeRowFile(RandomAccessWrapper wrapper, boolean isPriority)
+  private void closeRowFile(RandomAccessWrapper wrapper)
     throws IOException
   {
     if (wrapper == null)
       return;
 
-    if (! isPriority && ! _isMmap) {
+    if (wrapper.clearRowFilePermit()) {
       _rowFileSemaphore.release();
     }
 
@@ -588,6 +651,7 @@ public class BlockReadWrite {
 
   static class RandomAccessWrapper {
     private RandomAccessStream _file;
+    private boolean _isRowFilePermit;
 
     RandomAccessWrapper(RandomAccessStream file)
     {
@@ -599,6 +663,23 @@ public class BlockReadWrite {
       return _file;
     }
 
+    void setRowFilePermit(boolean isPermit)
+    {
+      _isRowFilePermit = isPermit;
+    }
+
+    /**
+     * Returns true if the wrapper held a row file permit, clearing it so
+     * the permit is only released once.
+     */
+    boolean clearRowFilePermit()
+    {
+      boolean isPermit = _isRowFilePermit;
+      _isRowFilePermit = false;
+
+      return isPermit;
+    }
+
     void free()
     {
       RandomAccessStream file = _file;
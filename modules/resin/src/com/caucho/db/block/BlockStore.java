@@ -1919,6 +1919,26 @@ public class BlockStore {
     }
   }
 
+  /**
+   * Waits for the queued block writes to complete, without flushing
+   * other dirty blocks in the cache.
+   *
+   * @param isFsync if true, also fsync the file
+   */
+  public boolean flushWrites(boolean isFsync)
+    throws IOException
+  {
+    _writer.wake();
+
+    boolean isValid = _writer.waitForComplete(60000);
+
+    if (isFsync) {
+      _readWrite.fsync();
+    }
+
+    return isValid;
+  }
+
   /**
    * Closes the store.
    */
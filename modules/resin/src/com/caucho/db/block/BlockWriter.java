@@ -29,6 +29,9 @@
 
 package com.caucho.db.block;
 
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.concurrent.TimeUnit;
@@ -55,6 +58,17 @@ public class BlockWriter extends AbstractTaskWorker {
   private final RingValueQueue<Block> _blockWriteRing
     = new RingValueQueue<Block>(_queueSize);
 
+  // maximum blocks written through a single open file
+  private static final int BATCH_MAX = 64;
+
+  private static final Comparator<Block> BLOCK_ID_COMPARATOR
+    = new BlockIdComparator();
+
+  private final Block []_batch = new Block[BATCH_MAX];
+
+  // notified when the write queue drains
+  private final Object _completeLock = new Object();
+
   BlockWriter(BlockStore store)
   {
     _store = store;
@@ -235,7 +249,10 @@ public class BlockWriter extends AbstractTaskWorker {
     do {
       wake();
       try {
-        Thread.sleep(10);
+        synchronized (_completeLock) {
+          if (! _blockWriteRing.isEmpty())
+            _completeLock.wait(10);
+        }
       } catch (Exception e) {
       }
     } while (! isClosed()
@@ -252,17 +269,27 @@ public class BlockWriter extends AbstractTaskWorker {
       int retryMax = 25;
       int retry = retryMax;
 
+      Block []batch = _batch;
+
       while (true) {
-        Block block = peekFirstBlock();
+        int count = fillBatch(batch);
 
-        if (block != null) {
+        if (count > 0) {
           retry = retryMax;
 
-          //System.err.println("WRITE: " + Long.toHexString(block.getBlockId()));
           try {
-            block.writeFromBlockWriter();
+            writeBatch(batch, count);
           } finally {
-            removeFirstBlock();
+            for (int i = 0; i < count; i++) {
+              batch[i] = null;
+              removeFirstBlock();
+            }
+          }
+
+          if (isQueueEmpty()) {
+            synchronized (_completeLock) {
+              _completeLock.notifyAll();
+            }
           }
         }
         else if (isQueueEmpty() && retry-- <= 0) {
@@ -276,6 +303,84 @@ public class BlockWriter extends AbstractTaskWorker {
     return -1;
   }
 
+  /**
+   * Collects the queued blocks starting at the tail.  The blocks stay
+   * in the ring until they're written, so copyDirtyBlock can find them.
+   */
+  private int fillBatch(Block []batch)
+  {
+    Block first = peekFirstBlock();
+
+    if (first == null)
+      return 0;
+
+    batch[0] = first;
+    int count = 1;
+
+    long ptr = _blockWriteRing.getTail() + 1;
+    long head = _blockWriteRing.getHead();
+
+    for (; count < batch.length && ptr < head; ptr++) {
+      Block block = _blockWriteRing.getValue(ptr);
+
+      // slot allocated, but not yet filled
+      if (block == null)
+        break;
+
+      batch[count++] = block;
+    }
+
+    return count;
+  }
+
+  /**
+   * Writes the batch in block order through a single open file.
+   */
+  private void writeBatch(Block []batch, int count)
+    throws IOException
+  {
+    if (count == 1) {
+      batch[0].writeFromBlockWriter();
+      return;
+    }
+
+    Block []sorted = new Block[count];
+    System.arraycopy(batch, 0, sorted, 0, count);
+    Arrays.sort(sorted, BLOCK_ID_COMPARATOR);
+
+    Block last = sorted[count - 1];
+    long addressMax = ((last.getBlockId() & BlockStore.BLOCK_MASK)
+                       + BlockStore.BLOCK_SIZE);
+
+    BlockReadWrite readWrite = _store.getReadWrite();
+
+    BlockReadWrite.RandomAccessWrapper file
+      = readWrite.openWriteBatch(addressMax);
+
+    boolean isValid = false;
+    IOException exn = null;
+
+    try {
+      for (Block block : sorted) {
+        // a failed block must not keep the rest of the batch from the disk
+        try {
+          block.writeFromBlockWriter(file);
+        } catch (IOException e) {
+          if (exn == null)
+            exn = e;
+        }
+      }
+
+      isValid = true;
+    } finally {
+      if (file != null)
+        readWrite.closeWriteBatch(file, isValid);
+    }
+
+    if (exn != null)
+      throw exn;
+  }
+
   private boolean isQueueEmpty()
   {
     // return _blockWriteQueue.isEmpty();
@@ -319,4 +424,20 @@ public class BlockWriter extends AbstractTaskWorker {
   {
     return getClass().getSimpleName() + "[" + _store + "]";
   }
+
+  static class BlockIdComparator implements Comparator<Block> {
+    @Override
+    public int compare(Block a, Block b)
+    {
+      long idA = a.getBlockId() & BlockStore.BLOCK_MASK;
+      long idB = b.getBlockId() & BlockStore.BLOCK_MASK;
+
+      if (idA < idB)
+        return -1;
+      else if (idB < idA)
+        return 1;
+      else
+        return 0;
+    }
+  }
 }
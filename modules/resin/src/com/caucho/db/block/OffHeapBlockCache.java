@@ -0,0 +1,384 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free SoftwareFoundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+package com.caucho.db.block;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+import com.caucho.env.meter.CountMeter;
+import com.caucho.env.meter.MeterService;
+import com.caucho.util.L10N;
+import com.caucho.util.LongKeyHashMap;
+
+/**
+ * Second-level block cache in direct memory, holding clean copies of
+ * blocks dropped from the heap LRU.
+ *
+ * The cache is exclusive with the heap cache: a block read from the
+ * off-heap cache is removed from it, and a clean block is saved again
+ * when its Block is freed.  Any block that becomes dirty is invalidated,
+ * so an entry always matches the backing file.
+ *
+ * The memory is allocated lazily in 1M chunks, bounded by the configured
+ * capacity and -XX:MaxDirectMemorySize, not by the heap size.
+ */
+final class OffHeapBlockCache
+{
+  private static final Logger log
+    = Logger.getLogger(OffHeapBlockCache.class.getName());
+  private static final L10N L = new L10N(OffHeapBlockCache.class);
+
+  private static final int BLOCK_SIZE = BlockStore.BLOCK_SIZE;
+
+  private static final int SEGMENT_COUNT = 16;
+  private static final int CHUNK_BLOCKS = (1024 * 1024) / BLOCK_SIZE;
+
+  private final BlockManager _manager;
+  private final Segment []_segments;
+  private final long _capacity;
+
+  private final AtomicLong _hitCount = new AtomicLong();
+  private final AtomicLong _missCount = new AtomicLong();
+  private final AtomicLong _evictCount = new AtomicLong();
+
+  private final CountMeter _hitMeter;
+  private final CountMeter _missMeter;
+  private final CountMeter _evictMeter;
+
+  OffHeapBlockCache(BlockManager manager, long memorySize)
+  {
+    _manager = manager;
+
+    int segmentBlocks = (int) (memorySize / BLOCK_SIZE / SEGMENT_COUNT);
+
+    // round up to a full chunk
+    segmentBlocks = Math.max(CHUNK_BLOCKS,
+                             (segmentBlocks + CHUNK_BLOCKS - 1)
+                             / CHUNK_BLOCKS * CHUNK_BLOCKS);
+
+    _segments = new Segment[SEGMENT_COUNT];
+
+    for (int i = 0; i < _segments.length; i++) {
+      _segments[i] = new Segment(segmentBlocks);
+    }
+
+    _capacity = (long) segmentBlocks * SEGMENT_COUNT;
+
+    _hitMeter = MeterService.createCountMeter("Resin|Database|Block|Off-Heap Hit");
+    _missMeter = MeterService.createCountMeter("Resin|Database|Block|Off-Heap Miss");
+    _evictMeter = MeterService.createCountMeter("Resin|Database|Block|Off-Heap Evict");
+  }
+
+  /**
+   * Returns the capacity in blocks.
+   */
+  long getCapacity()
+  {
+    return _capacity;
+  }
+
+  /**
+   * Returns the number of cached blocks.
+   */
+  long getSize()
+  {
+    long size = 0;
+
+    for (Segment segment : _segments) {
+      size += segment.getSize();
+    }
+
+    return size;
+  }
+
+  long getHitCount()
+  {
+    return _hitCount.get();
+  }
+
+  long getMissCount()
+  {
+    return _missCount.get();
+  }
+
+  long getEvictCount()
+  {
+    return _evictCount.get();
+  }
+
+  /**
+   * Copies a cached block into the buffer, removing the entry.
+   *
+   * @return true if the block was cached
+   */
+  boolean take(long blockId, byte []buffer)
+  {
+    if (getSegment(blockId).take(blockId, buffer)) {
+      _hitCount.incrementAndGet();
+      _hitMeter.start();
+
+      return true;
+    }
+    else {
+      _missCount.incrementAndGet();
+      _missMeter.start();
+
+      return false;
+    }
+  }
+
+  /**
+   * Saves a clean block freed from the heap cache.  The save is skipped
+   * if a newer Block for the same id is already in the heap cache.
+   */
+  void save(Block block, byte []buffer)
+  {
+    getSegment(block.getBlockId()).save(block, buffer);
+  }
+
+  /**
+   * Invalidates a block which is becoming dirty.
+   */
+  void remove(long blockId)
+  {
+    getSegment(blockId).remove(blockId);
+  }
+
+  /**
+   * Removes all blocks for a store.
+   */
+  void removeStore(int storeId)
+  {
+    for (Segment segment : _segments) {
+      segment.removeStore(storeId);
+    }
+  }
+
+  private Segment getSegment(long blockId)
+  {
+    long hash = (blockId >>> BlockStore.BLOCK_BITS) * 0x9e3779b97f4a7c15L;
+
+    hash ^= blockId & BlockStore.BLOCK_INDEX_MASK;
+
+    return _segments[(int) (hash >>> 60) & (SEGMENT_COUNT - 1)];
+  }
+
+  @Override
+  public String toString()
+  {
+    return getClass().getSimpleName() + "[capacity=" + _capacity + "]";
+  }
+
+  /**
+   * A segment of the cache, with its own lock and clock eviction.
+   */
+  private final class Segment {
+    private final LongKeyHashMap<Integer> _slotMap;
+
+    private final long []_slotIds;
+    private final boolean []_isReferenced;
+    private final ByteBuffer []_chunks;
+
+    private final int []_freeSlots;
+    private int _freeTop;
+
+    private int _allocated;
+    private int _allocatedMax;
+    private int _size;
+    private int _clock;
+
+    Segment(int capacity)
+    {
+      _slotMap = new LongKeyHashMap<Integer>(capacity);
+
+      _slotIds = new long[capacity];
+      _isReferenced = new boolean[capacity];
+      _chunks = new ByteBuffer[capacity / CHUNK_BLOCKS];
+      _freeSlots = new int[capacity];
+      _allocatedMax = capacity;
+    }
+
+    synchronized int getSize()
+    {
+      return _size;
+    }
+
+    synchronized boolean take(long blockId, byte []buffer)
+    {
+      Integer slot = _slotMap.remove(blockId);
+
+      if (slot == null)
+        return false;
+
+      int index = slot;
+
+      ByteBuffer data = getSlotBuffer(index);
+      data.get(buffer, 0, BLOCK_SIZE);
+
+      freeSlot(index);
+
+      return true;
+    }
+
+    synchronized void save(Block block, byte []buffer)
+    {
+      long blockId = block.getBlockId();
+
+      if (_manager.isSuperseded(block)) {
+        remove(blockId);
+        return;
+      }
+
+      Integer slot = _slotMap.get(blockId);
+      int index;
+
+      if (slot != null) {
+        index = slot;
+      }
+      else {
+        index = allocateSlot();
+
+        if (index < 0)
+          return;
+
+        _slotIds[index] = blockId;
+        _slotMap.put(blockId, index);
+        _size++;
+      }
+
+      _isReferenced[index] = true;
+
+      ByteBuffer data = getSlotBuffer(index);
+      data.put(buffer, 0, BLOCK_SIZE);
+    }
+
+    synchronized void remove(long blockId)
+    {
+      Integer slot = _slotMap.remove(blockId);
+
+      if (slot != null)
+        freeSlot(slot);
+    }
+
+    synchronized void removeStore(int storeId)
+    {
+      for (int i = 0; i < _allocated; i++) {
+        long blockId = _slotIds[i];
+
+        if (blockId != 0
+            && (blockId & BlockStore.BLOCK_INDEX_MASK) == storeId) {
+          _slotMap.remove(blockId);
+          freeSlot(i);
+        }
+      }
+    }
+
+    private void freeSlot(int index)
+    {
+      _slotIds[index] = 0;
+      _isReferenced[index] = false;
+      _size--;
+
+      _freeSlots[_freeTop++] = index;
+    }
+
+    /**
+     * Returns a free slot, evicting with a clock sweep when the segment
+     * is full.
+     */
+    private int allocateSlot()
+    {
+      if (_freeTop > 0)
+        return _freeSlots[--_freeTop];
+
+      if (_allocated < _allocatedMax
+          && allocateChunk(_allocated / CHUNK_BLOCKS)) {
+        return _allocated++;
+      }
+
+      int allocated = _allocated;
+
+      if (allocated == 0)
+        return -1;
+
+      while (true) {
+        int index = _clock;
+        _clock = (_clock + 1) % allocated;
+
+        if (_isReferenced[index]) {
+          _isReferenced[index] = false;
+          continue;
+        }
+
+        _slotMap.remove(_slotIds[index]);
+        _slotIds[index] = 0;
+        _size--;
+
+        _evictCount.incrementAndGet();
+        _evictMeter.start();
+
+        return index;
+      }
+    }
+
+    private boolean allocateChunk(int chunk)
+    {
+      if (_chunks[chunk] != null)
+        return true;
+
+      try {
+        _chunks[chunk] = ByteBuffer.allocateDirect(CHUNK_BLOCKS * BLOCK_SIZE);
+
+        return true;
+      } catch (OutOfMemoryError e) {
+        // direct memory is exhausted, so cap the segment at its current size
+        _allocatedMax = _allocated;
+
+        log.warning(L.l("{0} is limited to {1} blocks in a segment because direct memory is exhausted.\n  {2}",
+                        OffHeapBlockCache.this, _allocated, e));
+
+        return false;
+      }
+    }
+
+    private ByteBuffer getSlotBuffer(int index)
+    {
+      ByteBuffer data = _chunks[index / CHUNK_BLOCKS].duplicate();
+
+      int offset = (index % CHUNK_BLOCKS) * BLOCK_SIZE;
+
+      data.limit(offset + BLOCK_SIZE);
+      data.position(offset);
+
+      return data;
+    }
+  }
+}
@@ -87,6 +87,10 @@ public final class BTree {
   private final static int IS_LEAF = 0x01;
   private final static int IS_NODE = 0x02;
 
+  // optimistic traversals before falling back to the locked traversal
+  private final static int OPTIMISTIC_RETRY_MAX = 8;
+  private final static long RETRY = Long.MIN_VALUE;
+
   private BlockStore _store;
 
   private long _rootBlockId;
@@ -167,6 +171,13 @@ public final class BTree {
     throws IOException, SQLException
   {
     try {
+      for (int i = 0; i < OPTIMISTIC_RETRY_MAX; i++) {
+        long value = lookupOptimistic(keyBuffer, keyOffset, keyLength);
+
+        if (value != RETRY)
+          return value;
+      }
+
       long value = lookup(keyBuffer, keyOffset, keyLength, _rootBlockId);
 
       return value;
@@ -175,6 +186,76 @@ public final class BTree {
     }
   }
 
+  /**
+   * Looks up the key without locking, validating each block's write
+   * version instead.  A block's parent is validated after the child's
+   * version is read, so a concurrent split or join of the child forces
+   * a retry.
+   *
+   * @return the value, or RETRY if a writer interfered
+   */
+  private long lookupOptimistic(byte []keyBuffer,
+                                int keyOffset,
+                                int keyLength)
+    throws IOException
+  {
+    Block block = _rootBlock;
+    block.allocate();
+
+    try {
+      long version = block.getOptimisticVersion();
+
+      if (version < 0)
+        return RETRY;
+
+      while (true) {
+        block.read();
+
+        byte []buffer = block.getBuffer();
+        int flags = getInt(buffer, FLAGS_OFFSET) & LEAF_MASK;
+        int length = getLength(buffer);
+
+        if (flags != IS_LEAF && flags != IS_NODE
+            || length < 0 || _n < length) {
+          return RETRY;
+        }
+
+        boolean isLeaf = flags == IS_LEAF;
+
+        long value = lookupTupleOptimistic(buffer, length, isLeaf,
+                                           keyBuffer, keyOffset, keyLength);
+
+        if (! block.validateOptimisticVersion(version))
+          return RETRY;
+        else if (isLeaf)
+          return value;
+        else if (value == FAIL)
+          return RETRY;
+
+        Block childBlock = _store.loadBlock(value);
+        long childVersion = childBlock.getOptimisticVersion();
+
+        if (childVersion < 0 || ! block.validateOptimisticVersion(version)) {
+          childBlock.free();
+
+          return RETRY;
+        }
+
+        block.free();
+
+        block = childBlock;
+        version = childVersion;
+      }
+    } catch (RuntimeException e) {
+      // a concurrent writer can leave an inconsistent view of the block
+      log.log(Level.FINEST, e.toString(), e);
+
+      return RETRY;
+    } finally {
+      block.free();
+    }
+  }
+
   private long lookup(byte []keyBuffer,
                      int keyOffset,
                      int keyLength,
@@ -233,6 +314,11 @@ public final class BTree {
     throws SQLException
   {
     try {
+      if (insertOptimistic(keyBuffer, keyOffset, keyLength,
+                           value, isOverride)) {
+        return;
+      }
+
       while (! insert(keyBuffer, keyOffset, keyLength,
                       value, isOverride, true,
                       _rootBlockId)) {
@@ -249,6 +335,148 @@ public final class BTree {
     }
   }
 
+  /**
+   * Inserts into the leaf when it has room, locking only the leaf.
+   *
+   * @return false if the locked insert is needed
+   */
+  private boolean insertOptimistic(byte []keyBuffer,
+                                   int keyOffset,
+                                   int keyLength,
+                                   long value,
+                                   boolean isOverride)
+    throws IOException, SQLException, InterruptedException
+  {
+    Block leaf = lockLeafOptimistic(keyBuffer, keyOffset, keyLength);
+
+    if (leaf == null)
+      return false;
+
+    try {
+      byte []buffer = leaf.getBuffer();
+
+      if (_n <= getLength(buffer))
+        return false;
+
+      insertValue(keyBuffer, keyOffset, keyLength,
+                  value, isOverride, leaf);
+
+      validate(leaf);
+
+      return true;
+    } finally {
+      leaf.getWriteLock().unlock();
+      leaf.free();
+    }
+  }
+
+  /**
+   * Finds and write-locks the leaf for the key using an optimistic
+   * traversal.  Only the leaf is locked.  The leaf's parent is validated
+   * after the lock, because any split or join of the leaf also writes
+   * the parent.
+   *
+   * @return the allocated and write-locked leaf, or null if the
+   *   traversal failed
+   */
+  private Block lockLeafOptimistic(byte []keyBuffer,
+                                   int keyOffset,
+                                   int keyLength)
+    throws IOException, InterruptedException
+  {
+    Block parent = null;
+    long parentVersion = -1;
+
+    Block block = _rootBlock;
+    block.allocate();
+
+    try {
+      long version = block.getOptimisticVersion();
+
+      if (version < 0)
+        return null;
+
+      while (true) {
+        block.read();
+
+        byte []buffer = block.getBuffer();
+        int flags = getInt(buffer, FLAGS_OFFSET) & LEAF_MASK;
+        int length = getLength(buffer);
+
+        if (flags != IS_LEAF && flags != IS_NODE
+            || length < 0 || _n < length) {
+          return null;
+        }
+
+        if (flags == IS_LEAF)
+          break;
+
+        long childId = lookupTupleOptimistic(buffer, length, false,
+                                             keyBuffer, keyOffset, keyLength);
+
+        if (childId == FAIL || ! block.validateOptimisticVersion(version))
+          return null;
+
+        Block childBlock = _store.loadBlock(childId);
+        long childVersion = childBlock.getOptimisticVersion();
+
+        if (childVersion < 0 || ! block.validateOptimisticVersion(version)) {
+          childBlock.free();
+
+          return null;
+        }
+
+        if (parent != null)
+          parent.free();
+
+        parent = block;
+        parentVersion = version;
+
+        block = childBlock;
+        version = childVersion;
+      }
+
+      Lock blockLock = block.getWriteLock();
+
+      if (! blockLock.tryLock(_timeout, TimeUnit.MILLISECONDS))
+        return null;
+
+      boolean isValid = false;
+
+      try {
+        if (parent != null
+            && ! parent.validateOptimisticVersion(parentVersion)) {
+          return null;
+        }
+
+        // the root may have split into a node
+        if (! isLeaf(block.getBuffer(), block))
+          return null;
+
+        isValid = true;
+
+        Block leaf = block;
+        block = null;
+
+        return leaf;
+      } finally {
+        if (! isValid)
+          blockLock.unlock();
+      }
+    } catch (RuntimeException e) {
+      // a concurrent writer can leave an inconsistent view of the block
+      log.log(Level.FINEST, e.toString(), e);
+
+      return null;
+    } finally {
+      if (parent != null)
+        parent.free();
+
+      if (block != null)
+        block.free();
+    }
+  }
+
   /**
    * Inserts the new value for the given key.
    *
@@ -766,6 +994,9 @@ public final class BTree {
     throws SQLException
   {
     try {
+      if (removeOptimistic(keyBuffer, keyOffset, keyLength))
+        return;
+
       Block rootBlock = _rootBlock; // _store.readBlock(_rootBlockId);
       rootBlock.allocate();
 
@@ -785,6 +1016,42 @@ public final class BTree {
     }
   }
 
+  /**
+   * Removes from the leaf when the leaf stays at least half full,
+   * locking only the leaf.
+   *
+   * @return false if the locked remove is needed
+   */
+  private boolean removeOptimistic(byte []keyBuffer,
+                                   int keyOffset,
+                                   int keyLength)
+    throws IOException, InterruptedException
+  {
+    Block leaf = lockLeafOptimistic(keyBuffer, keyOffset, keyLength);
+
+    if (leaf == null)
+      return false;
+
+    try {
+      byte []buffer = leaf.getBuffer();
+
+      if (leaf != _rootBlock && getLength(buffer) <= _minN)
+        return false;
+
+      leaf.setFlushDirtyOnCommit(false);
+
+      removeLeafEntry(leaf.getBlockId(), buffer,
+                      keyBuffer, keyOffset, keyLength);
+
+      leaf.setDirty(0, BlockStore.BLOCK_SIZE);
+
+      return true;
+    } finally {
+      leaf.getWriteLock().unlock();
+      leaf.free();
+    }
+  }
+
   /**
    * Recursively remove a key from the index.
    *
@@ -1624,6 +1891,54 @@ public final class BTree {
     }
   }
 
+  /**
+   * Looks up the next block without the corruption checks of lookupTuple,
+   * because an optimistic reader may see a partially-written block.
+   *
+   * @return the value, or FAIL if the key or child isn't found
+   */
+  private long lookupTupleOptimistic(byte []buffer,
+                                     int length,
+                                     boolean isLeaf,
+                                     byte []keyBuffer,
+                                     int keyOffset,
+                                     int keyLength)
+  {
+    int tupleSize = _tupleSize;
+
+    int min = 0;
+    int max = length;
+
+    while (min < max) {
+      int i = (min + max) >>> 1;
+
+      int offset = HEADER_SIZE + i * tupleSize;
+
+      int cmp = _keyCompare.compare(keyBuffer, keyOffset,
+                                    buffer, offset + PTR_SIZE,
+                                    keyLength);
+
+      if (cmp == 0)
+        return getPointer(buffer, offset);
+      else if (0 < cmp)
+        min = i + 1;
+      else
+        max = i;
+    }
+
+    if (isLeaf)
+      return FAIL;
+    else if (min < length)
+      return getPointer(buffer, HEADER_SIZE + min * tupleSize);
+
+    long next = getPointer(buffer, NEXT_OFFSET);
+
+    if (next != 0 || length == 0)
+      return next;
+    else
+      return getPointer(buffer, HEADER_SIZE + (length - 1) * tupleSize);
+  }
+
   /**
    * Removes from the next block given the current block and the given key.
    */
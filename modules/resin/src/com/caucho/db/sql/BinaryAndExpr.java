@@ -145,6 +145,27 @@ final class BinaryAndExpr extends AbstractBinaryBooleanExpr {
     }
   }
 
+  /**
+   * Compiles the AND if either side compiles.  The compiled side is
+   * tested first, and the other side is evaluated as an expression.
+   */
+  @Override
+  RowFilter createRowFilter(int tableIndex)
+  {
+    RowFilter left = _left.createRowFilter(tableIndex);
+    RowFilter right = _right.createRowFilter(tableIndex);
+
+    if (left == null && right == null)
+      return null;
+
+    if (left == null)
+      return new RowFilter.AndFilter(right, new RowFilter.ExprFilter(_left));
+    else if (right == null)
+      return new RowFilter.AndFilter(left, new RowFilter.ExprFilter(_right));
+    else
+      return new RowFilter.AndFilter(left, right);
+  }
+
   @Override
   public String toString()
   {
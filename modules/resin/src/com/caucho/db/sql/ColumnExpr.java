@@ -93,6 +93,14 @@ final class ColumnExpr extends Expr {
     return _column;
   }
 
+  /**
+   * Returns the index of the column's table iterator.
+   */
+  int getTableIndex()
+  {
+    return _tableIndex;
+  }
+
   /**
    * Returns the column's table.
    */
@@ -136,6 +136,17 @@ abstract public class Expr {
     return false;
   }
 
+  /**
+   * Returns a filter compiled against the table's row layout, or null
+   * if the expression can't be compiled.
+   *
+   * @param tableIndex the index of the table being scanned
+   */
+  RowFilter createRowFilter(int tableIndex)
+  {
+    return null;
+  }
+
   /**
    * Returns true if the expression can return a null value.
    */
@@ -32,6 +32,8 @@ import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.logging.Logger;
 
+import com.caucho.db.table.Column;
+
 class IsNullExpr extends Expr {
   private Expr _expr;
   private boolean _isNot;
@@ -109,6 +111,17 @@ class IsNullExpr extends Expr {
     _expr.evalGroup(context);
   }
 
+  @Override
+  RowFilter createRowFilter(int tableIndex)
+  {
+    Column column = RowFilter.getColumn(_expr, tableIndex);
+
+    if (column != null)
+      return new RowFilter.IsNullFilter(column, _isNot);
+    else
+      return null;
+  }
+
   public String toString()
   {
     if (_isNot)
@@ -31,6 +31,8 @@ package com.caucho.db.sql;
 
 import java.sql.SQLException;
 
+import com.caucho.db.table.Column;
+
 final class LongEqExpr extends AbstractBinaryBooleanExpr {
   private final Expr _left;
   private final Expr _right;
@@ -82,6 +84,22 @@ final class LongEqExpr extends AbstractBinaryBooleanExpr {
       return FALSE;
   }
 
+  @Override
+  RowFilter createRowFilter(int tableIndex)
+  {
+    Column column = RowFilter.getColumn(_left, tableIndex);
+
+    if (column != null && RowFilter.isConstant(_right))
+      return new RowFilter.LongEqFilter(column, _right);
+
+    column = RowFilter.getColumn(_right, tableIndex);
+
+    if (column != null && RowFilter.isConstant(_left))
+      return new RowFilter.LongEqFilter(column, _left);
+
+    return null;
+  }
+
   @Override
   public String toString()
   {
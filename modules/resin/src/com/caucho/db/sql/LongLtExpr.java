@@ -31,6 +31,8 @@ package com.caucho.db.sql;
 
 import java.sql.SQLException;
 
+import com.caucho.db.table.Column;
+
 final class LongLtExpr extends AbstractBinaryBooleanExpr {
   private final Expr _left;
   private final Expr _right;
@@ -91,6 +93,22 @@ final class LongLtExpr extends AbstractBinaryBooleanExpr {
       return FALSE;
   }
 
+  @Override
+  RowFilter createRowFilter(int tableIndex)
+  {
+    Column column = RowFilter.getColumn(_left, tableIndex);
+
+    if (column != null && RowFilter.isConstant(_right))
+      return new RowFilter.LongLtFilter(column, _right, false);
+
+    column = RowFilter.getColumn(_right, tableIndex);
+
+    if (column != null && RowFilter.isConstant(_left))
+      return new RowFilter.LongLtFilter(column, _left, true);
+
+    return null;
+  }
+
   @Override
   public String toString()
   {
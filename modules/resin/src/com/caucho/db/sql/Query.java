@@ -74,6 +74,8 @@ abstract public class Query {
 
   private InitRow _initRow;
   private InitRow[] _initRowArray;
+  // compiled where clause for a full scan of the tail table
+  private RowFilter _tailFilter;
 
   protected Query(Database db, String sql)
   {
@@ -302,9 +304,17 @@ abstract public class Query {
     else
       _initRowArray = new InitRow[1];
 
+    _tailFilter = null;
+
     if (_whereExprs[0] != null) {
-      if (_indexExprs.length == 0 || _indexExprs[0] == RowIterateExpr.DEFAULT)
-        initRow = new ExprTailNonIndexInitRow(_whereExprs[0]);
+      if (_indexExprs.length == 0 || _indexExprs[0] == RowIterateExpr.DEFAULT) {
+        _tailFilter = _whereExprs[0].createRowFilter(0);
+
+        if (_tailFilter != null)
+          initRow = new FilterTailNonIndexInitRow(_tailFilter);
+        else
+          initRow = new ExprTailNonIndexInitRow(_whereExprs[0]);
+      }
       else
         initRow = new ExprTailInitRow(_indexExprs[0], _whereExprs[0]);
     }
@@ -744,7 +754,18 @@ abstract public class Query {
     RowIterateExpr []indexExprs = _indexExprs;
     Expr []whereExprs = _whereExprs;
 
-    for (int i = 0; i < rowLength; i++) {
+    int i = 0;
+
+    RowFilter tailFilter = _tailFilter;
+
+    if (tailFilter != null) {
+      if (nextFilterRow(rows[0], tailFilter, queryContext))
+        return true;
+
+      i = 1;
+    }
+
+    for (; i < rowLength; i++) {
       TableIterator tableIter = rows[i];
       RowIterateExpr indexExpr = indexExprs[i];
 
@@ -763,6 +784,28 @@ abstract public class Query {
     return nextBlock(rowLength - 1, rows, rowLength, queryContext);
   }
 
+  /**
+   * Scans the rest of the tail block for a row matching the compiled
+   * filter.
+   */
+  private static boolean nextFilterRow(final TableIterator rowIter,
+                                       final RowFilter filter,
+                                       final QueryContext queryContext)
+    throws IOException, SQLException
+  {
+    final long blockId = rowIter.getBlockId();
+    final byte []buffer = rowIter.getBuffer();
+
+    while (rowIter.nextRow()) {
+      if (filter.isMatch(queryContext, blockId, buffer,
+                         rowIter.getRowOffset())) {
+        return true;
+      }
+    }
+
+    return false;
+  }
+
   /**
    * Initialize this row and all previous rows within this block group.
    */
@@ -887,6 +930,31 @@ abstract public class Query {
     }
   }
 
+  /**
+   * Full scan of the tail table, testing each row with the where
+   * clause compiled against the table's row layout.
+   */
+  static final class FilterTailNonIndexInitRow extends InitRow {
+    private final RowFilter _filter;
+
+    FilterTailNonIndexInitRow(RowFilter filter)
+    {
+      _filter = filter;
+    }
+
+    @Override
+    protected final boolean initBlockRow(final TableIterator []rows,
+                                         final QueryContext queryContext)
+      throws IOException, SQLException
+    {
+      final TableIterator rowIter = rows[0];
+
+      rowIter.initRow();
+
+      return nextFilterRow(rowIter, _filter, queryContext);
+    }
+  }
+
   static final class ExprNonTailInitRow extends InitRow {
     private final InitRow _next;
     private final RowIterateExpr _iterExpr;
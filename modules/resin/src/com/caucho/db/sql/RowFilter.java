@@ -0,0 +1,267 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+package com.caucho.db.sql;
+
+import java.sql.SQLException;
+
+import com.caucho.db.table.Column;
+
+/**
+ * A where clause compiled against a single table's row layout.
+ *
+ * The filter reads the column values directly from the block buffer,
+ * skipping the per-row TableIterator lookups and the expression tree's
+ * virtual calls.  Constants and parameters are evaluated from the
+ * context, so one filter serves every execution of a prepared query.
+ */
+abstract class RowFilter {
+  /**
+   * Returns true if the row matches the filter.
+   */
+  abstract boolean isMatch(QueryContext context,
+                           long blockId,
+                           byte []buffer,
+                           int rowOffset)
+    throws SQLException;
+
+  /**
+   * Returns the column if the expression is a column of the table.
+   */
+  static Column getColumn(Expr expr, int tableIndex)
+  {
+    if (! (expr instanceof ColumnExpr))
+      return null;
+
+    ColumnExpr columnExpr = (ColumnExpr) expr;
+
+    if (columnExpr.getTableIndex() != tableIndex)
+      return null;
+
+    return columnExpr.getColumn();
+  }
+
+  /**
+   * Returns true if the expression's value is independent of the row.
+   */
+  static boolean isConstant(Expr expr)
+  {
+    return (expr instanceof LongExpr
+            || expr instanceof StringExpr
+            || expr.isParam());
+  }
+
+  /**
+   * Uncompiled fallback, evaluated with the table iterator positioned
+   * on the row.
+   */
+  static final class ExprFilter extends RowFilter {
+    private final Expr _expr;
+
+    ExprFilter(Expr expr)
+    {
+      _expr = expr;
+    }
+
+    @Override
+    final boolean isMatch(QueryContext context,
+                          long blockId, byte []buffer, int rowOffset)
+      throws SQLException
+    {
+      return _expr.isSelect(context);
+    }
+
+    @Override
+    public String toString()
+    {
+      return getClass().getSimpleName() + "[" + _expr + "]";
+    }
+  }
+
+  static final class AndFilter extends RowFilter {
+    private final RowFilter _left;
+    private final RowFilter _right;
+
+    AndFilter(RowFilter left, RowFilter right)
+    {
+      _left = left;
+      _right = right;
+    }
+
+    @Override
+    final boolean isMatch(QueryContext context,
+                          long blockId, byte []buffer, int rowOffset)
+      throws SQLException
+    {
+      return (_left.isMatch(context, blockId, buffer, rowOffset)
+              && _right.isMatch(context, blockId, buffer, rowOffset));
+    }
+
+    @Override
+    public String toString()
+    {
+      return "(" + _left + " AND " + _right + ")";
+    }
+  }
+
+  static final class LongEqFilter extends RowFilter {
+    private final Column _column;
+    private final Expr _value;
+
+    LongEqFilter(Column column, Expr value)
+    {
+      _column = column;
+      _value = value;
+    }
+
+    @Override
+    final boolean isMatch(QueryContext context,
+                          long blockId, byte []buffer, int rowOffset)
+      throws SQLException
+    {
+      if (_column.isNull(buffer, rowOffset) || _value.isNull(context))
+        return false;
+
+      return (_column.getLong(blockId, buffer, rowOffset)
+              == _value.evalLong(context));
+    }
+
+    @Override
+    public String toString()
+    {
+      return "(" + _column.getName() + " == " + _value + ")";
+    }
+  }
+
+  /**
+   * column < value, or value < column when reversed.
+   */
+  static final class LongLtFilter extends RowFilter {
+    private final Column _column;
+    private final Expr _value;
+    private final boolean _isReverse;
+
+    LongLtFilter(Column column, Expr value, boolean isReverse)
+    {
+      _column = column;
+      _value = value;
+      _isReverse = isReverse;
+    }
+
+    @Override
+    final boolean isMatch(QueryContext context,
+                          long blockId, byte []buffer, int rowOffset)
+      throws SQLException
+    {
+      if (_column.isNull(buffer, rowOffset) || _value.isNull(context))
+        return false;
+
+      long columnValue = _column.getLong(blockId, buffer, rowOffset);
+      long value = _value.evalLong(context);
+
+      if (_isReverse)
+        return value < columnValue;
+      else
+        return columnValue < value;
+    }
+
+    @Override
+    public String toString()
+    {
+      if (_isReverse)
+        return "(" + _value + " < " + _column.getName() + ")";
+      else
+        return "(" + _column.getName() + " < " + _value + ")";
+    }
+  }
+
+  /**
+   * String equality, comparing the stored chars without creating
+   * a string for the row.
+   */
+  static final class StringEqFilter extends RowFilter {
+    private final Column _column;
+    private final Expr _value;
+
+    StringEqFilter(Column column, Expr value)
+    {
+      _column = column;
+      _value = value;
+    }
+
+    @Override
+    final boolean isMatch(QueryContext context,
+                          long blockId, byte []buffer, int rowOffset)
+      throws SQLException
+    {
+      if (_column.isNull(buffer, rowOffset))
+        return false;
+
+      String value = _value.evalString(context);
+
+      if (value == null)
+        return false;
+
+      return _column.isEqual(blockId, buffer, rowOffset, value);
+    }
+
+    @Override
+    public String toString()
+    {
+      return "(" + _column.getName() + " = " + _value + ")";
+    }
+  }
+
+  static final class IsNullFilter extends RowFilter {
+    private final Column _column;
+    private final boolean _isNot;
+
+    IsNullFilter(Column column, boolean isNot)
+    {
+      _column = column;
+      _isNot = isNot;
+    }
+
+    @Override
+    final boolean isMatch(QueryContext context,
+                          long blockId, byte []buffer, int rowOffset)
+    {
+      return _column.isNull(buffer, rowOffset) != _isNot;
+    }
+
+    @Override
+    public String toString()
+    {
+      if (_isNot)
+        return _column.getName() + " IS NOT NULL";
+      else
+        return _column.getName() + " IS NULL";
+    }
+  }
+}
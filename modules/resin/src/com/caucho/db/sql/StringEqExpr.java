@@ -31,6 +31,8 @@ package com.caucho.db.sql;
 import java.sql.SQLException;
 import java.util.ArrayList;
 
+import com.caucho.db.table.Column;
+
 class StringEqExpr extends Expr {
   private ColumnExpr _column;
   private Expr _right;
@@ -95,6 +97,17 @@ class StringEqExpr extends Expr {
     throw new SQLException("can't convert string to boolean");
   }
 
+  @Override
+  RowFilter createRowFilter(int tableIndex)
+  {
+    Column column = RowFilter.getColumn(_column, tableIndex);
+
+    if (column != null && RowFilter.isConstant(_right))
+      return new RowFilter.StringEqFilter(column, _right);
+    else
+      return null;
+  }
+
   public String toString()
   {
     return "(" + _column + " = " + _right + ")";
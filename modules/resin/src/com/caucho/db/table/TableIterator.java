@@ -483,7 +483,6 @@ public class TableIterator {
   public boolean isEqual(Column column, String string)
     throws SQLException
   {
-    System.out.println("IS_EQ: " + column + " " + string);
     return column.isEqual(getBlockId(), _buffer, _rowOffset, string);
   }
 
@@ -221,6 +221,20 @@ public class AbstractCache
     _config.setEngine(engine);
   }
 
+  /**
+   * Assign the hash algorithm for the keys: SHA-256 (the default),
+   * MURMUR3-128 or MURMUR3-256.  The MURMUR3 hashes are faster but not
+   * collision-resistant, so they should only be used for caches whose
+   * keys are not chosen by untrusted clients.
+   *
+   * @Note: All servers must use the same setting for a cache.
+   */
+  @Configurable
+  public void setKeyHash(String algorithm)
+  {
+    _config.setKeyHashAlgorithm(algorithm);
+  }
+
   /**
    * The maximum idle time for an item, which is typically used for
    * temporary data like sessions.  For example, session
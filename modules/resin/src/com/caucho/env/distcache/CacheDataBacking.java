@@ -32,6 +32,7 @@ package com.caucho.env.distcache;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.Map;
 
 import com.caucho.server.distcache.CacheData;
 import com.caucho.server.distcache.DataStore;
@@ -41,6 +42,7 @@ import com.caucho.server.distcache.MnodeUpdate;
 import com.caucho.server.distcache.MnodeValue;
 import com.caucho.util.HashKey;
 import com.caucho.vfs.StreamSource;
+import com.caucho.vfs.TempOutputStream;
 import com.caucho.vfs.WriteStream;
 
 /**
@@ -58,6 +60,11 @@ public interface CacheDataBacking {
   
   public MnodeEntry loadLocalEntryValue(HashKey key);
   
+  /**
+   * Loads a group of local entries in a single database pass.
+   */
+  public Map<HashKey,MnodeEntry> loadLocalEntryValues(ArrayList<HashKey> keys);
+  
   public MnodeEntry insertLocalValue(HashKey key,
                                      HashKey cacheKey,
                                      MnodeEntry mnodeValue,
@@ -76,6 +83,12 @@ public interface CacheDataBacking {
                                MnodeEntry oldEntryValue,
                                MnodeUpdate mnodeUpdate);
   
+  /**
+   * Loads the data for a group of values in a single database pass.
+   * The caller must destroy the returned streams.
+   */
+  public Map<Long,TempOutputStream> loadDataAll(ArrayList<Long> valueDataIds);
+  
   public boolean loadData(long valueDataId, WriteStream os)
     throws IOException;
 
@@ -0,0 +1,72 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+package com.caucho.jms.file;
+
+import java.io.Serializable;
+
+/**
+ * Persistent store for file queues.
+ */
+abstract public class AbstractFileQueueStore
+{
+  /**
+   * Adds a new message to the persistent store, returning its id.
+   */
+  abstract public long send(byte []queueHash,
+                            String msgId,
+                            Serializable payload,
+                            int priority,
+                            long expireTime);
+
+  /**
+   * Loads the stored messages for a queue on startup.
+   */
+  abstract boolean receiveStart(byte []queueHash, FileQueueImpl<?> fileQueue);
+
+  /**
+   * Retrieves a message payload from the persistent store.
+   */
+  abstract public Serializable readMessage(long id);
+
+  /**
+   * Removes an acknowledged message from the persistent store.
+   */
+  abstract void delete(long id);
+
+  /**
+   * Returns the number of stored messages.
+   */
+  abstract public int getMessageCount();
+
+  /**
+   * Closes the store.
+   */
+  abstract public void close();
+}
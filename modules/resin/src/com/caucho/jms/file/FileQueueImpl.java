@@ -62,18 +62,22 @@ import com.caucho.vfs.Path;
  *
  * &lt;/web-app>
  * </pre>
+ *
+ * With journal=true, messages are appended to a journal with group
+ * commit instead of being inserted into the database.
  */
 public class FileQueueImpl<E extends Serializable>
   extends AbstractMemoryQueue<E,FileQueueEntry<E>>
   implements Topic
 {
-  private final FileQueueStore _store;
+  private AbstractFileQueueStore _store;
 
   private byte []_queueIdHash;
 
+  private boolean _isJournal;
+
   public FileQueueImpl()
   {
-    _store = FileQueueStore.create();
   }
 
   public FileQueueImpl(byte []queueHash)
@@ -140,6 +144,19 @@ public class FileQueueImpl<E extends Serializable>
     
   }
 
+  /**
+   * If true, store messages in a journal instead of the database.
+   */
+  public void setJournal(boolean isJournal)
+  {
+    _isJournal = isJournal;
+  }
+
+  public boolean isJournal()
+  {
+    return _isJournal;
+  }
+
   /**
    * Returns the JMS configuration url.
    */
@@ -174,6 +191,13 @@ public class FileQueueImpl<E extends Serializable>
     } catch (Exception e) {
       throw new RuntimeException(e);
     }
+
+    if (_store == null) {
+      if (_isJournal)
+        _store = FileQueueJournalStore.create();
+      else
+        _store = FileQueueStore.create();
+    }
       
     _store.receiveStart(_queueIdHash, this);
   }
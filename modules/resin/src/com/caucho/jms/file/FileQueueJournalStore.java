@@ -0,0 +1,958 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+package com.caucho.jms.file;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.caucho.config.ConfigException;
+import com.caucho.db.block.Block;
+import com.caucho.db.block.BlockStore;
+import com.caucho.env.actor.AbstractActorProcessor;
+import com.caucho.env.actor.ValueActorQueue;
+import com.caucho.env.service.RootDirectorySystem;
+import com.caucho.hessian.io.Hessian2Input;
+import com.caucho.hessian.io.Hessian2Output;
+import com.caucho.loader.Environment;
+import com.caucho.loader.EnvironmentLocal;
+import com.caucho.message.journal.JournalFile;
+import com.caucho.message.journal.JournalRecoverListener;
+import com.caucho.message.journal.JournalResult;
+import com.caucho.server.cluster.ServletService;
+import com.caucho.util.L10N;
+import com.caucho.vfs.Path;
+
+/**
+ * File queue store backed by an append-only journal.
+ *
+ * A single writer thread appends the queued sends and acks, and flushes
+ * the journal once for the whole batch (group commit).  A send returns
+ * when its batch is written.  Acks do not wait, because a lost ack only
+ * redelivers the message.
+ *
+ * Live messages are kept in memory with their journal location.  Before
+ * the journal can reuse its older page, the writer copies the page's live
+ * messages forward and checkpoints the current page.
+ */
+public class FileQueueJournalStore extends AbstractFileQueueStore
+{
+  private static final L10N L = new L10N(FileQueueJournalStore.class);
+  private static final Logger log
+    = Logger.getLogger(FileQueueJournalStore.class.getName());
+
+  private static final EnvironmentLocal<FileQueueJournalStore> _localStore
+    = new EnvironmentLocal<FileQueueJournalStore>();
+
+  private static final long OP_FLUSH = JournalFile.OP_NULL;
+  private static final long OP_SEND = 2;
+  private static final long OP_ACK = 3;
+
+  private static final int BLOCK_SIZE = JournalFile.BLOCK_SIZE;
+  private static final int BLOCK_BITS = JournalFile.BLOCK_BITS;
+  private static final int HEADER_SIZE = JournalFile.HEADER_SIZE;
+
+  private static final byte []NULL_DATA = new byte[0];
+
+  private static final long MIN_FLIP_SIZE = 64L * 1024 * 1024;
+  private static final long SEND_TIMEOUT = 60000L;
+
+  // live messages by id, ordered by send
+  private final ConcurrentSkipListMap<Long,JournalMessage> _messageMap
+    = new ConcurrentSkipListMap<Long,JournalMessage>();
+
+  // live bytes on each journal page
+  private final AtomicLongArray _pageLiveBytes = new AtomicLongArray(2);
+
+  private final AtomicLong _messageSequence = new AtomicLong();
+
+  private final Path _path;
+  private final JournalFile _journal;
+  private final BlockStore _blockStore;
+
+  private final ValueActorQueue<JournalRequest> _writeQueue;
+
+  // writer thread only
+  private final JournalResult _result = new JournalResult();
+  private final ArrayList<JournalRequest> _pendingList
+    = new ArrayList<JournalRequest>();
+  private long _writeSequence;
+
+  private boolean _isFsync;
+  private volatile boolean _isClosed;
+
+  public FileQueueJournalStore(Path path)
+  {
+    this(path, Thread.currentThread().getContextClassLoader());
+  }
+
+  public FileQueueJournalStore(Path path, ClassLoader loader)
+  {
+    if (path == null)
+      throw new NullPointerException();
+
+    _path = path;
+
+    try {
+      path.getParent().mkdirs();
+    } catch (IOException e) {
+      log.log(Level.ALL, e.toString(), e);
+    }
+
+    JournalRecover recover = new JournalRecover();
+
+    try {
+      _journal = new JournalFile(path, recover);
+    } catch (RuntimeException e) {
+      throw ConfigException.create(L.l("FileQueue journal {0} cannot be opened.\n  {1}",
+                                       path.getURL(), e.toString()),
+                                   e);
+    }
+
+    _journal.setMinFlipSize(MIN_FLIP_SIZE);
+
+    _blockStore = _journal.getBlockStore();
+
+    _writeSequence = recover.getMaxXid();
+    _messageSequence.set(recover.getMaxMid());
+
+    @SuppressWarnings("unchecked")
+    ValueActorQueue<JournalRequest> writeQueue
+      = new ValueActorQueue<JournalRequest>(256, new JournalWriter());
+
+    _writeQueue = writeQueue;
+
+    Environment.addCloseListener(this, loader);
+
+    if (log.isLoggable(Level.FINE)) {
+      log.fine(this + " recovered " + _messageMap.size() + " messages");
+    }
+  }
+
+  public static FileQueueJournalStore create()
+  {
+    ServletService server = ServletService.getCurrent();
+
+    if (server == null)
+      throw new IllegalStateException(L.l("FileQueueJournalStore requires an active Resin instance"));
+
+    ClassLoader loader = server.getClassLoader();
+
+    synchronized (_localStore) {
+      FileQueueJournalStore store = _localStore.getLevel(loader);
+
+      if (store == null) {
+        Path dir = RootDirectorySystem.getCurrentDataDirectory();
+        String serverId = server.getServerId();
+
+        if ("".equals(serverId))
+          serverId = "default";
+
+        String name = FileQueueStore.escapeName("jms_journal_" + serverId);
+
+        store = new FileQueueJournalStore(dir.lookup(name + ".journal"),
+                                          loader);
+
+        _localStore.set(store, loader);
+      }
+
+      return store;
+    }
+  }
+
+  /**
+   * If true, fsync the journal on each group commit.
+   */
+  public void setFsync(boolean isFsync)
+  {
+    _isFsync = isFsync;
+  }
+
+  public boolean isFsync()
+  {
+    return _isFsync;
+  }
+
+  /**
+   * Adds a new message to the persistent store, returning when the
+   * message has been written.
+   */
+  @Override
+  public long send(byte []queueHash,
+                   String msgId,
+                   Serializable payload,
+                   int priority,
+                   long expireTime)
+  {
+    if (_isClosed)
+      throw new IllegalStateException(L.l("{0} is closed", this));
+
+    byte []data;
+
+    try {
+      data = encode(msgId, priority, expireTime, payload);
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+
+    long id = _messageSequence.incrementAndGet();
+
+    JournalRequest request
+      = new JournalRequest(OP_SEND, getQueueId(queueHash), id, data,
+                           msgId, priority, expireTime);
+
+    _writeQueue.offer(request);
+
+    request.waitForComplete();
+
+    if (log.isLoggable(Level.FINE))
+      log.fine(this + " send " + payload);
+
+    return id;
+  }
+
+  /**
+   * Adds the stored messages for the queue.
+   */
+  @Override
+  boolean receiveStart(byte []queueHash, FileQueueImpl<?> fileQueue)
+  {
+    long qid = getQueueId(queueHash);
+
+    for (JournalMessage msg : _messageMap.values()) {
+      if (msg.getQueueId() == qid) {
+        fileQueue.addEntry(msg.getId(), msg.getMessageId(), -1,
+                           msg.getPriority(), msg.getExpireTime(), null);
+      }
+    }
+
+    return true;
+  }
+
+  /**
+   * Reads a message payload from the journal.
+   */
+  @Override
+  public Serializable readMessage(long id)
+  {
+    try {
+      while (true) {
+        JournalMessage msg = _messageMap.get(id);
+
+        if (msg == null)
+          return null;
+
+        byte []data = readData(msg.getBlockAddress(), msg.getBlockOffset());
+
+        // the writer may have moved the message while it was read
+        if (_messageMap.get(id) != msg)
+          continue;
+
+        Hessian2Input in = new Hessian2Input(new ByteArrayInputStream(data, 4, data.length - 4));
+
+        in.readString();
+        in.readInt();
+        in.readLong();
+
+        Serializable payload = (Serializable) in.readObject();
+
+        in.close();
+
+        return payload;
+      }
+    } catch (RuntimeException e) {
+      throw e;
+    } catch (Exception e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   * Removes an acknowledged message.
+   */
+  @Override
+  void delete(long id)
+  {
+    JournalMessage msg = _messageMap.remove(id);
+
+    if (msg == null)
+      return;
+
+    _pageLiveBytes.addAndGet(msg.getPage(), -msg.getLength());
+
+    if (! _isClosed) {
+      _writeQueue.offer(new JournalRequest(OP_ACK, msg.getQueueId(), id));
+    }
+  }
+
+  @Override
+  public int getMessageCount()
+  {
+    return _messageMap.size();
+  }
+
+  /**
+   * Waits for all queued writes to complete.
+   */
+  public void flush()
+  {
+    JournalRequest request = new JournalRequest(OP_FLUSH, 0, 0);
+
+    _writeQueue.offer(request);
+
+    request.waitForComplete();
+  }
+
+  @Override
+  public void close()
+  {
+    if (_isClosed)
+      return;
+
+    try {
+      flush();
+    } catch (Exception e) {
+      log.log(Level.WARNING, e.toString(), e);
+    }
+
+    _isClosed = true;
+
+    _writeQueue.close();
+
+    _journal.close();
+  }
+
+  private static long getQueueId(byte []queueHash)
+  {
+    long qid = 0;
+
+    for (int i = 0; i < 8 && i < queueHash.length; i++) {
+      qid = (qid << 8) + (queueHash[i] & 0xff);
+    }
+
+    return qid;
+  }
+
+  private static byte []encode(String msgId, int priority, long expireTime,
+                               Serializable payload)
+    throws IOException
+  {
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+
+    bos.write(0);
+    bos.write(0);
+    bos.write(0);
+    bos.write(0);
+
+    Hessian2Output out = new Hessian2Output(bos);
+    out.writeString(msgId);
+    out.writeInt(priority);
+    out.writeLong(expireTime);
+    out.writeObject(payload);
+    out.close();
+
+    byte []data = bos.toByteArray();
+
+    writeInt(data, 0, data.length - 4);
+
+    return data;
+  }
+
+  /**
+   * Reads a record's data from the journal, following its fragments
+   * to the following blocks.
+   */
+  private byte []readData(long blockAddress, int blockOffset)
+    throws IOException
+  {
+    Block block = _blockStore.readBlock(blockAddress);
+
+    try {
+      block.read();
+
+      byte []buffer = block.getBuffer();
+
+      int length = readInt(buffer, blockOffset) + 4;
+
+      byte []data = new byte[length];
+
+      int pos = copyFragment(buffer, blockOffset, data, 0);
+
+      while (pos < length) {
+        block.free();
+        block = null;
+
+        blockAddress += 2 * BLOCK_SIZE;
+
+        block = _blockStore.readBlock(blockAddress);
+        block.read();
+
+        pos += copyFragment(block.getBuffer(), HEADER_SIZE, data, pos);
+      }
+
+      return data;
+    } finally {
+      if (block != null)
+        block.free();
+    }
+  }
+
+  private static int copyFragment(byte []buffer, int offset,
+                                  byte []data, int pos)
+  {
+    int hOffset = offset - HEADER_SIZE + JournalFile.HOFF_LENGTH;
+
+    int sublen = (((buffer[hOffset] & 0xff) << 8)
+                  + (buffer[hOffset + 1] & 0xff));
+    sublen &= JournalFile.H_LENGTH_MASK;
+
+    sublen = Math.min(sublen, data.length - pos);
+
+    System.arraycopy(buffer, offset, data, pos, sublen);
+
+    return sublen;
+  }
+
+  private static int getPage(long blockAddress)
+  {
+    return (int) ((blockAddress >> BLOCK_BITS) & 1);
+  }
+
+  private static JournalMessage readMessageHeader(long id, long qid,
+                                           long blockAddress, int blockOffset,
+                                           byte []data)
+    throws IOException
+  {
+    Hessian2Input in = new Hessian2Input(new ByteArrayInputStream(data, 4, data.length - 4));
+
+    String msgId = in.readString();
+    int priority = in.readInt();
+    long expireTime = in.readLong();
+
+    in.close();
+
+    return new JournalMessage(id, qid, blockAddress, blockOffset, data.length,
+                              msgId, priority, expireTime);
+  }
+
+  private void addMessage(JournalMessage msg)
+  {
+    JournalMessage oldMsg = _messageMap.put(msg.getId(), msg);
+
+    if (oldMsg != null)
+      _pageLiveBytes.addAndGet(oldMsg.getPage(), -oldMsg.getLength());
+
+    _pageLiveBytes.addAndGet(msg.getPage(), msg.getLength());
+  }
+
+  private static int readInt(byte []buffer, int offset)
+  {
+    return (((buffer[offset + 0] & 0xff) << 24)
+            + ((buffer[offset + 1] & 0xff) << 16)
+            + ((buffer[offset + 2] & 0xff) << 8)
+            + ((buffer[offset + 3] & 0xff)));
+  }
+
+  private static void writeInt(byte []buffer, int offset, int value)
+  {
+    buffer[offset + 0] = (byte) (value >> 24);
+    buffer[offset + 1] = (byte) (value >> 16);
+    buffer[offset + 2] = (byte) (value >> 8);
+    buffer[offset + 3] = (byte) (value);
+  }
+
+  @Override
+  public String toString()
+  {
+    return getClass().getSimpleName() + "[" + _path + "]";
+  }
+
+  /**
+   * The single journal writer.  Requests are appended as they arrive,
+   * and the batch is flushed and released in onProcessComplete.
+   */
+  private class JournalWriter extends AbstractActorProcessor<JournalRequest>
+  {
+    @Override
+    public String getThreadName()
+    {
+      return "resin-jms-journal-" + Thread.currentThread().getId();
+    }
+
+    @Override
+    public void process(JournalRequest request)
+      throws Exception
+    {
+      _pendingList.add(request);
+
+      if (_isClosed) {
+        request.setFailure(new IllegalStateException(L.l("{0} is closed",
+                                                         FileQueueJournalStore.this)));
+        return;
+      }
+
+      try {
+        if (request.getCode() == OP_SEND) {
+          long blockAddress = write(OP_SEND, request.getQueueId(),
+                                    request.getId(), request.getData());
+
+          addMessage(new JournalMessage(request.getId(),
+                                        request.getQueueId(),
+                                        blockAddress,
+                                        _result.getOffset1(),
+                                        request.getData().length,
+                                        request.getMessageId(),
+                                        request.getPriority(),
+                                        request.getExpireTime()));
+        }
+        else if (request.getCode() == OP_ACK) {
+          write(OP_ACK, request.getQueueId(), request.getId(), NULL_DATA);
+        }
+      } catch (Exception e) {
+        request.setFailure(e);
+      }
+    }
+
+    @Override
+    public void onProcessComplete()
+      throws Exception
+    {
+      if (_pendingList.size() == 0 || _isClosed) {
+        completePending(null);
+        return;
+      }
+
+      Exception failure = null;
+
+      try {
+        boolean isCheckpoint = copyForward();
+
+        _journal.flush(_isFsync);
+
+        if (isCheckpoint) {
+          checkpoint();
+        }
+      } catch (Exception e) {
+        log.log(Level.WARNING, e.toString(), e);
+
+        failure = e;
+      }
+
+      completePending(failure);
+    }
+
+    private void completePending(Exception failure)
+    {
+      for (int i = 0; i < _pendingList.size(); i++) {
+        _pendingList.get(i).complete(failure);
+      }
+
+      _pendingList.clear();
+    }
+
+    private long write(long code, long qid, long mid, byte []data)
+      throws IOException
+    {
+      _journal.write(code, false, false, ++_writeSequence, qid, mid,
+                     data, 0, data.length, _result);
+
+      return _result.getBlockAddr1();
+    }
+
+    /**
+     * Copies the live messages on the older page to the current page,
+     * once the current page has grown to twice their size.
+     *
+     * @return true if the older page can be released by a checkpoint
+     */
+    private boolean copyForward()
+      throws IOException
+    {
+      if (_journal.isFlipFree())
+        return false;
+
+      long tailAddress = _journal.getTailAddress();
+      int page = getPage(tailAddress);
+      int oldPage = 1 - page;
+
+      long pageStart = JournalFile.FILE_DATA_OFFSET + page * BLOCK_SIZE;
+      long pageLength = ((tailAddress - pageStart) / 2
+                         + _journal.getTailOffset());
+
+      if (pageLength < 2 * _pageLiveBytes.get(oldPage))
+        return false;
+
+      for (JournalMessage msg : _messageMap.values()) {
+        if (msg.getPage() != oldPage)
+          continue;
+
+        byte []data = readData(msg.getBlockAddress(), msg.getBlockOffset());
+
+        long blockAddress = write(OP_SEND, msg.getQueueId(), msg.getId(), data);
+
+        JournalMessage copy
+          = new JournalMessage(msg.getId(), msg.getQueueId(),
+                               blockAddress, _result.getOffset1(),
+                               data.length,
+                               msg.getMessageId(), msg.getPriority(),
+                               msg.getExpireTime());
+
+        // a concurrent ack leaves the copy dead; its ack is queued after
+        if (_messageMap.replace(msg.getId(), msg, copy)) {
+          _pageLiveBytes.addAndGet(oldPage, -msg.getLength());
+          _pageLiveBytes.addAndGet(page, copy.getLength());
+        }
+      }
+
+      return true;
+    }
+
+    /**
+     * Checkpoints the current page at its first live message, which
+     * releases the older page.
+     */
+    private void checkpoint()
+      throws IOException
+    {
+      long blockAddress = _journal.getTailAddress();
+      int blockOffset = _journal.getTailOffset();
+      int page = getPage(blockAddress);
+
+      for (JournalMessage msg : _messageMap.values()) {
+        if (msg.getPage() != page)
+          continue;
+
+        long address = msg.getBlockAddress();
+        int offset = msg.getBlockOffset() - HEADER_SIZE;
+
+        if (address < blockAddress
+            || address == blockAddress && offset < blockOffset) {
+          blockAddress = address;
+          blockOffset = offset;
+        }
+      }
+
+      _journal.checkpoint(blockAddress, blockOffset, 0);
+    }
+  }
+
+  /**
+   * Rebuilds the live messages from the journal on startup.
+   *
+   * Records are numbered in write order, so a record that is not newer
+   * than the last one is stale data from an earlier pass over the page.
+   */
+  private class JournalRecover implements JournalRecoverListener
+  {
+    private long _maxXid;
+    private long _maxMid;
+
+    private long _xid;
+    private long _qid;
+    private long _mid;
+    private long _blockAddress;
+    private int _blockOffset;
+    private byte []_data;
+    private int _pos;
+
+    long getMaxXid()
+    {
+      return _maxXid;
+    }
+
+    long getMaxMid()
+    {
+      return _maxMid;
+    }
+
+    @Override
+    public void onEntry(long code, boolean isInit, boolean isFin,
+                        long xid, long qid, long mid,
+                        BlockStore store,
+                        long blockAddress, int blockOffset, int length)
+      throws IOException
+    {
+      if (_data != null) {
+        if (xid == _xid && mid == _mid) {
+          _pos += copyFragment(store, blockAddress, blockOffset, _pos);
+
+          if (_data.length <= _pos)
+            completeSend();
+
+          return;
+        }
+
+        // incomplete record from an interrupted write
+        _data = null;
+      }
+
+      if (xid <= _maxXid)
+        return;
+
+      _maxXid = xid;
+      _maxMid = Math.max(_maxMid, mid);
+
+      if (code == OP_ACK) {
+        JournalMessage msg = _messageMap.remove(mid);
+
+        if (msg != null)
+          _pageLiveBytes.addAndGet(msg.getPage(), -msg.getLength());
+      }
+      else if (code == OP_SEND && length >= 4) {
+        _xid = xid;
+        _qid = qid;
+        _mid = mid;
+        _blockAddress = blockAddress;
+        _blockOffset = blockOffset;
+
+        Block block = store.readBlock(blockAddress);
+
+        try {
+          block.read();
+
+          _data = new byte[readInt(block.getBuffer(), blockOffset) + 4];
+        } finally {
+          block.free();
+        }
+
+        _pos = copyFragment(store, blockAddress, blockOffset, 0);
+
+        if (_data.length <= _pos)
+          completeSend();
+      }
+    }
+
+    private int copyFragment(BlockStore store,
+                             long blockAddress, int blockOffset, int pos)
+      throws IOException
+    {
+      Block block = store.readBlock(blockAddress);
+
+      try {
+        block.read();
+
+        return FileQueueJournalStore.copyFragment(block.getBuffer(),
+                                                  blockOffset, _data, pos);
+      } finally {
+        block.free();
+      }
+    }
+
+    private void completeSend()
+      throws IOException
+    {
+      byte []data = _data;
+      _data = null;
+
+      addMessage(readMessageHeader(_mid, _qid, _blockAddress, _blockOffset,
+                                   data));
+    }
+  }
+
+  static final class JournalMessage {
+    private final long _id;
+    private final long _qid;
+    private final long _blockAddress;
+    private final int _blockOffset;
+    private final int _length;
+
+    private final String _msgId;
+    private final int _priority;
+    private final long _expireTime;
+
+    JournalMessage(long id, long qid,
+                   long blockAddress, int blockOffset, int length,
+                   String msgId, int priority, long expireTime)
+    {
+      _id = id;
+      _qid = qid;
+      _blockAddress = blockAddress;
+      _blockOffset = blockOffset;
+      _length = length;
+      _msgId = msgId;
+      _priority = priority;
+      _expireTime = expireTime;
+    }
+
+    long getId()
+    {
+      return _id;
+    }
+
+    long getQueueId()
+    {
+      return _qid;
+    }
+
+    long getBlockAddress()
+    {
+      return _blockAddress;
+    }
+
+    int getBlockOffset()
+    {
+      return _blockOffset;
+    }
+
+    int getPage()
+    {
+      return FileQueueJournalStore.getPage(_blockAddress);
+    }
+
+    int getLength()
+    {
+      return _length;
+    }
+
+    String getMessageId()
+    {
+      return _msgId;
+    }
+
+    int getPriority()
+    {
+      return _priority;
+    }
+
+    long getExpireTime()
+    {
+      return _expireTime;
+    }
+  }
+
+  static final class JournalRequest {
+    private final long _code;
+    private final long _qid;
+    private final long _id;
+    private final byte []_data;
+
+    private final String _msgId;
+    private final int _priority;
+    private final long _expireTime;
+
+    private boolean _isDone;
+    private Exception _failure;
+
+    JournalRequest(long code, long qid, long id)
+    {
+      this(code, qid, id, null, null, 0, 0);
+    }
+
+    JournalRequest(long code, long qid, long id, byte []data,
+                   String msgId, int priority, long expireTime)
+    {
+      _code = code;
+      _qid = qid;
+      _id = id;
+      _data = data;
+      _msgId = msgId;
+      _priority = priority;
+      _expireTime = expireTime;
+    }
+
+    long getCode()
+    {
+      return _code;
+    }
+
+    long getQueueId()
+    {
+      return _qid;
+    }
+
+    long getId()
+    {
+      return _id;
+    }
+
+    byte []getData()
+    {
+      return _data;
+    }
+
+    String getMessageId()
+    {
+      return _msgId;
+    }
+
+    int getPriority()
+    {
+      return _priority;
+    }
+
+    long getExpireTime()
+    {
+      return _expireTime;
+    }
+
+    synchronized void setFailure(Exception failure)
+    {
+      _failure = failure;
+    }
+
+    synchronized void complete(Exception failure)
+    {
+      if (_failure == null)
+        _failure = failure;
+
+      _isDone = true;
+
+      notifyAll();
+    }
+
+    synchronized void waitForComplete()
+    {
+      long expires = System.currentTimeMillis() + SEND_TIMEOUT;
+
+      try {
+        while (! _isDone) {
+          long delta = expires - System.currentTimeMillis();
+
+          if (delta <= 0)
+            throw new IllegalStateException(L.l("journal write timed out"));
+
+          wait(delta);
+        }
+      } catch (InterruptedException e) {
+        throw new IllegalStateException(e);
+      }
+
+      if (_failure != null)
+        throw new IllegalStateException(_failure.getMessage(), _failure);
+    }
+  }
+}
@@ -30,6 +30,9 @@
 package com.caucho.jms.queue;
 
 import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
@@ -38,12 +41,19 @@ import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import com.caucho.env.thread.ThreadPool;
-import com.caucho.util.Alarm;
 import com.caucho.util.CurrentTime;
 
 /**
  * Provides abstract implementation for a memory queue.
- * 
+ *
+ * The queue is lock-free.  Available entries are kept in one
+ * non-blocking lane per priority, and delivered entries are kept by
+ * message id until they're acknowledged or rolled back.  A rolled-back
+ * entry returns ahead of the new entries in its lane.
+ *
+ * Waiting receivers and listeners are queued as callbacks.  Both sides
+ * re-check the other after adding themselves, so an entry and a callback
+ * can't both be left waiting.
  */
 @SuppressWarnings("serial")
 public abstract class AbstractMemoryQueue<E,QE extends QueueEntry<E>>
@@ -52,18 +62,25 @@ public abstract class AbstractMemoryQueue<E,QE extends QueueEntry<E>>
   private static final Logger log
     = Logger.getLogger(AbstractMemoryQueue.class.getName());
   
+  private static final int PRIORITY_MAX = 10;
+  
+  // entries a listener handles on its thread before yielding
+  private static final int LISTEN_BATCH_MAX = 64;
+  
   private int _queueSizeMax = Integer.MAX_VALUE / 2;
   
-  private final Object _queueLock = new Object();
-
-  private ArrayList<EntryCallback<E>> _callbackList
-    = new ArrayList<EntryCallback<E>>();
+  private final ConcurrentLinkedQueue<EntryCallback<E>> _callbackQueue
+    = new ConcurrentLinkedQueue<EntryCallback<E>>();
 
   private ArrayList<EntryCallback<E>> _listenList
     = new ArrayList<EntryCallback<E>>();
 
-  private QE []_head = (QE []) new QueueEntry[10];
-  private QE []_tail = (QE []) new QueueEntry[10];
+  // available entries by priority
+  private final Lane<QE> []_lanes;
+  
+  // delivered entries waiting for acknowledge or rollback
+  private final ConcurrentHashMap<String,QE> _readMap
+    = new ConcurrentHashMap<String,QE>();
 
   private ThreadPool _threadPool = ThreadPool.getThreadPool();
   
@@ -77,6 +94,21 @@ public abstract class AbstractMemoryQueue<E,QE extends QueueEntry<E>>
   private AtomicInteger _receiverCount = new AtomicInteger();
   private AtomicInteger _listenerCount = new AtomicInteger();
   
+  protected AbstractMemoryQueue()
+  {
+    _lanes = createLanes(PRIORITY_MAX);
+    
+    for (int i = 0; i < _lanes.length; i++) {
+      _lanes[i] = new Lane<QE>();
+    }
+  }
+  
+  @SuppressWarnings("unchecked")
+  private static <T> Lane<T> []createLanes(int size)
+  {
+    return (Lane<T> []) new Lane<?>[size];
+  }
+  
   //
   // configuration
   //
@@ -159,10 +191,8 @@ public abstract class AbstractMemoryQueue<E,QE extends QueueEntry<E>>
     try {
       QE entry = null;
 
-      synchronized (_queueLock) {
-        if (_callbackList.size() == 0) {
-          entry = readEntry(selector);
-        }
+      if (_callbackQueue.isEmpty()) {
+        entry = readEntry(selector);
       }
 
       if (entry != null) {
@@ -226,7 +256,7 @@ public abstract class AbstractMemoryQueue<E,QE extends QueueEntry<E>>
         if (cb.getMessageCallback() == callback) {
           listenerCallback = (ListenEntryCallback) cb;
           
-          _callbackList.remove(cb);
+          _listenList.remove(i);
             
           break;
         }
@@ -235,15 +265,9 @@ public abstract class AbstractMemoryQueue<E,QE extends QueueEntry<E>>
     
     if (listenerCallback != null) {
       listenerCallback.close();
-    }
-
-    synchronized (_queueLock) {
-      if (listenerCallback != null)
-        _callbackList.remove(listenerCallback);
-    }
-
-    if (listenerCallback != null) {
-      listenerCallback.close();
+      
+      _callbackQueue.remove(listenerCallback);
+      
       _listenerCount.decrementAndGet();
     }
   }
@@ -277,11 +301,17 @@ public abstract class AbstractMemoryQueue<E,QE extends QueueEntry<E>>
   {
     QE entry = null;
     
-    synchronized (_queueLock) {
-      if (_callbackList.size() > 0 || (entry = readEntry()) == null) {
-        _callbackList.add(callback);
-        return false;
-      }
+    if (_callbackQueue.isEmpty()) {
+      entry = readEntry();
+    }
+    
+    if (entry == null) {
+      _callbackQueue.offer(callback);
+      
+      // an entry may have been added before the callback was queued
+      dispatchMessage();
+      
+      return false;
     }
 
     readPayload(entry);
@@ -293,18 +323,25 @@ public abstract class AbstractMemoryQueue<E,QE extends QueueEntry<E>>
     return true;
   }
 
+  /**
+   * Delivers available entries to the waiting callbacks.
+   */
   protected void dispatchMessage()
   {
-    while (true) {
-      QE entry = null;
-      EntryCallback<E> callback = null;
+    while (! _callbackQueue.isEmpty()) {
+      QE entry = readEntry();
       
-      synchronized (_queueLock) {
-        if (_callbackList.size() == 0 || (entry = readEntry()) == null) {
-          return;
-        }
+      if (entry == null) {
+        return;
+      }
 
-        callback = _callbackList.remove(0);
+      EntryCallback<E> callback = _callbackQueue.poll();
+      
+      if (callback == null) {
+        // another thread took the callback, so make the entry available
+        // again for the next callback
+        unreadEntry(entry);
+        continue;
       }
 
       readPayload(entry);
@@ -325,17 +362,7 @@ public abstract class AbstractMemoryQueue<E,QE extends QueueEntry<E>>
   @Override
   public int getQueueSize()
   {
-    int count = 0;
-
-    for (int i = 0; i < _head.length; i++) {
-      for (QueueEntry<E> entry = _head[i];
-           entry != null;
-           entry = entry._next) {
-        count++;
-      }
-    }
-
-    return count;
+    return _queueSize.get();
   }
   
   /**
@@ -368,16 +395,7 @@ public abstract class AbstractMemoryQueue<E,QE extends QueueEntry<E>>
    */
   private QE addEntry(QE entry, long expires)
   {
-    int priority = entry.getPriority();
-    
-    synchronized (_queueLock) {
-      if (_tail[priority] != null)
-        _tail[priority]._next = entry;
-      else
-        _head[priority] = entry;
-
-      _tail[priority] = entry;
-    }
+    _lanes[getLane(entry)].offer(entry);
     
     int size = _queueSize.incrementAndGet();
     
@@ -390,6 +408,18 @@ public abstract class AbstractMemoryQueue<E,QE extends QueueEntry<E>>
     return entry;
   }
   
+  private int getLane(QE entry)
+  {
+    int priority = entry.getPriority();
+    
+    if (priority < 0)
+      return 0;
+    else if (PRIORITY_MAX <= priority)
+      return PRIORITY_MAX - 1;
+    else
+      return priority;
+  }
+  
   private void waitForQueueThrottle(long timeout)
   {
     _isQueueThrottle.set(true);
@@ -434,37 +464,91 @@ public abstract class AbstractMemoryQueue<E,QE extends QueueEntry<E>>
     
     return entry;
   }
+  
   /**
-   * Returns the next entry from the queue
+   * Returns the next entry from the queue, marking it as read.
    */
   protected QE readEntry(QueueEntrySelector selector)
   {
-    for (int i = _head.length - 1; i >= 0; i--) {
-      for (QE entry = _head[i];
-           entry != null;
-           entry = (QE) entry._next) {
-
-        if (! entry.isLease()) {
-          continue;
-        }
-
-        if (entry.isRead()) {
-          continue;
-        }
-        
-        readPayload((QE) entry);
-        if ((selector != null) && (! selector.isMatch(entry))) {
-          continue;
-        }
-          
+    for (int i = _lanes.length - 1; i >= 0; i--) {
+      QE entry = pollLane(_lanes[i], selector);
+      
+      if (entry != null) {
         entry.setReadSequence(_readSequenceGenerator.incrementAndGet());
-
+        
+        _readMap.put(entry.getMsgId(), entry);
+        
         return entry;
       }
     }
 
     return null;
   }
+  
+  /**
+   * Claims the first matching entry in the lane.
+   */
+  private QE pollLane(Lane<QE> lane,
+                      QueueEntrySelector selector)
+  {
+    if (selector == null) {
+      QE entry = pollQueue(lane._redeliverQueue);
+      
+      if (entry == null)
+        entry = pollQueue(lane._queue);
+      
+      return entry;
+    }
+    
+    for (QE entry : lane) {
+      if (! entry.isLease()) {
+        continue;
+      }
+      
+      readPayload(entry);
+      
+      if (selector.isMatch(entry) && lane.remove(entry)) {
+        return entry;
+      }
+    }
+    
+    return null;
+  }
+  
+  /**
+   * Claims the head of the queue if it's available.
+   */
+  private QE pollQueue(ConcurrentLinkedQueue<QE> queue)
+  {
+    QE entry = queue.peek();
+      
+    if (entry == null || ! entry.isLease()) {
+      return null;
+    }
+      
+    entry = queue.poll();
+      
+    if (entry != null && ! entry.isLease()) {
+      queue.offer(entry);
+        
+      return null;
+    }
+      
+    return entry;
+  }
+  
+  /**
+   * Returns a read entry to its lane, ahead of the unread entries, so a
+   * rolled-back message keeps its delivery order.
+   */
+  private void unreadEntry(QE entry)
+  {
+    if (_readMap.remove(entry.getMsgId(), entry)) {
+      entry.setReadSequence(0);
+    
+      _lanes[getLane(entry)]._redeliverQueue.offer(entry);
+    }
+  }
 
   /**
    * 
@@ -474,11 +558,9 @@ public abstract class AbstractMemoryQueue<E,QE extends QueueEntry<E>>
   public ArrayList<QE> getBrowserList()
   {
     ArrayList<QE> entries = new ArrayList<QE>();
-    for (int i = _head.length - 1; i >= 0; i--) {
-      for (QE entry = _head[i];
-           entry != null;
-           entry = (QE) entry._next) {
-
+    
+    for (int i = _lanes.length - 1; i >= 0; i--) {
+      for (QE entry : _lanes[i]) {
         if (! entry.isLease()) {
           continue;
         }
@@ -501,41 +583,39 @@ public abstract class AbstractMemoryQueue<E,QE extends QueueEntry<E>>
    */
   protected QE removeEntry(String msgId)
   {
-    synchronized (_queueLock) {
-      for (int i = _head.length - 1; i >= 0; i--) {
-        QE prev = null;
-        QE entry = _head[i];
-
-        while (entry != null) {
-          QE next = (QE) entry._next;
-          
-          if (msgId.equals(entry.getMsgId())) {
-            if (prev != null)
-              prev._next = entry._next;
-            else
-              _head[i] = (QE) entry._next;
-
-            if (_tail[i] == entry)
-              _tail[i] = prev;
-            
-            _queueSize.decrementAndGet();
-            
-            if (_isQueueThrottle.get()) {
-              wakeQueueThrottle();
-            }
+    QE entry = _readMap.remove(msgId);
+    
+    if (entry == null) {
+      entry = removeUnread(msgId);
+    }
+    
+    if (entry != null) {
+      _queueSize.decrementAndGet();
             
-            return entry;
-          }
+      if (_isQueueThrottle.get()) {
+        wakeQueueThrottle();
+      }
+    }
 
-          prev = entry;
-          entry = next;
+    return entry;
+  }
+  
+  private QE removeUnread(String msgId)
+  {
+    for (int i = _lanes.length - 1; i >= 0; i--) {
+      Iterator<QE> iter = _lanes[i].iterator();
+      
+      while (iter.hasNext()) {
+        QE entry = iter.next();
+        
+        if (msgId.equals(entry.getMsgId()) && _lanes[i].remove(entry)) {
+          return entry;
         }
       }
     }
-
+    
     return null;
   }
-    
   
   /**
    * Rolls back the receipt of a message
@@ -543,27 +623,19 @@ public abstract class AbstractMemoryQueue<E,QE extends QueueEntry<E>>
   @Override
   public void rollback(String msgId)
   {
-    synchronized (_queueLock) {
-      for (int i = _head.length - 1; i >= 0; i--) {
-        for (QueueEntry<E> entry = _head[i];
-             entry != null;
-             entry = entry._next) {
-          if (msgId.equals(entry.getMsgId())) {
-            if (entry.isRead()) {
-              entry.setReadSequence(0);
-
-              /*
-              MessageImpl msg = (MessageImpl) getPayload(entry);
+    QE entry = _readMap.get(msgId);
+    
+    if (entry != null) {
+      /*
+      MessageImpl msg = (MessageImpl) getPayload(entry);
         
-              if (msg != null)
-                msg.setJMSRedelivered(true);
-              */
-            }
-            
-            return;
-          }
-        }
-      }
+      if (msg != null)
+        msg.setJMSRedelivered(true);
+      */
+      
+      unreadEntry(entry);
+      
+      dispatchMessage();
     }
   }
   
@@ -571,15 +643,15 @@ public abstract class AbstractMemoryQueue<E,QE extends QueueEntry<E>>
   {
     ArrayList<String> browserList = new ArrayList<String>();
 
-    synchronized (_queueLock) {
-      for (int i = 0; i < _head.length; i++) {
-        for (QueueEntry<E> entry = _head[i];
-             entry != null;
-             entry = entry._next) {
-          browserList.add(entry.getMsgId());
-        }
+    for (int i = 0; i < _lanes.length; i++) {
+      for (QE entry : _lanes[i]) {
+        browserList.add(entry.getMsgId());
       }
     }
+    
+    for (QE entry : _readMap.values()) {
+      browserList.add(entry.getMsgId());
+    }
 
     return browserList;    
   }
@@ -622,9 +694,11 @@ public abstract class AbstractMemoryQueue<E,QE extends QueueEntry<E>>
         LockSupport.parkUntil(expireTime);
       }
 
-      if (_entry == null) {
-        synchronized (_queueLock) {
-          _callbackList.remove(this);
+      if (_entry == null && ! _callbackQueue.remove(this)) {
+        // a dispatcher has taken the callback and is delivering an entry.
+        // entryReceived unparks this thread after setting the entry.
+        while (_entry == null) {
+          LockSupport.park(this);
         }
       }
       
@@ -633,13 +707,15 @@ public abstract class AbstractMemoryQueue<E,QE extends QueueEntry<E>>
   }
 
   /**
-   * Async listen receive
+   * Async listen receive.  After its message completes, the listener
+   * continues with available entries on the same thread before
+   * queueing its callback again.
    */
   class ListenEntryCallback implements EntryCallback<E>, Runnable {
     private MessageCallback<E> _callback;
     private ClassLoader _classLoader;
 
-    private boolean _isClosed;
+    private volatile boolean _isClosed;
     
     private volatile QueueEntry<E> _entry;
 
@@ -670,13 +746,41 @@ public abstract class AbstractMemoryQueue<E,QE extends QueueEntry<E>>
     {
       Thread thread = Thread.currentThread();
       ClassLoader oldLoader = thread.getContextClassLoader();
-      boolean isValid = false;
-      long readSequence = _entry.getReadSequence();
       
       try {
         thread.setContextClassLoader(_classLoader);
+        
+        QueueEntry<E> entry = _entry;
+        
+        for (int i = 0; entry != null; i++) {
+          if (! receive(entry) || _isClosed)
+            return;
+          
+          entry = null;
+          
+          if (i < LISTEN_BATCH_MAX && _callbackQueue.isEmpty()) {
+            QE nextEntry = readEntry();
+            
+            if (nextEntry != null) {
+              readPayload(nextEntry);
+              entry = nextEntry;
+            }
+          }
+        }
+      } finally {
+        thread.setContextClassLoader(oldLoader);
+      }
 
-        _callback.messageReceived(_entry.getMsgId(), _entry.getPayload());
+      listen(this);
+    }
+    
+    private boolean receive(QueueEntry<E> entry)
+    {
+      boolean isValid = false;
+      long readSequence = entry.getReadSequence();
+      
+      try {
+        _callback.messageReceived(entry.getMsgId(), entry.getPayload());
         isValid = true;
       } catch (Exception e) {
         log.log(Level.WARNING, e.toString(), e);
@@ -684,16 +788,12 @@ public abstract class AbstractMemoryQueue<E,QE extends QueueEntry<E>>
       } catch (Throwable t) {
         log.log(Level.SEVERE, t.toString(), t);
       } finally {
-        thread.setContextClassLoader(oldLoader);
-        
-        if (readSequence == _entry.getReadSequence()){
-          acknowledge(_entry.getMsgId());
+        if (readSequence == entry.getReadSequence()){
+          acknowledge(entry.getMsgId());
         }
       }
-
-      if (! _isClosed && isValid) {
-        listen(this);
-      }
+      
+      return isValid;
     }
 
     public void close()
@@ -701,4 +801,56 @@ public abstract class AbstractMemoryQueue<E,QE extends QueueEntry<E>>
       _isClosed = true;
     }
   }
-}
\ No newline at end of file
+
+  /**
+   * Available entries for one priority.  Rolled-back entries are
+   * delivered before the new entries.
+   */
+  static final class Lane<QE> implements Iterable<QE> {
+    final ConcurrentLinkedQueue<QE> _redeliverQueue
+      = new ConcurrentLinkedQueue<QE>();
+    
+    final ConcurrentLinkedQueue<QE> _queue
+      = new ConcurrentLinkedQueue<QE>();
+    
+    void offer(QE entry)
+    {
+      _queue.offer(entry);
+    }
+    
+    boolean remove(QE entry)
+    {
+      return _redeliverQueue.remove(entry) || _queue.remove(entry);
+    }
+    
+    /**
+     * Iterates over the rolled-back entries, then the new entries.
+     */
+    @Override
+    public Iterator<QE> iterator()
+    {
+      final Iterator<QE> redeliverIter = _redeliverQueue.iterator();
+      final Iterator<QE> iter = _queue.iterator();
+      
+      return new Iterator<QE>() {
+        public boolean hasNext()
+        {
+          return redeliverIter.hasNext() || iter.hasNext();
+        }
+        
+        public QE next()
+        {
+          if (redeliverIter.hasNext())
+            return redeliverIter.next();
+          else
+            return iter.next();
+        }
+        
+        public void remove()
+        {
+          throw new UnsupportedOperationException();
+        }
+      };
+    }
+  }
+}
@@ -90,4 +90,32 @@ public interface BlockManagerMXBean extends ManagedObjectMXBean {
   @Description("The miss rate is the number of block accesses missing in"
                + " the cache.")
   public double getMissRate();
+
+  //
+  // off-heap cache
+  //
+
+  /**
+   * Returns the off-heap cache size in bytes.
+   */
+  @Description("The number of bytes in the off-heap block cache")
+  public long getOffHeapMemorySize();
+
+  /**
+   * Returns the off-heap cache hit count.
+   */
+  @Description("The number of heap cache misses found in the off-heap cache")
+  public long getOffHeapHitCountTotal();
+
+  /**
+   * Returns the off-heap cache miss count.
+   */
+  @Description("The number of heap cache misses read from the backing")
+  public long getOffHeapMissCountTotal();
+
+  /**
+   * Returns the off-heap cache eviction count.
+   */
+  @Description("The number of blocks evicted from the off-heap cache")
+  public long getOffHeapEvictCountTotal();
 }
@@ -330,6 +330,18 @@ public interface ServerMXBean extends ManagedObjectMXBean {
   @Description("The total count of sendfile responses")
   public long getSendfileCountTotal();
 
+  /**
+   * Returns the number of zero-copy FileChannel.transferTo responses
+   */
+  @Description("The total count of zero-copy transferTo responses")
+  public long getTransferToCountTotal();
+
+  /**
+   * Returns the bytes written with zero-copy FileChannel.transferTo
+   */
+  @Description("The total bytes written by zero-copy transferTo")
+  public long getTransferToBytesTotal();
+
   //
   // Operations
   //
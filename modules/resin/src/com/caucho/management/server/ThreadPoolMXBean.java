@@ -74,6 +74,12 @@ public interface ThreadPoolMXBean extends ManagedObjectMXBean {
   @Description("The configured maximum number of idle threads")
   public int getThreadIdleMax();
 
+  /**
+   * True if tasks run on virtual threads.
+   */
+  @Description("True if request tasks run on virtual threads")
+  public boolean isThreadVirtualEnable();
+
   //
   // Statistics
   //
@@ -89,6 +95,12 @@ public interface ThreadPoolMXBean extends ManagedObjectMXBean {
    */
   @Description("The current number of active threads")
   public int getThreadActiveCount();
+
+  /**
+   * Returns the current number of tasks running on virtual threads.
+   */
+  @Description("The current number of tasks running on virtual threads")
+  public int getThreadVirtualActiveCount();
   
   /**
    * Returns the current number of starting threads.
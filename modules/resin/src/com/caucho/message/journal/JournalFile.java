@@ -30,6 +30,7 @@
 package com.caucho.message.journal;
 
 import java.io.IOException;
+import java.util.logging.Logger;
 
 import com.caucho.db.block.Block;
 import com.caucho.db.block.BlockStore;
@@ -45,6 +46,8 @@ import com.caucho.vfs.Path;
 public final class JournalFile
 {
   private static final L10N L = new L10N(JournalFile.class);
+  private static final Logger log
+    = Logger.getLogger(JournalFile.class.getName());
   
   public static final int BLOCK_BITS = BlockStore.BLOCK_BITS;
   public static final int BLOCK_SIZE = BlockStore.BLOCK_SIZE;
@@ -58,7 +61,14 @@ public final class JournalFile
   public static final int FH_PAGE_MASK = 0x03;
   public static final int FH_CHECKPOINT_ADDR = 8;
   public static final int FH_CHECKPOINT_OFFSET = 16;
-  public static final int FH_END = 24;
+  public static final int FH_SEQUENCE = 24;
+  public static final int FH_VERSION = 32;
+  public static final int FH_END = 40;
+  
+  // version 2 moved H_PAGE_OFF and added FH_SEQUENCE.  Header pages
+  // written by earlier versions have no version and are recovered with
+  // the legacy layout; the next flip writes the current layout.
+  public static final long FORMAT_VERSION = 2;
   
   public static final int MIN_FLIP_SIZE = 256;
   
@@ -74,7 +84,8 @@ public final class JournalFile
   
   public static final int H_LENGTH_MASK = 0x1fff;
   public static final int H_PAGE = 0xe000;
-  public static final int H_PAGE_OFF = 11;
+  public static final int H_PAGE_OFF = 13;
+  public static final int LEGACY_H_PAGE_OFF = 11;
   
   public static final long H_FIN = (1L << 47);
   public static final long H_INIT = (1L << 46);
@@ -99,6 +110,13 @@ public final class JournalFile
   
   private int _page;
   
+  // page shift for the entries of the current page, which depends on
+  // the format version of its header
+  private int _pageOff = H_PAGE_OFF;
+  
+  // incremented on each flip to order the pages on recovery
+  private long _flipSequence;
+  
   public JournalFile(Path path,
                      JournalRecoverListener listener)
   {
@@ -138,6 +156,39 @@ public final class JournalFile
     _flipAddress = 2 * BLOCK_SIZE * count + FILE_DATA_OFFSET;
   }
 
+  /**
+   * Returns the underlying block store.
+   */
+  public BlockStore getBlockStore()
+  {
+    return _blockStore;
+  }
+  
+  /**
+   * Returns the block address of the next write.
+   */
+  public long getTailAddress()
+  {
+    return _tailAddress;
+  }
+  
+  /**
+   * Returns the block offset of the next write.
+   */
+  public int getTailOffset()
+  {
+    return _tailOffset;
+  }
+  
+  /**
+   * True if the older page has been checkpointed, so the journal can
+   * flip to it.
+   */
+  public boolean isFlipFree()
+  {
+    return _isFlipFree;
+  }
+
   /**
    * @param queueHeadAddress
    * @param tailAddress
@@ -225,11 +276,26 @@ public final class JournalFile
     if (checkpointAddrB < FILE_DATA_OFFSET + BLOCK_SIZE)
       checkpointAddrB = FILE_DATA_OFFSET + BLOCK_SIZE;
     
+    int pageOffA = getPageOffset(_headerBlockA, seqA);
+    int pageOffB = getPageOffset(_headerBlockB, seqB);
+    
     int nextA = (seqA + 1) & FH_PAGE_MASK;
     if (nextA == 0)
       nextA = 2;
     
-    boolean isFlipA = (nextA != seqB);
+    long flipSequenceA = readLong(_headerBlockA.getBuffer(), FH_SEQUENCE);
+    long flipSequenceB = readLong(_headerBlockB.getBuffer(), FH_SEQUENCE);
+    
+    _flipSequence = Math.max(flipSequenceA, flipSequenceB);
+    
+    boolean isFlipA;
+    
+    // the page numbers alternate, so only the flip sequence orders them.
+    // A legacy page has no sequence and is older than any current page.
+    if (flipSequenceA != flipSequenceB)
+      isFlipA = flipSequenceB < flipSequenceA;
+    else
+      isFlipA = (nextA != seqB);
     
     if (seqA == 0) {
       // initial state
@@ -243,6 +309,7 @@ public final class JournalFile
     boolean isFlipFree = true;
         
     _page = isFlipA ? seqB : seqA;
+    _pageOff = isFlipA ? pageOffB : pageOffA;
     _tailAddress = isFlipA ? checkpointAddrB : checkpointAddrA;
     _tailOffset = isFlipA ? checkpointOffsetB : checkpointOffsetA;
     
@@ -257,6 +324,7 @@ public final class JournalFile
     }
     
     _page = isFlipA ? seqA : seqB;
+    _pageOff = isFlipA ? pageOffA : pageOffB;
     _tailAddress = isFlipA ? checkpointAddrA : checkpointAddrB;
     _tailOffset = isFlipA ? checkpointOffsetA : checkpointOffsetB;
     
@@ -275,6 +343,34 @@ public final class JournalFile
     _isFlipFree = isFlipFree;
   }
   
+  /**
+   * Returns the entry page shift for a header page.  Pages written
+   * before the format was versioned have a zero version field and use
+   * the legacy shift.  Pages from a newer format are rejected.
+   */
+  private int getPageOffset(Block block, int seq)
+    throws IOException
+  {
+    if (seq == 0)
+      return H_PAGE_OFF;
+    
+    long version = readLong(block.getBuffer(), FH_VERSION);
+    
+    if (FORMAT_VERSION < version) {
+      throw new IOException(L.l("journal {0} has format version {1}, which is newer than the supported version {2}.",
+                                _path.getNativePath(), version,
+                                FORMAT_VERSION));
+    }
+    else if (version < FORMAT_VERSION) {
+      log.info(L.l("journal {0} page {1} uses the legacy format and will be recovered with the legacy layout",
+                   _path.getNativePath(), seq));
+      
+      return LEGACY_H_PAGE_OFF;
+    }
+    else
+      return H_PAGE_OFF;
+  }
+  
   private boolean recoverEntry(JournalRecoverListener listener)
     throws IOException
   {
@@ -289,7 +385,7 @@ public final class JournalFile
       
       int len = readShort(buffer, i + HOFF_LENGTH);
       
-      int page = len >> H_PAGE_OFF;
+      int page = len >> _pageOff;
     
       len &= H_LENGTH_MASK;
       
@@ -392,7 +488,7 @@ public final class JournalFile
       isInit = false;
     }
     
-    int hLength = sublen + (_page << H_PAGE_OFF);
+    int hLength = sublen + (_page << _pageOff);
     
     tailBuffer[i + HOFF_LENGTH + 0] = (byte) (hLength >> 8);
     tailBuffer[i + HOFF_LENGTH + 1] = (byte) (hLength);
@@ -487,6 +583,27 @@ public final class JournalFile
     }
   }
   
+  /**
+   * Writes the tail and header blocks and waits for the writes to
+   * complete.
+   *
+   * @param isFsync if true, also fsync the journal file
+   */
+  public void flush(boolean isFsync)
+    throws IOException
+  {
+    Block tailBlock = _tailBlock;
+    
+    if (tailBlock != null) {
+      tailBlock.save();
+    }
+    
+    _headerBlockA.save();
+    _headerBlockB.save();
+    
+    _blockStore.flushWrites(isFsync);
+  }
+  
   private void flip()
     throws IOException
   {
@@ -504,6 +621,7 @@ public final class JournalFile
       nextPage = 2;
     
     _page = nextPage;
+    _pageOff = H_PAGE_OFF;
     _isFlipA = (nextPage & 1) == 0;
     _tailAddress = (FILE_DATA_OFFSET + (_isFlipA ? 0 : BLOCK_SIZE));
     _tailOffset = 0;
@@ -515,6 +633,9 @@ public final class JournalFile
     byte []buffer = block.getBuffer();
       
     buffer[FH_OFF_PAGE] = (byte) _page;
+    
+    writeLong(buffer, FH_SEQUENCE, ++_flipSequence);
+    writeLong(buffer, FH_VERSION, FORMAT_VERSION);
       
     writeLong(buffer, FH_CHECKPOINT_ADDR, 0);
     writeLong(buffer, FH_CHECKPOINT_OFFSET, 0);
@@ -0,0 +1,475 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+package com.caucho.network.listen;
+
+import java.io.IOException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.caucho.inject.Module;
+import com.caucho.util.CurrentTime;
+import com.caucho.vfs.QSocket;
+
+/**
+ * A pure-Java select manager for keepalive connections, using a
+ * java.nio Selector instead of the JNI poll.
+ *
+ * Registration, cancellation and wakeup all happen on the single selector
+ * thread.  Other threads only enqueue requests and wake the selector, so
+ * the selector's key set is never contended.
+ */
+@Module
+public class NioSelectManager extends AbstractSelectManager
+{
+  private static final Logger log
+    = Logger.getLogger(NioSelectManager.class.getName());
+
+  private static final int SELECT_MAX = 128 * 1024;
+  private static final long SELECT_TIMEOUT = 1000L;
+
+  private final ConcurrentLinkedQueue<TcpSocketLink> _registerQueue
+    = new ConcurrentLinkedQueue<TcpSocketLink>();
+
+  private final ConcurrentLinkedQueue<TcpSocketLink> _closeQueue
+    = new ConcurrentLinkedQueue<TcpSocketLink>();
+
+  private final ConcurrentLinkedQueue<TcpPort> _portCloseQueue
+    = new ConcurrentLinkedQueue<TcpPort>();
+
+  // registered connections, only accessed by the selector thread
+  private final HashSet<TcpSocketLink> _keepaliveSet
+    = new HashSet<TcpSocketLink>();
+
+  private final AtomicInteger _selectCount = new AtomicInteger();
+  private final AtomicBoolean _isActive = new AtomicBoolean();
+
+  private int _selectMax = SELECT_MAX;
+  private long _selectTimeout = SELECT_TIMEOUT;
+
+  private volatile Selector _selector;
+
+  /**
+   * Sets the selector timeout, which is also the idle expire check
+   * period.
+   */
+  @Override
+  public void setSelectTimeout(long period)
+  {
+    if (period > 0)
+      _selectTimeout = period;
+  }
+
+  /**
+   * Sets the maximum number of keepalive connections.
+   */
+  @Override
+  public void setSelectMax(int max)
+  {
+    if (max > 0)
+      _selectMax = max;
+  }
+
+  /**
+   * Gets the maximum number of keepalive connections.
+   */
+  @Override
+  public int getSelectMax()
+  {
+    return _selectMax;
+  }
+
+  /**
+   * Starts the manager.
+   */
+  @Override
+  public boolean start()
+  {
+    if (! _isActive.compareAndSet(false, true))
+      return true;
+
+    try {
+      _selector = Selector.open();
+    } catch (IOException e) {
+      log.log(Level.WARNING, e.toString(), e);
+
+      _isActive.set(false);
+
+      return false;
+    }
+
+    Thread thread = new Thread(new SelectTask(), "resin-nio-select");
+    thread.setDaemon(true);
+    thread.start();
+
+    return true;
+  }
+
+  /**
+   * Adds a keepalive connection.
+   *
+   * @param conn the connection to register as keepalive
+   *
+   * @return true if the keepalive was successful
+   */
+  @Override
+  public boolean keepalive(TcpSocketLink conn)
+  {
+    if (! _isActive.get())
+      return false;
+
+    QSocket socket = conn.getSocket();
+
+    if (socket == null || socket.getSelectableChannel() == null)
+      return false;
+
+    while (true) {
+      int count = _selectCount.get();
+
+      if (_selectMax <= count)
+        return false;
+
+      if (_selectCount.compareAndSet(count, count + 1))
+        break;
+    }
+
+    _registerQueue.offer(conn);
+
+    Selector selector = _selector;
+
+    if (selector != null)
+      selector.wakeup();
+
+    return true;
+  }
+
+  /**
+   * Removes a connection closed while in keepalive.
+   */
+  @Override
+  public void closeKeepalive(TcpSocketLink conn)
+  {
+    Selector selector = _selector;
+
+    if (selector != null) {
+      _closeQueue.offer(conn);
+      selector.wakeup();
+    }
+  }
+
+  /**
+   * Returns the select count.
+   */
+  @Override
+  public int getSelectCount()
+  {
+    return _selectCount.get();
+  }
+
+  /**
+   * Returns the number of available keepalives.
+   */
+  @Override
+  public int getFreeKeepalive()
+  {
+    return _selectMax - _selectCount.get();
+  }
+
+  /**
+   * Wakes all keepalive connections for a closing port.
+   */
+  @Override
+  public void onPortClose(TcpPort port)
+  {
+    Selector selector = _selector;
+
+    if (selector != null) {
+      _portCloseQueue.offer(port);
+      selector.wakeup();
+    }
+  }
+
+  /**
+   * Stops the manager.
+   */
+  @Override
+  public boolean stop()
+  {
+    if (! _isActive.compareAndSet(true, false))
+      return true;
+
+    Selector selector = _selector;
+
+    if (selector != null)
+      selector.wakeup();
+
+    return true;
+  }
+
+  private void selectLoop()
+  {
+    Selector selector = _selector;
+    long nextExpireTime = CurrentTime.getCurrentTimeActual() + _selectTimeout;
+
+    ArrayList<TcpSocketLink> wakeList = new ArrayList<TcpSocketLink>();
+    ArrayList<TcpSocketLink> timeoutList = new ArrayList<TcpSocketLink>();
+
+    while (_isActive.get()) {
+      try {
+        registerQueued(selector);
+
+        selector.select(_selectTimeout);
+
+        Iterator<SelectionKey> iter = selector.selectedKeys().iterator();
+
+        while (iter.hasNext()) {
+          SelectionKey key = iter.next();
+          iter.remove();
+
+          key.cancel();
+
+          wakeList.add((TcpSocketLink) key.attachment());
+        }
+
+        cancelClosed(selector);
+        cancelPortClose(selector, wakeList);
+
+        long now = CurrentTime.getCurrentTimeActual();
+
+        if (nextExpireTime <= now) {
+          nextExpireTime = now + _selectTimeout;
+
+          cancelExpired(selector, now, timeoutList);
+        }
+
+        if (wakeList.size() > 0 || timeoutList.size() > 0) {
+          // flush cancelled keys so the channels can return to blocking
+          selector.selectNow();
+          selector.selectedKeys().clear();
+
+          for (int i = 0; i < wakeList.size(); i++) {
+            TcpSocketLink conn = wakeList.get(i);
+
+            toBlocking(conn);
+            conn.requestWakeKeepalive();
+          }
+
+          for (int i = 0; i < timeoutList.size(); i++) {
+            TcpSocketLink conn = timeoutList.get(i);
+
+            toBlocking(conn);
+            conn.requestTimeoutKeepalive();
+          }
+
+          wakeList.clear();
+          timeoutList.clear();
+        }
+      } catch (ClosedSelectorException e) {
+        log.log(Level.FINEST, e.toString(), e);
+        break;
+      } catch (Throwable e) {
+        log.log(Level.WARNING, e.toString(), e);
+      }
+    }
+
+    closeSelector(selector);
+  }
+
+  private void registerQueued(Selector selector)
+  {
+    TcpSocketLink conn;
+
+    while ((conn = _registerQueue.poll()) != null) {
+      QSocket socket = conn.getSocket();
+      SelectableChannel channel = socket.getSelectableChannel();
+
+      try {
+        channel.configureBlocking(false);
+        channel.register(selector, SelectionKey.OP_READ, conn);
+
+        _keepaliveSet.add(conn);
+      } catch (Exception e) {
+        log.log(Level.FINER, e.toString(), e);
+
+        _selectCount.decrementAndGet();
+
+        // registration failed; let the connection handle the error
+        try {
+          channel.configureBlocking(true);
+        } catch (Exception e1) {
+          log.log(Level.FINEST, e1.toString(), e1);
+        }
+
+        conn.requestWakeKeepalive();
+      }
+    }
+  }
+
+  private void cancelClosed(Selector selector)
+  {
+    TcpSocketLink conn;
+
+    while ((conn = _closeQueue.poll()) != null) {
+      if (_keepaliveSet.remove(conn)) {
+        SelectionKey key = findKey(selector, conn);
+
+        if (key != null)
+          key.cancel();
+
+        _selectCount.decrementAndGet();
+      }
+    }
+  }
+
+  private void cancelPortClose(Selector selector,
+                               ArrayList<TcpSocketLink> wakeList)
+  {
+    TcpPort port;
+
+    while ((port = _portCloseQueue.poll()) != null) {
+      for (SelectionKey key : selector.keys()) {
+        TcpSocketLink conn = (TcpSocketLink) key.attachment();
+
+        if (key.isValid() && conn.getPort() == port) {
+          key.cancel();
+          wakeList.add(conn);
+        }
+      }
+    }
+  }
+
+  private void cancelExpired(Selector selector,
+                             long now,
+                             ArrayList<TcpSocketLink> timeoutList)
+  {
+    for (SelectionKey key : selector.keys()) {
+      TcpSocketLink conn = (TcpSocketLink) key.attachment();
+
+      if (key.isValid() && conn.getIdleExpireTime() < now) {
+        key.cancel();
+        timeoutList.add(conn);
+      }
+    }
+  }
+
+  private SelectionKey findKey(Selector selector, TcpSocketLink conn)
+  {
+    QSocket socket = conn.getSocket();
+
+    if (socket == null)
+      return null;
+
+    SelectableChannel channel = socket.getSelectableChannel();
+
+    if (channel == null)
+      return null;
+
+    return channel.keyFor(selector);
+  }
+
+  /**
+   * Returns the channel to blocking mode before the connection resumes
+   * on a thread.
+   */
+  private void toBlocking(TcpSocketLink conn)
+  {
+    if (_keepaliveSet.remove(conn))
+      _selectCount.decrementAndGet();
+
+    QSocket socket = conn.getSocket();
+    SelectableChannel channel = socket != null ? socket.getSelectableChannel() : null;
+
+    try {
+      if (channel != null && channel.isOpen())
+        channel.configureBlocking(true);
+    } catch (Exception e) {
+      log.log(Level.FINER, e.toString(), e);
+    }
+  }
+
+  private void closeSelector(Selector selector)
+  {
+    ArrayList<TcpSocketLink> timeoutList = new ArrayList<TcpSocketLink>();
+
+    try {
+      if (selector.isOpen()) {
+        for (SelectionKey key : selector.keys()) {
+          timeoutList.add((TcpSocketLink) key.attachment());
+        }
+
+        selector.close();
+      }
+    } catch (Exception e) {
+      log.log(Level.FINER, e.toString(), e);
+    }
+
+    TcpSocketLink conn;
+
+    while ((conn = _registerQueue.poll()) != null) {
+      timeoutList.add(conn);
+    }
+
+    for (int i = 0; i < timeoutList.size(); i++) {
+      conn = timeoutList.get(i);
+
+      toBlocking(conn);
+      conn.requestTimeoutKeepalive();
+    }
+
+    _keepaliveSet.clear();
+    _selectCount.set(0);
+    _closeQueue.clear();
+    _portCloseQueue.clear();
+  }
+
+  @Override
+  public String toString()
+  {
+    return (getClass().getSimpleName() + "[count=" + _selectCount.get()
+            + ",max=" + _selectMax + "]");
+  }
+
+  class SelectTask implements Runnable {
+    @Override
+    public void run()
+    {
+      selectLoop();
+    }
+  }
+}
@@ -39,6 +39,8 @@ public class SocketPollService extends AbstractResinSubSystem
 {
   public static final int START_PRIORITY = TopologyService.START_PRIORITY + 1;
 
+  private NioSelectManager _nioSelectManager;
+
   public SocketPollService()
   {
     
@@ -73,10 +75,47 @@ public class SocketPollService extends AbstractResinSubSystem
   {
     return null;
   }
+
+  /**
+   * Returns the pure-Java select manager for ports whose sockets are
+   * java.nio channels.
+   */
+  public AbstractSelectManager getNioSelectManager()
+  {
+    synchronized (this) {
+      if (_nioSelectManager == null) {
+        NioSelectManager selectManager = new NioSelectManager();
+
+        if (! selectManager.start())
+          return null;
+
+        _nioSelectManager = selectManager;
+      }
+
+      return _nioSelectManager;
+    }
+  }
  
   @Override
   public int getStartPriority()
   {
     return START_PRIORITY;
   }
+
+  @Override
+  public void stop()
+    throws Exception
+  {
+    NioSelectManager selectManager;
+
+    synchronized (this) {
+      selectManager = _nioSelectManager;
+      _nioSelectManager = null;
+    }
+
+    if (selectManager != null)
+      selectManager.close();
+
+    super.stop();
+  }
 }
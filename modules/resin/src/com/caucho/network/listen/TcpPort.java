@@ -1192,12 +1192,15 @@ public class TcpPort
 
     _serverSocket.setConnectionSocketTimeout((int) getSocketTimeout());
 
-    if (_serverSocket.isJni()) {
-      SocketPollService pollService = SocketPollService.getCurrent();
+    SocketPollService pollService = SocketPollService.getCurrent();
 
-      if (pollService != null && isKeepaliveAsyncEnabled()) {
+    if (pollService != null && isKeepaliveAsyncEnabled()) {
+      if (_serverSocket.isJni()) {
         _selectManager = pollService.getSelectManager();
       }
+      else if (_serverSocket.isSelectable()) {
+        _selectManager = pollService.getNioSelectManager();
+      }
     }
 
     if (_keepaliveMax < 0 && _selectManager != null)
@@ -436,6 +436,24 @@ public class ServerAdmin extends AbstractEmitterObject
     return _server.getSendfileCount();
   }
 
+  /**
+   * Returns the number of zero-copy transferTo responses.
+   */
+  @Override
+  public long getTransferToCountTotal()
+  {
+    return _server.getTransferToCount();
+  }
+
+  /**
+   * Returns the bytes written with zero-copy transferTo.
+   */
+  @Override
+  public long getTransferToBytesTotal()
+  {
+    return _server.getTransferToBytes();
+  }
+
   /**
    * Returns the current total amount of memory available for the JVM, in bytes.
    */
@@ -94,6 +94,15 @@ public class ServerConfig
   {
     _config.setThreadExecutorTaskMax(max);
   }
+
+  /**
+   * Runs request tasks on virtual threads when the JDK supports them.
+   */
+  @Configurable
+  public void setThreadVirtualEnable(boolean isEnable)
+  {
+    _config.setThreadVirtualEnable(isEnable);
+  }
   
   @Configurable
   public void setSendfileEnable(boolean isEnable)
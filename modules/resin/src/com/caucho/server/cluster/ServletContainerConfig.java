@@ -91,6 +91,7 @@ public class ServletContainerConfig implements EnvironmentBean, SchemaBean
   private int _threadIdleMin = -1;
   private int _threadIdleMax = -1;
   private long _threadIdleTimeout = -1;
+  private boolean _isThreadVirtualEnable;
   
   private CloudServer _selfServer;
   private ServletService _servletContainer;
@@ -401,6 +402,15 @@ public class ServletContainerConfig implements EnvironmentBean, SchemaBean
     _threadIdleTimeout = timeout.getPeriod();
   }
 
+  /**
+   * Runs request tasks on virtual threads when the JDK supports them.
+   */
+  @Configurable
+  public void setThreadVirtualEnable(boolean isEnable)
+  {
+    _isThreadVirtualEnable = isEnable;
+  }
+
   //
   // Configuration from <cluster>
   //
@@ -719,6 +729,9 @@ public class ServletContainerConfig implements EnvironmentBean, SchemaBean
       threadPool.setIdleTimeout(_threadIdleTimeout);
 
     threadPool.setExecutorTaskMax(_threadExecutorTaskMax);
+
+    if (_isThreadVirtualEnable)
+      threadPool.setVirtualThreadEnable(true);
     
     /*
     if (_keepaliveSelectEnable) {
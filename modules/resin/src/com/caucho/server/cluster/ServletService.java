@@ -188,6 +188,8 @@ public class ServletService
   // stats
   
   private final AtomicLong _sendfileCount = new AtomicLong();
+  private final AtomicLong _transferToCount = new AtomicLong();
+  private final AtomicLong _transferToBytes = new AtomicLong();
 
   private long _startTime;
 
@@ -838,6 +840,25 @@ public class ServletService
     _sendfileCount.incrementAndGet();
   }
 
+  public long getTransferToCount()
+  {
+    return _transferToCount.get();
+  }
+
+  public long getTransferToBytes()
+  {
+    return _transferToBytes.get();
+  }
+
+  /**
+   * Adds a FileChannel.transferTo response of the given length.
+   */
+  public void addTransferTo(long length)
+  {
+    _transferToCount.incrementAndGet();
+    _transferToBytes.addAndGet(length);
+  }
+
   /**
    * Sets the access log.
    */
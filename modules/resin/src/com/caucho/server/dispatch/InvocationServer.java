@@ -37,6 +37,7 @@ import javax.annotation.PostConstruct;
 
 import com.caucho.config.ConfigException;
 import com.caucho.lifecycle.Lifecycle;
+import com.caucho.util.ClockCache;
 import com.caucho.util.LruCache;
 import com.caucho.vfs.Dependency;
 
@@ -51,7 +52,7 @@ public class InvocationServer implements Dependency
   private InvocationBuilder _invocationBuilder;
 
   // Cache of uri -> invocation maps
-  private LruCache<Object,Invocation> _invocationCache;
+  private ClockCache<Object,Invocation> _invocationCache;
 
   private InvocationDecoder _invocationDecoder;
 
@@ -147,7 +148,7 @@ public class InvocationServer implements Dependency
   @PostConstruct
   public void init()
   {
-    _invocationCache = new LruCache<Object,Invocation>(_invocationCacheSize);
+    _invocationCache = new ClockCache<Object,Invocation>(_invocationCacheSize);
     _invocationCache.setEnableStatistics(true);
   }
 
@@ -188,7 +189,7 @@ public class InvocationServer implements Dependency
     Invocation invocation = null;
 
     // XXX: see if can remove this
-    LruCache<Object,Invocation> invocationCache = _invocationCache;
+    ClockCache<Object,Invocation> invocationCache = _invocationCache;
 
     if (invocationCache != null)
       invocation = invocationCache.get(protocolKey);
@@ -223,7 +224,7 @@ public class InvocationServer implements Dependency
     invocation = buildInvocation(invocation);
 
     // XXX: see if can remove this, and rely on the invocation cache existing
-    LruCache<Object,Invocation> invocationCache = _invocationCache;
+    ClockCache<Object,Invocation> invocationCache = _invocationCache;
 
     if (invocationCache != null) {
       Invocation oldInvocation;
@@ -256,7 +257,7 @@ public class InvocationServer implements Dependency
   public void clearCache()
   {
     // XXX: see if can remove this, and rely on the invocation cache existing
-    LruCache<Object,Invocation> invocationCache = _invocationCache;
+    ClockCache<Object,Invocation> invocationCache = _invocationCache;
 
     if (invocationCache != null) {
       invocationCache.clear();
@@ -269,7 +270,7 @@ public class InvocationServer implements Dependency
   public void invalidateMatchingInvocations(InvocationMatcher matcher)
   {
     // XXX: see if can remove this, and rely on the invocation cache existing
-    LruCache<Object,Invocation> invocationCache = _invocationCache;
+    ClockCache<Object,Invocation> invocationCache = _invocationCache;
 
     if (invocationCache != null) {
       synchronized (invocationCache) {
@@ -294,7 +295,7 @@ public class InvocationServer implements Dependency
   public ArrayList<Invocation> getInvocations()
   {
     // XXX: see if can remove this, and rely on the invocation cache existing
-    LruCache<Object,Invocation> invocationCache = _invocationCache;
+    ClockCache<Object,Invocation> invocationCache = _invocationCache;
 
     if (invocationCache != null) {
       ArrayList<Invocation> invocationList = new ArrayList<Invocation>();
@@ -319,7 +320,7 @@ public class InvocationServer implements Dependency
    */
   public long getInvocationCacheHitCount()
   {
-    LruCache<Object,Invocation> invocationCache = _invocationCache;
+    ClockCache<Object,Invocation> invocationCache = _invocationCache;
 
     if (invocationCache != null)
       return invocationCache.getHitCount();
@@ -332,7 +333,7 @@ public class InvocationServer implements Dependency
    */
   public long getInvocationCacheMissCount()
   {
-    LruCache<Object,Invocation> invocationCache = _invocationCache;
+    ClockCache<Object,Invocation> invocationCache = _invocationCache;
 
     if (invocationCache != null)
       return invocationCache.getMissCount();
@@ -30,6 +30,7 @@
 package com.caucho.server.distcache;
 
 import java.io.InputStream;
+import java.util.ArrayList;
 
 import com.caucho.util.HashKey;
 
@@ -79,6 +80,11 @@ public class AbstractCacheEngine implements CacheEngine
     return null;
   }
 
+  @Override
+  public void getAll(ArrayList<DistCacheEntry> entries)
+  {
+  }
+
   @Override
   public void put(HashKey key, 
                   HashKey cacheKey,
@@ -29,8 +29,10 @@
 
 package com.caucho.server.distcache;
 
+import java.util.Locale;
 import java.util.concurrent.TimeUnit;
 
+import com.caucho.config.ConfigException;
 import com.caucho.config.Configurable;
 import com.caucho.distcache.AbstractCache;
 import com.caucho.distcache.CacheSerializer;
@@ -39,6 +41,7 @@ import com.caucho.distcache.ResinCacheBuilder.Scope;
 import com.caucho.util.Alarm;
 import com.caucho.util.CurrentTime;
 import com.caucho.util.HashKey;
+import com.caucho.util.L10N;
 
 import javax.cache.CacheBuilder;
 import javax.cache.Configuration;
@@ -53,6 +56,8 @@ import javax.cache.transaction.Mode;
  */
 public class CacheConfig implements Configuration
 {
+  private static final L10N L = new L10N(CacheConfig.class);
+  
   public static final long TIME_INFINITY  = Long.MAX_VALUE / 2;
   public static final long TIME_HOUR  = 3600 * 1000L;
   public static final int FLAG_TRANSIENT  = 0x01;
@@ -95,6 +100,8 @@ public class CacheConfig implements Configuration
 
   private CacheSerializer _keySerializer;
   private CacheSerializer _valueSerializer;
+  
+  private String _keyHashAlgorithm = HashManager.HASH_ALGORITHM;
 
   private CacheEngine _engine = new AbstractCacheEngine();
   private ExpiryPolicy _expiryPolicy;
@@ -428,6 +435,41 @@ public class CacheConfig implements Configuration
     return _keySerializer;
   }
 
+  /**
+   * Returns the hash algorithm for the cache keys.
+   */
+  public String getKeyHashAlgorithm()
+  {
+    return _keyHashAlgorithm;
+  }
+
+  /**
+   * Sets the hash algorithm for the cache keys.  The MURMUR3 hashes
+   * are much faster than SHA-256, but are not collision-resistant
+   * against chosen keys.
+   */
+  public void setKeyHashAlgorithm(String algorithm)
+  {
+    algorithm = algorithm.toUpperCase(Locale.ENGLISH);
+    
+    if (! HashManager.isSupported(algorithm))
+      throw new ConfigException(L.l("'{0}' is an unknown key hash algorithm. Valid values are {1}, {2} and {3}.",
+                                    algorithm,
+                                    HashManager.HASH_ALGORITHM,
+                                    HashManager.MURMUR3_128,
+                                    HashManager.MURMUR3_256));
+    
+    _keyHashAlgorithm = algorithm;
+  }
+  
+  /**
+   * Returns true if the keys use the default hash algorithm.
+   */
+  public boolean isDefaultKeyHash()
+  {
+    return HashManager.HASH_ALGORITHM.equals(_keyHashAlgorithm);
+  }
+
   /**
    * Returns the value serializer
    */
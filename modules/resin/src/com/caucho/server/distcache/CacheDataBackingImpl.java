@@ -32,7 +32,9 @@ package com.caucho.server.distcache;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Iterator;
+import java.util.Map;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -52,6 +54,7 @@ import com.caucho.util.CurrentTime;
 import com.caucho.util.HashKey;
 import com.caucho.vfs.Path;
 import com.caucho.vfs.StreamSource;
+import com.caucho.vfs.TempOutputStream;
 import com.caucho.vfs.WriteStream;
 
 /**
@@ -153,6 +156,22 @@ public class CacheDataBackingImpl implements CacheDataBacking {
     }
   }
 
+  /**
+   * Returns the local values from the database
+   */
+  @Override
+  public Map<HashKey,MnodeEntry> loadLocalEntryValues(ArrayList<HashKey> keys)
+  {
+    MnodeStore mnodeStore = _mnodeStore;
+    
+    if (mnodeStore != null) {
+      return mnodeStore.loadAll(keys);
+    }
+    else {
+      return Collections.emptyMap();
+    }
+  }
+
   /**
    * Sets a cache entry
    */
@@ -309,6 +328,19 @@ public class CacheDataBackingImpl implements CacheDataBacking {
     }
   }
 
+  @Override
+  public Map<Long,TempOutputStream> loadDataAll(ArrayList<Long> valueDataIds)
+  {
+    DataStore dataStore = _dataStore;
+    
+    if (dataStore != null) {
+      return dataStore.loadAll(valueDataIds);
+    }
+    else {
+      return Collections.emptyMap();
+    }
+  }
+
   @Override
   public boolean loadData(long valueDataId,
                           WriteStream os)
@@ -30,6 +30,7 @@
 package com.caucho.server.distcache;
 
 import java.io.InputStream;
+import java.util.ArrayList;
 
 import com.caucho.server.distcache.LocalDataManager.DataItem;
 import com.caucho.util.HashKey;
@@ -55,6 +56,13 @@ public interface CacheEngine
   
   public MnodeValue get(DistCacheEntry entry);
   
+  /**
+   * Refreshes a group of locally-expired entries before they are read.
+   * A clustered engine groups the entries by owner and pipelines the
+   * requests; entries left expired are loaded by get() as usual.
+   */
+  public void getAll(ArrayList<DistCacheEntry> entries);
+  
   /*
   public boolean loadData(HashKey key, 
                           HashKey valueKey, long valueIndex,
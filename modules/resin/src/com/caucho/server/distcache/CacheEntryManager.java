@@ -33,8 +33,8 @@ import java.util.Iterator;
 
 import com.caucho.env.service.ResinSystem;
 import com.caucho.inject.Module;
+import com.caucho.util.ClockCache;
 import com.caucho.util.HashKey;
-import com.caucho.util.LruCache;
 
 /**
  * Manages the server entries for the distributed cache
@@ -46,8 +46,8 @@ public final class CacheEntryManager
   
   private final CacheEntryFactory _cacheEntryFactory;
   
-  private final LruCache<HashKey, DistCacheEntry> _entryCache
-    = new LruCache<HashKey, DistCacheEntry>(64 * 1024);
+  private final ClockCache<HashKey, DistCacheEntry> _entryCache
+    = new ClockCache<HashKey, DistCacheEntry>(64 * 1024);
   
   public CacheEntryManager(CacheEntryFactory cacheEntryFactory)
   {
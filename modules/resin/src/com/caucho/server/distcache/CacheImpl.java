@@ -70,6 +70,8 @@ import com.caucho.distcache.ExtCacheEntry;
 import com.caucho.distcache.ObjectCache;
 import com.caucho.env.actor.AbstractWorkerQueue;
 import com.caucho.env.distcache.CacheDataBacking;
+import com.caucho.env.meter.ActiveTimeSensor;
+import com.caucho.env.meter.MeterService;
 import com.caucho.env.thread.ThreadPool;
 import com.caucho.loader.Environment;
 import com.caucho.management.server.AbstractManagedObject;
@@ -118,6 +120,13 @@ public class CacheImpl<K,V>
   private final AtomicLong _putCount = new AtomicLong();
   private final AtomicLong _removeCount = new AtomicLong();
   
+  private static final ActiveTimeSensor _getAllTimeProbe
+    = MeterService.createActiveTimeMeter("Resin|Cache|Get All");
+  private static final ActiveTimeSensor _putAllTimeProbe
+    = MeterService.createActiveTimeMeter("Resin|Cache|Put All");
+  private static final ActiveTimeSensor _removeAllTimeProbe
+    = MeterService.createActiveTimeMeter("Resin|Cache|Remove All");
+  
   private CacheAdmin _admin = new CacheAdmin();
 
   private boolean _isInit;
@@ -261,7 +270,16 @@ public class CacheImpl<K,V>
       }
       */
       
-      CacheHandle cache = _manager.getCache(_config.getGuid(),
+      String cacheGuid = _config.getGuid();
+      
+      // compatibility marker: a cache with a non-default key hash gets
+      // its own cache key, so servers with different hash settings
+      // never share entries
+      if (! _config.isDefaultKeyHash()) {
+        cacheGuid = cacheGuid + "|" + _config.getKeyHashAlgorithm();
+      }
+      
+      CacheHandle cache = _manager.getCache(cacheGuid,
                                             _config.getKeySerializer());
 
       _config.setCache(cache);
@@ -305,8 +323,19 @@ public class CacheImpl<K,V>
   @Override
   public V get(Object key)
   {
-    DistCacheEntry entry = getDistCacheEntry(key);
-
+    return get(key, getDistCacheEntry(key));
+  }
+  
+  private V get(Object key, DistCacheEntry entry)
+  {
+    return get(key, entry, null, null);
+  }
+  
+  private V get(Object key,
+                DistCacheEntry entry,
+                MnodeEntry loadedEntry,
+                Object loadedValue)
+  {
     _getCount.incrementAndGet();
     if (! entry.getMnodeEntry().isValueNull()) {
       _hitCount.incrementAndGet();
@@ -315,7 +344,7 @@ public class CacheImpl<K,V>
       _missCount.incrementAndGet();
     }
 
-    V value = (V) entry.get();
+    V value = (V) entry.get(loadedEntry, loadedValue);
     
     if (_readListeners != null) {
       entryRead(key, value);
@@ -711,17 +740,79 @@ public class CacheImpl<K,V>
   @Override
   public Map<K,V> getAll(Set<? extends K> keys)
   {
-    Map<K,V> result = new TreeMap<K,V>();
+    long startTime = _getAllTimeProbe.start();
+    
+    try {
+      ArrayList<DistCacheEntry> entries = loadEntries(keys);
+      
+      loadExpiredEntries(entries);
+      
+      MnodeEntry []loadedEntries = new MnodeEntry[entries.size()];
+      Object []loadedValues = new Object[entries.size()];
+      
+      _manager.loadLocalData(entries, _config, loadedEntries, loadedValues);
+      
+      Map<K,V> result = new TreeMap<K,V>();
 
-    for (K key : keys) {
-      V value = get(key);
+      int i = 0;
+      for (K key : keys) {
+        V value = get(key, entries.get(i), loadedEntries[i], loadedValues[i]);
+        i++;
 
-      if (value != null) {
-        result.put(key, value);
+        if (value != null) {
+          result.put(key, value);
+        }
       }
-    }
 
-    return result;
+      return result;
+    } finally {
+      _getAllTimeProbe.end(startTime);
+    }
+  }
+  
+  /**
+   * Returns the entries for the keys, loading their local values
+   * in a single pass.
+   */
+  private ArrayList<DistCacheEntry> loadEntries(Iterable<?> keys)
+  {
+    ArrayList<DistCacheEntry> entries = new ArrayList<DistCacheEntry>();
+    
+    for (Object key : keys) {
+      entries.add(getDistCacheEntry(key));
+    }
+    
+    _manager.loadLocalEntries(entries);
+    
+    return entries;
+  }
+  
+  /**
+   * Passes the locally-expired entries to the engine as a group.
+   */
+  private void loadExpiredEntries(ArrayList<DistCacheEntry> entries)
+  {
+    CacheConfig config = _config;
+    int server = config.getServerIndex();
+    long now = CurrentTime.getCurrentTime();
+    
+    ArrayList<DistCacheEntry> expiredEntries = null;
+    
+    for (int i = 0; i < entries.size(); i++) {
+      DistCacheEntry entry = entries.get(i);
+      
+      if (entry.getMnodeEntry().isLocalExpired(server, now, config)) {
+        if (expiredEntries == null) {
+          expiredEntries = new ArrayList<DistCacheEntry>();
+        }
+        
+        expiredEntries.add(entry);
+      }
+    }
+    
+    if (expiredEntries != null) {
+      config.getEngine().getAll(expiredEntries);
+    }
   }
 
   /**
@@ -824,8 +915,30 @@ public class CacheImpl<K,V>
       return;
     }
     
-    for (Map.Entry<? extends K, ? extends V> entry : map.entrySet()) {
-      put(entry.getKey(), entry.getValue());
+    long startTime = _putAllTimeProbe.start();
+    
+    try {
+      ArrayList<K> keys = new ArrayList<K>(map.size());
+      ArrayList<V> values = new ArrayList<V>(map.size());
+      
+      for (Map.Entry<? extends K, ? extends V> entry : map.entrySet()) {
+        keys.add(entry.getKey());
+        values.add(entry.getValue());
+      }
+      
+      ArrayList<DistCacheEntry> entries = loadEntries(keys);
+      
+      for (int i = 0; i < entries.size(); i++) {
+        K key = keys.get(i);
+        V value = values.get(i);
+        
+        entries.get(i).put(value);
+
+        _putCount.incrementAndGet();
+        entryUpdate(key, value);
+      }
+    } finally {
+      _putAllTimeProbe.end(startTime);
     }
   }
 
@@ -1045,8 +1158,20 @@ public class CacheImpl<K,V>
   @Override
   public void removeAll(Set<? extends K> keys)
   {
-    for (K key : keys) {
-      remove(key);
+    long startTime = _removeAllTimeProbe.start();
+    
+    try {
+      ArrayList<DistCacheEntry> entries = loadEntries(keys);
+
+      int i = 0;
+      for (K key : keys) {
+        if (entries.get(i++).remove()) {
+          entryRemoved(key);
+          _removeCount.incrementAndGet();
+        }
+      }
+    } finally {
+      _removeAllTimeProbe.end(startTime);
     }
   }
 
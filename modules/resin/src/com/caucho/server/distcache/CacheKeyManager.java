@@ -31,12 +31,13 @@ package com.caucho.server.distcache;
 
 import java.io.OutputStream;
 import java.security.MessageDigest;
+import java.util.concurrent.ConcurrentHashMap;
 
 import com.caucho.distcache.CacheSerializer;
 import com.caucho.inject.Module;
+import com.caucho.util.ClockCache;
 import com.caucho.util.FreeList;
 import com.caucho.util.HashKey;
-import com.caucho.util.LruCache;
 
 /**
  * Manages the distributed cache
@@ -51,13 +52,16 @@ public final class CacheKeyManager
   private FreeList<KeyHashStream> _keyStreamFreeList
     = new FreeList<KeyHashStream>(32);
   
-  private final LruCache<CacheKey,HashKey> _keyCache;
+  private final ConcurrentHashMap<String,FreeList<KeyHashStream>> _keyStreamFreeMap
+    = new ConcurrentHashMap<String,FreeList<KeyHashStream>>();
+  
+  private final ClockCache<CacheKey,HashKey> _keyCache;
   
   CacheKeyManager(CacheEntryManager cacheEntryManager)
   {
     _cacheEntryManager = cacheEntryManager;
     
-    _keyCache = new LruCache<CacheKey,HashKey>(64 * 1024);
+    _keyCache = new ClockCache<CacheKey,HashKey>(64 * 1024);
   }
   
   public final CacheEntryManager getCacheEntryManager()
@@ -127,11 +131,14 @@ public final class CacheKeyManager
   protected HashKey createHashKeyImpl(Object key, CacheConfig config)
   {
     try {
-      KeyHashStream dOut = _keyStreamFreeList.allocate();
+      String algorithm = config.getKeyHashAlgorithm();
+      
+      FreeList<KeyHashStream> freeList = getKeyStreamFreeList(algorithm);
+      
+      KeyHashStream dOut = freeList.allocate();
       
       if (dOut == null) {
-        MessageDigest digest
-          = MessageDigest.getInstance(HashManager.HASH_ALGORITHM);
+        MessageDigest digest = HashManager.createDigest(algorithm);
       
         dOut = new KeyHashStream(digest);
       }
@@ -145,7 +152,7 @@ public final class CacheKeyManager
 
       HashKey hashKey = new HashKey(dOut.digest());
       
-      _keyStreamFreeList.free(dOut);
+      freeList.free(dOut);
 
       return hashKey;
     } catch (Exception e) {
@@ -153,6 +160,24 @@ public final class CacheKeyManager
     }
   }
 
+  private FreeList<KeyHashStream> getKeyStreamFreeList(String algorithm)
+  {
+    if (HashManager.HASH_ALGORITHM.equals(algorithm)) {
+      return _keyStreamFreeList;
+    }
+    
+    FreeList<KeyHashStream> freeList = _keyStreamFreeMap.get(algorithm);
+    
+    if (freeList == null) {
+      _keyStreamFreeMap.putIfAbsent(algorithm,
+                                    new FreeList<KeyHashStream>(32));
+      
+      freeList = _keyStreamFreeMap.get(algorithm);
+    }
+    
+    return freeList;
+  }
+
   /**
    * Returns the key hash
    */
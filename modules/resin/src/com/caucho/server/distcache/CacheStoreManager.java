@@ -30,7 +30,9 @@
 package com.caucho.server.distcache;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 
 import com.caucho.cloud.topology.TriadOwner;
@@ -39,6 +41,7 @@ import com.caucho.env.distcache.CacheDataBacking;
 import com.caucho.env.service.ResinSystem;
 import com.caucho.env.thread.ThreadPool;
 import com.caucho.inject.Module;
+import com.caucho.util.CurrentTime;
 import com.caucho.util.HashKey;
 import com.caucho.vfs.StreamSource;
 
@@ -220,6 +223,86 @@ public final class CacheStoreManager implements CacheEntryFactory
     return _cacheEntryManager.createCacheEntry(key, cache);
   }
 
+  /**
+   * Loads the local values for a group of entries in a single
+   * database pass, instead of one load per entry.
+   */
+  final void loadLocalEntries(ArrayList<DistCacheEntry> entries)
+  {
+    ArrayList<HashKey> keys = new ArrayList<HashKey>();
+    
+    for (int i = 0; i < entries.size(); i++) {
+      DistCacheEntry entry = entries.get(i);
+      
+      if (entry.getMnodeEntry().isImplicitNull()) {
+        keys.add(entry.getKeyHash());
+      }
+    }
+    
+    // a single entry uses the normal load
+    if (keys.size() < 2) {
+      return;
+    }
+    
+    Map<HashKey,MnodeEntry> valueMap
+      = getDataBacking().loadLocalEntryValues(keys);
+    
+    for (int i = 0; i < entries.size(); i++) {
+      DistCacheEntry entry = entries.get(i);
+      MnodeEntry mnodeValue = entry.getMnodeEntry();
+      
+      if (mnodeValue.isImplicitNull()) {
+        entry.setLocalMnodeValue(mnodeValue,
+                                 valueMap.get(entry.getKeyHash()));
+      }
+    }
+  }
+
+  /**
+   * Reads the value data for a group of entries in a single database
+   * pass.  For each entry read, loadedEntries holds the mnode entry the
+   * data belongs to and values holds the decoded value.
+   */
+  final void loadLocalData(ArrayList<DistCacheEntry> entries,
+                           CacheConfig config,
+                           MnodeEntry []loadedEntries,
+                           Object []values)
+  {
+    int server = config.getServerIndex();
+    long now = CurrentTime.getCurrentTime();
+    
+    ArrayList<Long> dataIds = new ArrayList<Long>();
+    int []index = new int[entries.size()];
+    MnodeEntry []mnodeValues = new MnodeEntry[entries.size()];
+    
+    for (int i = 0; i < entries.size(); i++) {
+      MnodeEntry mnodeValue = entries.get(i).getMnodeEntry();
+      
+      if (mnodeValue.getValue() == null
+          && mnodeValue.getValueHash() != 0
+          && mnodeValue.getValueDataId() > 0
+          && ! mnodeValue.isLocalExpired(server, now, config)) {
+        index[dataIds.size()] = i;
+        mnodeValues[dataIds.size()] = mnodeValue;
+        dataIds.add(mnodeValue.getValueDataId());
+      }
+    }
+    
+    // a single entry uses the normal read
+    if (dataIds.size() < 2) {
+      return;
+    }
+    
+    Object []dataValues
+      = getLocalDataManager().readDataAll(dataIds,
+                                          config.getValueSerializer());
+    
+    for (int j = 0; j < dataValues.length; j++) {
+      loadedEntries[index[j]] = mnodeValues[j];
+      values[index[j]] = dataValues[j];
+    }
+  }
+
   /**
    * Returns the key entry.
    */
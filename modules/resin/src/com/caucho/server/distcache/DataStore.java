@@ -38,6 +38,7 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -53,6 +54,8 @@ import com.caucho.util.IoUtil;
 import com.caucho.util.JdbcUtil;
 import com.caucho.util.L10N;
 import com.caucho.vfs.StreamSource;
+import com.caucho.vfs.TempOutputStream;
+import com.caucho.vfs.Vfs;
 import com.caucho.vfs.WriteStream;
 
 
@@ -281,6 +284,74 @@ public class DataStore {
     return false;
   }
 
+  /**
+   * Reads a group of objects from the data store in a single pass,
+   * reusing one connection and load statement.
+   *
+   * @param ids the data identifiers
+   *
+   * @return the data for each id found.  The caller must destroy the
+   * streams.
+   */
+  public HashMap<Long,TempOutputStream> loadAll(ArrayList<Long> ids)
+  {
+    HashMap<Long,TempOutputStream> dataMap
+      = new HashMap<Long,TempOutputStream>();
+
+    DataConnection conn = null;
+
+    try {
+      conn = getConnection();
+
+      PreparedStatement pstmt = conn.prepareLoad();
+
+      for (int i = 0; i < ids.size(); i++) {
+        Long id = ids.get(i);
+
+        if (dataMap.containsKey(id))
+          continue;
+
+        pstmt.setLong(1, id);
+
+        ResultSet rs = pstmt.executeQuery();
+
+        try {
+          if (rs.next()) {
+            InputStream is = rs.getBinaryStream(1);
+
+            if (is != null) {
+              TempOutputStream os = new TempOutputStream();
+              dataMap.put(id, os);
+
+              WriteStream out = Vfs.openWrite(os);
+
+              try {
+                out.writeStream(is);
+              } finally {
+                out.close();
+                is.close();
+              }
+            }
+          }
+        } finally {
+          rs.close();
+        }
+      }
+
+      if (log.isLoggable(Level.FINER))
+        log.finer(this + " loadAll " + ids.size() + " -> " + dataMap.size());
+    } catch (SQLException e) {
+      log.log(Level.FINE, e.toString(), e);
+    } catch (IOException e) {
+      log.log(Level.FINE, e.toString(), e);
+    } finally {
+      if (conn != null)
+        conn.close();
+    }
+
+    return dataMap;
+  }
+
   /**
    * Reads the object from the data store.
    *
@@ -43,20 +43,32 @@ public class DigestOutputStream extends OutputStream {
 
   private OutputStream _os;
   private MessageDigest _digest;
+  private boolean _isFree;
   private byte []_hash;
   
   /**
    * Creates the output
    */
   public DigestOutputStream(OutputStream os)
+  {
+    this(os, HashManager.HASH_ALGORITHM);
+  }
+  
+  /**
+   * Creates the output with the given hash algorithm.
+   */
+  public DigestOutputStream(OutputStream os, String algorithm)
   {
     _os = os;
     
     try {
-      _digest = _freeDigestList.allocate();
+      if (HashManager.HASH_ALGORITHM.equals(algorithm)) {
+        _isFree = true;
+        _digest = _freeDigestList.allocate();
+      }
 
       if (_digest == null)
-        _digest = MessageDigest.getInstance(HashManager.HASH_ALGORITHM);
+        _digest = HashManager.createDigest(algorithm);
     } catch (Exception e) {
       throw new RuntimeException(e);
     }
@@ -107,8 +119,10 @@ public class DigestOutputStream extends OutputStream {
     if (digest != null) {
       _hash = digest.digest();
 
-      digest.reset();
-      _freeDigestList.free(digest);
+      if (_isFree) {
+        digest.reset();
+        _freeDigestList.free(digest);
+      }
     }
   }
 }
@@ -887,7 +887,21 @@ public class DistCacheEntry {
     loadMnodeValue(listener);
   }
 
+  /**
+   * Returns the object, using the value read by a bulk load when it
+   * belongs to the current mnode entry.
+   */
+  final Object get(MnodeEntry loadedEntry, Object loadedValue)
+  {
+    return get(CurrentTime.getCurrentTime(), loadedEntry, loadedValue);
+  }
+
   private Object get(long now)
+  {
+    return get(now, null, null);
+  }
+
+  private Object get(long now, MnodeEntry loadedEntry, Object loadedValue)
   {
     MnodeEntry mnodeEntry = loadMnodeValue(now, true);
 
@@ -912,11 +926,16 @@ public class DistCacheEntry {
     
     CacheConfig config = getConfig();
 
-    value = _cacheService.getLocalDataManager().readData(getKeyHash(),
-                                                         valueHash,
-                                                         mnodeEntry.getValueDataId(),
-                                                         config.getValueSerializer(),
-                                                         config);
+    if (loadedValue != null && loadedEntry == mnodeEntry) {
+      value = loadedValue;
+    }
+    else {
+      value = _cacheService.getLocalDataManager().readData(getKeyHash(),
+                                                           valueHash,
+                                                           mnodeEntry.getValueDataId(),
+                                                           config.getValueSerializer(),
+                                                           config);
+    }
     
     if (value == null) {
       // Recovery from dropped or corrupted data
@@ -1518,18 +1537,28 @@ public class DistCacheEntry {
       MnodeEntry newMnodeValue
         = _cacheService.getDataBacking().loadLocalEntryValue(key);
 
-      if (newMnodeValue == null) {
-        newMnodeValue = MnodeEntry.NULL;
-      }
-      
-      // cloud/6811
-      compareAndSetEntry(mnodeValue, newMnodeValue);
+      setLocalMnodeValue(mnodeValue, newMnodeValue);
 
       mnodeValue = getMnodeEntry();
     }
 
     return mnodeValue;
   }
+
+  /**
+   * Sets the value loaded from the local store, unless the entry has
+   * been updated since the load.
+   */
+  final void setLocalMnodeValue(MnodeEntry mnodeValue,
+                                MnodeEntry newMnodeValue)
+  {
+    if (newMnodeValue == null) {
+      newMnodeValue = MnodeEntry.NULL;
+    }
+      
+    // cloud/6811
+    compareAndSetEntry(mnodeValue, newMnodeValue);
+  }
   
   public void updateModifiedTime()
   {
@@ -39,6 +39,10 @@ public class HashManager {
   public static final int SIZE = 32;
   public static final String HASH_ALGORITHM = "SHA-256";
   
+  // non-cryptographic hashes for caches without untrusted keys
+  public static final String MURMUR3_128 = "MURMUR3-128";
+  public static final String MURMUR3_256 = "MURMUR3-256";
+  
   public static final HashKey NULL = new HashKey(new byte[SIZE]);
   
   private MessageDigest _digest;
@@ -47,14 +51,47 @@ public class HashManager {
    * Creates the manager
    */
   public HashManager()
+  {
+    this(HASH_ALGORITHM);
+  }
+
+  /**
+   * Creates the manager with the given hash algorithm
+   */
+  public HashManager(String algorithm)
   {
     try {
-      _digest = MessageDigest.getInstance(HASH_ALGORITHM);
+      _digest = createDigest(algorithm);
     } catch (Exception e) {
       throw new RuntimeException(e);
     }
   }
 
+  /**
+   * Returns true for a supported hash algorithm.
+   */
+  public static boolean isSupported(String algorithm)
+  {
+    return (HASH_ALGORITHM.equals(algorithm)
+            || MURMUR3_128.equals(algorithm)
+            || MURMUR3_256.equals(algorithm));
+  }
+
+  /**
+   * Creates a digest for the algorithm, including the non-cryptographic
+   * hashes, which are not registered as security providers.
+   */
+  public static MessageDigest createDigest(String algorithm)
+    throws NoSuchAlgorithmException
+  {
+    if (MURMUR3_128.equals(algorithm))
+      return new Murmur3Digest(false);
+    else if (MURMUR3_256.equals(algorithm))
+      return new Murmur3Digest(true);
+    else
+      return MessageDigest.getInstance(algorithm);
+  }
+
   /**
    * Generates a hash from a string
    */
@@ -34,6 +34,8 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.sql.Blob;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -219,6 +221,48 @@ public final class LocalDataManager
     }
   }
 
+  /**
+   * Reads and decodes a group of values in a single database pass.
+   *
+   * @return the values in the order of the ids, with null for values
+   * which couldn't be loaded
+   */
+  final protected Object []readDataAll(ArrayList<Long> valueDataIds,
+                                       CacheSerializer serializer)
+  {
+    Object []values = new Object[valueDataIds.size()];
+    
+    Map<Long,TempOutputStream> dataMap
+      = getDataBacking().loadDataAll(valueDataIds);
+    
+    try {
+      for (int i = 0; i < values.length; i++) {
+        TempOutputStream os = dataMap.get(valueDataIds.get(i));
+        
+        if (os == null)
+          continue;
+        
+        try {
+          InputStream is = os.openInputStreamNoFree();
+
+          try {
+            values[i] = serializer.deserialize(is);
+          } finally {
+            is.close();
+          }
+        } catch (Exception e) {
+          log.log(Level.WARNING, e.toString(), e);
+        }
+      }
+    } finally {
+      for (TempOutputStream os : dataMap.values()) {
+        os.destroy();
+      }
+    }
+    
+    return values;
+  }
+
   final protected Object decodeValue(InputStream is,
                                      CacheSerializer serializer)
   {
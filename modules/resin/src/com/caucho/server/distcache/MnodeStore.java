@@ -35,6 +35,7 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
@@ -551,33 +552,7 @@ public class MnodeStore {
       rs = pstmt.executeQuery();
 
       if (rs.next()) {
-        long valueHash = rs.getLong(1);
-        long valueDataId = rs.getLong(2);
-        long valueLength = rs.getLong(3);
-
-        byte []cacheHash = rs.getBytes(4);
-        long flags = rs.getLong(5);
-        long itemVersion = rs.getLong(6);
-        long serverVersion = rs.getLong(7);
-        long accessedExpireTimeout = rs.getLong(8);
-        long modifiedExpireTimeout = rs.getLong(9);
-        long accessTime = rs.getLong(10);
-        long modifiedTime = rs.getLong(11);
-        // long accessTime = CurrentTime.getCurrentTime();
-
-        long leaseTimeout = 300000;
-
-        MnodeEntry entry;
-        entry = new MnodeEntry(valueHash, valueLength,
-                               itemVersion,
-                               flags,
-                               accessedExpireTimeout, modifiedExpireTimeout,
-                               leaseTimeout,
-                               valueDataId,
-                               null,
-                               accessTime, modifiedTime,
-                               serverVersion == _serverVersion,
-                               false);
+        MnodeEntry entry = readEntry(rs);
 
         if (log.isLoggable(Level.FINER))
           log.finer(this + " load " + id + " " + entry);
@@ -601,6 +576,86 @@ public class MnodeStore {
     return null;
   }
 
+  /**
+   * Reads a group of objects from the data store, reusing a single
+   * connection and prepared statement for the group.
+   *
+   * @param ids the hash identifiers for the data
+   * @return the loaded entries, missing keys are not in the map
+   */
+  public HashMap<HashKey,MnodeEntry> loadAll(ArrayList<HashKey> ids)
+  {
+    HashMap<HashKey,MnodeEntry> entryMap = new HashMap<HashKey,MnodeEntry>();
+
+    CacheMapConnection conn = null;
+
+    try {
+      conn = getConnection();
+
+      PreparedStatement pstmt = conn.prepareLoad();
+
+      for (int i = 0; i < ids.size(); i++) {
+        HashKey id = ids.get(i);
+
+        pstmt.setBytes(1, id.getHash());
+
+        ResultSet rs = pstmt.executeQuery();
+
+        try {
+          if (rs.next()) {
+            entryMap.put(id, readEntry(rs));
+          }
+        } finally {
+          rs.close();
+        }
+      }
+
+      if (log.isLoggable(Level.FINER))
+        log.finer(this + " loadAll " + ids.size() + " -> " + entryMap.size());
+    } catch (SQLException e) {
+      log.log(Level.FINE, e.toString(), e);
+    } finally {
+      if (conn != null)
+        conn.close();
+    }
+
+    return entryMap;
+  }
+
+  private MnodeEntry readEntry(ResultSet rs)
+    throws SQLException
+  {
+    long valueHash = rs.getLong(1);
+    long valueDataId = rs.getLong(2);
+    long valueLength = rs.getLong(3);
+
+    byte []cacheHash = rs.getBytes(4);
+    long flags = rs.getLong(5);
+    long itemVersion = rs.getLong(6);
+    long serverVersion = rs.getLong(7);
+    long accessedExpireTimeout = rs.getLong(8);
+    long modifiedExpireTimeout = rs.getLong(9);
+    long accessTime = rs.getLong(10);
+    long modifiedTime = rs.getLong(11);
+    // long accessTime = CurrentTime.getCurrentTime();
+
+    long leaseTimeout = 300000;
+
+    MnodeEntry entry;
+    entry = new MnodeEntry(valueHash, valueLength,
+                           itemVersion,
+                           flags,
+                           accessedExpireTimeout, modifiedExpireTimeout,
+                           leaseTimeout,
+                           valueDataId,
+                           null,
+                           accessTime, modifiedTime,
+                           serverVersion == _serverVersion,
+                           false);
+
+    return entry;
+  }
+
   /**
    * Returns the maximum update time on startup
    */
@@ -0,0 +1,293 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+package com.caucho.server.distcache;
+
+import java.security.MessageDigest;
+
+/**
+ * MurmurHash3 x64 128-bit as a MessageDigest, for caches whose keys
+ * don't need a cryptographic hash.
+ *
+ * The digest is always HashManager.SIZE bytes so the keys fit the
+ * existing stores.  The 128-bit form widens the hash by remixing its
+ * two halves; the 256-bit form runs a second, differently-seeded lane
+ * over the same blocks.
+ */
+final class Murmur3Digest extends MessageDigest {
+  private static final long C1 = 0x87c37b91114253d5L;
+  private static final long C2 = 0x4cf5ad432745937fL;
+
+  private static final long SEED_WIDE = 0x9e3779b97f4a7c15L;
+
+  private final boolean _isWide;
+
+  private final byte []_buffer = new byte[16];
+  private int _bufferLength;
+
+  private long _length;
+
+  private long _h1;
+  private long _h2;
+  private long _h3;
+  private long _h4;
+
+  Murmur3Digest(boolean isWide)
+  {
+    super(isWide ? HashManager.MURMUR3_256 : HashManager.MURMUR3_128);
+
+    _isWide = isWide;
+
+    engineReset();
+  }
+
+  @Override
+  protected int engineGetDigestLength()
+  {
+    return HashManager.SIZE;
+  }
+
+  @Override
+  protected void engineReset()
+  {
+    _bufferLength = 0;
+    _length = 0;
+
+    _h1 = 0;
+    _h2 = 0;
+    _h3 = SEED_WIDE;
+    _h4 = SEED_WIDE;
+  }
+
+  @Override
+  protected void engineUpdate(byte input)
+  {
+    _buffer[_bufferLength++] = input;
+    _length++;
+
+    if (_bufferLength == 16) {
+      block(_buffer, 0);
+      _bufferLength = 0;
+    }
+  }
+
+  @Override
+  protected void engineUpdate(byte []input, int offset, int length)
+  {
+    _length += length;
+
+    if (_bufferLength > 0) {
+      int sublen = Math.min(16 - _bufferLength, length);
+
+      System.arraycopy(input, offset, _buffer, _bufferLength, sublen);
+
+      _bufferLength += sublen;
+      offset += sublen;
+      length -= sublen;
+
+      if (_bufferLength < 16)
+        return;
+
+      block(_buffer, 0);
+      _bufferLength = 0;
+    }
+
+    for (; length >= 16; length -= 16) {
+      block(input, offset);
+      offset += 16;
+    }
+
+    if (length > 0) {
+      System.arraycopy(input, offset, _buffer, 0, length);
+      _bufferLength = length;
+    }
+  }
+
+  private void block(byte []buffer, int offset)
+  {
+    long k1 = getLong(buffer, offset);
+    long k2 = getLong(buffer, offset + 8);
+
+    long h1 = _h1;
+    long h2 = _h2;
+
+    h1 ^= mixK1(k1);
+    h1 = Long.rotateLeft(h1, 27) + h2;
+    h1 = h1 * 5 + 0x52dce729;
+
+    h2 ^= mixK2(k2);
+    h2 = Long.rotateLeft(h2, 31) + h1;
+    h2 = h2 * 5 + 0x38495ab5;
+
+    _h1 = h1;
+    _h2 = h2;
+
+    if (_isWide) {
+      long h3 = _h3;
+      long h4 = _h4;
+
+      h3 ^= mixK1(k1);
+      h3 = Long.rotateLeft(h3, 27) + h4;
+      h3 = h3 * 5 + 0x52dce729;
+
+      h4 ^= mixK2(k2);
+      h4 = Long.rotateLeft(h4, 31) + h3;
+      h4 = h4 * 5 + 0x38495ab5;
+
+      _h3 = h3;
+      _h4 = h4;
+    }
+  }
+
+  @Override
+  protected byte []engineDigest()
+  {
+    long k1 = 0;
+    long k2 = 0;
+
+    byte []buffer = _buffer;
+    int tail = _bufferLength;
+
+    for (int i = tail - 1; i >= 8; i--) {
+      k2 = (k2 << 8) | (buffer[i] & 0xffL);
+    }
+
+    for (int i = Math.min(tail, 8) - 1; i >= 0; i--) {
+      k1 = (k1 << 8) | (buffer[i] & 0xffL);
+    }
+
+    byte []digest = new byte[HashManager.SIZE];
+
+    long h1 = _h1;
+    long h2 = _h2;
+
+    if (tail > 8)
+      h2 ^= mixK2(k2);
+    if (tail > 0)
+      h1 ^= mixK1(k1);
+
+    h1 ^= _length;
+    h2 ^= _length;
+
+    h1 += h2;
+    h2 += h1;
+
+    h1 = fmix(h1);
+    h2 = fmix(h2);
+
+    h1 += h2;
+    h2 += h1;
+
+    long h3;
+    long h4;
+
+    if (_isWide) {
+      h3 = _h3;
+      h4 = _h4;
+
+      if (tail > 8)
+        h4 ^= mixK2(k2);
+      if (tail > 0)
+        h3 ^= mixK1(k1);
+
+      h3 ^= _length;
+      h4 ^= _length;
+
+      h3 += h4;
+      h4 += h3;
+
+      h3 = fmix(h3);
+      h4 = fmix(h4);
+
+      h3 += h4;
+      h4 += h3;
+    }
+    else {
+      h3 = fmix(h1 ^ SEED_WIDE);
+      h4 = fmix(h2 ^ SEED_WIDE);
+    }
+
+    putLong(digest, 0, h1);
+    putLong(digest, 8, h2);
+    putLong(digest, 16, h3);
+    putLong(digest, 24, h4);
+
+    engineReset();
+
+    return digest;
+  }
+
+  private static long mixK1(long k1)
+  {
+    k1 *= C1;
+    k1 = Long.rotateLeft(k1, 31);
+    k1 *= C2;
+
+    return k1;
+  }
+
+  private static long mixK2(long k2)
+  {
+    k2 *= C2;
+    k2 = Long.rotateLeft(k2, 33);
+    k2 *= C1;
+
+    return k2;
+  }
+
+  private static long fmix(long k)
+  {
+    k ^= k >>> 33;
+    k *= 0xff51afd7ed558ccdL;
+    k ^= k >>> 33;
+    k *= 0xc4ceb9fe1a85ec53L;
+    k ^= k >>> 33;
+
+    return k;
+  }
+
+  private static long getLong(byte []buffer, int offset)
+  {
+    return ((buffer[offset] & 0xffL)
+            | ((buffer[offset + 1] & 0xffL) << 8)
+            | ((buffer[offset + 2] & 0xffL) << 16)
+            | ((buffer[offset + 3] & 0xffL) << 24)
+            | ((buffer[offset + 4] & 0xffL) << 32)
+            | ((buffer[offset + 5] & 0xffL) << 40)
+            | ((buffer[offset + 6] & 0xffL) << 48)
+            | ((buffer[offset + 7] & 0xffL) << 56));
+  }
+
+  private static void putLong(byte []buffer, int offset, long value)
+  {
+    for (int i = 0; i < 8; i++) {
+      buffer[offset + i] = (byte) (value >> (8 * i));
+    }
+  }
+}
@@ -33,6 +33,7 @@ import javax.annotation.PostConstruct;
 import javax.sql.DataSource;
 
 import com.caucho.config.ConfigException;
+import com.caucho.config.types.Bytes;
 import com.caucho.config.types.Period;
 import com.caucho.db.block.BlockManager;
 import com.caucho.distcache.jdbc.JdbcCacheBacking;
@@ -152,6 +153,15 @@ public class PersistentStoreConfig
     BlockManager.getBlockManager().setEnableMmap(isEnable);
   }
 
+  /**
+   * Sets the size of the off-heap block cache, which is sized
+   * independently of the JVM heap.
+   */
+  public void setOffHeapMemorySize(Bytes size)
+  {
+    BlockManager.create().setOffHeapMemorySize(size.getBytes());
+  }
+
   public PersistentStoreConfig createInit()
   {
     return this;
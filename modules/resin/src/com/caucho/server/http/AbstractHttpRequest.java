@@ -1709,6 +1709,14 @@ public abstract class AbstractHttpRequest extends AbstractProtocolConnection
     throw new UnsupportedOperationException();
   }
 
+  /**
+   * Returns true if the connection can be upgraded to duplex mode.
+   */
+  public boolean isDuplexSupported()
+  {
+    return true;
+  }
+
   /**
    * Starts duplex mode.
    */
@@ -30,6 +30,7 @@
 package com.caucho.server.http;
 
 import java.io.IOException;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -37,6 +38,7 @@ import java.util.logging.Logger;
 import com.caucho.server.webapp.WebApp;
 import com.caucho.util.L10N;
 import com.caucho.vfs.Path;
+import com.caucho.vfs.ReadStream;
 import com.caucho.vfs.SendfileOutputStream;
 import com.caucho.vfs.WriteStream;
 
@@ -330,10 +332,19 @@ public class HttpResponseStream
     return _nextStream.isSendfileEnabled();
   }
 
+  @Override
+  public boolean isTransferToEnabled()
+  {
+    return _nextStream.isTransferToEnabled();
+  }
+
   /**
-   * Sends a file.
+   * Sends a file.  Whole files use sendfile when the JNI socket supports
+   * it.  Otherwise, NIO sockets use FileChannel.transferTo, which also
+   * handles byte ranges.
    *
    * @param path the path to the file
+   * @param offset the starting offset in the file
    * @param length the length of the file (-1 if unknown)
    */
   @Override
@@ -342,18 +353,87 @@ public class HttpResponseStream
   {
     AbstractHttpRequest request = _response.getRequest();
     WebApp webApp = request.getWebApp();
-    
-    if (! isSendfileEnabled()
-        || ! webApp.isSendfileEnabled()
-        || (request.getResponseFacade().isCaching()
-            && length < webApp.getSendfileMinLength())) {
-      path.writeToStream(this);
+    boolean isCaching = request.getResponseFacade().isCaching();
+
+    if (! webApp.isSendfileEnabled()) {
+    }
+    else if (isSendfileEnabled()
+             && offset == 0
+             && length == path.getLength()
+             && ! (isCaching && length < webApp.getSendfileMinLength())) {
+      webApp.addSendfileCount();
+
+      path.sendfile(this, offset, length);
       return;
     }
-    
-    webApp.addSendfileCount();
-    
-    path.sendfile(this, offset, length);
+    else if (isTransferToEnabled()
+             && ! isCaching
+             && length > 0
+             && transferTo(path, offset, length)) {
+      webApp.addTransferTo(length);
+      return;
+    }
+
+    if (offset == 0 && (length < 0 || length == path.getLength()))
+      path.writeToStream(this);
+    else
+      writeRange(path, offset, length);
+  }
+
+  /**
+   * Writes the file region with FileChannel.transferTo.
+   *
+   * @return false if the response can't use transferTo, e.g. because it
+   *   uses chunked encoding
+   */
+  private boolean transferTo(Path path, long offset, long length)
+    throws IOException
+  {
+    FileChannel channel = path.openReadChannel();
+
+    if (channel == null)
+      return false;
+
+    try {
+      // commits the headers, which determines the chunked encoding
+      flushBuffer();
+
+      if (_isChunkedEncoding || isHead() || isClosed())
+        return false;
+
+      if (log.isLoggable(Level.FINER))
+        log.finer(dbgId() + "transfer-to(" + path + "," + offset
+                  + "," + length + ")");
+
+      writeTransferTo(channel, offset, length);
+
+      return true;
+    } finally {
+      channel.close();
+    }
+  }
+
+  /**
+   * Copies a file region through the response buffer.
+   */
+  private void writeRange(Path path, long offset, long length)
+    throws IOException
+  {
+    ReadStream is = path.openRead();
+
+    try {
+      is.skip(offset);
+
+      while (length > 0) {
+        int sublen = (int) Math.min(length, Integer.MAX_VALUE);
+
+        is.writeToStream(this, sublen);
+
+        length -= sublen;
+      }
+    } finally {
+      is.close();
+    }
   }
 
   /*
@@ -397,4 +477,18 @@ public class HttpResponseStream
     
     _nextStream.writeSendfile(fileName, nameLength, fileLength);
   }
+
+  @Override
+  public void writeTransferTo(FileChannel channel,
+                              long fileOffset, long fileLength)
+    throws IOException
+  {
+    if (_isChunkedEncoding) {
+      throw new IllegalStateException(L.l("writeTransferTo cannot use chunked"));
+    }
+
+    flushBuffer();
+
+    _nextStream.writeTransferTo(channel, fileOffset, fileLength);
+  }
 }
@@ -1552,6 +1552,13 @@ public final class HttpServletRequestImpl extends AbstractCauchoRequest
     if (log.isLoggable(Level.FINE))
       log.fine(this + " upgrade HTTP to WebSocket " + listener);
     
+    // refuse before the response is modified, so the error page can
+    // still be sent
+    if (! _request.isDuplexSupported()) {
+      throw new IOException(L.l("WebSocket upgrade is not supported on this connection, because an HTTP/2 stream cannot be upgraded.\n  remote-IP: {0}",
+                                getRemoteAddr()));
+    }
+    
     String method = getMethod();
     
     if (! "GET".equals(method)) {
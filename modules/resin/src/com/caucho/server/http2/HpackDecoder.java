@@ -0,0 +1,203 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free SoftwareFoundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+package com.caucho.server.http2;
+
+import java.io.IOException;
+
+import com.caucho.util.L10N;
+
+/**
+ * Decodes HPACK header blocks (RFC 7541).  A decoder belongs to a single
+ * connection and is only used by the connection's read thread.
+ */
+final class HpackDecoder {
+  private static final L10N L = new L10N(HpackDecoder.class);
+
+  private final HpackTable _table;
+  private final int _maxTableSize;
+  private final int _maxHeaderListSize;
+
+  private byte []_buffer;
+  private int _offset;
+  private int _end;
+
+  HpackDecoder(int maxTableSize, int maxHeaderListSize)
+  {
+    _maxTableSize = maxTableSize;
+    _maxHeaderListSize = maxHeaderListSize;
+
+    _table = new HpackTable(maxTableSize);
+  }
+
+  /**
+   * Decodes a complete header block, adding the headers to the stream.
+   */
+  void decode(byte []buffer, int offset, int length, Http2Stream stream)
+    throws IOException
+  {
+    _buffer = buffer;
+    _offset = offset;
+    _end = offset + length;
+
+    int listSize = 0;
+    boolean isHeaderSeen = false;
+
+    try {
+      while (_offset < _end) {
+        int ch = buffer[_offset] & 0xff;
+
+        String name;
+        String value;
+
+        if ((ch & 0x80) != 0) {
+          // 6.1 indexed header field
+          int index = readInt(7);
+
+          if (! _table.isValid(index))
+            throw new IOException(L.l("invalid HPACK index {0}", index));
+
+          name = _table.getName(index);
+          value = _table.getValue(index);
+        }
+        else if ((ch & 0x40) != 0) {
+          // 6.2.1 literal with incremental indexing
+          name = readName(6);
+          value = readString();
+
+          _table.add(name, value);
+        }
+        else if ((ch & 0x20) != 0) {
+          // 6.3 dynamic table size update, only before the first header
+          if (isHeaderSeen)
+            throw new IOException(L.l("HPACK table size update after header"));
+
+          int size = readInt(5);
+
+          if (_maxTableSize < size)
+            throw new IOException(L.l("HPACK table size {0} exceeds {1}",
+                                      size, _maxTableSize));
+
+          _table.setMaxSize(size);
+          continue;
+        }
+        else {
+          // 6.2.2 literal without indexing, 6.2.3 never indexed
+          name = readName(4);
+          value = readString();
+        }
+
+        isHeaderSeen = true;
+
+        listSize += name.length() + value.length() + 32;
+
+        if (_maxHeaderListSize < listSize)
+          throw new IOException(L.l("HTTP/2 header list exceeds {0}",
+                                    _maxHeaderListSize));
+
+        stream.addHeader(name, value);
+      }
+    } finally {
+      _buffer = null;
+    }
+  }
+
+  private String readName(int prefix)
+    throws IOException
+  {
+    int index = readInt(prefix);
+
+    if (index == 0)
+      return readString();
+    else if (_table.isValid(index))
+      return _table.getName(index);
+    else
+      throw new IOException(L.l("invalid HPACK index {0}", index));
+  }
+
+  private String readString()
+    throws IOException
+  {
+    if (_end <= _offset)
+      throw new IOException(L.l("truncated HPACK string"));
+
+    boolean isHuffman = (_buffer[_offset] & 0x80) != 0;
+
+    int length = readInt(7);
+
+    if (length < 0 || _end - _offset < length)
+      throw new IOException(L.l("truncated HPACK string"));
+
+    int offset = _offset;
+    _offset += length;
+
+    if (isHuffman)
+      return HpackHuffman.decode(_buffer, offset, length);
+
+    char []chars = new char[length];
+
+    for (int i = 0; i < length; i++) {
+      chars[i] = (char) (_buffer[offset + i] & 0xff);
+    }
+
+    return new String(chars);
+  }
+
+  /**
+   * Reads a prefixed integer (RFC 7541 5.1).
+   */
+  private int readInt(int prefix)
+    throws IOException
+  {
+    int mask = (1 << prefix) - 1;
+
+    int value = _buffer[_offset++] & mask;
+
+    if (value < mask)
+      return value;
+
+    int shift = 0;
+    int ch;
+
+    do {
+      if (_end <= _offset || 28 < shift)
+        throw new IOException(L.l("invalid HPACK integer"));
+
+      ch = _buffer[_offset++] & 0xff;
+
+      value += (ch & 0x7f) << shift;
+      shift += 7;
+    } while ((ch & 0x80) != 0);
+
+    if (value < 0)
+      throw new IOException(L.l("invalid HPACK integer"));
+
+    return value;
+  }
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free SoftwareFoundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+package com.caucho.server.http2;
+
+/**
+ * Encodes HPACK header blocks (RFC 7541).
+ *
+ * The encoder uses static table references and literals without
+ * indexing, so it never changes the peer's dynamic table.  Callers
+ * serialize encoding and frame writing on the connection write lock.
+ */
+final class HpackEncoder {
+  private byte []_buffer = new byte[1024];
+  private int _length;
+
+  /**
+   * Clears the encoder for a new header block.
+   */
+  void clear()
+  {
+    _length = 0;
+  }
+
+  byte []getBuffer()
+  {
+    return _buffer;
+  }
+
+  int getLength()
+  {
+    return _length;
+  }
+
+  /**
+   * Adds a header.  The name must already be lower case.
+   */
+  void addHeader(String name, String value)
+  {
+    ensureCapacity(2 * (name.length() + value.length()) + 16);
+
+    int index = HpackTable.findStaticEntry(name, value);
+
+    if (index > 0) {
+      // 6.1 indexed header field
+      writeInt(0x80, 7, index);
+      return;
+    }
+
+    index = HpackTable.findStaticName(name);
+
+    // 6.2.2 literal without indexing
+    if (index > 0) {
+      writeInt(0x00, 4, index);
+    }
+    else {
+      writeInt(0x00, 4, 0);
+      writeString(name);
+    }
+
+    writeString(value);
+  }
+
+  private void writeString(String value)
+  {
+    int length = value.length();
+    int huffmanLength = HpackHuffman.getEncodedLength(value);
+
+    if (huffmanLength < length) {
+      writeInt(0x80, 7, huffmanLength);
+      _length = HpackHuffman.encode(value, _buffer, _length);
+    }
+    else {
+      writeInt(0x00, 7, length);
+
+      byte []buffer = _buffer;
+      int offset = _length;
+
+      for (int i = 0; i < length; i++) {
+        buffer[offset + i] = (byte) value.charAt(i);
+      }
+
+      _length = offset + length;
+    }
+  }
+
+  /**
+   * Writes a prefixed integer (RFC 7541 5.1).
+   */
+  private void writeInt(int flags, int prefix, int value)
+  {
+    int mask = (1 << prefix) - 1;
+
+    if (value < mask) {
+      _buffer[_length++] = (byte) (flags | value);
+      return;
+    }
+
+    _buffer[_length++] = (byte) (flags | mask);
+    value -= mask;
+
+    while (value >= 0x80) {
+      _buffer[_length++] = (byte) (0x80 | (value & 0x7f));
+      value >>= 7;
+    }
+
+    _buffer[_length++] = (byte) value;
+  }
+
+  private void ensureCapacity(int length)
+  {
+    if (_buffer.length < _length + length) {
+      byte []buffer = new byte[2 * (_length + length)];
+
+      System.arraycopy(_buffer, 0, buffer, 0, _length);
+
+      _buffer = buffer;
+    }
+  }
+}
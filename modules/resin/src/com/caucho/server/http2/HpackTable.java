@@ -0,0 +1,242 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free SoftwareFoundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+package com.caucho.server.http2;
+
+import java.util.HashMap;
+
+/**
+ * HPACK header table: the static table (RFC 7541 appendix A) followed by
+ * the connection's dynamic table.
+ */
+final class HpackTable {
+  static final int STATIC_SIZE = 61;
+
+  // RFC 7541 4.1: each entry costs its name and value plus 32 octets
+  private static final int ENTRY_OVERHEAD = 32;
+
+  private static final String []STATIC_NAMES = {
+    null,
+    ":authority", ":method", ":method", ":path", ":path",
+    ":scheme", ":scheme", ":status", ":status", ":status",
+    ":status", ":status", ":status", ":status", "accept-charset",
+    "accept-encoding", "accept-language", "accept-ranges", "accept",
+    "access-control-allow-origin",
+    "age", "allow", "authorization", "cache-control", "content-disposition",
+    "content-encoding", "content-language", "content-length",
+    "content-location", "content-range",
+    "content-type", "cookie", "date", "etag", "expect",
+    "expires", "from", "host", "if-match", "if-modified-since",
+    "if-none-match", "if-range", "if-unmodified-since", "last-modified",
+    "link",
+    "location", "max-forwards", "proxy-authenticate", "proxy-authorization",
+    "range",
+    "referer", "refresh", "retry-after", "server", "set-cookie",
+    "strict-transport-security", "transfer-encoding", "user-agent", "vary",
+    "via",
+    "www-authenticate",
+  };
+
+  private static final String []STATIC_VALUES = {
+    null,
+    "", "GET", "POST", "/", "/index.html",
+    "http", "https", "200", "204", "206",
+    "304", "400", "404", "500", "",
+    "gzip, deflate", "", "", "", "",
+    "", "", "", "", "",
+    "", "", "", "", "",
+    "", "", "", "", "",
+    "", "", "", "", "",
+    "", "", "", "", "",
+    "", "", "", "", "",
+    "", "", "", "", "",
+    "", "", "", "", "",
+    "",
+  };
+
+  private static final HashMap<String,Integer> _staticNameMap
+    = new HashMap<String,Integer>();
+
+  private static final HashMap<String,Integer> _staticEntryMap
+    = new HashMap<String,Integer>();
+
+  // dynamic table ring, newest entry at _head
+  private String []_names = new String[16];
+  private String []_values = new String[16];
+  private int _head;
+  private int _count;
+
+  private int _size;
+  private int _maxSize;
+
+  HpackTable(int maxSize)
+  {
+    _maxSize = maxSize;
+  }
+
+  /**
+   * Returns the name for a 1-based table index.
+   */
+  String getName(int index)
+  {
+    if (index <= STATIC_SIZE)
+      return STATIC_NAMES[index];
+    else
+      return _names[getSlot(index)];
+  }
+
+  /**
+   * Returns the value for a 1-based table index.
+   */
+  String getValue(int index)
+  {
+    if (index <= STATIC_SIZE)
+      return STATIC_VALUES[index];
+    else
+      return _values[getSlot(index)];
+  }
+
+  /**
+   * Returns true if the index is a valid static or dynamic index.
+   */
+  boolean isValid(int index)
+  {
+    return 0 < index && index <= STATIC_SIZE + _count;
+  }
+
+  private int getSlot(int index)
+  {
+    int i = index - STATIC_SIZE - 1;
+
+    return (_head - i) & (_names.length - 1);
+  }
+
+  int getMaxSize()
+  {
+    return _maxSize;
+  }
+
+  /**
+   * Sets the table size, evicting entries as needed.
+   */
+  void setMaxSize(int maxSize)
+  {
+    _maxSize = maxSize;
+
+    evict(0);
+  }
+
+  /**
+   * Adds a new entry to the dynamic table.
+   */
+  void add(String name, String value)
+  {
+    int entrySize = name.length() + value.length() + ENTRY_OVERHEAD;
+
+    if (_maxSize < entrySize) {
+      // RFC 7541 4.4: an oversized entry empties the table
+      evict(_maxSize + 1);
+      return;
+    }
+
+    evict(entrySize);
+
+    if (_count == _names.length)
+      grow();
+
+    _head = (_head + 1) & (_names.length - 1);
+    _names[_head] = name;
+    _values[_head] = value;
+    _count++;
+    _size += entrySize;
+  }
+
+  private void evict(int entrySize)
+  {
+    while (_count > 0 && _maxSize < _size + entrySize) {
+      int slot = (_head - _count + 1) & (_names.length - 1);
+
+      _size -= (_names[slot].length() + _values[slot].length()
+                + ENTRY_OVERHEAD);
+
+      _names[slot] = null;
+      _values[slot] = null;
+      _count--;
+    }
+  }
+
+  private void grow()
+  {
+    int length = _names.length;
+
+    String []names = new String[2 * length];
+    String []values = new String[2 * length];
+
+    // copy oldest to newest, so the newest lands at _count - 1
+    for (int i = 0; i < _count; i++) {
+      int slot = (_head - _count + 1 + i) & (length - 1);
+
+      names[i] = _names[slot];
+      values[i] = _values[slot];
+    }
+
+    _names = names;
+    _values = values;
+    _head = _count - 1;
+  }
+
+  /**
+   * Returns the static index of an exact name and value match, or 0.
+   */
+  static int findStaticEntry(String name, String value)
+  {
+    Integer index = _staticEntryMap.get(name + '\0' + value);
+
+    return index != null ? index : 0;
+  }
+
+  /**
+   * Returns the first static index of a name match, or 0.
+   */
+  static int findStaticName(String name)
+  {
+    Integer index = _staticNameMap.get(name);
+
+    return index != null ? index : 0;
+  }
+
+  static {
+    for (int i = STATIC_SIZE; i > 0; i--) {
+      _staticNameMap.put(STATIC_NAMES[i], i);
+
+      if (! "".equals(STATIC_VALUES[i]))
+        _staticEntryMap.put(STATIC_NAMES[i] + '\0' + STATIC_VALUES[i], i);
+    }
+  }
+}
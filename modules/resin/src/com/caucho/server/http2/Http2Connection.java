@@ -0,0 +1,1462 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free SoftwareFoundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+package com.caucho.server.http2;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.caucho.env.thread.ThreadPool;
+import com.caucho.network.listen.AbstractProtocolConnection;
+import com.caucho.network.listen.SocketLink;
+import com.caucho.network.listen.TcpSocketLink;
+import com.caucho.server.http.HttpRequest;
+import com.caucho.util.Base64;
+import com.caucho.util.CurrentTime;
+import com.caucho.util.L10N;
+import com.caucho.vfs.ClientDisconnectException;
+import com.caucho.vfs.ReadStream;
+import com.caucho.vfs.WriteStream;
+
+/**
+ * Handles a single HTTP/2 connection.
+ *
+ * The connection detects the protocol from the first bytes: the HTTP/2
+ * connection preface selects HTTP/2 with prior knowledge, an HTTP/1.1
+ * request with "Upgrade: h2c" switches to HTTP/2, and anything else is
+ * handled by a plain HttpRequest.
+ *
+ * In HTTP/2 mode, the connection thread reads frames and dispatches each
+ * stream's request to the thread pool.  Request threads write frames
+ * through a shared write stream guarded by the write lock.
+ */
+class Http2Connection extends AbstractProtocolConnection {
+  private static final Logger log
+    = Logger.getLogger(Http2Connection.class.getName());
+  private static final L10N L = new L10N(Http2Connection.class);
+
+  static final byte []PREFACE
+    = "PRI * HTTP/2.0\r\n\r\nSM\r\n\r\n".getBytes();
+
+  // frame types
+  static final int DATA = 0x0;
+  static final int HEADERS = 0x1;
+  static final int PRIORITY = 0x2;
+  static final int RST_STREAM = 0x3;
+  static final int SETTINGS = 0x4;
+  static final int PUSH_PROMISE = 0x5;
+  static final int PING = 0x6;
+  static final int GOAWAY = 0x7;
+  static final int WINDOW_UPDATE = 0x8;
+  static final int CONTINUATION = 0x9;
+
+  // frame flags
+  static final int FLAG_END_STREAM = 0x1;
+  static final int FLAG_ACK = 0x1;
+  static final int FLAG_END_HEADERS = 0x4;
+  static final int FLAG_PADDED = 0x8;
+  static final int FLAG_PRIORITY = 0x20;
+
+  // settings
+  static final int SETTINGS_HEADER_TABLE_SIZE = 0x1;
+  static final int SETTINGS_ENABLE_PUSH = 0x2;
+  static final int SETTINGS_MAX_CONCURRENT_STREAMS = 0x3;
+  static final int SETTINGS_INITIAL_WINDOW_SIZE = 0x4;
+  static final int SETTINGS_MAX_FRAME_SIZE = 0x5;
+  static final int SETTINGS_MAX_HEADER_LIST_SIZE = 0x6;
+
+  // error codes
+  static final int NO_ERROR = 0x0;
+  static final int PROTOCOL_ERROR = 0x1;
+  static final int INTERNAL_ERROR = 0x2;
+  static final int FLOW_CONTROL_ERROR = 0x3;
+  static final int STREAM_CLOSED = 0x5;
+  static final int FRAME_SIZE_ERROR = 0x6;
+  static final int REFUSED_STREAM = 0x7;
+  static final int CANCEL = 0x8;
+  static final int COMPRESSION_ERROR = 0x9;
+  static final int ENHANCE_YOUR_CALM = 0xb;
+  static final int HTTP_1_1_REQUIRED = 0xd;
+
+  private static final int MODE_CLOSED = -1;
+  private static final int MODE_INIT = 0;
+  private static final int MODE_HTTP1 = 1;
+  private static final int MODE_HTTP2 = 2;
+  private static final int MODE_UPGRADE = 3;
+
+  private static final int WINDOW_MAX = Integer.MAX_VALUE;
+
+  // number of reads while detecting the protocol
+  private static final int DETECT_MAX = 8;
+  // wait between frame reads while streams are active
+  private static final long POLL_TIMEOUT = 1000L;
+
+  private static final byte []UPGRADE_RESPONSE
+    = ("HTTP/1.1 101 Switching Protocols\r\n"
+       + "Connection: Upgrade\r\n"
+       + "Upgrade: h2c\r\n"
+       + "\r\n").getBytes();
+
+  private final Http2Protocol _protocol;
+  private final TcpSocketLink _link;
+
+  // HTTP/1.1 requests on a connection which does not use HTTP/2
+  private final HttpRequest _http1;
+
+  private final ConcurrentHashMap<Integer,Http2Stream> _streamMap
+    = new ConcurrentHashMap<Integer,Http2Stream>();
+  private final AtomicInteger _activeCount = new AtomicInteger();
+
+  // connection receive window and the consumed bytes not yet credited
+  private final AtomicInteger _receiveWindow = new AtomicInteger();
+  private final AtomicInteger _receiveCredit = new AtomicInteger();
+
+  // frame writes from all streams
+  private final Object _writeLock = new Object();
+  private final WriteStream _os = new WriteStream();
+  private final HpackEncoder _encoder = new HpackEncoder();
+
+  // send windows of the connection and its streams
+  private final Object _windowLock = new Object();
+  private int _sendWindow;
+  private int _peerInitialWindow;
+  private volatile int _peerMaxFrameSize;
+
+  private int _mode;
+
+  // read thread state
+  private HpackDecoder _decoder;
+  private final byte []_frameHeader = new byte[9];
+  private byte []_payload = new byte[Http2Protocol.DEFAULT_FRAME_SIZE];
+
+  private boolean _isPrefaceRead;
+  private boolean _isSettingsRead;
+  private int _lastStreamId;
+  private boolean _isGoAwayReceived;
+
+  // header block collected from HEADERS and CONTINUATION frames
+  private Http2Stream _headerStream;
+  private boolean _isHeaderEndStream;
+  private boolean _isHeaderRefused;
+  private byte []_headerBlock = new byte[256];
+  private int _headerBlockLength;
+
+  private volatile boolean _isClosed;
+
+  Http2Connection(Http2Protocol protocol, SocketLink link)
+  {
+    _protocol = protocol;
+    _link = (TcpSocketLink) link;
+
+    _http1 = new HttpRequest(protocol.getServletSystem(), link);
+  }
+
+  TcpSocketLink getLink()
+  {
+    return _link;
+  }
+
+  /**
+   * Returns the receive window of each stream.
+   */
+  int getReceiveWindow()
+  {
+    return _protocol.getInitialWindowSize();
+  }
+
+  /**
+   * Returns the timeout for request body reads and flow-control waits.
+   */
+  long getReadTimeout()
+  {
+    return _protocol.getStreamTimeout();
+  }
+
+  @Override
+  public void init()
+  {
+    _http1.init();
+  }
+
+  @Override
+  public boolean isWaitForRead()
+  {
+    return true;
+  }
+
+  @Override
+  public void onAttachThread()
+  {
+    _http1.onAttachThread();
+  }
+
+  @Override
+  public void onDetachThread()
+  {
+    _http1.onDetachThread();
+  }
+
+  @Override
+  public void onStartConnection()
+  {
+    _mode = MODE_INIT;
+
+    _streamMap.clear();
+    _activeCount.set(0);
+
+    _receiveWindow.set(_protocol.getConnectionWindowSize());
+    _receiveCredit.set(0);
+
+    synchronized (_windowLock) {
+      _sendWindow = Http2Protocol.DEFAULT_WINDOW;
+      _peerInitialWindow = Http2Protocol.DEFAULT_WINDOW;
+    }
+
+    _peerMaxFrameSize = Http2Protocol.DEFAULT_FRAME_SIZE;
+
+    _decoder = new HpackDecoder(_protocol.getHeaderTableSize(),
+                                _protocol.getMaxHeaderListSize());
+
+    _isPrefaceRead = false;
+    _isSettingsRead = false;
+    _lastStreamId = 0;
+    _isGoAwayReceived = false;
+
+    _headerStream = null;
+    _headerBlockLength = 0;
+
+    _isClosed = false;
+
+    _http1.onStartConnection();
+  }
+
+  @Override
+  public String getProtocolRequestURL()
+  {
+    if (_mode == MODE_HTTP1)
+      return _http1.getProtocolRequestURL();
+    else
+      return null;
+  }
+
+  @Override
+  public boolean handleRequest()
+    throws IOException
+  {
+    if (_mode == MODE_INIT) {
+      _mode = detectMode();
+
+      if (_mode == MODE_CLOSED)
+        return false;
+      else if (_mode == MODE_UPGRADE) {
+        if (! upgrade())
+          _mode = MODE_HTTP1;
+      }
+      else if (_mode == MODE_HTTP2)
+        startHttp2();
+    }
+
+    if (_mode == MODE_HTTP1)
+      return _http1.handleRequest();
+
+    try {
+      return readFrames();
+    } catch (Http2ProtocolException e) {
+      log.log(Level.FINE, e.toString(), e);
+
+      writeGoAway(e.getErrorCode());
+
+      return false;
+    }
+  }
+
+  @Override
+  public boolean handleResume()
+    throws IOException
+  {
+    if (_mode == MODE_HTTP1)
+      return _http1.handleResume();
+    else
+      return false;
+  }
+
+  @Override
+  public void onCloseConnection()
+  {
+    _isClosed = true;
+
+    for (Http2Stream stream : _streamMap.values()) {
+      stream.onReset();
+    }
+
+    synchronized (_windowLock) {
+      _windowLock.notifyAll();
+    }
+
+    _http1.onCloseConnection();
+  }
+
+  //
+  // protocol detection
+  //
+
+  /**
+   * Peeks at the first bytes of the connection to select HTTP/2 with
+   * prior knowledge, an h2c upgrade or HTTP/1.1.
+   */
+  private int detectMode()
+    throws IOException
+  {
+    ReadStream rs = _link.getReadStream();
+
+    for (int i = 0; i < DETECT_MAX; i++) {
+      byte []buffer = rs.getBuffer();
+      int offset = rs.getOffset();
+      int length = rs.getLength() - offset;
+
+      if (isPrefacePrefix(buffer, offset, length)) {
+        if (PREFACE.length <= length)
+          return MODE_HTTP2;
+      }
+      else if (! _protocol.isUpgradeEnable())
+        return MODE_HTTP1;
+      else if (findHeaderEnd(buffer, offset, length) > 0)
+        return MODE_UPGRADE;
+      else if (length == buffer.length)
+        return MODE_HTTP1;
+
+      if (! rs.fillIfLive(_protocol.getStreamTimeout()))
+        return length > 0 ? MODE_HTTP1 : MODE_CLOSED;
+    }
+
+    return MODE_HTTP1;
+  }
+
+  private static boolean isPrefacePrefix(byte []buffer, int offset, int length)
+  {
+    int sublen = Math.min(length, PREFACE.length);
+
+    for (int i = 0; i < sublen; i++) {
+      if (buffer[offset + i] != PREFACE[i])
+        return false;
+    }
+
+    return true;
+  }
+
+  /**
+   * Returns the length of the HTTP/1.1 headers including the final CRLF,
+   * or -1 if the headers are incomplete.
+   */
+  private static int findHeaderEnd(byte []buffer, int offset, int length)
+  {
+    for (int i = 3; i < length; i++) {
+      if (buffer[offset + i] == '\n'
+          && buffer[offset + i - 1] == '\r'
+          && buffer[offset + i - 2] == '\n'
+          && buffer[offset + i - 3] == '\r') {
+        return i + 1;
+      }
+    }
+
+    return -1;
+  }
+
+  /**
+   * Handles an HTTP/1.1 request with "Upgrade: h2c".  The request becomes
+   * stream 1, which has no request body.
+   *
+   * @return false if the request is not a valid upgrade, in which case
+   *   it is handled as an HTTP/1.1 request.
+   */
+  private boolean upgrade()
+    throws IOException
+  {
+    ReadStream rs = _link.getReadStream();
+
+    byte []buffer = rs.getBuffer();
+    int offset = rs.getOffset();
+    int headerLength = findHeaderEnd(buffer, offset, rs.getLength() - offset);
+
+    String head = new String(buffer, offset, headerLength, "ISO-8859-1");
+    String []lines = head.split("\r\n");
+
+    String []requestLine = lines[0].split(" ");
+
+    if (requestLine.length != 3 || ! "HTTP/1.1".equals(requestLine[2]))
+      return false;
+
+    ArrayList<String> names = new ArrayList<String>();
+    ArrayList<String> values = new ArrayList<String>();
+
+    String upgrade = null;
+    String connection = null;
+    String settings = null;
+    String host = null;
+
+    for (int i = 1; i < lines.length; i++) {
+      String line = lines[i];
+      int p = line.indexOf(':');
+
+      if (p <= 0)
+        continue;
+
+      String name = line.substring(0, p).trim().toLowerCase();
+      String value = line.substring(p + 1).trim();
+
+      if (name.equals("upgrade"))
+        upgrade = value;
+      else if (name.equals("connection"))
+        connection = value;
+      else if (name.equals("http2-settings"))
+        settings = value;
+      else if (name.equals("host"))
+        host = value;
+      else if (name.equals("content-length")) {
+        if (! value.equals("0"))
+          return false;
+      }
+      else if (name.equals("transfer-encoding"))
+        return false;
+      else if (! name.equals("keep-alive")
+               && ! name.equals("proxy-connection")
+               && ! name.equals("te")) {
+        names.add(name);
+        values.add(value);
+      }
+    }
+
+    if (! hasToken(upgrade, "h2c")
+        || ! hasToken(connection, "upgrade")
+        || settings == null) {
+      return false;
+    }
+
+    byte []settingsPayload = decodeSettings(settings);
+
+    if (settingsPayload == null)
+      return false;
+
+    rs.setOffset(offset + headerLength);
+
+    try {
+      applySettings(settingsPayload, 0, settingsPayload.length);
+    } catch (Http2ProtocolException e) {
+      log.log(Level.FINER, e.toString(), e);
+
+      return false;
+    }
+
+    // writes the 101 response before the server preface
+    startHttp2();
+
+    Http2Stream stream = new Http2Stream(this, 1);
+    _lastStreamId = 1;
+
+    stream.addHeader(":method", requestLine[0]);
+    stream.addHeader(":scheme", "http");
+    stream.addHeader(":path", requestLine[1]);
+
+    if (host != null)
+      stream.addHeader(":authority", host);
+
+    for (int i = 0; i < names.size(); i++) {
+      stream.addHeader(names.get(i), values.get(i));
+    }
+
+    stream.onRemoteClose();
+
+    openStream(stream);
+    dispatch(stream);
+
+    return true;
+  }
+
+  private static boolean hasToken(String value, String token)
+  {
+    if (value == null)
+      return false;
+
+    for (String item : value.split(",")) {
+      if (item.trim().equalsIgnoreCase(token))
+        return true;
+    }
+
+    return false;
+  }
+
+  /**
+   * Decodes the base64url HTTP2-Settings header.
+   */
+  private static byte []decodeSettings(String value)
+  {
+    StringBuilder sb = new StringBuilder();
+
+    for (int i = 0; i < value.length(); i++) {
+      char ch = value.charAt(i);
+
+      if (ch == '-')
+        sb.append('+');
+      else if (ch == '_')
+        sb.append('/');
+      else if ('A' <= ch && ch <= 'Z' || 'a' <= ch && ch <= 'z'
+               || '0' <= ch && ch <= '9' || ch == '=')
+        sb.append(ch);
+      else
+        return null;
+    }
+
+    while (sb.length() % 4 != 0) {
+      sb.append('=');
+    }
+
+    byte []payload = Base64.decodeToByteArray(sb.toString());
+
+    if (payload.length % 6 != 0)
+      return null;
+
+    return payload;
+  }
+
+  /**
+   * Writes the server preface.
+   */
+  private void startHttp2()
+    throws IOException
+  {
+    boolean isUpgrade = _mode == MODE_UPGRADE;
+
+    _mode = MODE_HTTP2;
+
+    synchronized (_writeLock) {
+      WriteStream os = _os;
+
+      os.init(_link.getWriteStream().getSource());
+
+      if (isUpgrade)
+        os.write(UPGRADE_RESPONSE, 0, UPGRADE_RESPONSE.length);
+
+      writeFrameHeader(5 * 6, SETTINGS, 0, 0);
+      writeSetting(SETTINGS_MAX_CONCURRENT_STREAMS,
+                   _protocol.getMaxConcurrentStreams());
+      writeSetting(SETTINGS_INITIAL_WINDOW_SIZE,
+                   _protocol.getInitialWindowSize());
+      writeSetting(SETTINGS_MAX_FRAME_SIZE,
+                   _protocol.getMaxFrameSize());
+      writeSetting(SETTINGS_HEADER_TABLE_SIZE,
+                   _protocol.getHeaderTableSize());
+      writeSetting(SETTINGS_MAX_HEADER_LIST_SIZE,
+                   _protocol.getMaxHeaderListSize());
+
+      int credit = _protocol.getConnectionWindowSize()
+                   - Http2Protocol.DEFAULT_WINDOW;
+
+      if (credit > 0) {
+        writeFrameHeader(4, WINDOW_UPDATE, 0, 0);
+        writeInt(credit);
+      }
+
+      os.flush();
+    }
+  }
+
+  //
+  // frame reading
+  //
+
+  /**
+   * Reads frames until the connection is idle.
+   *
+   * @return true for a keepalive when no streams are active
+   */
+  private boolean readFrames()
+    throws IOException
+  {
+    ReadStream rs = _link.getReadStream();
+
+    if (! _isPrefaceRead) {
+      readPreface(rs);
+    }
+
+    while (true) {
+      if (rs.getLength() <= rs.getOffset()) {
+        if (_activeCount.get() == 0 && _headerStream == null) {
+          if (_isGoAwayReceived) {
+            writeGoAway(NO_ERROR);
+            return false;
+          }
+          else
+            return true;
+        }
+
+        if (! rs.fillIfLive(POLL_TIMEOUT))
+          return false;
+
+        continue;
+      }
+
+      readFrame(rs);
+    }
+  }
+
+  private void readPreface(ReadStream rs)
+    throws IOException
+  {
+    byte []buffer = new byte[PREFACE.length];
+
+    if (rs.readAll(buffer, 0, buffer.length) < buffer.length)
+      throw new EOFException(L.l("{0} unexpected end of file", this));
+
+    if (! isPrefacePrefix(buffer, 0, buffer.length))
+      throw new Http2ProtocolException(PROTOCOL_ERROR,
+                                       L.l("{0} invalid connection preface",
+                                           this));
+
+    _isPrefaceRead = true;
+  }
+
+  private void readFrame(ReadStream rs)
+    throws IOException
+  {
+    byte []header = _frameHeader;
+
+    if (rs.readAll(header, 0, header.length) < header.length)
+      throw new EOFException(L.l("{0} unexpected end of file", this));
+
+    int length = (((header[0] & 0xff) << 16)
+                  + ((header[1] & 0xff) << 8)
+                  + (header[2] & 0xff));
+    int type = header[3] & 0xff;
+    int flags = header[4] & 0xff;
+    int streamId = getInt(header, 5) & 0x7fffffff;
+
+    if (_protocol.getMaxFrameSize() < length)
+      throw error(FRAME_SIZE_ERROR, L.l("frame length {0} is too large",
+                                        length));
+
+    if (_payload.length < length)
+      _payload = new byte[length];
+
+    byte []payload = _payload;
+
+    if (length > 0 && rs.readAll(payload, 0, length) < length)
+      throw new EOFException(L.l("{0} unexpected end of file", this));
+
+    if (! _isSettingsRead) {
+      if (type != SETTINGS || (flags & FLAG_ACK) != 0)
+        throw error(PROTOCOL_ERROR, L.l("expected SETTINGS as the first frame"));
+
+      _isSettingsRead = true;
+    }
+
+    if (_headerStream != null && type != CONTINUATION)
+      throw error(PROTOCOL_ERROR, L.l("expected CONTINUATION frame"));
+
+    if (log.isLoggable(Level.FINEST)) {
+      log.finest(this + " read frame type=" + type + " flags=" + flags
+                 + " stream=" + streamId + " length=" + length);
+    }
+
+    switch (type) {
+    case DATA:
+      readData(streamId, flags, payload, length);
+      break;
+
+    case HEADERS:
+      readHeaders(streamId, flags, payload, length);
+      break;
+
+    case PRIORITY:
+      if (streamId == 0)
+        throw error(PROTOCOL_ERROR, L.l("PRIORITY on stream 0"));
+      if (length != 5)
+        throw error(FRAME_SIZE_ERROR, L.l("invalid PRIORITY length"));
+      break;
+
+    case RST_STREAM:
+      readRstStream(streamId, payload, length);
+      break;
+
+    case SETTINGS:
+      readSettings(streamId, flags, payload, length);
+      break;
+
+    case PUSH_PROMISE:
+      throw error(PROTOCOL_ERROR, L.l("PUSH_PROMISE from client"));
+
+    case PING:
+      readPing(streamId, flags, payload, length);
+      break;
+
+    case GOAWAY:
+      if (streamId != 0)
+        throw error(PROTOCOL_ERROR, L.l("GOAWAY on stream {0}", streamId));
+
+      _isGoAwayReceived = true;
+      break;
+
+    case WINDOW_UPDATE:
+      readWindowUpdate(streamId, payload, length);
+      break;
+
+    case CONTINUATION:
+      readContinuation(streamId, flags, payload, length);
+      break;
+
+    default:
+      // unknown frame types are ignored
+      break;
+    }
+  }
+
+  private void readData(int streamId, int flags,
+                        byte []payload, int length)
+    throws IOException
+  {
+    if (streamId == 0)
+      throw error(PROTOCOL_ERROR, L.l("DATA on stream 0"));
+
+    if (_receiveWindow.addAndGet(-length) < 0)
+      throw error(FLOW_CONTROL_ERROR,
+                  L.l("DATA exceeds the connection window"));
+
+    int offset = 0;
+    int padLength = 0;
+
+    if ((flags & FLAG_PADDED) != 0) {
+      if (length < 1)
+        throw error(PROTOCOL_ERROR, L.l("invalid DATA padding"));
+
+      padLength = payload[0] & 0xff;
+      offset = 1;
+
+      if (length < offset + padLength)
+        throw error(PROTOCOL_ERROR, L.l("invalid DATA padding"));
+    }
+
+    int dataLength = length - offset - padLength;
+
+    Http2Stream stream = _streamMap.get(streamId);
+
+    if (stream == null || stream.isRemoteClosed()) {
+      if (_lastStreamId < streamId)
+        throw error(PROTOCOL_ERROR, L.l("DATA on idle stream {0}", streamId));
+
+      // data for a completed or reset stream
+      creditConnection(length);
+
+      if (stream != null)
+        writeRstStream(streamId, STREAM_CLOSED);
+
+      return;
+    }
+
+    if (offset + padLength > 0) {
+      // padding is never read by the application
+      creditConnection(offset + padLength);
+      writeWindowUpdate(streamId, offset + padLength);
+    }
+
+    if (! stream.getInputStream().offer(payload, offset, dataLength)) {
+      creditConnection(dataLength);
+
+      if (_streamMap.get(streamId) == stream) {
+        stream.onReset();
+        writeRstStream(streamId, FLOW_CONTROL_ERROR);
+      }
+
+      return;
+    }
+
+    if ((flags & FLAG_END_STREAM) != 0)
+      stream.onRemoteClose();
+  }
+
+  private void readHeaders(int streamId, int flags,
+                           byte []payload, int length)
+    throws IOException
+  {
+    if (streamId == 0 || (streamId & 1) == 0)
+      throw error(PROTOCOL_ERROR, L.l("HEADERS on invalid stream {0}",
+                                      streamId));
+
+    int offset = 0;
+    int padLength = 0;
+
+    if ((flags & FLAG_PADDED) != 0) {
+      if (length < 1)
+        throw error(PROTOCOL_ERROR, L.l("invalid HEADERS padding"));
+
+      padLength = payload[0] & 0xff;
+      offset = 1;
+    }
+
+    if ((flags & FLAG_PRIORITY) != 0)
+      offset += 5;
+
+    if (length < offset + padLength)
+      throw error(PROTOCOL_ERROR, L.l("invalid HEADERS padding"));
+
+    Http2Stream stream;
+    boolean isRefused = false;
+
+    if (streamId <= _lastStreamId) {
+      // trailers, or headers for a closed stream, are decoded to keep
+      // the HPACK table in sync and then discarded
+      Http2Stream oldStream = _streamMap.get(streamId);
+
+      if (oldStream == null || oldStream.isRemoteClosed())
+        writeRstStream(streamId, STREAM_CLOSED);
+      else if ((flags & FLAG_END_STREAM) == 0)
+        throw error(PROTOCOL_ERROR, L.l("trailers without END_STREAM"));
+      else
+        oldStream.onRemoteClose();
+
+      stream = new Http2Stream(this, streamId);
+      isRefused = true;
+    }
+    else {
+      _lastStreamId = streamId;
+
+      stream = new Http2Stream(this, streamId);
+
+      if (_isGoAwayReceived
+          || _protocol.getMaxConcurrentStreams() <= _activeCount.get()) {
+        writeRstStream(streamId, REFUSED_STREAM);
+        isRefused = true;
+      }
+    }
+
+    _headerStream = stream;
+    _isHeaderEndStream = (flags & FLAG_END_STREAM) != 0;
+    _isHeaderRefused = isRefused;
+    _headerBlockLength = 0;
+
+    appendHeaderBlock(payload, offset, length - offset - padLength);
+
+    if ((flags & FLAG_END_HEADERS) != 0)
+      endHeaders();
+  }
+
+  private void readContinuation(int streamId, int flags,
+                                byte []payload, int length)
+    throws IOException
+  {
+    Http2Stream stream = _headerStream;
+
+    if (stream == null || stream.getId() != streamId)
+      throw error(PROTOCOL_ERROR, L.l("unexpected CONTINUATION"));
+
+    appendHeaderBlock(payload, 0, length);
+
+    if ((flags & FLAG_END_HEADERS) != 0)
+      endHeaders();
+  }
+
+  private void appendHeaderBlock(byte []buffer, int offset, int length)
+    throws IOException
+  {
+    int newLength = _headerBlockLength + length;
+
+    if (2 * _protocol.getMaxHeaderListSize() + _protocol.getMaxFrameSize()
+        < newLength) {
+      throw error(ENHANCE_YOUR_CALM, L.l("header block is too large"));
+    }
+
+    if (_headerBlock.length < newLength) {
+      byte []newBlock = new byte[Math.max(newLength, 2 * _headerBlock.length)];
+
+      System.arraycopy(_headerBlock, 0, newBlock, 0, _headerBlockLength);
+
+      _headerBlock = newBlock;
+    }
+
+    System.arraycopy(buffer, offset, _headerBlock, _headerBlockLength, length);
+
+    _headerBlockLength = newLength;
+  }
+
+  /**
+   * Decodes the completed header block and dispatches the new stream.
+   */
+  private void endHeaders()
+    throws IOException
+  {
+    Http2Stream stream = _headerStream;
+
+    _headerStream = null;
+
+    try {
+      _decoder.decode(_headerBlock, 0, _headerBlockLength, stream);
+    } catch (IOException e) {
+      throw new Http2ProtocolException(COMPRESSION_ERROR, e.toString(), e);
+    }
+
+    if (_isHeaderRefused)
+      return;
+
+    if (_isHeaderEndStream)
+      stream.onRemoteClose();
+
+    openStream(stream);
+    dispatch(stream);
+  }
+
+  private void openStream(Http2Stream stream)
+  {
+    synchronized (_windowLock) {
+      stream.setSendWindow(_peerInitialWindow);
+    }
+
+    _streamMap.put(stream.getId(), stream);
+  }
+
+  private void dispatch(Http2Stream stream)
+    throws IOException
+  {
+    _activeCount.incrementAndGet();
+
+    stream.setRequest(_protocol.allocateRequest());
+
+    if (! ThreadPool.getCurrent().schedule(stream)) {
+      log.warning(L.l("{0} unable to schedule request", stream));
+
+      stream.onReset();
+
+      writeRstStream(stream.getId(), REFUSED_STREAM);
+
+      onStreamComplete(stream, null);
+    }
+  }
+
+  private void readRstStream(int streamId, byte []payload, int length)
+    throws IOException
+  {
+    if (streamId == 0)
+      throw error(PROTOCOL_ERROR, L.l("RST_STREAM on stream 0"));
+
+    if (length != 4)
+      throw error(FRAME_SIZE_ERROR, L.l("invalid RST_STREAM length"));
+
+    if (_lastStreamId < streamId)
+      throw error(PROTOCOL_ERROR, L.l("RST_STREAM on idle stream {0}",
+                                      streamId));
+
+    Http2Stream stream = _streamMap.get(streamId);
+
+    if (stream != null) {
+      stream.onReset();
+
+      synchronized (_windowLock) {
+        _windowLock.notifyAll();
+      }
+    }
+  }
+
+  private void readSettings(int streamId, int flags,
+                            byte []payload, int length)
+    throws IOException
+  {
+    if (streamId != 0)
+      throw error(PROTOCOL_ERROR, L.l("SETTINGS on stream {0}", streamId));
+
+    if ((flags & FLAG_ACK) != 0) {
+      if (length != 0)
+        throw error(FRAME_SIZE_ERROR, L.l("invalid SETTINGS ack"));
+
+      return;
+    }
+
+    if (length % 6 != 0)
+      throw error(FRAME_SIZE_ERROR, L.l("invalid SETTINGS length"));
+
+    applySettings(payload, 0, length);
+
+    synchronized (_writeLock) {
+      writeFrameHeader(0, SETTINGS, FLAG_ACK, 0);
+      _os.flush();
+    }
+  }
+
+  private void applySettings(byte []payload, int offset, int length)
+    throws IOException
+  {
+    for (int i = 0; i < length; i += 6) {
+      int id = ((payload[offset + i] & 0xff) << 8) + (payload[offset + i + 1] & 0xff);
+      long value = getInt(payload, offset + i + 2) & 0xffffffffL;
+
+      switch (id) {
+      case SETTINGS_ENABLE_PUSH:
+        if (value > 1)
+          throw error(PROTOCOL_ERROR, L.l("invalid ENABLE_PUSH {0}", value));
+        break;
+
+      case SETTINGS_INITIAL_WINDOW_SIZE:
+        if (WINDOW_MAX < value)
+          throw error(FLOW_CONTROL_ERROR,
+                      L.l("invalid INITIAL_WINDOW_SIZE {0}", value));
+
+        updateInitialWindow((int) value);
+        break;
+
+      case SETTINGS_MAX_FRAME_SIZE:
+        if (value < Http2Protocol.DEFAULT_FRAME_SIZE
+            || Http2Protocol.FRAME_SIZE_MAX < value)
+          throw error(PROTOCOL_ERROR,
+                      L.l("invalid MAX_FRAME_SIZE {0}", value));
+
+        _peerMaxFrameSize = (int) value;
+        break;
+
+      default:
+        // the encoder does not use the dynamic table, and the server
+        // does not push, so the other settings are ignored
+        break;
+      }
+    }
+  }
+
+  /**
+   * Applies a new initial window to all open streams.
+   */
+  private void updateInitialWindow(int window)
+    throws IOException
+  {
+    synchronized (_windowLock) {
+      int delta = window - _peerInitialWindow;
+
+      _peerInitialWindow = window;
+
+      for (Http2Stream stream : _streamMap.values()) {
+        long newWindow = (long) stream.getSendWindow() + delta;
+
+        if (WINDOW_MAX < newWindow)
+          throw error(FLOW_CONTROL_ERROR,
+                      L.l("INITIAL_WINDOW_SIZE overflows {0}", stream));
+
+        stream.setSendWindow((int) newWindow);
+      }
+
+      _windowLock.notifyAll();
+    }
+  }
+
+  private void readPing(int streamId, int flags, byte []payload, int length)
+    throws IOException
+  {
+    if (streamId != 0)
+      throw error(PROTOCOL_ERROR, L.l("PING on stream {0}", streamId));
+
+    if (length != 8)
+      throw error(FRAME_SIZE_ERROR, L.l("invalid PING length"));
+
+    if ((flags & FLAG_ACK) != 0)
+      return;
+
+    synchronized (_writeLock) {
+      writeFrameHeader(8, PING, FLAG_ACK, 0);
+      _os.write(payload, 0, 8);
+      _os.flush();
+    }
+  }
+
+  private void readWindowUpdate(int streamId, byte []payload, int length)
+    throws IOException
+  {
+    if (length != 4)
+      throw error(FRAME_SIZE_ERROR, L.l("invalid WINDOW_UPDATE length"));
+
+    int increment = getInt(payload, 0) & 0x7fffffff;
+
+    if (streamId == 0) {
+      if (increment == 0)
+        throw error(PROTOCOL_ERROR, L.l("zero WINDOW_UPDATE"));
+
+      synchronized (_windowLock) {
+        if (WINDOW_MAX < (long) _sendWindow + increment)
+          throw error(FLOW_CONTROL_ERROR,
+                      L.l("WINDOW_UPDATE overflows the connection window"));
+
+        _sendWindow += increment;
+
+        _windowLock.notifyAll();
+      }
+
+      return;
+    }
+
+    if (_lastStreamId < streamId)
+      throw error(PROTOCOL_ERROR, L.l("WINDOW_UPDATE on idle stream {0}",
+                                      streamId));
+
+    Http2Stream stream = _streamMap.get(streamId);
+
+    if (stream == null)
+      return;
+
+    int errorCode = NO_ERROR;
+
+    synchronized (_windowLock) {
+      if (increment == 0)
+        errorCode = PROTOCOL_ERROR;
+      else if (WINDOW_MAX < (long) stream.getSendWindow() + increment)
+        errorCode = FLOW_CONTROL_ERROR;
+      else
+        stream.setSendWindow(stream.getSendWindow() + increment);
+
+      _windowLock.notifyAll();
+    }
+
+    if (errorCode != NO_ERROR) {
+      stream.onReset();
+      writeRstStream(streamId, errorCode);
+    }
+  }
+
+  //
+  // callbacks from the streams
+  //
+
+  /**
+   * Called when the application reads request data, returning the
+   * connection-level credit to the peer.
+   */
+  void onDataRead(int length)
+    throws IOException
+  {
+    creditConnection(length);
+  }
+
+  private void creditConnection(int length)
+    throws IOException
+  {
+    if (length <= 0)
+      return;
+
+    int credit = _receiveCredit.addAndGet(length);
+
+    if (credit < _protocol.getConnectionWindowSize() / 2)
+      return;
+
+    credit = _receiveCredit.getAndSet(0);
+
+    if (credit > 0) {
+      _receiveWindow.addAndGet(credit);
+
+      writeWindowUpdate(0, credit);
+    }
+  }
+
+  /**
+   * Reserves send window for a DATA frame, waiting for the peer's
+   * WINDOW_UPDATE if the stream or connection window is exhausted.
+   *
+   * @return the number of bytes which may be sent
+   */
+  int acquireSendWindow(Http2Stream stream, int length)
+    throws IOException
+  {
+    synchronized (_windowLock) {
+      long expires = CurrentTime.getCurrentTimeActual() + getReadTimeout();
+
+      while (true) {
+        if (stream.isReset() || _isClosed)
+          throw new ClientDisconnectException(L.l("{0} reset by peer",
+                                                  stream));
+
+        int window = Math.min(stream.getSendWindow(), _sendWindow);
+
+        if (window > 0) {
+          int sublen = Math.min(window, length);
+          sublen = Math.min(sublen, _peerMaxFrameSize);
+
+          stream.setSendWindow(stream.getSendWindow() - sublen);
+          _sendWindow -= sublen;
+
+          return sublen;
+        }
+
+        long delta = expires - CurrentTime.getCurrentTimeActual();
+
+        if (delta <= 0)
+          throw new SocketTimeoutException(L.l("{0} timed out waiting for WINDOW_UPDATE",
+                                               stream));
+
+        try {
+          _windowLock.wait(delta);
+        } catch (InterruptedException e) {
+          throw new InterruptedIOException(e.toString());
+        }
+      }
+    }
+  }
+
+  /**
+   * Writes HEADERS and any CONTINUATION frames for the response.
+   */
+  void writeHeaders(Http2Stream stream,
+                    ArrayList<String> names,
+                    ArrayList<String> values)
+    throws IOException
+  {
+    synchronized (_writeLock) {
+      HpackEncoder encoder = _encoder;
+
+      encoder.clear();
+
+      for (int i = 0; i < names.size(); i++) {
+        encoder.addHeader(names.get(i), values.get(i));
+      }
+
+      byte []buffer = encoder.getBuffer();
+      int length = encoder.getLength();
+      int frameMax = _peerMaxFrameSize;
+
+      int type = HEADERS;
+      int offset = 0;
+
+      do {
+        int sublen = Math.min(length - offset, frameMax);
+        int flags = offset + sublen == length ? FLAG_END_HEADERS : 0;
+
+        writeFrameHeader(sublen, type, flags, stream.getId());
+        _os.write(buffer, offset, sublen);
+
+        offset += sublen;
+        type = CONTINUATION;
+      } while (offset < length);
+    }
+  }
+
+  /**
+   * Writes a DATA frame.  The caller has reserved the send window.
+   */
+  void writeData(Http2Stream stream, byte []buffer, int offset, int length)
+    throws IOException
+  {
+    synchronized (_writeLock) {
+      if (stream.isReset())
+        throw new ClientDisconnectException(L.l("{0} reset by peer", stream));
+
+      writeFrameHeader(length, DATA, 0, stream.getId());
+      _os.write(buffer, offset, length);
+    }
+  }
+
+  /**
+   * Ends the response with an empty DATA frame.
+   */
+  void writeEndStream(Http2Stream stream)
+    throws IOException
+  {
+    synchronized (_writeLock) {
+      writeFrameHeader(0, DATA, FLAG_END_STREAM, stream.getId());
+      _os.flush();
+    }
+  }
+
+  void writeWindowUpdate(int streamId, int credit)
+    throws IOException
+  {
+    synchronized (_writeLock) {
+      writeFrameHeader(4, WINDOW_UPDATE, 0, streamId);
+      writeInt(credit);
+      _os.flush();
+    }
+  }
+
+  void flush()
+    throws IOException
+  {
+    synchronized (_writeLock) {
+      _os.flush();
+    }
+  }
+
+  /**
+   * Resets a stream from the server side.
+   */
+  void resetStream(Http2Stream stream, int errorCode)
+  {
+    stream.onReset();
+
+    if (_isClosed)
+      return;
+
+    try {
+      writeRstStream(stream.getId(), errorCode);
+    } catch (IOException e) {
+      log.log(Level.FINEST, e.toString(), e);
+    }
+  }
+
+  /**
+   * Called when the stream's request completes.
+   */
+  void onStreamComplete(Http2Stream stream, Http2Request request)
+  {
+    // remove before discarding, so late DATA frames are only credited
+    _streamMap.remove(stream.getId());
+
+    int discardLength = stream.getInputStream().discard();
+
+    try {
+      if (! stream.isRemoteClosed() && ! _isClosed)
+        writeRstStream(stream.getId(), NO_ERROR);
+
+      if (! _isClosed)
+        creditConnection(discardLength);
+    } catch (IOException e) {
+      log.log(Level.FINEST, e.toString(), e);
+    }
+
+    _activeCount.decrementAndGet();
+
+    if (request != null)
+      _protocol.freeRequest(request);
+  }
+
+  //
+  // frame writing
+  //
+
+  private void writeRstStream(int streamId, int errorCode)
+    throws IOException
+  {
+    synchronized (_writeLock) {
+      writeFrameHeader(4, RST_STREAM, 0, streamId);
+      writeInt(errorCode);
+      _os.flush();
+    }
+  }
+
+  private void writeGoAway(int errorCode)
+  {
+    try {
+      synchronized (_writeLock) {
+        writeFrameHeader(8, GOAWAY, 0, 0);
+        writeInt(_lastStreamId);
+        writeInt(errorCode);
+        _os.flush();
+      }
+    } catch (IOException e) {
+      log.log(Level.FINEST, e.toString(), e);
+    }
+  }
+
+  private void writeFrameHeader(int length, int type, int flags, int streamId)
+    throws IOException
+  {
+    WriteStream os = _os;
+
+    os.write(length >> 16);
+    os.write(length >> 8);
+    os.write(length);
+    os.write(type);
+    os.write(flags);
+    writeInt(streamId & 0x7fffffff);
+  }
+
+  private void writeSetting(int id, int value)
+    throws IOException
+  {
+    WriteStream os = _os;
+
+    os.write(id >> 8);
+    os.write(id);
+    writeInt(value);
+  }
+
+  private void writeInt(int value)
+    throws IOException
+  {
+    WriteStream os = _os;
+
+    os.write(value >> 24);
+    os.write(value >> 16);
+    os.write(value >> 8);
+    os.write(value);
+  }
+
+  private static int getInt(byte []buffer, int offset)
+  {
+    return (((buffer[offset] & 0xff) << 24)
+            + ((buffer[offset + 1] & 0xff) << 16)
+            + ((buffer[offset + 2] & 0xff) << 8)
+            + (buffer[offset + 3] & 0xff));
+  }
+
+  private Http2ProtocolException error(int errorCode, String msg)
+  {
+    return new Http2ProtocolException(errorCode, this + " " + msg);
+  }
+
+  @Override
+  public String toString()
+  {
+    return getClass().getSimpleName() + "[" + _link.getId() + "]";
+  }
+
+  /**
+   * A connection error, closing the connection with a GOAWAY.
+   */
+  static class Http2ProtocolException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    private final int _errorCode;
+
+    Http2ProtocolException(int errorCode, String msg)
+    {
+      super(msg);
+
+      _errorCode = errorCode;
+    }
+
+    Http2ProtocolException(int errorCode, String msg, Throwable cause)
+    {
+      super(msg);
+
+      initCause(cause);
+
+      _errorCode = errorCode;
+    }
+
+    int getErrorCode()
+    {
+      return _errorCode;
+    }
+  }
+}
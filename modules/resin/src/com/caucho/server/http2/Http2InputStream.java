@@ -0,0 +1,264 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free SoftwareFoundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+package com.caucho.server.http2;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+
+import com.caucho.util.CurrentTime;
+import com.caucho.vfs.ClientDisconnectException;
+import com.caucho.vfs.ReadStream;
+import com.caucho.vfs.StreamImpl;
+
+/**
+ * The request body of an HTTP/2 stream.  The connection's read thread
+ * offers DATA frame payloads and the request thread reads them.
+ *
+ * The buffer never holds more than the stream's receive window, because
+ * flow-control credit is only returned as the application reads.
+ */
+final class Http2InputStream extends StreamImpl {
+  private static final int INITIAL_CAPACITY = 4096;
+
+  private final Http2Stream _stream;
+  private final int _capacityMax;
+
+  private byte []_buffer;
+  private int _head;
+  private int _length;
+
+  private boolean _isEnd;
+  private boolean _isReset;
+
+  Http2InputStream(Http2Stream stream, int capacityMax)
+  {
+    _stream = stream;
+    _capacityMax = capacityMax;
+  }
+
+  /**
+   * Adds data from a DATA frame.
+   *
+   * @return false if the data exceeds the stream's receive window
+   */
+  synchronized boolean offer(byte []buffer, int offset, int length)
+  {
+    if (length == 0)
+      return true;
+
+    if (_isEnd || _isReset)
+      return false;
+
+    if (! ensureCapacity(_length + length))
+      return false;
+
+    byte []data = _buffer;
+    int capacity = data.length;
+    int tail = (_head + _length) % capacity;
+
+    int sublen = Math.min(length, capacity - tail);
+
+    System.arraycopy(buffer, offset, data, tail, sublen);
+
+    if (sublen < length)
+      System.arraycopy(buffer, offset + sublen, data, 0, length - sublen);
+
+    _length += length;
+
+    notifyAll();
+
+    return true;
+  }
+
+  private boolean ensureCapacity(int length)
+  {
+    if (_capacityMax < length)
+      return false;
+
+    byte []data = _buffer;
+
+    if (data != null && length <= data.length)
+      return true;
+
+    int capacity = data != null ? 2 * data.length : INITIAL_CAPACITY;
+
+    while (capacity < length) {
+      capacity *= 2;
+    }
+
+    byte []newData = new byte[Math.min(capacity, _capacityMax)];
+
+    if (data != null) {
+      for (int i = 0; i < _length; i++) {
+        newData[i] = data[(_head + i) % data.length];
+      }
+    }
+
+    _buffer = newData;
+    _head = 0;
+
+    return true;
+  }
+
+  /**
+   * The peer has sent END_STREAM.
+   */
+  synchronized void end()
+  {
+    _isEnd = true;
+
+    notifyAll();
+  }
+
+  /**
+   * The stream was reset.
+   */
+  synchronized void reset()
+  {
+    _isReset = true;
+
+    notifyAll();
+  }
+
+  /**
+   * Discards unread data, returning the discarded length so the
+   * connection window can be credited.
+   */
+  synchronized int discard()
+  {
+    int length = _length;
+
+    _length = 0;
+    _head = 0;
+    _isEnd = true;
+
+    return length;
+  }
+
+  @Override
+  public boolean canRead()
+  {
+    return true;
+  }
+
+  @Override
+  public int read(byte []buffer, int offset, int length)
+    throws IOException
+  {
+    long timeout = _stream.getConnection().getReadTimeout();
+
+    int sublen = readImpl(buffer, offset, length, timeout);
+
+    if (sublen == ReadStream.READ_TIMEOUT)
+      throw new SocketTimeoutException(_stream + " read timeout");
+
+    return sublen;
+  }
+
+  @Override
+  public int readTimeout(byte []buffer, int offset, int length,
+                         long timeout)
+    throws IOException
+  {
+    int sublen = readImpl(buffer, offset, length, timeout);
+
+    if (sublen == ReadStream.READ_TIMEOUT && timeout <= 0)
+      return 0;
+    else
+      return sublen;
+  }
+
+  private int readImpl(byte []buffer, int offset, int length, long timeout)
+    throws IOException
+  {
+    int sublen;
+
+    synchronized (this) {
+      long expires = CurrentTime.getCurrentTimeActual() + timeout;
+
+      while (_length == 0 && ! _isEnd && ! _isReset) {
+        long delta = expires - CurrentTime.getCurrentTimeActual();
+
+        if (delta <= 0)
+          return ReadStream.READ_TIMEOUT;
+
+        try {
+          wait(delta);
+        } catch (InterruptedException e) {
+          throw new InterruptedIOException(e.toString());
+        }
+      }
+
+      if (_isReset)
+        throw new ClientDisconnectException(_stream + " reset by peer");
+
+      if (_length == 0)
+        return -1;
+
+      byte []data = _buffer;
+      int capacity = data.length;
+
+      sublen = Math.min(length, _length);
+
+      int firstLen = Math.min(sublen, capacity - _head);
+
+      System.arraycopy(data, _head, buffer, offset, firstLen);
+
+      if (firstLen < sublen)
+        System.arraycopy(data, 0, buffer, offset + firstLen, sublen - firstLen);
+
+      _head = (_head + sublen) % capacity;
+      _length -= sublen;
+    }
+
+    _stream.onDataRead(sublen);
+
+    return sublen;
+  }
+
+  @Override
+  public synchronized int getAvailable()
+    throws IOException
+  {
+    if (_length > 0)
+      return _length;
+    else if (_isEnd || _isReset)
+      return -1;
+    else
+      return 0;
+  }
+
+  @Override
+  public String toString()
+  {
+    return getClass().getSimpleName() + "[" + _stream + "]";
+  }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free SoftwareFoundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+package com.caucho.server.http2;
+
+import java.io.IOException;
+
+import com.caucho.vfs.StreamImpl;
+
+/**
+ * The response body of an HTTP/2 stream, written as DATA frames within
+ * the peer's flow-control windows.
+ */
+final class Http2OutputStream extends StreamImpl {
+  private final Http2Stream _stream;
+
+  Http2OutputStream(Http2Stream stream)
+  {
+    _stream = stream;
+  }
+
+  @Override
+  public boolean canWrite()
+  {
+    return true;
+  }
+
+  @Override
+  public void write(byte []buffer, int offset, int length, boolean isEnd)
+    throws IOException
+  {
+    Http2Connection conn = _stream.getConnection();
+
+    while (length > 0) {
+      int sublen = conn.acquireSendWindow(_stream, length);
+
+      conn.writeData(_stream, buffer, offset, sublen);
+
+      offset += sublen;
+      length -= sublen;
+    }
+  }
+
+  @Override
+  public void flush()
+    throws IOException
+  {
+    _stream.getConnection().flush();
+  }
+
+  @Override
+  public String toString()
+  {
+    return getClass().getSimpleName() + "[" + _stream + "]";
+  }
+}
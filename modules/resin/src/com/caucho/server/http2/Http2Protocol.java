@@ -0,0 +1,227 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free SoftwareFoundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+package com.caucho.server.http2;
+
+import com.caucho.config.ConfigException;
+import com.caucho.config.types.Period;
+import com.caucho.network.listen.ProtocolConnection;
+import com.caucho.network.listen.SocketLink;
+import com.caucho.server.http.AbstractHttpProtocol;
+import com.caucho.util.FreeList;
+import com.caucho.util.L10N;
+
+/**
+ * HTTP/2 server protocol (RFC 7540), with cleartext upgrade (h2c) and
+ * prior-knowledge connections.  Connections which do not start HTTP/2
+ * are handled as HTTP/1.1.
+ *
+ * Each stream is dispatched to the thread pool as its own servlet
+ * request, so one connection carries many concurrent requests.
+ *
+ * @see com.caucho.server.http.HttpProtocol
+ */
+public class Http2Protocol extends AbstractHttpProtocol {
+  private static final L10N L = new L10N(Http2Protocol.class);
+
+  static final int DEFAULT_WINDOW = 65535;
+  static final int DEFAULT_FRAME_SIZE = 16384;
+  static final int FRAME_SIZE_MAX = 16777215;
+
+  private final FreeList<Http2Request> _freeRequests
+    = new FreeList<Http2Request>(256);
+
+  private boolean _isUpgradeEnable = true;
+
+  private int _maxConcurrentStreams = 100;
+  private int _initialWindowSize = DEFAULT_WINDOW;
+  private int _connectionWindowSize = 1024 * 1024;
+  private int _maxFrameSize = DEFAULT_FRAME_SIZE;
+  private int _headerTableSize = 4096;
+  private int _maxHeaderListSize = 64 * 1024;
+
+  private long _streamTimeout = 120000L;
+
+  public Http2Protocol()
+  {
+    setProtocolName("http2");
+  }
+
+  /**
+   * Enables the HTTP/1.1 "Upgrade: h2c" handshake.
+   */
+  public void setUpgradeEnable(boolean isEnable)
+  {
+    _isUpgradeEnable = isEnable;
+  }
+
+  public boolean isUpgradeEnable()
+  {
+    return _isUpgradeEnable;
+  }
+
+  /**
+   * Sets the maximum number of concurrent streams per connection.
+   */
+  public void setMaxConcurrentStreams(int max)
+  {
+    if (max <= 0)
+      throw new ConfigException(L.l("max-concurrent-streams '{0}' must be positive",
+                                    max));
+
+    _maxConcurrentStreams = max;
+  }
+
+  public int getMaxConcurrentStreams()
+  {
+    return _maxConcurrentStreams;
+  }
+
+  /**
+   * Sets the receive window for each stream, i.e. the request body
+   * buffered per stream.
+   */
+  public void setInitialWindowSize(int size)
+  {
+    if (size <= 0)
+      throw new ConfigException(L.l("initial-window-size '{0}' must be positive",
+                                    size));
+
+    _initialWindowSize = size;
+  }
+
+  public int getInitialWindowSize()
+  {
+    return _initialWindowSize;
+  }
+
+  /**
+   * Sets the connection receive window.
+   */
+  public void setConnectionWindowSize(int size)
+  {
+    if (size < DEFAULT_WINDOW)
+      throw new ConfigException(L.l("connection-window-size '{0}' must be at least {1}",
+                                    size, DEFAULT_WINDOW));
+
+    _connectionWindowSize = size;
+  }
+
+  public int getConnectionWindowSize()
+  {
+    return _connectionWindowSize;
+  }
+
+  /**
+   * Sets the largest frame payload the server accepts.
+   */
+  public void setMaxFrameSize(int size)
+  {
+    if (size < DEFAULT_FRAME_SIZE || FRAME_SIZE_MAX < size)
+      throw new ConfigException(L.l("max-frame-size '{0}' must be between {1} and {2}",
+                                    size, DEFAULT_FRAME_SIZE, FRAME_SIZE_MAX));
+
+    _maxFrameSize = size;
+  }
+
+  public int getMaxFrameSize()
+  {
+    return _maxFrameSize;
+  }
+
+  /**
+   * Sets the HPACK dynamic table size for request headers.
+   */
+  public void setHeaderTableSize(int size)
+  {
+    _headerTableSize = size;
+  }
+
+  public int getHeaderTableSize()
+  {
+    return _headerTableSize;
+  }
+
+  /**
+   * Sets the maximum decoded size of a request's headers.
+   */
+  public void setMaxHeaderListSize(int size)
+  {
+    _maxHeaderListSize = size;
+  }
+
+  public int getMaxHeaderListSize()
+  {
+    return _maxHeaderListSize;
+  }
+
+  /**
+   * Sets the time a stream waits for request data or for flow-control
+   * credit before failing.
+   */
+  public void setStreamTimeout(Period period)
+  {
+    _streamTimeout = period.getPeriod();
+  }
+
+  public long getStreamTimeout()
+  {
+    return _streamTimeout;
+  }
+
+  /**
+   * Create a Http2Connection object for the new thread.
+   */
+  @Override
+  public ProtocolConnection createConnection(SocketLink conn)
+  {
+    return new Http2Connection(this, conn);
+  }
+
+  /**
+   * Allocates a stream request.
+   */
+  Http2Request allocateRequest()
+  {
+    Http2Request request = _freeRequests.allocate();
+
+    if (request == null)
+      request = new Http2Request(getServletSystem());
+
+    return request;
+  }
+
+  /**
+   * Returns a stream request to the pool.
+   */
+  void freeRequest(Http2Request request)
+  {
+    _freeRequests.free(request);
+  }
+}
@@ -0,0 +1,658 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free SoftwareFoundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+package com.caucho.server.http2;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.caucho.network.listen.SocketLinkDuplexController;
+import com.caucho.network.listen.SocketLinkDuplexListener;
+import com.caucho.server.cluster.ServletService;
+import com.caucho.server.dispatch.BadRequestException;
+import com.caucho.server.dispatch.Invocation;
+import com.caucho.server.http.AbstractHttpRequest;
+import com.caucho.server.http.CauchoResponse;
+import com.caucho.server.http.HttpServletRequestImpl;
+import com.caucho.util.CharBuffer;
+import com.caucho.util.CharSegment;
+import com.caucho.util.L10N;
+import com.caucho.vfs.ClientDisconnectException;
+import com.caucho.vfs.ReadStream;
+
+/**
+ * Handles the servlet request for a single HTTP/2 stream.  Requests are
+ * pooled by the protocol and bound to a stream for each exchange.
+ */
+public class Http2Request extends AbstractHttpRequest
+{
+  private static final Logger log
+    = Logger.getLogger(Http2Request.class.getName());
+
+  private static final L10N L = new L10N(Http2Request.class);
+
+  private final Http2StreamLink _link;
+
+  private Http2Stream _stream;
+
+  private final CharBuffer _method = new CharBuffer();
+  private String _methodString;
+
+  private final CharBuffer _authority = new CharBuffer();
+  private CharSequence _host;
+
+  private byte []_uri;
+  private int _uriLength;
+
+  private char []_headerBuffer;
+  private int _headerOffset;
+
+  private CharSegment []_headerKeys;
+  private CharSegment []_headerValues;
+  private int _headerSize;
+
+  Http2Request(ServletService server)
+  {
+    super(server, new Http2StreamLink());
+
+    _link = (Http2StreamLink) getConnection();
+  }
+
+  @Override
+  protected Http2Response createResponse()
+  {
+    return new Http2Response(this);
+  }
+
+  /**
+   * Binds the request to a new stream.
+   */
+  void init(Http2Stream stream)
+  {
+    _stream = stream;
+
+    _link.init(stream.getConnection().getLink(), stream);
+  }
+
+  Http2Stream getHttp2Stream()
+  {
+    return _stream;
+  }
+
+  /**
+   * Streams are dispatched by the connection, not by a socket read.
+   */
+  @Override
+  public boolean isWaitForRead()
+  {
+    return false;
+  }
+
+  /**
+   * Handles the servlet request for the bound stream.
+   *
+   * <p>Note: ClientDisconnectException must be rethrown to
+   * the caller.
+   */
+  @Override
+  public boolean handleRequest()
+    throws IOException
+  {
+    boolean isInvocation = false;
+
+    ServletService server = getServer();
+
+    Thread thread = Thread.currentThread();
+    ClassLoader oldLoader = thread.getContextClassLoader();
+
+    try {
+      thread.setContextClassLoader(server.getClassLoader());
+
+      startRequest();
+
+      readHeaders(_stream);
+
+      if (log.isLoggable(Level.FINE)) {
+        log.fine(dbgId() + _method + " "
+                 + new String(_uri, 0, _uriLength) + " HTTP/2.0");
+        log.fine(dbgId() + "Remote-IP: " + getRemoteHost()
+                 + ":" + getRemotePort());
+      }
+
+      CharSequence host = getInvocationHost();
+
+      Invocation invocation = getInvocation(host, _uri, _uriLength);
+
+      if (invocation == null)
+        return false;
+
+      HttpServletRequestImpl requestFacade = getRequestFacade();
+
+      requestFacade.setInvocation(invocation);
+
+      isInvocation = true;
+      startInvocation();
+
+      invocation.service(requestFacade, getResponseFacade());
+    } catch (ClientDisconnectException e) {
+      clientDisconnect();
+
+      throw e;
+    } catch (Throwable e) {
+      log.log(Level.FINE, e.toString(), e);
+
+      CauchoResponse response = getResponseFacade();
+
+      if (response != null)
+        response.killCache();
+
+      sendRequestError(e);
+
+      return false;
+    } finally {
+      if (isInvocation) {
+        finishInvocation();
+      }
+
+      finishRequest();
+
+      thread.setContextClassLoader(oldLoader);
+    }
+
+    return true;
+  }
+
+  /**
+   * Fills the request from the decoded stream headers.
+   */
+  private void readHeaders(Http2Stream stream)
+    throws IOException
+  {
+    ArrayList<String> names = stream.getHeaderNames();
+    ArrayList<String> values = stream.getHeaderValues();
+
+    boolean isHostHeader = false;
+    int size = names.size();
+
+    for (int i = 0; i < size; i++) {
+      String name = names.get(i);
+      String value = values.get(i);
+
+      if (name.length() > 0 && name.charAt(0) == ':') {
+        if (":method".equals(name))
+          _method.append(value);
+        else if (":path".equals(name))
+          setUri(value);
+        else if (":authority".equals(name))
+          _authority.append(value);
+        else if (! ":scheme".equals(name))
+          throw new BadRequestException(L.l("unknown HTTP/2 pseudo-header {0}",
+                                            name));
+      }
+      else {
+        if ("host".equals(name))
+          isHostHeader = true;
+
+        addHeader(name, value);
+      }
+    }
+
+    if (_method.length() == 0 || _uriLength == 0) {
+      throw new BadRequestException(L.l("HTTP/2 request requires :method and :path"));
+    }
+
+    if (! isHostHeader && _authority.length() > 0)
+      addHeader("host", _authority.toString());
+  }
+
+  private void setUri(String value)
+  {
+    int length = value.length();
+
+    if (_uri.length < length)
+      _uri = new byte[length];
+
+    byte []uri = _uri;
+
+    for (int i = 0; i < length; i++) {
+      uri[i] = (byte) value.charAt(i);
+    }
+
+    _uriLength = length;
+  }
+
+  private void addHeader(String key, String value)
+  {
+    int keyLength = key.length();
+    int valueLength = value.length();
+
+    if (_headerBuffer.length < _headerOffset + keyLength + valueLength) {
+      char []buffer = new char[2 * (_headerOffset + keyLength + valueLength)];
+      System.arraycopy(_headerBuffer, 0, buffer, 0, _headerOffset);
+      _headerBuffer = buffer;
+
+      // existing segments must point to the new buffer for matching
+      for (int i = 0; i < _headerSize; i++) {
+        CharSegment headerKey = _headerKeys[i];
+        CharSegment headerValue = _headerValues[i];
+
+        headerKey.init(buffer, headerKey.getOffset(), headerKey.getLength());
+        headerValue.init(buffer, headerValue.getOffset(),
+                         headerValue.getLength());
+      }
+    }
+
+    if (_headerKeys.length <= _headerSize) {
+      int length = 2 * _headerKeys.length;
+
+      CharSegment []headerKeys = new CharSegment[length];
+      CharSegment []headerValues = new CharSegment[length];
+
+      System.arraycopy(_headerKeys, 0, headerKeys, 0, _headerSize);
+      System.arraycopy(_headerValues, 0, headerValues, 0, _headerSize);
+
+      for (int i = _headerSize; i < length; i++) {
+        headerKeys[i] = new CharSegment();
+        headerValues[i] = new CharSegment();
+      }
+
+      _headerKeys = headerKeys;
+      _headerValues = headerValues;
+    }
+
+    char []headerBuffer = _headerBuffer;
+
+    int keyOffset = _headerOffset;
+    key.getChars(0, keyLength, headerBuffer, keyOffset);
+
+    int valueOffset = keyOffset + keyLength;
+    value.getChars(0, valueLength, headerBuffer, valueOffset);
+
+    _headerOffset = valueOffset + valueLength;
+
+    CharSegment headerKey = _headerKeys[_headerSize];
+    CharSegment headerValue = _headerValues[_headerSize];
+
+    headerKey.init(headerBuffer, keyOffset, keyLength);
+    headerValue.init(headerBuffer, valueOffset, valueLength);
+
+    _headerSize++;
+
+    addHeaderInt(headerBuffer, keyOffset, keyLength, headerValue);
+  }
+
+  /**
+   * Returns the virtual host for the invocation
+   */
+  private CharSequence getInvocationHost()
+  {
+    String virtualHost = getConnection().getVirtualHost();
+
+    if (virtualHost != null)
+      return virtualHost;
+
+    CharSequence host = getHost();
+
+    if (host == null) {
+      throw new BadRequestException(L.l("HTTP/2 request requires :authority or Host (Remote IP={0})",
+                                        getRemoteHost()));
+    }
+
+    return host;
+  }
+
+  /**
+   * Returns the request host from :authority or the Host header.
+   */
+  @Override
+  protected CharSequence getHost()
+  {
+    if (_host != null)
+      return _host;
+
+    if (_authority.length() > 0)
+      _host = _authority;
+    else if ((_host = getForwardedHostHeader()) != null) {
+    }
+    else
+      _host = getHostHeader();
+
+    return _host;
+  }
+
+  /**
+   * Returns the byte buffer containing the request URI
+   */
+  @Override
+  public byte []getUriBuffer()
+  {
+    return _uri;
+  }
+
+  /**
+   * Returns the length of the request URI
+   */
+  @Override
+  public int getUriLength()
+  {
+    return _uriLength;
+  }
+
+  /**
+   * Returns the protocol.
+   */
+  @Override
+  public String getProtocol()
+  {
+    return "HTTP/2.0";
+  }
+
+  /**
+   * Returns the method.
+   */
+  @Override
+  public String getMethod()
+  {
+    if (_methodString == null) {
+      if (_method.length() == 0)
+        _methodString = "GET";
+      else
+        _methodString = _method.toString();
+    }
+
+    return _methodString;
+  }
+
+  /**
+   * Adds a new header.  Used only by the caching to simulate
+   * If-Modified-Since.
+   *
+   * @param key the key of the new header
+   * @param value the value for the new header
+   */
+  @Override
+  public void setHeader(String key, String value)
+  {
+    addHeader(key, value);
+  }
+
+  /**
+   * Returns the number of headers.
+   */
+  @Override
+  public int getHeaderSize()
+  {
+    return _headerSize;
+  }
+
+  /**
+   * Returns the header key
+   */
+  @Override
+  public CharSegment getHeaderKey(int index)
+  {
+    return _headerKeys[index];
+  }
+
+  /**
+   * Returns the header value
+   */
+  @Override
+  public CharSegment getHeaderValue(int index)
+  {
+    return _headerValues[index];
+  }
+
+  /**
+   * Returns the header.
+   */
+  @Override
+  public String getHeader(String key)
+  {
+    CharSegment buf = getHeaderBuffer(key);
+
+    if (buf != null)
+      return buf.toString();
+    else
+      return null;
+  }
+
+  /**
+   * Returns the header value for the key, returned as a CharSegment.
+   */
+  @Override
+  public CharSegment getHeaderBuffer(String key)
+  {
+    int i = matchNextHeader(0, key);
+
+    if (i >= 0)
+      return _headerValues[i];
+    else
+      return null;
+  }
+
+  /**
+   * Fills an ArrayList with the header values matching the key.
+   *
+   * @param values ArrayList which will contain the maching values.
+   * @param key the header key to select.
+   */
+  @Override
+  public void getHeaderBuffers(String key, ArrayList<CharSegment> values)
+  {
+    int i = -1;
+    while ((i = matchNextHeader(i + 1, key)) >= 0)
+      values.add(_headerValues[i]);
+  }
+
+  /**
+   * Return an enumeration of headers matching a key.
+   *
+   * @param key the header key to match.
+   * @return the enumeration of the headers.
+   */
+  @Override
+  public Enumeration<String> getHeaders(String key)
+  {
+    ArrayList<String> values = new ArrayList<String>();
+    int i = -1;
+    while ((i = matchNextHeader(i + 1, key)) >= 0)
+      values.add(_headerValues[i].toString());
+
+    return Collections.enumeration(values);
+  }
+
+  /**
+   * Returns the index of the next header matching the key.
+   *
+   * @param i header index to start search
+   * @param key header key to match
+   *
+   * @return the index of the next header matching, or -1.
+   */
+  private int matchNextHeader(int i, String key)
+  {
+    int size = _headerSize;
+    int length = key.length();
+
+    char []keyBuf = _headerBuffer;
+
+    for (; i < size; i++) {
+      CharSegment header = _headerKeys[i];
+
+      if (header.length() != length)
+        continue;
+
+      int offset = header.getOffset();
+
+      int j;
+      for (j = 0; j < length; j++) {
+        char a = key.charAt(j);
+        char b = keyBuf[offset + j];
+        if (a == b)
+          continue;
+
+        if (a >= 'A' && a <= 'Z')
+          a += 'a' - 'A';
+        if (b >= 'A' && b <= 'Z')
+          b += 'a' - 'A';
+        if (a != b)
+          break;
+      }
+
+      if (j == length)
+        return i;
+    }
+
+    return -1;
+  }
+
+  /**
+   * Returns an enumeration of all the header keys.
+   */
+  @Override
+  public Enumeration<String> getHeaderNames()
+  {
+    ArrayList<String> names = new ArrayList<String>();
+
+    for (int i = 0; i < _headerSize; i++) {
+      CharSegment name = _headerKeys[i];
+
+      int j;
+      for (j = 0; j < names.size(); j++) {
+        String oldName = names.get(j);
+        if (name.matches(oldName))
+          break;
+      }
+      if (j == names.size())
+        names.add(j, name.toString());
+    }
+
+    return Collections.enumeration(names);
+  }
+
+  /**
+   * Returns a stream for reading POST data.
+   */
+  @Override
+  protected boolean initStream(ReadStream readStream, ReadStream rawRead)
+    throws IOException
+  {
+    readStream.init(_stream.getInputStream(), null);
+
+    return true;
+  }
+
+  /**
+   * Returns true for the top-level request, but false for any include()
+   * or forward()
+   */
+  public boolean isTop()
+  {
+    return true;
+  }
+
+  /**
+   * Clear the request variables in preparation for a new request.
+   */
+  @Override
+  protected void startRequest()
+    throws IOException
+  {
+    super.startRequest();
+
+    _method.clear();
+    _methodString = null;
+
+    _authority.clear();
+    _host = null;
+
+    _uriLength = 0;
+    _uri = getSmallUriBuffer();
+
+    _headerSize = 0;
+    _headerOffset = 0;
+    _headerBuffer = getSmallHeaderBuffer();
+    _headerKeys = getSmallHeaderKeys();
+    _headerValues = getSmallHeaderValues();
+  }
+
+  /**
+   * Ends the stream after the response completes.
+   */
+  void writeTail()
+    throws IOException
+  {
+    _link.getWriteStream().flush();
+
+    _stream.writeEnd();
+  }
+
+  /**
+   * An HTTP/2 stream is multiplexed, so it can't become a duplex
+   * connection.
+   */
+  @Override
+  public boolean isDuplexSupported()
+  {
+    return false;
+  }
+
+  /**
+   * Duplex upgrades are refused on an HTTP/2 stream.
+   */
+  @Override
+  public SocketLinkDuplexController startDuplex(SocketLinkDuplexListener handler)
+  {
+    return _link.startDuplex(handler);
+  }
+
+  @Override
+  protected String dbgId()
+  {
+    String serverId = getServer().getServerId();
+    int connId = getConnectionId();
+    int streamId = _stream != null ? _stream.getId() : 0;
+
+    if ("".equals(serverId))
+      return "Http2[" + connId + "," + streamId + "] ";
+    else
+      return "Http2[" + serverId + ", " + connId + "," + streamId + "] ";
+  }
+
+  @Override
+  public String toString()
+  {
+    return getClass().getSimpleName() + "[" + dbgId().trim() + "]";
+  }
+}
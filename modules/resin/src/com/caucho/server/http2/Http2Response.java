@@ -0,0 +1,246 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free SoftwareFoundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+package com.caucho.server.http2;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Locale;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletResponse;
+
+import com.caucho.server.http.AbstractHttpResponse;
+import com.caucho.server.http.AbstractResponseStream;
+import com.caucho.server.http.HttpServletRequestImpl;
+import com.caucho.server.http.HttpServletResponseImpl;
+import com.caucho.server.webapp.WebApp;
+import com.caucho.util.CharBuffer;
+import com.caucho.util.CurrentTime;
+
+/**
+ * Handles the response for an HTTP/2 stream, writing the headers as an
+ * HPACK-encoded HEADERS frame.
+ */
+public class Http2Response extends AbstractHttpResponse {
+  private static final Logger log
+    = Logger.getLogger(Http2Response.class.getName());
+
+  private final Http2Request _req;
+  private final CharBuffer _cb = new CharBuffer();
+
+  private final ArrayList<String> _names = new ArrayList<String>();
+  private final ArrayList<String> _values = new ArrayList<String>();
+
+  Http2Response(Http2Request request)
+  {
+    super(request);
+
+    _req = request;
+  }
+
+  @Override
+  protected AbstractResponseStream createResponseStream()
+  {
+    // called from the super constructor, before _req is assigned
+    Http2Request request = (Http2Request) getRequest();
+
+    return new Http2ResponseStream(request, this, request.getRawWrite());
+  }
+
+  /**
+   * headersWritten cannot be undone for HTTP/2
+   */
+  @Override
+  public void setHeaderWritten(boolean isWritten)
+  {
+  }
+
+  @Override
+  protected boolean writeHeadersInt(int length,
+                                    boolean isHead)
+    throws IOException
+  {
+    HttpServletRequestImpl request = _req.getRequestFacade();
+    HttpServletResponseImpl response = _req.getResponseFacade();
+
+    if (request == null || response == null)
+      return false;
+
+    boolean debug = log.isLoggable(Level.FINE);
+
+    ArrayList<String> names = _names;
+    ArrayList<String> values = _values;
+
+    names.clear();
+    values.clear();
+
+    WebApp webApp = request.getWebApp();
+
+    String contentType = response.getContentTypeImpl();
+    String charEncoding = response.getCharacterEncodingImpl();
+
+    long contentLength = getContentLengthHeader();
+
+    int statusCode = response.getStatus();
+
+    addHeaderField(":status", String.valueOf(statusCode));
+
+    String serverHeader = getServerHeader();
+    if (serverHeader != null)
+      addHeaderField("server", serverHeader);
+
+    if (statusCode >= 400) {
+      removeHeader("ETag");
+      removeHeader("Last-Modified");
+    }
+    else if (statusCode == HttpServletResponse.SC_NOT_MODIFIED
+             || statusCode == HttpServletResponse.SC_NO_CONTENT) {
+      contentType = null;
+    }
+    else if (response.isCacheControl()) {
+      // application manages cache control
+    }
+    else if (response.isNoCache()) {
+      removeHeader("ETag");
+      removeHeader("Last-Modified");
+
+      setHeaderImpl("Expires", "Thu, 01 Dec 1994 16:00:00 GMT");
+
+      addHeaderField("cache-control", "no-cache");
+    }
+    else if (response.isNoCacheUnlessVary()
+             && ! containsHeader("Vary")) {
+      addHeaderField("cache-control", "private");
+    }
+    else if (response.isPrivateCache()) {
+      addHeaderField("cache-control", "private");
+    }
+
+    ArrayList<String> headerKeys = getHeaderKeys();
+    ArrayList<String> headerValues = getHeaderValues();
+
+    int size = headerKeys.size();
+    for (int i = 0; i < size; i++) {
+      String key = headerKeys.get(i).toLowerCase(Locale.ENGLISH);
+
+      if (isConnectionHeader(key))
+        continue;
+
+      addHeaderField(key, headerValues.get(i));
+    }
+
+    long now = CurrentTime.getCurrentTime();
+    ArrayList<Cookie> cookiesOut = response.getCookies();
+
+    if (cookiesOut != null) {
+      CharBuffer cb = _cb;
+
+      for (int i = 0; i < cookiesOut.size(); i++) {
+        Cookie cookie = cookiesOut.get(i);
+        int cookieVersion = cookie.getVersion();
+
+        cb.clear();
+        fillCookie(cb, cookie, now, cookieVersion, false);
+        addHeaderField("set-cookie", cb.toString());
+
+        if (cookieVersion > 0) {
+          cb.clear();
+          fillCookie(cb, cookie, now, cookieVersion, true);
+          addHeaderField("set-cookie2", cb.toString());
+        }
+      }
+    }
+
+    if (contentType != null) {
+      if (charEncoding == null
+          && (contentType.startsWith("text/")
+              || contentType.startsWith("multipart/"))) {
+        if (webApp != null)
+          charEncoding = webApp.getCharacterEncoding();
+
+        if (charEncoding == null)
+          charEncoding = "utf-8";
+      }
+
+      if (charEncoding != null)
+        addHeaderField("content-type", contentType + "; charset=" + charEncoding);
+      else
+        addHeaderField("content-type", contentType);
+    }
+
+    if (hasFooter()) {
+      contentLength = -1;
+      length = -1;
+    }
+
+    if (contentLength >= 0) {
+      addHeaderField("content-length", String.valueOf(contentLength));
+    }
+    else if (statusCode == HttpServletResponse.SC_NOT_MODIFIED) {
+      setHead();
+    }
+    else if (statusCode == HttpServletResponse.SC_NO_CONTENT) {
+      setHead();
+    }
+    else if (length >= 0) {
+      addHeaderField("content-length", String.valueOf(length));
+    }
+
+    if (debug) {
+      for (int i = 0; i < names.size(); i++) {
+        log.fine(_req.dbgId() + names.get(i) + ": " + values.get(i));
+      }
+    }
+
+    _req.getHttp2Stream().writeHeaders(names, values);
+
+    return false;
+  }
+
+  private void addHeaderField(String name, String value)
+  {
+    _names.add(name);
+    _values.add(value);
+  }
+
+  /**
+   * Connection-specific headers are forbidden in HTTP/2 (RFC 7540 8.1.2.2).
+   */
+  private static boolean isConnectionHeader(String key)
+  {
+    return ("connection".equals(key)
+            || "keep-alive".equals(key)
+            || "proxy-connection".equals(key)
+            || "transfer-encoding".equals(key)
+            || "upgrade".equals(key));
+  }
+}
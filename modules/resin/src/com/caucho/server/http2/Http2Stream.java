@@ -0,0 +1,249 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free SoftwareFoundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+package com.caucho.server.http2;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.caucho.vfs.ClientDisconnectException;
+
+/**
+ * A single HTTP/2 stream, i.e. one request/response exchange multiplexed
+ * on the connection.
+ *
+ * Headers are collected by the connection's read thread before the stream
+ * is dispatched.  The servlet request then runs on a pool thread.
+ */
+final class Http2Stream implements Runnable {
+  private static final Logger log
+    = Logger.getLogger(Http2Stream.class.getName());
+
+  private final Http2Connection _conn;
+  private final int _id;
+
+  private final ArrayList<String> _headerNames = new ArrayList<String>();
+  private final ArrayList<String> _headerValues = new ArrayList<String>();
+
+  private final Http2InputStream _is;
+  private final Http2OutputStream _os;
+
+  // guarded by the connection's window lock
+  private int _sendWindow;
+
+  // written by the read thread
+  private volatile boolean _isRemoteClosed;
+
+  // request thread only: consumed bytes not yet returned to the peer
+  private int _unackedRead;
+
+  private volatile boolean _isReset;
+  private volatile boolean _isEndSent;
+
+  private Http2Request _request;
+
+  Http2Stream(Http2Connection conn, int id)
+  {
+    _conn = conn;
+    _id = id;
+
+    _is = new Http2InputStream(this, conn.getReceiveWindow());
+    _os = new Http2OutputStream(this);
+  }
+
+  int getId()
+  {
+    return _id;
+  }
+
+  Http2Connection getConnection()
+  {
+    return _conn;
+  }
+
+  Http2InputStream getInputStream()
+  {
+    return _is;
+  }
+
+  Http2OutputStream getOutputStream()
+  {
+    return _os;
+  }
+
+  ArrayList<String> getHeaderNames()
+  {
+    return _headerNames;
+  }
+
+  ArrayList<String> getHeaderValues()
+  {
+    return _headerValues;
+  }
+
+  /**
+   * Adds a decoded request header.
+   */
+  void addHeader(String name, String value)
+  {
+    _headerNames.add(name);
+    _headerValues.add(value);
+  }
+
+  int getSendWindow()
+  {
+    return _sendWindow;
+  }
+
+  void setSendWindow(int window)
+  {
+    _sendWindow = window;
+  }
+
+  boolean isRemoteClosed()
+  {
+    return _isRemoteClosed;
+  }
+
+  /**
+   * The peer has sent END_STREAM.
+   */
+  void onRemoteClose()
+  {
+    _isRemoteClosed = true;
+
+    _is.end();
+  }
+
+  boolean isReset()
+  {
+    return _isReset;
+  }
+
+  /**
+   * The stream was reset by the peer or by a connection failure.
+   */
+  void onReset()
+  {
+    _isReset = true;
+    _isRemoteClosed = true;
+
+    _is.reset();
+  }
+
+  void setRequest(Http2Request request)
+  {
+    _request = request;
+  }
+
+  /**
+   * Called by the input stream after the application reads body data,
+   * returning the flow-control credit to the peer.
+   */
+  void onDataRead(int length)
+    throws IOException
+  {
+    _conn.onDataRead(length);
+
+    if (_isRemoteClosed)
+      return;
+
+    _unackedRead += length;
+
+    if (_conn.getReceiveWindow() / 2 <= _unackedRead) {
+      int credit = _unackedRead;
+      _unackedRead = 0;
+
+      _conn.writeWindowUpdate(_id, credit);
+    }
+  }
+
+  /**
+   * Writes the response headers.
+   */
+  void writeHeaders(ArrayList<String> names, ArrayList<String> values)
+    throws IOException
+  {
+    if (_isReset)
+      throw new ClientDisconnectException(this + " reset by peer");
+
+    _conn.writeHeaders(this, names, values);
+  }
+
+  /**
+   * Ends the response with an empty END_STREAM data frame.
+   */
+  void writeEnd()
+    throws IOException
+  {
+    if (_isEndSent || _isReset)
+      return;
+
+    _isEndSent = true;
+
+    _conn.writeEndStream(this);
+  }
+
+  /**
+   * Runs the servlet request for the stream on a pool thread.
+   */
+  @Override
+  public void run()
+  {
+    Http2Request request = _request;
+
+    try {
+      request.init(this);
+
+      request.handleRequest();
+    } catch (ClientDisconnectException e) {
+      log.log(Level.FINEST, e.toString(), e);
+    } catch (Throwable e) {
+      log.log(Level.FINE, e.toString(), e);
+    } finally {
+      try {
+        writeEnd();
+      } catch (Throwable e) {
+        log.log(Level.FINEST, e.toString(), e);
+      }
+
+      _request = null;
+
+      _conn.onStreamComplete(this, request);
+    }
+  }
+
+  @Override
+  public String toString()
+  {
+    return getClass().getSimpleName() + "[" + _id + "," + _conn + "]";
+  }
+}
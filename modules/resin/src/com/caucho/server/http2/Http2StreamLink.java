@@ -0,0 +1,195 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free SoftwareFoundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+package com.caucho.server.http2;
+
+import java.net.InetAddress;
+import java.security.cert.CertificateException;
+import java.security.cert.X509Certificate;
+
+import com.caucho.network.listen.AbstractSocketLink;
+import com.caucho.network.listen.SocketLinkDuplexController;
+import com.caucho.network.listen.SocketLinkDuplexListener;
+import com.caucho.network.listen.TcpSocketLink;
+
+/**
+ * The SocketLink seen by an HTTP/2 stream's request.  Address and
+ * security information comes from the underlying TCP connection, while
+ * the write stream is the stream's DATA frame output.
+ */
+final class Http2StreamLink extends AbstractSocketLink {
+  private TcpSocketLink _link;
+  private Http2Stream _stream;
+
+  Http2StreamLink()
+  {
+  }
+
+  /**
+   * Binds the link to a new stream.
+   */
+  void init(TcpSocketLink link, Http2Stream stream)
+  {
+    _link = link;
+    _stream = stream;
+
+    getWriteStream().init(stream.getOutputStream());
+  }
+
+  Http2Stream getStream()
+  {
+    return _stream;
+  }
+
+  @Override
+  public int getId()
+  {
+    TcpSocketLink link = _link;
+
+    return link != null ? link.getId() : 0;
+  }
+
+  @Override
+  public boolean isSecure()
+  {
+    return _link.isSecure();
+  }
+
+  @Override
+  public String getVirtualHost()
+  {
+    return _link.getVirtualHost();
+  }
+
+  @Override
+  public InetAddress getLocalAddress()
+  {
+    return _link.getLocalAddress();
+  }
+
+  @Override
+  public String getLocalHost()
+  {
+    return _link.getLocalHost();
+  }
+
+  @Override
+  public int getLocalPort()
+  {
+    return _link.getLocalPort();
+  }
+
+  @Override
+  public InetAddress getRemoteAddress()
+  {
+    return _link.getRemoteAddress();
+  }
+
+  @Override
+  public String getRemoteHost()
+  {
+    return _link.getRemoteHost();
+  }
+
+  @Override
+  public int getRemoteAddress(byte []buffer, int offset, int length)
+  {
+    return _link.getRemoteAddress(buffer, offset, length);
+  }
+
+  @Override
+  public int getRemotePort()
+  {
+    return _link.getRemotePort();
+  }
+
+  @Override
+  public String getCipherSuite()
+  {
+    return _link.getCipherSuite();
+  }
+
+  @Override
+  public int getKeySize()
+  {
+    return _link.getKeySize();
+  }
+
+  @Override
+  public X509Certificate []getClientCertificates()
+    throws CertificateException
+  {
+    return _link.getClientCertificates();
+  }
+
+  @Override
+  public boolean isPortActive()
+  {
+    return _link.isPortActive();
+  }
+
+  /**
+   * Streams are independent of the connection keepalive.
+   */
+  @Override
+  public boolean isKeepaliveAllocated()
+  {
+    return true;
+  }
+
+  /**
+   * An HTTP/2 stream can't become a duplex connection, so the stream is
+   * reset with HTTP_1_1_REQUIRED, telling the client to retry the
+   * upgrade over HTTP/1.1.
+   *
+   * @return null, since the upgrade is refused
+   */
+  @Override
+  public SocketLinkDuplexController startDuplex(SocketLinkDuplexListener handler)
+  {
+    Http2Stream stream = _stream;
+
+    if (stream != null)
+      stream.getConnection().resetStream(stream,
+                                         Http2Connection.HTTP_1_1_REQUIRED);
+
+    return null;
+  }
+
+  @Override
+  public void clientDisconnect()
+  {
+  }
+
+  @Override
+  public String toString()
+  {
+    return getClass().getSimpleName() + "[" + _stream + "]";
+  }
+}
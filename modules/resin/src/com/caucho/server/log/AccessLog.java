@@ -157,6 +157,15 @@ public class AccessLog extends AbstractAccessLog implements AlarmListener
     _logWriter.setArchiveFormat(format);
   }
 
+  /**
+   * Compresses a .gz archive as the log is written instead of at rollover.
+   */
+  @Configurable
+  public void setArchiveStreaming(boolean isStreaming)
+  {
+    _logWriter.setArchiveStreaming(isStreaming);
+  }
+
   /**
    * Sets the maximum number of rolled logs.
    *
@@ -389,27 +398,15 @@ public class AccessLog extends AbstractAccessLog implements AlarmListener
       }
     }
 
+    // the response's buffer is only used for formatting; the entry is
+    // copied to the writer's stripe, so the buffer is never queued
     LogBuffer logBuffer = response.getLogBuffer();
     
-    if (! logBuffer.allocate(_logWriter)) {
-      // if currently queued, create a new one
-      logBuffer = _logWriter.allocateBuffer();
-    }
+    byte []buffer = logBuffer.getBuffer();
 
-    try {
-      byte []buffer = logBuffer.getBuffer();
-
-      int length = log(request, responseImpl, response, buffer, 0, buffer.length);
-
-      logBuffer.setLength(length);
+    int length = log(request, responseImpl, response, buffer, 0, buffer.length);
 
-      _logWriter.writeBuffer(logBuffer);
-      logBuffer = null;
-    } finally {
-      if (logBuffer != null) {
-        _logWriter.freeBuffer(logBuffer);
-      }
-    }
+    _logWriter.writeLog(buffer, 0, length);
   }
 
   /**
@@ -30,6 +30,7 @@
 package com.caucho.server.log;
 
 import java.io.IOException;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -52,6 +53,9 @@ public class AccessLogWriter extends AbstractRolloverLog
   protected static final Logger log
     = Logger.getLogger(AccessLogWriter.class.getName());
 
+  private static final int STRIPE_BUFFER_SIZE = 16 * 1024;
+  private static final int STRIPE_MAX = 64;
+
   private final AccessLog _log;
 
   private boolean _isAutoFlush;
@@ -62,6 +66,15 @@ public class AccessLogWriter extends AbstractRolloverLog
   private final FreeRing<LogBuffer> _freeList
     = new FreeRing<LogBuffer>(512);
 
+  // requests append to a stripe chosen by thread.  Full stripe buffers
+  // are queued to the writer task, which also sweeps partial ones.
+  private LogStripe []_stripes;
+  private int _stripeMask;
+  private int _stripeBufferSize = STRIPE_BUFFER_SIZE;
+
+  private final FreeRing<LogBuffer> _stripeFreeList
+    = new FreeRing<LogBuffer>(256);
+
   private final LogWriterTask _logWriterTask = new LogWriterTask();
   
   private TempFileService _tempService;
@@ -106,6 +119,25 @@ public class AccessLogWriter extends AbstractRolloverLog
     for (int i = 0; i < 64; i++) {
       _freeList.free(new LogBuffer(_logBufferSize));
     }
+
+    _stripeBufferSize = Math.max(STRIPE_BUFFER_SIZE, _logBufferSize);
+
+    int cpuMax = 2 * Runtime.getRuntime().availableProcessors();
+    int stripeCount;
+
+    for (stripeCount = 1;
+         stripeCount < cpuMax && stripeCount < STRIPE_MAX;
+         stripeCount *= 2) {
+    }
+
+    LogStripe []stripes = new LogStripe[stripeCount];
+
+    for (int i = 0; i < stripeCount; i++) {
+      stripes[i] = new LogStripe();
+    }
+
+    _stripeMask = stripeCount - 1;
+    _stripes = stripes;
   }
   
   boolean isBufferAvailable()
@@ -129,6 +161,118 @@ public class AccessLogWriter extends AbstractRolloverLog
     _logWriterTask.wake();
   }
 
+  /**
+   * Appends a formatted log entry to the calling thread's stripe.  The
+   * writer is only woken when the stripe was empty or filled up, so
+   * requests under load share buffer handoffs instead of each queueing
+   * its own buffer.
+   */
+  void writeLog(byte []buffer, int offset, int length)
+  {
+    LogStripe []stripes = _stripes;
+
+    if (stripes == null) {
+      LogBuffer logBuffer = new LogBuffer(length);
+      System.arraycopy(buffer, offset, logBuffer.getBuffer(), 0, length);
+      logBuffer.setLength(length);
+
+      writeBuffer(logBuffer);
+      return;
+    }
+
+    int index = (int) Thread.currentThread().getId() & _stripeMask;
+    LogStripe stripe = stripes[index];
+
+    boolean isWake;
+
+    stripe.lock();
+    try {
+      isWake = stripe.write(buffer, offset, length);
+    } finally {
+      stripe.unlock();
+    }
+
+    if (isWake) {
+      _logWriterTask.wake();
+    }
+  }
+
+  /**
+   * Queues the partially filled stripe buffers to the writer.  Called by
+   * the writer task after its queue drains.
+   *
+   * @return true if a busy stripe was skipped
+   */
+  private boolean sweepStripes()
+  {
+    LogStripe []stripes = _stripes;
+
+    if (stripes == null) {
+      return false;
+    }
+
+    boolean isSkip = false;
+
+    for (LogStripe stripe : stripes) {
+      if (stripe.isEmpty()) {
+        continue;
+      }
+
+      // the writer never blocks on a stripe, since a request holding the
+      // stripe may be waiting for the writer's queue
+      if (! stripe.tryLock()) {
+        isSkip = true;
+        continue;
+      }
+
+      LogBuffer logBuffer;
+
+      try {
+        // a queued buffer from the stripe must be written first to keep
+        // the stripe's entries in order
+        if (! _logWriterTask.isEmpty()) {
+          return false;
+        }
+
+        logBuffer = stripe.remove();
+      } finally {
+        stripe.unlock();
+      }
+
+      if (logBuffer != null) {
+        _logWriterTask.process(logBuffer);
+      }
+    }
+
+    return isSkip;
+  }
+
+  private boolean isStripeEmpty()
+  {
+    LogStripe []stripes = _stripes;
+
+    if (stripes != null) {
+      for (LogStripe stripe : stripes) {
+        if (! stripe.isEmpty()) {
+          return false;
+        }
+      }
+    }
+
+    return true;
+  }
+
+  private LogBuffer allocateStripeBuffer()
+  {
+    LogBuffer buffer = _stripeFreeList.allocate();
+
+    if (buffer == null) {
+      buffer = new LogBuffer(_stripeBufferSize);
+    }
+
+    return buffer;
+  }
+
   // must be synchronized by _bufferLock.
   @Override
   protected void flush()
@@ -157,7 +301,7 @@ public class AccessLogWriter extends AbstractRolloverLog
     expire = CurrentTime.getCurrentTimeActual() + timeout;
 
     while (true) {
-      if (_logWriterTask.isEmpty()) {
+      if (_logWriterTask.isEmpty() && isStripeEmpty()) {
         return;
       }
 
@@ -196,7 +340,12 @@ public class AccessLogWriter extends AbstractRolloverLog
     logBuffer.clear();
     
     if (! logBuffer.isPrivate()) {
-      _freeList.free(logBuffer);
+      int length = logBuffer.getBuffer().length;
+
+      if (length == _stripeBufferSize)
+        _stripeFreeList.free(logBuffer);
+      else if (length == _logBufferSize)
+        _freeList.free(logBuffer);
     }
   }
 
@@ -225,6 +374,96 @@ public class AccessLogWriter extends AbstractRolloverLog
     _logWriterTask.close();
   }
 
+  /**
+   * A stripe of the log buffers, guarded by its lock.
+   */
+  final class LogStripe {
+    private final ReentrantLock _lock = new ReentrantLock();
+
+    private LogBuffer _buffer;
+
+    void lock()
+    {
+      _lock.lock();
+    }
+
+    boolean tryLock()
+    {
+      return _lock.tryLock();
+    }
+
+    void unlock()
+    {
+      _lock.unlock();
+    }
+
+    boolean isEmpty()
+    {
+      LogBuffer buffer = _buffer;
+
+      return buffer == null || buffer.getLength() == 0;
+    }
+
+    /**
+     * Appends the entry, queueing the buffer when it fills.
+     *
+     * @return true if the writer should be woken
+     */
+    boolean write(byte []data, int offset, int length)
+    {
+      LogBuffer buffer = _buffer;
+      boolean isWake = buffer == null;
+
+      if (buffer == null) {
+        buffer = _buffer = allocateStripeBuffer();
+      }
+
+      int bufferLength = buffer.getLength();
+      byte []bufferData = buffer.getBuffer();
+
+      if (bufferData.length < bufferLength + length) {
+        _buffer = null;
+        _logWriterTask.offer(buffer);
+
+        buffer = _buffer = allocateStripeBuffer();
+        bufferLength = 0;
+        bufferData = buffer.getBuffer();
+        isWake = true;
+
+        if (bufferData.length < length) {
+          // an entry larger than the stripe buffer is queued by itself
+          LogBuffer entry = new LogBuffer(length);
+          System.arraycopy(data, offset, entry.getBuffer(), 0, length);
+          entry.setLength(length);
+
+          _logWriterTask.offer(entry);
+
+          return true;
+        }
+      }
+
+      isWake |= bufferLength == 0;
+
+      System.arraycopy(data, offset, bufferData, bufferLength, length);
+      buffer.setLength(bufferLength + length);
+
+      return isWake;
+    }
+
+    LogBuffer remove()
+    {
+      LogBuffer buffer = _buffer;
+
+      if (buffer != null && buffer.getLength() > 0) {
+        _buffer = null;
+        return buffer;
+      }
+      else {
+        return null;
+      }
+    }
+  }
+
   class LogWriterTask extends AbstractWorkerQueue<LogBuffer> {
     private final String _threadName;
     
@@ -260,6 +499,11 @@ public class AccessLogWriter extends AbstractRolloverLog
     @Override
     public void onProcessComplete()
     {
+      if (sweepStripes()) {
+        // retry the busy stripes
+        wake();
+      }
+
       try {
         flushStream();
       } catch (IOException e) {
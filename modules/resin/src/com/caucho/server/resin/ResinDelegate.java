@@ -55,6 +55,7 @@ import com.caucho.env.shutdown.ShutdownSystem;
 import com.caucho.env.warning.WarningService;
 import com.caucho.license.LicenseCheck;
 import com.caucho.license.LicenseStore;
+import com.caucho.network.listen.SocketPollService;
 import com.caucho.server.admin.Management;
 import com.caucho.server.admin.StatSystem;
 import com.caucho.server.cluster.ClusterPod;
@@ -373,6 +374,9 @@ public class ResinDelegate
     BlockManagerSubSystem.createAndAddService();
 
     if (! getResin().isWatchdog()) {
+      if (SocketPollService.getCurrent() == null)
+        SocketPollService.createAndAddService();
+
       createDistCacheService();
       
       ShutdownSystem.getCurrent().addMemoryFreeTask(new BlockManagerMemoryFreeTask());
@@ -107,6 +107,15 @@ public class ThreadPoolAdmin extends AbstractManagedObject
     return _threadPool.getPriorityIdleMin();
   }
 
+  /**
+   * True if tasks run on virtual threads.
+   */
+  @Override
+  public boolean isThreadVirtualEnable()
+  {
+    return _threadPool.isVirtualThreadEnable();
+  }
+
   //
   // statistics
   //
@@ -127,6 +136,14 @@ public class ThreadPoolAdmin extends AbstractManagedObject
     return _threadPool.getThreadActiveCount();
   }
 
+  /**
+   * Returns the current number of tasks running on virtual threads.
+   */
+  public int getThreadVirtualActiveCount()
+  {
+    return _threadPool.getThreadVirtualActiveCount();
+  }
+
   /**
    * Returns the current number of starting threads.
    */
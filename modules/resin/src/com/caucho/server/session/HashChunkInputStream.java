@@ -58,12 +58,22 @@ public class HashChunkInputStream extends InputStream
     _buffer = _tBuf.getBuffer();
   }
   
+  /**
+   * Returns the CRC value of the chunks read so far.
+   */
+  public long getDigest()
+  {
+    return _crc.getValue();
+  }
+
   @Override
   public int read()
     throws IOException
   {
-    if (_length < _offset && ! fillBuffer()) {
-      return -1;
+    while (_length <= _offset) {
+      if (! fillBuffer()) {
+        return -1;
+      }
     }
 
     return _buffer[_offset++] & 0xff;
@@ -73,6 +73,12 @@ public class HessianSessionDeserializer extends SessionDeserializer {
     return _in.readInt();
   }
 
+  public long readLong()
+    throws IOException
+  {
+    return _in.readLong();
+  }
+
   public Object readObject()
     throws IOException
   {
@@ -81,6 +81,13 @@ public class HessianSessionSerializer extends SessionSerializer {
     _out.writeInt(v);
   }
 
+  @Override
+  public void writeLong(long v)
+    throws IOException
+  {
+    _out.writeLong(v);
+  }
+
   @Override
   public void writeObject(Object v)
     throws IOException
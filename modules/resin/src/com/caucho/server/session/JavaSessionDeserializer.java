@@ -58,6 +58,12 @@ public class JavaSessionDeserializer extends SessionDeserializer {
     return _in.readInt();
   }
 
+  public long readLong()
+    throws IOException
+  {
+    return _in.readLong();
+  }
+
   public Object readObject()
     throws IOException, ClassNotFoundException
   {
@@ -64,6 +64,13 @@ public class JavaSessionSerializer extends SessionSerializer {
     _out.writeInt(v);
   }
 
+  @Override
+  public void writeLong(long v)
+    throws IOException
+  {
+    _out.writeLong(v);
+  }
+
   public void writeObject(Object v)
     throws IOException
   {
@@ -38,6 +38,9 @@ abstract public class SessionDeserializer {
   abstract public int readInt()
     throws IOException;
 
+  abstract public long readLong()
+    throws IOException;
+
   abstract public Object readObject()
     throws IOException, ClassNotFoundException;
 
@@ -36,9 +36,13 @@ import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.Map;
 import java.util.Set;
-import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -73,6 +77,11 @@ public class SessionImpl implements HttpSession, CacheListener {
     = Logger.getLogger(SessionImpl.class.getName());
   private static final L10N L = new L10N(SessionImpl.class);
 
+  // saved size marking an index of separately stored attributes
+  private static final int DELTA_SIZE = -1;
+  // separates the session id and attribute name in an attribute's key
+  private static final char ATTRIBUTE_SEPARATOR = '\u0000';
+
   // the session's identifier
   @Json(name = "SessionId")
   private String _id;
@@ -82,10 +91,20 @@ public class SessionImpl implements HttpSession, CacheListener {
   protected SessionManager _manager;
   // the session objectStore
 
-  // Map containing the actual values.
+  // Map containing the actual values.  Reads are lock-free; store()
+  // writes a snapshot of the entries.
   @Transient
   protected Map<String,Object> _values;
 
+  // attributes changed since the last delta save
+  @Transient
+  private final Set<String> _dirtyNames
+    = Collections.newSetFromMap(new ConcurrentHashMap<String,Boolean>());
+  // hash of each attribute as last saved or loaded for delta serialization
+  @Transient
+  private final ConcurrentSkipListMap<String,SavedAttribute> _savedMap
+    = new ConcurrentSkipListMap<String,SavedAttribute>();
+
   // time the session was created
   @Json(name = "CreationTime")
   private long _creationTime;
@@ -105,7 +124,7 @@ public class SessionImpl implements HttpSession, CacheListener {
   private boolean _isNew = true;
   // true if the application has modified the data
   @Transient
-  private boolean _isModified;
+  private volatile boolean _isModified;
   // true if the session is still valid, i.e. not invalidated
   @Json(name = "Valid")
   private boolean _isValid = true;
@@ -159,7 +178,8 @@ public class SessionImpl implements HttpSession, CacheListener {
    */
   protected Map<String,Object> createValueMap()
   {
-    return new TreeMap<String,Object>();
+    // sorted like the previous TreeMap, so the stored order is stable
+    return new ConcurrentSkipListMap<String,Object>();
   }
 
   /**
@@ -352,17 +372,16 @@ public class SessionImpl implements HttpSession, CacheListener {
       throw new IllegalStateException(L.l("{0}: can't call getAttribute() when session is no longer valid.",
                                           this));
 
-    synchronized (_values) {
-      Object value = _values.get(name);
-
-      return value;
-    }
+    return _values.get(name);
   }
 
   void setModified()
   {
-    if (_values.size() > 0)
+    if (_values.size() > 0) {
+      _dirtyNames.addAll(_values.keySet());
+
       _isModified = true;
+    }
   }
 
   /**
@@ -388,14 +407,13 @@ public class SessionImpl implements HttpSession, CacheListener {
                    this, name, value.getClass().getName()));
     }
 
-    synchronized (_values) {
-      if (value != null)
-        oldValue = _values.put(name, value);
-      else
-        oldValue = _values.remove(name);
-    }
+    if (value != null)
+      oldValue = _values.put(name, value);
+    else
+      oldValue = _values.remove(name);
 
     // server/017p
+    _dirtyNames.add(name);
     _isModified = true;
 
     if (oldValue instanceof HttpSessionBindingListener) {
@@ -448,14 +466,12 @@ public class SessionImpl implements HttpSession, CacheListener {
     if (! _isValid)
       throw new IllegalStateException(L.l("{0}: can't call removeAttribute(String) when session is no longer valid.", this));
 
-    Object oldValue;
+    Object oldValue = _values.remove(name);
 
-    synchronized (_values) {
-      oldValue = _values.remove(name);
-    }
-
-    if (oldValue != null)
+    if (oldValue != null) {
+      _dirtyNames.add(name);
       _isModified = true;
+    }
 
     notifyValueUnbound(name, oldValue);
   }
@@ -467,12 +483,10 @@ public class SessionImpl implements HttpSession, CacheListener {
    */
   public Enumeration getAttributeNames()
   {
-    synchronized (_values) {
-      if (! _isValid)
-        throw new IllegalStateException(L.l("{0} can't call getAttributeNames() when session is no longer valid.", this));
+    if (! _isValid)
+      throw new IllegalStateException(L.l("{0} can't call getAttributeNames() when session is no longer valid.", this));
 
-      return Collections.enumeration(_values.keySet());
-    }
+    return Collections.enumeration(_values.keySet());
   }
 
   /**
@@ -504,22 +518,15 @@ public class SessionImpl implements HttpSession, CacheListener {
    */
   public String []getValueNames()
   {
-    synchronized (_values) {
-      if (! _isValid)
-        throw new IllegalStateException(L.l("{0} can't call getValueNames() when session is no longer valid.", this));
-
-      if (_values == null)
-        return new String[0];
+    if (! _isValid)
+      throw new IllegalStateException(L.l("{0} can't call getValueNames() when session is no longer valid.", this));
 
-      String []s = new String[_values.size()];
+    if (_values == null)
+      return new String[0];
 
-      Enumeration e = getAttributeNames();
-      int count = 0;
-      while (e.hasMoreElements())
-        s[count++] = (String) e.nextElement();
+    ArrayList<String> names = new ArrayList<String>(_values.keySet());
 
-      return s;
-    }
+    return names.toArray(new String[names.size()]);
   }
 
   //
@@ -714,6 +721,7 @@ public class SessionImpl implements HttpSession, CacheListener {
         }
 
         entry.updateAccessTime();
+        updateAttributeAccessTime();
 
         _isModified = false;
 
@@ -783,41 +791,54 @@ public class SessionImpl implements HttpSession, CacheListener {
     String id = null;
     
     synchronized (this) {
-      synchronized (_values) {
-        // server/017u
-        _values.clear();
-        // unbind();
+      try {
+        id = (String) in.readObject();
+        int size = in.readInt();
 
-        try {
-          id = (String) in.readObject();
-          int size = in.readInt();
+        // System.out.println("LOAD: " + size + " " + this + " " + _clusterObject + System.identityHashCode(this));
 
-          // System.out.println("LOAD: " + size + " " + this + " " + _clusterObject + System.identityHashCode(this));
+        HashMap<String,Object> values;
+
+        if (size == DELTA_SIZE) {
+          values = loadDelta(in);
+        }
+        else {
+          values = new HashMap<String,Object>();
 
           for (int i = 0; i < size; i++) {
             String key = (String) in.readObject();
             Object value = in.readObject();
 
-            if (value != null) {
-              _values.put(key, value);
+            if (value != null)
+              values.put(key, value);
+          }
 
-              if (value instanceof HttpSessionActivationListener) {
-                HttpSessionActivationListener listener
-                  = (HttpSessionActivationListener) value;
+          // the next delta save writes all the attributes
+          _savedMap.clear();
+        }
 
-                if (event == null)
-                  event = new HttpSessionEvent(this);
+        // server/017u
+        _values.clear();
+        _values.putAll(values);
+        _dirtyNames.clear();
+        // unbind();
+
+        for (Object value : values.values()) {
+          if (value instanceof HttpSessionActivationListener) {
+            HttpSessionActivationListener listener
+              = (HttpSessionActivationListener) value;
+
+            if (event == null)
+              event = new HttpSessionEvent(this);
 
-                if (listeners == null)
-                  listeners = new ArrayList<HttpSessionActivationListener>();
+            if (listeners == null)
+              listeners = new ArrayList<HttpSessionActivationListener>();
 
-                listeners.add(listener);
-              }
-            }
+            listeners.add(listener);
           }
-        } catch (Exception e) {
-          throw IOExceptionWrapper.create(e);
         }
+      } catch (Exception e) {
+        throw IOExceptionWrapper.create(e);
       }
     }
 
@@ -850,6 +871,97 @@ public class SessionImpl implements HttpSession, CacheListener {
     }
   }
 
+  /**
+   * Reads a delta index and reassembles the attributes.  Attributes whose
+   * hash matches the local copy are reused, and only the changed ones are
+   * loaded from their own cache entries.
+   */
+  private HashMap<String,Object> loadDelta(SessionDeserializer in)
+    throws IOException, ClassNotFoundException
+  {
+    ByteStreamCache cache = _manager.getCache();
+
+    HashMap<String,Object> values = new HashMap<String,Object>();
+    HashMap<String,SavedAttribute> savedMap
+      = new HashMap<String,SavedAttribute>();
+
+    int count = in.readInt();
+
+    for (int i = 0; i < count; i++) {
+      String name = (String) in.readObject();
+      long hash = in.readLong();
+
+      SavedAttribute saved = _savedMap.get(name);
+      Object value = _values.get(name);
+
+      if (value == null || saved == null || saved.getHash() != hash) {
+        saved = loadAttribute(cache, name, hash, values);
+      }
+      else {
+        values.put(name, value);
+      }
+
+      if (saved != null)
+        savedMap.put(name, saved);
+    }
+
+    _savedMap.clear();
+    _savedMap.putAll(savedMap);
+
+    return values;
+  }
+
+  /**
+   * Loads a single attribute from its cache entry.
+   */
+  private SavedAttribute loadAttribute(ByteStreamCache cache,
+                                       String name,
+                                       long hash,
+                                       HashMap<String,Object> values)
+    throws IOException, ClassNotFoundException
+  {
+    String key = getAttributeKey(name);
+    TempOutputStream os = new TempOutputStream();
+
+    if (! cache.get(key, os)) {
+      if (log.isLoggable(Level.FINE))
+        log.fine(this + " session attribute '" + name + "' is missing");
+
+      os.close();
+
+      return null;
+    }
+
+    int length = os.getLength();
+    InputStream is = os.getInputStream();
+    HashChunkInputStream crcIs = new HashChunkInputStream(is);
+
+    SessionDeserializer in = _manager.createSessionDeserializer(crcIs);
+
+    Object value = in.readObject();
+
+    while (crcIs.read() >= 0) {
+    }
+
+    long digest = crcIs.getDigest();
+
+    in.close();
+    crcIs.close();
+    is.close();
+
+    // a concurrent save may have replaced the attribute after the index
+    // was read.  The newer value is kept with its own hash.
+    if (digest != hash && log.isLoggable(Level.FINE)) {
+      log.fine(this + " session attribute '" + name + "' changed hash="
+               + Long.toHexString(hash) + " loaded=" + Long.toHexString(digest));
+    }
+
+    if (value != null)
+      values.put(name, value);
+
+    return new SavedAttribute(digest, length, cache.peekExtCacheEntry(key));
+  }
+
   /**
    * Clears the session when reading a bad saved session.
    */
@@ -923,6 +1035,11 @@ public class SessionImpl implements HttpSession, CacheListener {
 
       _isModified = false;
 
+      if (_manager.isSerializationDelta()) {
+        saveDelta();
+        return;
+      }
+
       TempOutputStream os = new TempOutputStream();
       HashChunkOutputStream crcOs = new HashChunkOutputStream(os);
       
@@ -960,6 +1077,169 @@ public class SessionImpl implements HttpSession, CacheListener {
     }
   }
 
+  /**
+   * Saves the changed attributes, each to its own cache entry, followed
+   * by the session's index of attribute names and hashes.  Attributes
+   * which serialize to the same hash as their saved copy are not sent.
+   */
+  private void saveDelta()
+    throws IOException
+  {
+    ByteStreamCache cache = _manager.getCache();
+
+    ArrayList<Map.Entry<String,Object>> entries
+      = new ArrayList<Map.Entry<String,Object>>(_values.entrySet());
+
+    if (entries.size() > 0)
+      notifyWillPassivate(entries);
+
+    // #5170
+    long lastAccessTime = _accessTime;
+    long lastModifiedTime = lastAccessTime;
+
+    synchronized (this) {
+      HashSet<String> names = new HashSet<String>();
+
+      Iterator<String> iter = _dirtyNames.iterator();
+      while (iter.hasNext()) {
+        names.add(iter.next());
+        iter.remove();
+      }
+
+      boolean isAll = _manager.getAlwaysSaveSession();
+
+      for (String name : _values.keySet()) {
+        if (isAll || ! _savedMap.containsKey(name))
+          names.add(name);
+      }
+
+      for (String name : _savedMap.keySet()) {
+        if (! _values.containsKey(name))
+          names.add(name);
+      }
+
+      boolean ignoreNonSerializable
+        = getManager().getIgnoreSerializationErrors();
+
+      long writeLength = 0;
+
+      for (String name : names) {
+        Object value = _values.get(name);
+        String key = getAttributeKey(name);
+
+        if (value == null
+            || ignoreNonSerializable && ! (value instanceof Serializable)) {
+          if (_savedMap.remove(name) != null)
+            cache.remove(key);
+
+          continue;
+        }
+
+        TempOutputStream os = new TempOutputStream();
+        HashChunkOutputStream crcOs = new HashChunkOutputStream(os);
+
+        SessionSerializer out = _manager.createSessionSerializer(crcOs);
+
+        try {
+          out.writeObject(value);
+        } catch (NotSerializableException e) {
+          log.warning(L.l("{0}: failed storing persistent session attribute '{1}'.  Persistent session values must extend java.io.Serializable.\n{2}",
+                          this, name, String.valueOf(e)));
+          throw e;
+        }
+
+        out.close();
+        crcOs.close();
+
+        long hash = crcOs.getDigest();
+        int length = os.getLength();
+
+        SavedAttribute saved = _savedMap.get(name);
+
+        if (saved != null && saved.getHash() == hash) {
+          os.close();
+          continue;
+        }
+
+        ExtCacheEntry<?,?> entry = cache.put(key, os.getInputStream(),
+                                             _idleTimeout,
+                                             -1,
+                                             lastAccessTime,
+                                             lastModifiedTime);
+
+        os.close();
+
+        _savedMap.put(name, new SavedAttribute(hash, length, entry));
+
+        writeLength += length;
+      }
+
+      // unchanged attributes stay alive as long as the session
+      updateAttributeAccessTime();
+
+      TempOutputStream os = new TempOutputStream();
+      HashChunkOutputStream crcOs = new HashChunkOutputStream(os);
+
+      SessionSerializer out = _manager.createSessionSerializer(crcOs);
+
+      ArrayList<Map.Entry<String,SavedAttribute>> savedList
+        = new ArrayList<Map.Entry<String,SavedAttribute>>(_savedMap.entrySet());
+
+      out.writeObject(getId());
+      out.writeInt(DELTA_SIZE);
+      out.writeInt(savedList.size());
+
+      int totalLength = 0;
+
+      for (Map.Entry<String,SavedAttribute> savedEntry : savedList) {
+        out.writeObject(savedEntry.getKey());
+        out.writeLong(savedEntry.getValue().getHash());
+
+        totalLength += savedEntry.getValue().getLength();
+      }
+
+      out.close();
+      crcOs.close();
+
+      int length = os.getLength();
+
+      _manager.addSessionSaveSample(writeLength + length);
+
+      _lastSaveLength = totalLength + length;
+
+      _cacheEntry = cache.put(_id, os.getInputStream(),
+                              _idleTimeout,
+                              -1,
+                              lastAccessTime,
+                              lastModifiedTime);
+
+      os.close();
+    }
+
+    if (log.isLoggable(Level.FINE)) {
+      log.fine(this + " session delta save valueHash="
+               + (_cacheEntry != null ? Long.toHexString(_cacheEntry.getValueHash()) : null));
+    }
+  }
+
+  /**
+   * Updates the access time of the separately saved attributes.
+   */
+  private void updateAttributeAccessTime()
+  {
+    for (SavedAttribute saved : _savedMap.values()) {
+      ExtCacheEntry<?,?> entry = saved.getEntry();
+
+      if (entry != null)
+        entry.updateAccessTime();
+    }
+  }
+
+  private String getAttributeKey(String name)
+  {
+    return _id + ATTRIBUTE_SEPARATOR + name;
+  }
+
   /**
    * Store on shutdown.
    */
@@ -1004,84 +1284,81 @@ public class SessionImpl implements HttpSession, CacheListener {
   public void store(SessionSerializer out)
     throws IOException
   {
-    Set<Map.Entry<String,Object>> set = null;
-
-    HttpSessionEvent event = null;
-    ArrayList<HttpSessionActivationListener> listeners;
-    
     out.writeObject(getId());
 
-    synchronized (_values) {
-      set = _values.entrySet();
+    // the snapshot keeps the written size and entries consistent
+    // while requests continue to update the session
+    ArrayList<Map.Entry<String,Object>> entries
+      = new ArrayList<Map.Entry<String,Object>>(_values.entrySet());
 
-      int size = set == null ? 0 : set.size();
+    int size = entries.size();
 
-      if (size == 0) {
-        out.writeInt(0);
-        return;
-      }
-
-      listeners = _manager.getActivationListeners();
+    if (size == 0) {
+      out.writeInt(0);
+      return;
+    }
 
-      if (listeners != null && listeners.size() > 0) {
-        if (event == null)
-          event = new HttpSessionEvent(this);
+    notifyWillPassivate(entries);
 
-        for (int i = 0; i < listeners.size(); i++) {
-          HttpSessionActivationListener listener = listeners.get(i);
+    synchronized (this) {
+      out.writeInt(size);
 
-          listener.sessionWillPassivate(event);
-        }
-      }
+      boolean ignoreNonSerializable
+        = getManager().getIgnoreSerializationErrors();
 
-      for (Map.Entry entry : set) {
+      for (Map.Entry<String,Object> entry : entries) {
         Object value = entry.getValue();
 
-        if (value instanceof HttpSessionActivationListener) {
-          HttpSessionActivationListener listener
-            = (HttpSessionActivationListener) value;
+        out.writeObject(entry.getKey());
 
-          if (event == null)
-            event = new HttpSessionEvent(this);
+        if (ignoreNonSerializable && ! (value instanceof Serializable)) {
+          out.writeObject(null);
+          continue;
+        }
 
-          listener.sessionWillPassivate(event);
+        try {
+          out.writeObject(value);
+        } catch (NotSerializableException e) {
+          log.warning(L.l("{0}: failed storing persistent session attribute '{1}'.  Persistent session values must extend java.io.Serializable.\n{2}",
+                          this, entry.getKey(), String.valueOf(e)));
+          throw e;
         }
       }
     }
+  }
 
-    synchronized (this) {
-      synchronized (_values) {
-        set = _values.entrySet();
+  /**
+   * Notifies the activation listeners before the values are saved.
+   */
+  private void notifyWillPassivate(ArrayList<Map.Entry<String,Object>> entries)
+  {
+    HttpSessionEvent event = null;
+    ArrayList<HttpSessionActivationListener> listeners;
 
-        int size = set == null ? 0 : set.size();
+    listeners = _manager.getActivationListeners();
 
-        out.writeInt(size);
+    if (listeners != null && listeners.size() > 0) {
+      if (event == null)
+        event = new HttpSessionEvent(this);
 
-        if (size == 0) {
-          return;
-        }
+      for (int i = 0; i < listeners.size(); i++) {
+        HttpSessionActivationListener listener = listeners.get(i);
 
-        boolean ignoreNonSerializable
-          = getManager().getIgnoreSerializationErrors();
+        listener.sessionWillPassivate(event);
+      }
+    }
 
-        for (Map.Entry entry : set) {
-          Object value = entry.getValue();
+    for (Map.Entry<String,Object> entry : entries) {
+      Object value = entry.getValue();
 
-          out.writeObject(entry.getKey());
+      if (value instanceof HttpSessionActivationListener) {
+        HttpSessionActivationListener listener
+          = (HttpSessionActivationListener) value;
 
-          if (ignoreNonSerializable && ! (value instanceof Serializable)) {
-            out.writeObject(null);
-            continue;
-          }
+        if (event == null)
+          event = new HttpSessionEvent(this);
 
-          try {
-            out.writeObject(value);
-          } catch (NotSerializableException e) {
-            log.warning(L.l("{0}: failed storing persistent session attribute '{1}'.  Persistent session values must extend java.io.Serializable.\n{2}",
-                            this, entry.getKey(), String.valueOf(e)));
-            throw e;
-          }
-        }
+        listener.sessionWillPassivate(event);
       }
     }
   }
@@ -1295,6 +1572,12 @@ public class SessionImpl implements HttpSession, CacheListener {
 
         if (isRemove) {
           _manager.getSessionStore().remove(_id);
+
+          for (String name : _savedMap.keySet()) {
+            _manager.getSessionStore().remove(getAttributeKey(name));
+          }
+
+          _savedMap.clear();
         }
       }
     } catch (Exception e) {
@@ -1331,18 +1614,20 @@ public class SessionImpl implements HttpSession, CacheListener {
     ArrayList<String> names = new ArrayList<String>();
     ArrayList<Object> values = new ArrayList<Object>();
 
-    synchronized (_values) {
-      /*
-      if (_useCount > 0)
-        Thread.dumpStack();
-      */
+    /*
+    if (_useCount > 0)
+      Thread.dumpStack();
+    */
 
-      for (Map.Entry<String,Object> entry : _values.entrySet()) {
-        names.add(entry.getKey());
-        values.add(entry.getValue());
-      }
+    Iterator<Map.Entry<String,Object>> iter = _values.entrySet().iterator();
 
-      _values.clear();
+    while (iter.hasNext()) {
+      Map.Entry<String,Object> entry = iter.next();
+
+      names.add(entry.getKey());
+      values.add(entry.getValue());
+
+      iter.remove();
     }
 
     // server/015a
@@ -1403,6 +1688,37 @@ public class SessionImpl implements HttpSession, CacheListener {
     return getClass().getSimpleName() + "[" + getId() + contextPath + "]";
   }
 
+  /**
+   * The hash and cache entry of a separately saved attribute.
+   */
+  static final class SavedAttribute {
+    private final long _hash;
+    private final int _length;
+    private final ExtCacheEntry<?,?> _entry;
+
+    SavedAttribute(long hash, int length, ExtCacheEntry<?,?> entry)
+    {
+      _hash = hash;
+      _length = length;
+      _entry = entry;
+    }
+
+    long getHash()
+    {
+      return _hash;
+    }
+
+    int getLength()
+    {
+      return _length;
+    }
+
+    ExtCacheEntry<?,?> getEntry()
+    {
+      return _entry;
+    }
+  }
+
   enum Logout {
     INVALIDATE,
     LRU,
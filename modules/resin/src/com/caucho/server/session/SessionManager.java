@@ -79,6 +79,7 @@ import com.caucho.util.AlarmListener;
 import com.caucho.util.Crc64;
 import com.caucho.util.CurrentTime;
 import com.caucho.util.L10N;
+import com.caucho.util.ClockCache;
 import com.caucho.util.LruCache;
 import com.caucho.util.RandomUtil;
 import com.caucho.util.WeakAlarm;
@@ -120,10 +121,8 @@ public final class SessionManager implements SessionCookieConfig, AlarmListener
 
   private CacheImpl _sessionStore;
 
-  // active sessions
-  private LruCache<String,SessionImpl> _sessions;
-  // iterator to purge sessions (to reduce gc)
-  private Iterator<SessionImpl> _sessionIter;
+  // active sessions, striped so concurrent requests don't share a lock
+  private ClockCache<String,SessionImpl> _sessions;
   // array list for session timeout
   private ArrayList<SessionImpl> _sessionList = new ArrayList<SessionImpl>();
   // generate cookies
@@ -183,6 +182,8 @@ public final class SessionManager implements SessionCookieConfig, AlarmListener
   private boolean _isHessianSerialization = false;
   private SerializerFactory _hessianFactory;
   private boolean _isSerializeCollectionType = true;
+  // true if only the changed attributes are saved
+  private boolean _isSerializationDelta = false;
 
   // List of the HttpSessionListeners from the configuration file
   private ArrayList<HttpSessionListener> _listeners;
@@ -554,6 +555,23 @@ public final class SessionManager implements SessionCookieConfig, AlarmListener
     _isSerializeCollectionType = isEnable;
   }
 
+  /**
+   * True if each attribute is saved as its own cache entry, so a save
+   * only serializes and sends the attributes which changed.
+   */
+  public void setSerializationDelta(boolean isDelta)
+  {
+    _isSerializationDelta = isDelta;
+  }
+
+  /**
+   * Returns true for per-attribute delta serialization.
+   */
+  public boolean isSerializationDelta()
+  {
+    return _isSerializationDelta;
+  }
+
   /**
    * Returns true for Hessian serialization.
    */
@@ -1155,8 +1173,7 @@ public final class SessionManager implements SessionCookieConfig, AlarmListener
         && (_alwaysSaveSession == SET_TRUE
             || _alwaysLoadSession == SET_TRUE))
       throw new ConfigException(L.l("save-mode='on-shutdown' cannot be used with <always-save-session/> or <always-load-session/>"));
-    _sessions = new LruCache<String,SessionImpl>(_sessionMax);
-    _sessionIter = _sessions.values();
+    _sessions = new ClockCache<String,SessionImpl>(_sessionMax);
 
     if (_isPersistenceEnabled) {
       AbstractCache cacheBuilder = new ClusterCache();
@@ -1586,7 +1603,7 @@ public final class SessionManager implements SessionCookieConfig, AlarmListener
 
   public SessionImpl getSession(String key)
   {
-    LruCache<String, SessionImpl> sessions = _sessions;
+    ClockCache<String, SessionImpl> sessions = _sessions;
     
     if (sessions != null) {
       return sessions.get(key);
@@ -1822,13 +1839,11 @@ public final class SessionManager implements SessionCookieConfig, AlarmListener
   {
     ArrayList<String> sessionIds = new ArrayList<String>();
     
-    synchronized (_sessions) {
-      Iterator<LruCache.Entry<String, SessionImpl>> sessionsIterator
-        = _sessions.iterator();
+    Iterator<LruCache.Entry<String, SessionImpl>> sessionsIterator
+      = _sessions.iterator();
 
-      while (sessionsIterator.hasNext()) {
-        sessionIds.add(sessionsIterator.next().getKey());
-      }
+    while (sessionsIterator.hasNext()) {
+      sessionIds.add(sessionsIterator.next().getKey());
     }
 
     String []ids= new String[sessionIds.size()];
@@ -1840,17 +1855,14 @@ public final class SessionManager implements SessionCookieConfig, AlarmListener
   
   public String getSessionsAsJsonString() {
 
-    List<SessionImpl> sessionList;
-    synchronized (_sessions) {
-
-      sessionList = new ArrayList<SessionImpl>(_sessions.size());
+    List<SessionImpl> sessionList
+      = new ArrayList<SessionImpl>(_sessions.size());
 
-      Iterator<LruCache.Entry<String, SessionImpl>> sessionsIterator
-        = _sessions.iterator();
+    Iterator<LruCache.Entry<String, SessionImpl>> sessionsIterator
+      = _sessions.iterator();
 
-      while (sessionsIterator.hasNext()) {
-        sessionList.add(sessionsIterator.next().getValue());
-      }
+    while (sessionsIterator.hasNext()) {
+      sessionList.add(sessionsIterator.next().getValue());
     }
 
     SessionImpl []sessions = new SessionImpl[sessionList.size()];
@@ -1911,16 +1923,15 @@ public final class SessionManager implements SessionCookieConfig, AlarmListener
 
       long now = CurrentTime.getCurrentTime();
 
-      synchronized (_sessions) {
-        _sessionIter = _sessions.values(_sessionIter);
-        while (_sessionIter.hasNext()) {
-          SessionImpl session = _sessionIter.next();
+      Iterator<SessionImpl> iter = _sessions.values();
 
-          if (session.isTimeout(now))
-            _sessionList.add(session);
-          else
-            liveSessions++;
-        }
+      while (iter.hasNext()) {
+        SessionImpl session = iter.next();
+
+        if (session.isTimeout(now))
+          _sessionList.add(session);
+        else
+          liveSessions++;
       }
 
       _sessionTimeoutCount += _sessionList.size();
@@ -1965,19 +1976,18 @@ public final class SessionManager implements SessionCookieConfig, AlarmListener
     ArrayList<SessionImpl> list = new ArrayList<SessionImpl>();
 
     // XXX: messy way of dealing with saveOnlyOnShutdown
-    synchronized (_sessions) {
-      _sessionIter = _sessions.values(_sessionIter);
-      while (_sessionIter.hasNext()) {
-        SessionImpl session = _sessionIter.next();
+    Iterator<SessionImpl> iter = _sessions.values();
 
-        if (session.isValid())
-          list.add(session);
-      }
+    while (iter.hasNext()) {
+      SessionImpl session = iter.next();
 
-      // XXX: if cleared here, will remove the session
-      // _sessions.clear();
+      if (session.isValid())
+        list.add(session);
     }
 
+    // XXX: if cleared here, will remove the session
+    // _sessions.clear();
+
     boolean isError = false;
     for (int i = list.size() - 1; i >= 0; i--) {
       SessionImpl session = list.get(i);
@@ -38,6 +38,9 @@ abstract public class SessionSerializer {
   abstract public void writeInt(int v)
     throws IOException;
 
+  abstract public void writeLong(long v)
+    throws IOException;
+
   abstract public void writeObject(Object v)
     throws IOException;
 
@@ -2644,6 +2644,11 @@ public class WebApp extends ServletContextImpl
   {
     _server.addSendfileCount();
   }
+
+  public void addTransferTo(long length)
+  {
+    _server.addTransferTo(length);
+  }
   
   /**
    * Returns the minimum length for a caching sendfile
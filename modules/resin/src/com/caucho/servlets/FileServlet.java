@@ -34,6 +34,7 @@ import java.io.IOException;
 import java.io.OutputStream;
 import java.io.PrintWriter;
 import java.net.URL;
+import java.util.ArrayList;
 import java.util.Locale;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -58,9 +59,9 @@ import com.caucho.server.util.CauchoSystem;
 import com.caucho.server.webapp.WebApp;
 import com.caucho.util.Base64;
 import com.caucho.util.CharBuffer;
+import com.caucho.util.ClockCache;
 import com.caucho.util.Crc64;
 import com.caucho.util.L10N;
-import com.caucho.util.LruCache;
 import com.caucho.util.QDate;
 import com.caucho.util.RandomUtil;
 import com.caucho.vfs.CaseInsensitive;
@@ -78,13 +79,13 @@ public class FileServlet extends GenericServlet {
   private static final Logger log
     = Logger.getLogger(FileServlet.class.getName());
 
-  private static final EnvironmentLocal<LruCache<String,Cache>> _pathCacheLocal
-    = new EnvironmentLocal<LruCache<String,Cache>>();
+  private static final EnvironmentLocal<ClockCache<String,Cache>> _pathCacheLocal
+    = new EnvironmentLocal<ClockCache<String,Cache>>();
 
-  private final LruCache<String,Cache> _pathCache;
+  private final ClockCache<String,Cache> _pathCache;
 
-  private final LruCache<String,Cache> _localCache
-    = new LruCache<String,Cache>(16 * 1024);
+  private final ClockCache<String,Cache> _localCache
+    = new ClockCache<String,Cache>(16 * 1024);
 
   private Path _context;
   private WebApp _app;
@@ -99,11 +100,11 @@ public class FileServlet extends GenericServlet {
   {
     ResinSystem resin = ResinSystem.getCurrent();
 
-    LruCache<String,Cache> pathCache;
+    ClockCache<String,Cache> pathCache;
 
     pathCache = _pathCacheLocal.get(resin.getClassLoader());
     if (pathCache == null) {
-      pathCache = new LruCache<String,Cache>(256 * 1024);
+      pathCache = new ClockCache<String,Cache>(256 * 1024);
       _pathCacheLocal.set(pathCache, resin.getClassLoader());
     }
 
@@ -529,15 +530,15 @@ public class FileServlet extends GenericServlet {
 
     int head = 0;
     boolean isFirstChunk = true;
-    String boundary = null;
     int off = range.indexOf("bytes=", head);
-    ServletOutputStream os = null;
 
     if (off < 0)
       return false;
 
     off += 6;
 
+    ArrayList<long[]> ranges = new ArrayList<long[]>();
+
     while (off > 0 && off < length) {
       boolean hasFirst = false;
       long first = 0;
@@ -599,15 +600,6 @@ public class FileServlet extends GenericServlet {
         // XXX: actually, an error
         break;
       }
-      res.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
-      StringBuilder cb = new StringBuilder();
-      cb.append("bytes ");
-      cb.append(first);
-      cb.append('-');
-      cb.append(last);
-      cb.append('/');
-      cb.append(cacheLength);
-      String chunkRange = cb.toString();
 
       bytesWritten += last - first + 1;
       if (bytesMax <= bytesWritten) {
@@ -626,84 +618,145 @@ public class FileServlet extends GenericServlet {
 
       }
 
-      if (hasMore) {
-        if (isFirstChunk) {
-          StringBuilder cb1 = new StringBuilder();
-
-          cb1.append("--");
-          Base64.encode(cb1, RandomUtil.getRandomLong());
-          boundary = cb1.toString();
+      isFirstChunk = false;
 
-          res.setContentType("multipart/byteranges; boundary=" + boundary);
-          os = res.getOutputStream();
-        }
-        else {
-          os.write('\r');
-          os.write('\n');
-        }
+      ranges.add(new long[] { first, last });
 
-        isFirstChunk = false;
-
-        os.write('-');
-        os.write('-');
-        os.print(boundary);
-        os.print("\r\nContent-Type: ");
-        os.print(mime);
-        os.print("\r\nContent-Range: ");
-        os.print(chunkRange);
-        os.write('\r');
-        os.write('\n');
-        os.write('\r');
-        os.write('\n');
+      for (off--; off < length && range.charAt(off) != ','; off++) {
       }
-      else {
-        if (res instanceof CauchoResponse) {
-          CauchoResponse cRes = (CauchoResponse) res;
 
-          cRes.setContentLength((last - first + 1));
-        }
-        else {
-          res.setContentLength((int) (last - first + 1));
-        }
+      off++;
+    }
 
-        res.addHeader("Content-Range", chunkRange);
-      }
+    if (ranges.size() == 0)
+      return false;
 
-      ReadStream is = null;
-      try {
-        is = cache.getPath().openRead();
-        is.skip(first);
+    res.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
 
-        os = res.getOutputStream();
-        is.writeToStream(os, (int) (last - first + 1));
-      } finally {
-        if (is != null)
-          is.close();
-      }
+    if (! hasMore) {
+      long []firstRange = ranges.get(0);
+      long first = firstRange[0];
+      long last = firstRange[1];
 
-      for (off--; off < length && range.charAt(off) != ','; off++) {
-      }
+      setContentLength(res, last - first + 1);
 
-      off++;
+      res.addHeader("Content-Range", getContentRange(first, last, cacheLength));
+
+      sendRange(res, cache, first, last - first + 1);
+
+      return true;
     }
 
-    if (hasMore) {
-      os = res.getOutputStream();
+    StringBuilder cb1 = new StringBuilder();
+
+    cb1.append("--");
+    Base64.encode(cb1, RandomUtil.getRandomLong());
+    String boundary = cb1.toString();
+
+    // the part headers are built first, so the multipart response has a
+    // content-length and can send the ranges without chunking
+    String []partHeaders = new String[ranges.size()];
+    long contentLength = 0;
+
+    for (int i = 0; i < ranges.size(); i++) {
+      long []partRange = ranges.get(i);
+
+      StringBuilder sb = new StringBuilder();
+
+      if (i > 0)
+        sb.append("\r\n");
+
+      sb.append("--");
+      sb.append(boundary);
+      sb.append("\r\nContent-Type: ");
+      sb.append(mime);
+      sb.append("\r\nContent-Range: ");
+      sb.append(getContentRange(partRange[0], partRange[1], cacheLength));
+      sb.append("\r\n\r\n");
+
+      partHeaders[i] = sb.toString();
+
+      contentLength += partHeaders[i].length();
+      contentLength += partRange[1] - partRange[0] + 1;
+    }
+
+    String tail = "\r\n--" + boundary + "--\r\n";
+    contentLength += tail.length();
+
+    res.setContentType("multipart/byteranges; boundary=" + boundary);
+    setContentLength(res, contentLength);
+
+    ServletOutputStream os = res.getOutputStream();
 
-      os.write('\r');
-      os.write('\n');
-      os.write('-');
-      os.write('-');
-      os.print(boundary);
-      os.write('-');
-      os.write('-');
-      os.write('\r');
-      os.write('\n');
+    for (int i = 0; i < ranges.size(); i++) {
+      long []partRange = ranges.get(i);
+
+      os.print(partHeaders[i]);
+
+      sendRange(res, cache, partRange[0], partRange[1] - partRange[0] + 1);
     }
 
+    os.print(tail);
+
     return true;
   }
 
+  private static String getContentRange(long first, long last, long length)
+  {
+    StringBuilder cb = new StringBuilder();
+    cb.append("bytes ");
+    cb.append(first);
+    cb.append('-');
+    cb.append(last);
+    cb.append('/');
+    cb.append(length);
+
+    return cb.toString();
+  }
+
+  private static void setContentLength(HttpServletResponse res, long length)
+  {
+    if (res instanceof CauchoResponse) {
+      CauchoResponse cRes = (CauchoResponse) res;
+
+      cRes.setContentLength(length);
+    }
+    else if (length <= Integer.MAX_VALUE) {
+      res.setContentLength((int) length);
+    }
+  }
+
+  /**
+   * Writes a range of the file.  Resin responses use the response
+   * stream's sendFile, which can write the range without copying.
+   */
+  private void sendRange(HttpServletResponse res,
+                         Cache cache,
+                         long first,
+                         long length)
+    throws IOException
+  {
+    if (res instanceof CauchoResponse) {
+      CauchoResponse cRes = (CauchoResponse) res;
+
+      cRes.getResponseStream().sendFile(cache.getPath(), first, length);
+
+      return;
+    }
+
+    ReadStream is = null;
+    try {
+      is = cache.getPath().openRead();
+      is.skip(first);
+
+      OutputStream os = res.getOutputStream();
+      is.writeToStream(os, (int) length);
+    } finally {
+      if (is != null)
+        is.close();
+    }
+  }
+
   static class Cache {
     private Path _path;
     private Path _jarPath;
@@ -278,24 +278,20 @@ public class QSocketChannelWrapper extends QSocket {
   
   public void resetTotalBytes()
   {
-    /*
     if (_streamImpl != null)
       _streamImpl.resetTotalBytes();
-      */
   }
 
   @Override
   public long getTotalReadBytes()
   {
-    // return (_streamImpl == null) ? 0 : _streamImpl.getTotalReadBytes();
-    return 0;
+    return (_streamImpl == null) ? 0 : _streamImpl.getTotalReadBytes();
   }
 
   @Override
   public long getTotalWriteBytes()
   {
-    // return (_streamImpl == null) ? 0 : _streamImpl.getTotalWriteBytes();
-    return 0;
+    return (_streamImpl == null) ? 0 : _streamImpl.getTotalWriteBytes();
   }
 
   /**
@@ -49,6 +49,9 @@ import java.io.IOException;
 public interface WebSocketServletRequest {
   /**
    * Upgrade the current HTTP connection to a WebSocket connection
+   *
+   * @throws IOException if the connection can't be upgraded, like an
+   * HTTP/2 stream
    */
   public WebSocketContext startWebSocket(WebSocketListener listener)
     throws IOException;
@@ -0,0 +1,156 @@
+/*
+ * Copyright (c) 1998-2012 Caucho Technology -- all rights reserved
+ *
+ * This file is part of Resin(R) Open Source
+ *
+ * Each copy or derived work must preserve the copyright notice and this
+ * notice unmodified.
+ *
+ * Resin Open Source is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * Resin Open Source is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE, or any warranty
+ * of NON-INFRINGEMENT.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Resin Open Source; if not, write to the
+ *
+ *   Free Software Foundation, Inc.
+ *   59 Temple Place, Suite 330
+ *   Boston, MA 02111-1307  USA
+ *
+ * @author Scott Ferguson
+ */
+
+package com.caucho.db.index;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+import com.caucho.vfs.Path;
+import com.caucho.vfs.Vfs;
+
+/**
+ * Checks BTree lookups under concurrent insert and remove.
+ *
+ * Each thread owns a disjoint key range. It inserts every key, removes
+ * every third key, and checks its own lookups while the other threads
+ * split and join the shared blocks.
+ */
+public class BTreeStressTest {
+  private static final int KEY_SIZE = 8;
+  private static final int KEYS_PER_THREAD = 20000;
+
+  @Test
+  public void concurrentInsertRemove()
+    throws Exception
+  {
+    for (int threads : new int[] { 1, 4, 8 }) {
+      runStress(threads);
+    }
+  }
+
+  private void runStress(final int threadCount)
+    throws Exception
+  {
+    File dir = File.createTempFile("btree-stress", "");
+    dir.delete();
+    dir.mkdirs();
+
+    Path path = Vfs.lookup(dir.getAbsolutePath());
+
+    try {
+      runStress(BTree.createTest(path, KEY_SIZE), threadCount);
+    } finally {
+      path.removeAll();
+    }
+  }
+
+  private void runStress(final BTree tree, final int threadCount)
+    throws Exception
+  {
+
+    final AtomicLong errors = new AtomicLong();
+    Thread []threads = new Thread[threadCount];
+
+    for (int t = 0; t < threadCount; t++) {
+      final int id = t;
+
+      threads[t] = new Thread("btree-stress-" + t) {
+        @Override
+        public void run()
+        {
+          try {
+            byte []key = new byte[KEY_SIZE];
+
+            for (int i = 0; i < KEYS_PER_THREAD; i++) {
+              long value = toValue(i, id, threadCount);
+              writeKey(key, value);
+
+              tree.insert(key, 0, KEY_SIZE, value, false);
+
+              if (tree.lookup(key, 0, KEY_SIZE) != value)
+                errors.incrementAndGet();
+
+              if (i % 3 == 0) {
+                tree.remove(key, 0, KEY_SIZE);
+
+                if (tree.lookup(key, 0, KEY_SIZE) != 0)
+                  errors.incrementAndGet();
+              }
+            }
+          } catch (Exception e) {
+            e.printStackTrace();
+            errors.incrementAndGet();
+          }
+        }
+      };
+
+      threads[t].start();
+    }
+
+    for (Thread thread : threads) {
+      thread.join();
+    }
+
+    assertEquals("concurrent lookup errors", 0, errors.get());
+
+    byte []key = new byte[KEY_SIZE];
+    long missing = 0;
+
+    for (int t = 0; t < threadCount; t++) {
+      for (int i = 0; i < KEYS_PER_THREAD; i++) {
+        long value = toValue(i, t, threadCount);
+        writeKey(key, value);
+
+        long expect = (i % 3 == 0) ? 0 : value;
+
+        if (tree.lookup(key, 0, KEY_SIZE) != expect)
+          missing++;
+      }
+    }
+
+    assertEquals("final lookup mismatches", 0, missing);
+  }
+
+  private static long toValue(int i, int thread, int threadCount)
+  {
+    return (long) i * threadCount + thread + 1;
+  }
+
+  private static void writeKey(byte []key, long value)
+  {
+    for (int j = 0; j < KEY_SIZE; j++) {
+      key[j] = (byte) (value >> (8 * (KEY_SIZE - 1 - j)));
+    }
+  }
+}